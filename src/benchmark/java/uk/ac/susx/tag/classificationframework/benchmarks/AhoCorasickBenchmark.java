@@ -0,0 +1,58 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.AhoCorasickMatcher;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of AhoCorasickMatcher.parse(), over the tokens of tweets, with a range of
+ * numbers of 2-3 word phrases. (KnuthMorrisPrattBenchmark compares the KMP matcher's modes.)
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AhoCorasickBenchmark {
+
+    private static final int TWEETS = 1000;
+
+    @Param({"10", "1000", "100000"})
+    public int phrases;
+
+    private AhoCorasickMatcher<String> matcher;
+    private List<List<String>> tweets;
+
+    @Setup
+    public void setup() {
+        AhoCorasickMatcher.Builder<String> builder = AhoCorasickMatcher.builder();
+        for (ImmutableList<String> phrase : BenchmarkCorpus.phrases(phrases, 1)) builder.addPattern(phrase);
+        matcher = builder.build();
+        tweets = BenchmarkCorpus.tokenisedTweets(TWEETS, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void parse(Blackhole blackhole) {
+        for (List<String> tweet : tweets) blackhole.consume(matcher.parse(tweet));
+    }
+}
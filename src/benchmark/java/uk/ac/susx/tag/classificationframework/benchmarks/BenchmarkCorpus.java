@@ -0,0 +1,176 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Labelled tweets for the benchmarks.
+ *
+ * By default the tweets are synthetic: drawn (with a fixed seed) from a Zipfian vocabulary of pseudo-words, with
+ * the mentions, hashtags, links, emoticons, retweets and punctuation of real tweets. Their labels are correlated
+ * with a few sentiment words, so that a classifier trained on them has something to learn.
+ *
+ * To benchmark with real tweets, set the system property "benchmark.corpus" to a UTF-8 file of one tweet per line,
+ * optionally preceded by its label and a tab (e.g. -Djmh.args="-jvmArgsAppend -Dbenchmark.corpus=tweets.tsv").
+ * Unlabelled tweets are given synthetic labels as above.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class BenchmarkCorpus {
+
+    public static final String CORPUS_PROPERTY = "benchmark.corpus";
+
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final String[] POSITIVE = {"love", "great", "happy", "awesome", "best", "amazing"};
+    private static final String[] NEGATIVE = {"hate", "awful", "sad", "worst", "terrible", "angry"};
+    private static final String[] EMOTICONS = {":)", ":(", ":D", ";)", ":-/", "<3", "xD"};
+    private static final String[] PUNCTUATION = {"!", "?", "...", ",", ".", "!!!"};
+
+    private static final String[] words = vocabulary(new Random(0));
+    private static final double[] cumulativeZipf = cumulativeZipf();
+
+    /**
+     * *n* tweets: the first *n* of the corpus file if there is one (repeated if it's shorter), else synthetic.
+     */
+    public static List<Instance> tweets(int n) {
+        String corpus = System.getProperty(CORPUS_PROPERTY);
+        return corpus == null ? syntheticTweets(n, 0) : fileTweets(new File(corpus), n);
+    }
+
+    public static List<Instance> syntheticTweets(int n, long seed) {
+        Random random = new Random(seed);
+        List<Instance> tweets = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            boolean positive = random.nextBoolean();
+            tweets.add(new Instance(positive ? "positive" : "negative", syntheticTweet(random, positive), Integer.toString(i)));
+        }
+        return tweets;
+    }
+
+    /**
+     * The whitespace separated tokens of *n* synthetic tweets, e.g. as contexts for ngram counting.
+     */
+    public static List<List<String>> tokenisedTweets(int n, long seed) {
+        List<List<String>> tokenised = new ArrayList<>(n);
+        for (Instance tweet : syntheticTweets(n, seed)) {
+            List<String> tokens = new ArrayList<>();
+            for (String token : tweet.text.split(" ")) tokens.add(token.toLowerCase());
+            tokenised.add(tokens);
+        }
+        return tokenised;
+    }
+
+    /**
+     * *n* phrases of 2-3 words drawn from the Zipfian vocabulary, so many of them occur in the tweets.
+     */
+    public static List<ImmutableList<String>> phrases(int n, long seed) {
+        Random random = new Random(seed);
+        List<ImmutableList<String>> phrases = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ImmutableList.Builder<String> phrase = ImmutableList.builder();
+            int length = 2 + random.nextInt(2);
+            for (int w = 0; w < length; w++) phrase.add(word(random));
+            phrases.add(phrase.build());
+        }
+        return phrases;
+    }
+
+    /**
+     * The most frequent word of the synthetic tweets.
+     */
+    public static String commonestWord() { return words[0]; }
+
+    /**
+     * A word drawn from the Zipfian vocabulary.
+     */
+    public static String word(Random random) {
+        int index = Arrays.binarySearch(cumulativeZipf, random.nextDouble());
+        return words[Math.min(VOCABULARY_SIZE - 1, index < 0 ? -index - 1 : index)];
+    }
+
+    private static String syntheticTweet(Random random, boolean positive) {
+        StringBuilder tweet = new StringBuilder();
+        if (random.nextDouble() < 0.2) tweet.append("RT @").append(word(random)).append("_").append(random.nextInt(100)).append(": ");
+        int length = 6 + random.nextInt(20);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) tweet.append(' ');
+            double r = random.nextDouble();
+            if (r < 0.05) tweet.append('@').append(word(random));
+            else if (r < 0.10) tweet.append('#').append(word(random));
+            else if (r < 0.13) tweet.append("http://t.co/").append(Integer.toString(random.nextInt(Integer.MAX_VALUE), 36));
+            else if (r < 0.16) tweet.append(EMOTICONS[random.nextInt(EMOTICONS.length)]);
+            else if (r < 0.24) {
+                // Mostly sentiment words of the tweet's own label
+                String[] sentiment = random.nextDouble() < 0.8 == positive ? POSITIVE : NEGATIVE;
+                tweet.append(sentiment[random.nextInt(sentiment.length)]);
+            }
+            else {
+                String word = word(random);
+                tweet.append(random.nextDouble() < 0.1 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            }
+            if (random.nextDouble() < 0.08) tweet.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+        }
+        return tweet.toString();
+    }
+
+    private static List<Instance> fileTweets(File file, int n) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lines.removeIf(String::isEmpty);
+        if (lines.isEmpty()) throw new IllegalArgumentException("No tweets in corpus file: " + file);
+        Random random = new Random(0);
+        List<Instance> tweets = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String line = lines.get(i % lines.size());
+            int tab = line.indexOf('\t');
+            String label = tab >= 0 ? line.substring(0, tab) : (random.nextBoolean() ? "positive" : "negative");
+            tweets.add(new Instance(label, tab >= 0 ? line.substring(tab + 1) : line, Integer.toString(i)));
+        }
+        return tweets;
+    }
+
+    /**
+     * Pronounceable pseudo-words of 2-10 letters, shorter ones being more frequent (as with real words).
+     */
+    private static String[] vocabulary(Random random) {
+        String consonants = "bcdfghjklmnprstvwyz";
+        String vowels = "aeiou";
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            int syllables = 1 + Math.min(4, (int)(Math.log(i + 2) / Math.log(10)) + random.nextInt(2));
+            StringBuilder word = new StringBuilder();
+            for (int s = 0; s < syllables; s++) {
+                word.append(consonants.charAt(random.nextInt(consonants.length())));
+                word.append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            vocabulary[i] = word.toString();
+        }
+        return vocabulary;
+    }
+
+    private static double[] cumulativeZipf() {
+        double[] cumulative = new double[VOCABULARY_SIZE];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) cumulative[i] /= total;
+        return cumulative;
+    }
+}
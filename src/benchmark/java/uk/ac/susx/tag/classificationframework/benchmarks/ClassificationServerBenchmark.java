@@ -0,0 +1,163 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelRegistry;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelState;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+import uk.ac.susx.tag.classificationframework.serving.ClassificationServer;
+import uk.ac.susx.tag.classificationframework.serving.ClassificationService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Latency of single-document classify requests to an embedded ClassificationServer, with CLIENTS clients sending
+ * requests back to back, at a range of maximum micro-batch sizes. A maxBatchSize of 1 processes each request on
+ * its own, for comparison with micro-batching. The model is trained on the unigrams of TRAINING tweets.
+ *
+ * Sample time mode gives the percentiles of request latency, and its operation count the throughput. The mean
+ * size of the micro-batches that the requests were coalesced into is printed at the end of each trial.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(ClassificationServerBenchmark.CLIENTS)
+@Fork(1)
+public class ClassificationServerBenchmark {
+
+    static final int CLIENTS = 32;
+    private static final int TRAINING = 5000;
+    private static final int TWEETS = 1000;
+    private static final String MODEL = "model";
+    private static final Gson gson = new Gson();
+
+    @Param({"1", "64"})
+    public int maxBatchSize;
+
+    @Param({"5"})
+    public long maxDelayMillis;
+
+    private File modelDirectory;
+    private ModelRegistry registry;
+    private ClassificationServer server;
+    private URL classify;
+    private String[] requests;
+
+    private final AtomicInteger numClients = new AtomicInteger();
+
+    /**
+     * Each client's position in the requests. Clients start at different positions, so that concurrent
+     * requests are for different documents.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        int next;
+
+        @Setup
+        public void setup(ClassificationServerBenchmark benchmark) {
+            next = benchmark.numClients.getAndIncrement() * (TWEETS / CLIENTS) % TWEETS;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        // The JDK keeps at most this many idle connections per host
+        System.setProperty("http.maxConnections", Integer.toString(CLIENTS));
+        List<Instance> tweets = BenchmarkCorpus.tweets(TRAINING + TWEETS);
+        modelDirectory = Files.createTempDirectory("classification-server-benchmark").toFile();
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true))) {
+            List<Instance> training = tweets.subList(0, TRAINING);
+            NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+            classifier.train(pipeline.extractFeaturesInBatches(training, 1000));
+            new ModelState(classifier, training, pipeline).save(modelDirectory);
+        }
+        requests = new String[TWEETS];
+        for (int i = 0; i < TWEETS; i++) {
+            Instance tweet = tweets.get(TRAINING + i);
+            requests[i] = gson.toJson(new Instance("", tweet.text, tweet.id));
+        }
+
+        ClassificationService.Options options = new ClassificationService.Options();
+        options.maxBatchSize = maxBatchSize;
+        options.maxDelayMillis = maxDelayMillis;
+        registry = new ModelRegistry(Runtime.getRuntime().maxMemory() / 2);
+        registry.register(MODEL, modelDirectory);
+        server = new ClassificationServer(URI.create("http://localhost:0/"), registry, options);
+        classify = new URL("http://localhost:" + server.getPort() + "/models/" + MODEL + "/classify");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println("\nbatching: " + gson.toJson(server.getService().stats(MODEL)));
+        server.close();
+        registry.close();
+        try (Stream<Path> files = Files.walk(modelDirectory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public String classify(Client client) throws IOException {
+        String request = requests[client.next];
+        client.next = (client.next + 1) % requests.length;
+        return post(classify, request);
+    }
+
+    private static String post(URL url, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        // Read the whole response, so that the connection can be re-used
+        try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while (in != null && (read = in.read(buffer)) != -1) response.write(buffer, 0, read);
+            if (status >= 400) throw new IOException("Request failed (" + status + "): " + response.toString("UTF-8"));
+            return response.toString("UTF-8");
+        }
+    }
+}
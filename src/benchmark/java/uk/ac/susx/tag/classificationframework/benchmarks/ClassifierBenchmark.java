@@ -0,0 +1,70 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.classifiers.Classifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierPreComputed;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of predict() by NaiveBayesClassifier and NaiveBayesClassifierPreComputed, with
+ * a model trained on the unigrams and bigrams of TRAINING tweets, predicting other tweets.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+
+    private static final int TRAINING = 5000;
+    private static final int TWEETS = 1000;
+
+    @Param({"nb", "nbPreComputed"})
+    public String classifierType;
+
+    private Classifier classifier;
+    private List<ProcessedInstance> tweets;
+
+    @Setup
+    public void setup() throws Exception {
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true)
+                .add("bigrams", true))) {
+            List<ProcessedInstance> processed = pipeline.extractFeaturesInBatches(BenchmarkCorpus.tweets(TRAINING + TWEETS), 1000);
+            NaiveBayesClassifier nb = new NaiveBayesClassifier();
+            nb.train(processed.subList(0, TRAINING));
+            classifier = classifierType.equals("nb") ? nb : new NaiveBayesClassifierPreComputed(nb);
+            tweets = processed.subList(TRAINING, TRAINING + TWEETS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void predict(Blackhole blackhole) {
+        for (ProcessedInstance tweet : tweets) blackhole.consume(classifier.predict(tweet.features));
+    }
+}
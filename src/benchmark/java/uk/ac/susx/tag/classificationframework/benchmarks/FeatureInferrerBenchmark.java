@@ -0,0 +1,94 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.PhraseMatcher;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerBigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerCustomNgrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerFirstNameGender;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerPhraseNgrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerTrigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrerUnigrams;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of each FeatureInferrer's addInferredFeatures(), on tweets tokenised beforehand.
+ *
+ * FeatureInferrerDependencyNGrams isn't included, since it needs dependency parsed tweets (and so the parser's
+ * models). The phrase ngrams are of phrases found by a PhraseMatcher beforehand.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureInferrerBenchmark {
+
+    private static final int TWEETS = 1000;
+    private static final int PHRASES = 1000;
+
+    @Param({"unigrams", "bigrams", "trigrams", "customNgrams", "phraseNgrams", "firstNameGender"})
+    public String inferrer;
+
+    private FeatureInferrer featureInferrer;
+    private List<Document> documents;
+
+    @Setup
+    public void setup() {
+        TokeniserTwitterBasic tokeniser = new TokeniserTwitterBasic();
+        documents = new ArrayList<>(TWEETS);
+        for (Instance tweet : BenchmarkCorpus.tweets(TWEETS)) documents.add(tokeniser.tokenise(tweet));
+
+        List<ImmutableList<String>> phrases = BenchmarkCorpus.phrases(PHRASES, 1);
+        switch (inferrer) {
+            case "unigrams": featureInferrer = new FeatureInferrerUnigrams(); break;
+            case "bigrams": featureInferrer = new FeatureInferrerBigrams(); break;
+            case "trigrams": featureInferrer = new FeatureInferrerTrigrams(); break;
+            case "customNgrams":
+                Set<String> ngrams = new HashSet<>();
+                for (ImmutableList<String> phrase : phrases) ngrams.add(String.join(" ", phrase));
+                featureInferrer = new FeatureInferrerCustomNgrams(ngrams);
+                break;
+            case "phraseNgrams":
+                PhraseMatcher matcher = new PhraseMatcher(phrases, true, false, false);
+                for (int i = 0; i < documents.size(); i++) documents.set(i, matcher.process(documents.get(i)));
+                featureInferrer = new FeatureInferrerPhraseNgrams(true);
+                break;
+            case "firstNameGender": featureInferrer = new FeatureInferrerFirstNameGender(); break;
+            default: throw new IllegalArgumentException("Unknown inferrer: " + inferrer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void addInferredFeatures(Blackhole blackhole) {
+        for (Document document : documents) {
+            blackhole.consume(featureInferrer.addInferredFeatures(document, new ArrayList<>()));
+        }
+    }
+}
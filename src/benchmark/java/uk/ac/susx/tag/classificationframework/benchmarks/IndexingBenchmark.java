@@ -0,0 +1,101 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.StringIndexer;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of feature indexing:
+ *
+ *  - StringIndexer.getIndex() per string, of strings already indexed, and of building a vocabulary from scratch.
+ *  - FeatureExtractionPipeline.indexFeatures() per tweet, of the unigram and bigram features of tweets (all already indexed).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexingBenchmark {
+
+    private static final int TWEETS = 1000;
+    private static final int STRINGS = 10000;
+
+    private FeatureExtractionPipeline pipeline;
+    private List<List<FeatureInferrer.Feature>> featuresPerTweet;
+    private List<String> strings;
+    private StringIndexer indexer;
+
+    @Setup
+    public void setup() throws Exception {
+        pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true)
+                .add("bigrams", true));
+        featuresPerTweet = new ArrayList<>(TWEETS);
+        for (Instance tweet : BenchmarkCorpus.tweets(TWEETS)) {
+            List<FeatureInferrer.Feature> features = pipeline.extractUnindexedFeatures(tweet);
+            pipeline.indexFeatures(features);
+            featuresPerTweet.add(features);
+        }
+
+        strings = new ArrayList<>(STRINGS);
+        for (List<FeatureInferrer.Feature> features : featuresPerTweet) {
+            for (FeatureInferrer.Feature feature : features) {
+                if (strings.size() < STRINGS) strings.add(feature.value());
+            }
+        }
+        indexer = new StringIndexer();
+        for (String string : strings) indexer.getIndex(string);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STRINGS)
+    public int getIndexOfIndexedString() {
+        int sum = 0;
+        for (String string : strings) sum += indexer.getIndex(string);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STRINGS)
+    public StringIndexer getIndexBuildingVocabulary() {
+        StringIndexer vocabulary = new StringIndexer();
+        for (String string : strings) vocabulary.getIndex(string);
+        return vocabulary;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void indexFeatures(Blackhole blackhole) {
+        for (List<FeatureInferrer.Feature> features : featuresPerTweet) blackhole.consume(pipeline.indexFeatures(features));
+    }
+}
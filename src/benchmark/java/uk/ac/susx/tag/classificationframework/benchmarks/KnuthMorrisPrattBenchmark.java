@@ -0,0 +1,64 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.knuthmorrispratt.KnuthMorrisPrattMatcher;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of KnuthMorrisPrattMatcher.getMatches(), over the tokens of tweets, with a range
+ * of numbers of 2-3 word phrases, in its per-pattern mode and its shared Aho-Corasick automaton mode.
+ *
+ * The per-pattern mode advances every pattern's state for every token, so its time grows linearly with the number
+ * of patterns, while the shared automaton's stays roughly flat.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KnuthMorrisPrattBenchmark {
+
+    private static final int TWEETS = 1000;
+
+    @Param({"1", "8", "32", "256"})
+    public int phrases;
+
+    @Param({"false", "true"})
+    public boolean sharedAutomaton;
+
+    private KnuthMorrisPrattMatcher<String> matcher;
+    private List<List<String>> tweets;
+
+    @Setup
+    public void setup() {
+        matcher = new KnuthMorrisPrattMatcher<>(sharedAutomaton);
+        for (ImmutableList<String> phrase : BenchmarkCorpus.phrases(phrases, 1)) matcher.addPattern(phrase);
+        tweets = BenchmarkCorpus.tokenisedTweets(TWEETS, 0);
+        matcher.getMatches(tweets.get(0)); // Build the shared automaton outside the measurement
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void getMatches(Blackhole blackhole) {
+        for (List<String> tweet : tweets) blackhole.consume(matcher.getMatches(tweet));
+    }
+}
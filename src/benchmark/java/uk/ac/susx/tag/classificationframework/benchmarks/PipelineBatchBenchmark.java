@@ -0,0 +1,80 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of FeatureExtractionPipeline.extractFeaturesInBatches(), at a range of batch
+ * sizes and thread pool sizes, with a pipeline of the basic tokeniser, unigrams and bigrams.
+ *
+ * With -prof gc, the allocation is of all threads (gc.alloc.rate.norm), divided by the tweets processed.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBatchBenchmark {
+
+    private static final int TWEETS = 2000;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private FeatureExtractionPipeline pipeline;
+    private ExecutorService threadPool;
+    private List<Instance> tweets;
+
+    @Setup
+    public void setup() throws Exception {
+        pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true)
+                .add("bigrams", true));
+        threadPool = Executors.newFixedThreadPool(threads);
+        pipeline.setThreadPool(threadPool);
+        tweets = BenchmarkCorpus.tweets(TWEETS);
+        // Index the vocabulary, so that every invocation does the same work
+        pipeline.extractFeaturesInBatches(tweets, 1000);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.close();
+        threadPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public List<ProcessedInstance> extractFeaturesInBatches() {
+        return pipeline.extractFeaturesInBatches(tweets, batchSize);
+    }
+}
@@ -0,0 +1,50 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per tweet of RootedNgramCounter.addContext(), counting the ngrams around the commonest
+ * word of the tweets. Each invocation counts all the tweets into a new counter, as a phrase-finding run would.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RootedNgramCounterBenchmark {
+
+    private static final int TWEETS = 1000;
+
+    private List<List<String>> tweets;
+
+    @Setup
+    public void setup() {
+        tweets = BenchmarkCorpus.tokenisedTweets(TWEETS, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public RootedNgramCounter<String> addContext() {
+        RootedNgramCounter<String> counter = new RootedNgramCounter<>(BenchmarkCorpus.commonestWord());
+        for (List<String> tweet : tweets) counter.addContext(tweet, 1);
+        return counter;
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.susx.tag.classificationframework.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.TokeniserTwitterBasic;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time (and allocation, with -prof gc) per tweet of TokeniserTwitterBasic.tokenise().
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokeniserBenchmark {
+
+    private static final int TWEETS = 1000;
+
+    @Param({"true", "false"})
+    public boolean normaliseURL;
+
+    private TokeniserTwitterBasic tokeniser;
+    private List<Instance> tweets;
+
+    @Setup
+    public void setup() {
+        tokeniser = new TokeniserTwitterBasic(true, normaliseURL);
+        tweets = BenchmarkCorpus.tweets(TWEETS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void tokenise(Blackhole blackhole) {
+        for (Instance tweet : tweets) blackhole.consume(tokeniser.tokenise(tweet));
+    }
+}
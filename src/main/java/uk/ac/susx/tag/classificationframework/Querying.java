@@ -23,6 +23,7 @@ package uk.ac.susx.tag.classificationframework;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import it.unimi.dsi.fastutil.ints.*;
+import uk.ac.susx.tag.classificationframework.datastructures.CorpusMatrix;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
 import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
 import uk.ac.susx.tag.classificationframework.exceptions.QueryingException;
@@ -374,6 +375,113 @@ public class Querying {
         return selectTopKCorrelated(perLabelInfoGain, documents, labelledFeatures, K, correlationThreshold, labelledFeatureData);
     }
 
+    /**
+     * As queryFeatures(Collection, ...) but over a CorpusMatrix, where the document frequencies
+     * and probabilistic joint counts are accumulated in arrays over blocks of rows in parallel,
+     * and the information gain of each feature is computed per array index.
+     *
+     * LabelledFeatureData is not supported here, since its document index requires ProcessedInstances.
+     */
+    public static Int2ObjectMap<IntList> queryFeatures(CorpusMatrix documents,
+                                                       Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures,
+                                                       int K,
+                                                       double correlationThreshold,
+                                                       IntSet exceptions){
+        for (int row = 0; row < documents.numRows(); row++) {
+            if (documents.label(row) == -1) throw new FeatureExtractionException("Row " + row + " of the CorpusMatrix is unlabelled");
+        }
+        int numDocuments = documents.numRows();
+        int numFeatures = documents.numFeatures();
+        int[] labelIds = documents.labelIds();
+
+        // Obtain counts (non-probabilistic)
+        CorpusMatrix.DocumentFrequencies frequencies = documents.documentFrequencies(exceptions);
+
+        // The labels of the documents, plus any labels of labelled features that don't appear in the data
+        IntArrayList labels = new IntArrayList();
+        IntArrayList columns = new IntArrayList(); // Column of each label in the matrix, or -1
+        for (int c = 0; c < labelIds.length; c++) {
+            if (frequencies.labelFrequencies[c] > 0) { labels.add(labelIds[c]); columns.add(c); }
+        }
+        if (labelledFeatures != null) {
+            for (int label : labelledFeatures.keySet()) {
+                if (!labels.contains(label)) { labels.add(label); columns.add(documents.labelColumn(label)); }
+            }
+        }
+
+        // Per-label information gain (see queryFeatures(Collection, ...))
+        double[][] perLabelInfoGain = new double[labels.size()][];
+        for (int l = 0; l < labels.size(); l++) {
+            int column = columns.getInt(l);
+            int labelCount = column < 0 ? 0 : frequencies.labelFrequencies[column];
+            int[] joint = column < 0 ? new int[numFeatures] : frequencies.jointFrequencies[column];
+            double labelEntropy = entropy((double)labelCount / numDocuments, ((double)numDocuments - labelCount) / numDocuments);
+
+            double[] infoGain = new double[numFeatures];
+            for (int feature = 0; feature < numFeatures; feature++) {
+                int featureCount = frequencies.frequencies[feature];
+                if (featureCount == 0) continue;
+                double pFeature = (double)featureCount / numDocuments;
+                double pNotFeature = ((double)numDocuments - featureCount) / numDocuments;
+
+                double entropyLGivenF = entropy(((double)joint[feature]) / featureCount,
+                                                ((double)featureCount - joint[feature]) / featureCount);
+                double entropyLGivenNotF = entropy(((double)labelCount - joint[feature]) / (numDocuments - featureCount),
+                                                   ((double)(numDocuments - featureCount) - (labelCount - joint[feature])) / (numDocuments - featureCount));
+
+                infoGain[feature] = labelEntropy - (pFeature * entropyLGivenF + pNotFeature * entropyLGivenNotF);
+            }
+            perLabelInfoGain[l] = infoGain;
+        }
+
+        // Probabilistic joint counts, normalised by the total probability of each label
+        CorpusMatrix.LabelledCounts counts = documents.labelledCounts(documents.labelProbabilities(), labelIds.length);
+        double[] labelTotals = documents.labelProbabilityTotals();
+        double[][] normalisedJointCounts = new double[labels.size()][];
+        for (int l = 0; l < labels.size(); l++) {
+            int column = columns.getInt(l);
+            double[] normalised = new double[numFeatures];
+            if (column >= 0 && labelTotals[column] != 0) {
+                for (int feature = 0; feature < numFeatures; feature++)
+                    normalised[feature] = counts.jointCounts[column][feature] / labelTotals[column];
+            }
+            normalisedJointCounts[l] = normalised;
+        }
+
+        // The features which occurred, from which to choose the top K
+        IntArrayList candidateList = new IntArrayList();
+        for (int feature = 0; feature < numFeatures; feature++)
+            if (frequencies.frequencies[feature] > 0) candidateList.add(feature);
+
+        Int2ObjectMap<IntList> correlatedFeatures = new Int2ObjectOpenHashMap<>();
+        for (int l = 0; l < labels.size(); l++) {
+            int label = labels.getInt(l);
+            double[] infoGain = perLabelInfoGain[l];
+
+            // Top K features by information gain
+            int[] candidates = candidateList.toIntArray();
+            IntArrays.quickSort(candidates, new AbstractIntComparator() {
+                public int compare(int a, int b) { return Double.compare(infoGain[b], infoGain[a]); }
+            });
+
+            // From top K, keep only those highly correlated (in frequency) with each label
+            IntList correlated = new IntArrayList();
+            for (int i = 0; i < Math.min(K, candidates.length); i++) {
+                int feature = candidates[i];
+                if (labelledFeatures == null || !labelledFeatures.containsKey(label) || !labelledFeatures.get(label).containsKey(feature)) {
+                    double highestCount = 0;
+                    for (double[] countsPerLabel : normalisedJointCounts) {
+                        if (countsPerLabel[feature] > highestCount) highestCount = countsPerLabel[feature];
+                    }
+                    if (normalisedJointCounts[l][feature] > highestCount * correlationThreshold)
+                        correlated.add(feature);
+                }
+            }
+            correlatedFeatures.put(label, correlated);
+        }
+        return correlatedFeatures;
+    }
+
     private static Int2ObjectMap<IntList> selectTopKCorrelated(Int2ObjectMap<Int2DoubleOpenHashMap> perLabelInfoGain,
                                                                Collection<ProcessedInstance> documents,
                                                                Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures,
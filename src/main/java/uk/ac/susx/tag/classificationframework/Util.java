@@ -31,6 +31,7 @@ import org.apache.commons.io.FileUtils;
 import uk.ac.susx.tag.classificationframework.classifiers.Classifier;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
 import uk.ac.susx.tag.classificationframework.clusters.ClusteredProcessedInstance;
+import uk.ac.susx.tag.classificationframework.datastructures.CorpusMatrix;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
 import uk.ac.susx.tag.classificationframework.datastructures.StringIndexer;
@@ -649,6 +650,21 @@ public class Util {
         return wordProb;
     }
 
+    /**
+     * As calculateWordProbabilities(Iterable), but counting the occurrences (or their weights)
+     * in an array, over blocks of rows in parallel.
+     */
+    public static Int2DoubleOpenHashMap calculateWordProbabilities(CorpusMatrix data) {
+        double[] wordFreq = data.featureTotals();
+        double n = data.totalWeight();
+
+        Int2DoubleOpenHashMap wordProb = new Int2DoubleOpenHashMap();
+        for (int k = 0; k < wordFreq.length; k++) {
+            if (wordFreq[k] != 0) wordProb.put(k, wordFreq[k] / n);
+        }
+        return wordProb;
+    }
+
 /***********************************************
  * String tools
  ***********************************************/
@@ -2,12 +2,12 @@ package uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocor
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import org.ahocorasick.interval.IntervalTree;
-import org.ahocorasick.interval.Intervalable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingDeque;
 
@@ -19,6 +19,12 @@ import java.util.concurrent.LinkedBlockingDeque;
  *
  *  1. Use tokenise() to split a list by pattern
  *  2. Use parse() to obtain a list of each match
+ *  3. Use scan() to write each match as a (start, end, patternId) triple into a reusable
+ *     MatchBuffer. This allocates nothing per match, so it's the one to use in hot paths.
+ *
+ * When overlaps are removed, the longest match wins, and of matches of the same length, the
+ * leftmost wins. Of matches with the same span (patterns which are equal after pre-processing), the
+ * pattern added first wins.
  *
  * Usage example with a PreProcessor that lower-cases everything first:
  *
@@ -43,14 +49,23 @@ public class AhoCorasickMatcher<E> {
     private State<E> rootState;
     private boolean removeOverlaps;
     private PreProcessor<E> preProcessor;
+    private List<ImmutableList<E>> patterns;
+    private Map<ImmutableList<E>, Integer> patternIds;
 
     private AhoCorasickMatcher(PreProcessor<E> preProcessor) {
         this.preProcessor = preProcessor!=null? preProcessor : e->e;
         rootState = new State<>();
         removeOverlaps = true;
+        patterns = new ArrayList<>();
+        patternIds = new HashMap<>();
     }
 
     private void addPattern(ImmutableList<E> pattern) {
+        if (!patternIds.containsKey(pattern)) {
+            patternIds.put(pattern, patterns.size());
+            patterns.add(pattern);
+        }
+
         State<E> currentState = rootState;
 
         for (E e : pattern) {
@@ -65,20 +80,34 @@ public class AhoCorasickMatcher<E> {
         removeOverlaps = remove;
     }
 
+    /**
+     * Get the pattern with a given ID, as found in a MatchBuffer filled by scan().
+     */
+    public ImmutableList<E> getPattern(int patternId) {
+        return patterns.get(patternId);
+    }
+
+    public int numPatterns() {
+        return patterns.size();
+    }
+
     public Collection<Chunk<E>> tokenise(List<E> query) {
 
         Collection<Chunk<E>> chunks = new ArrayList<>();
 
-        Collection<Emit<E>> collectedEmits = parse(query);
+        MatchBuffer matches = new MatchBuffer();
+        scan(query, matches);
 
         int lastPos = -1;
 
-        for (Emit<E> emit : collectedEmits) {
-            if (emit.getStart() - lastPos > 1){
-                chunks.add(new Chunk<>(query.subList(lastPos+1, emit.getStart()), false));
+        for (int i = 0; i < matches.size(); i++) {
+            int start = matches.start(i);
+            int end = matches.end(i);
+            if (start - lastPos > 1){
+                chunks.add(new Chunk<>(query.subList(lastPos+1, start), false));
             }
-            chunks.add(new Chunk<>(query.subList(emit.getStart(), emit.getEnd()+1), true));
-            lastPos = emit.getEnd();
+            chunks.add(new Chunk<>(query.subList(start, end+1), true));
+            lastPos = end;
         }
 
         if (query.size() - lastPos > 1) {
@@ -88,26 +117,43 @@ public class AhoCorasickMatcher<E> {
     }
 
     public List<Emit<E>> parse(List<E> query){
-        EmitHandlerDefault<E> emitHandler = new EmitHandlerDefault<>();
-        parse(query, emitHandler);
-        List<Emit<E>> collectedEmits = emitHandler.getEmits();
+        MatchBuffer matches = new MatchBuffer();
+        scan(query, matches);
 
-        if (removeOverlaps) {
-            IntervalTree intervalTree = new IntervalTree((List<Intervalable>) (List<?>) collectedEmits);
-            intervalTree.removeOverlaps((List<Intervalable>) (List<?>) collectedEmits);
+        List<Emit<E>> collectedEmits = new ArrayList<>(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            collectedEmits.add(new Emit<>(matches.start(i), matches.end(i), patterns.get(matches.patternId(i))));
         }
-
         return collectedEmits;
     }
 
-    private void parse(List<E> query, EmitHandler<E> emitHandler){
+    /**
+     * Find all matches in the query, writing them into the buffer as (start, end, patternId)
+     * triples ordered by start position, then longest first, then by pattern ID. The buffer is cleared first.
+     *
+     * Nothing is allocated per match (the buffer only grows when it runs out of room), so keep
+     * one buffer per thread and pass it to every call.
+     *
+     * @return the number of matches found
+     */
+    public int scan(List<E> query, MatchBuffer buffer){
+        buffer.clear();
         State<E> currentState = rootState;
         for (int position = 0; position < query.size(); position++){
-            E element = query.get(position);
-            element = preProcessor.preProcess(element);
+            E element = preProcessor.preProcess(query.get(position));
             currentState = getState(currentState, element);
-            storeEmits(position, currentState, emitHandler);
+            int[] ids = currentState.emitIds();
+            int[] lengths = currentState.emitLengths();
+            for (int i = 0; i < ids.length; i++){
+                buffer.add(position - lengths[i] + 1, position, ids[i]);
+            }
+        }
+
+        buffer.sortByStartThenLongest();
+        if (removeOverlaps) {
+            buffer.removeOverlaps();
         }
+        return buffer.size();
     }
 
     private State<E> getState(State<E> currentState, E element) {
@@ -119,18 +165,6 @@ public class AhoCorasickMatcher<E> {
         return newCurrentState;
     }
 
-    private boolean storeEmits(int position, State<E> currentState, EmitHandler<E> emitHandler){
-        boolean emitted = false;
-        Collection<ImmutableList<E>> emits = currentState.emit();
-        if (emits != null && !emits.isEmpty()){
-            for (ImmutableList<E> emit : emits){
-                emitHandler.emit(new Emit<>(position - emit.size() + 1, position, emit));
-                emitted = true;
-            }
-        }
-        return emitted;
-    }
-
     private void constructFailureStates(){
         Queue<State<E>> queue = new LinkedBlockingDeque<>();
 
@@ -157,6 +191,17 @@ public class AhoCorasickMatcher<E> {
         }
     }
 
+    private void compileEmits(){
+        Queue<State<E>> queue = new LinkedBlockingDeque<>();
+        queue.add(rootState);
+
+        while(!queue.isEmpty()){
+            State<E> currentState = queue.remove();
+            currentState.compileEmits(patternIds);
+            queue.addAll(currentState.getStates());
+        }
+    }
+
     public static <E> Builder<E> builder(){
         return builder(null);
     }
@@ -185,6 +230,7 @@ public class AhoCorasickMatcher<E> {
 
         public AhoCorasickMatcher<E> build(){
             matcher.constructFailureStates();
+            matcher.compileEmits();
             return matcher;
         }
     }
@@ -0,0 +1,170 @@
+package uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import java.util.Arrays;
+
+/**
+ * Reusable primitive buffer of (start, end, patternId) triples, filled by AhoCorasickMatcher.scan().
+ *
+ * The backing array only grows, so a buffer that is kept around (e.g. one per thread) and
+ * cleared between queries stops allocating once it has reached the size of the largest match set.
+ *
+ * Start and end are inclusive token positions. The pattern ID is the position at which the
+ * pattern was first added to the matcher builder (see AhoCorasickMatcher.getPattern()).
+ *
+ * Instances are not thread-safe.
+ *
+ * Created by Andrew D. Robertson on 18/10/2026.
+ */
+public class MatchBuffer {
+
+    private static final int FIELDS = 3;
+
+    private int[] data;
+    private int size;
+
+    // For sortByStartThenLongest() and removeOverlaps()
+    private int[] order = new int[0];
+    private int[] scratch = new int[0];
+    private boolean[] covered = new boolean[0];
+    private boolean[] kept = new boolean[0];
+    private final IntComparator byStartThenLongest = new AbstractIntComparator() {
+        public int compare(int a, int b) {
+            int c = Integer.compare(start(a), start(b));
+            if (c == 0) c = Integer.compare(end(b), end(a));
+            return c == 0 ? Integer.compare(patternId(a), patternId(b)) : c;
+        }
+    };
+    private final IntComparator byLongestThenStart = new AbstractIntComparator() {
+        public int compare(int a, int b) {
+            int c = Integer.compare(length(b), length(a));
+            return c == 0 ? Integer.compare(a, b) : c; // Indices are in start order once sorted
+        }
+    };
+
+    public MatchBuffer() {
+        this(16);
+    }
+
+    public MatchBuffer(int initialCapacity) {
+        data = new int[Math.max(1, initialCapacity) * FIELDS];
+        size = 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int start(int i) {
+        return data[i * FIELDS];
+    }
+
+    public int end(int i) {
+        return data[i * FIELDS + 1];
+    }
+
+    public int patternId(int i) {
+        return data[i * FIELDS + 2];
+    }
+
+    public int length(int i) {
+        return end(i) - start(i) + 1;
+    }
+
+    public void add(int start, int end, int patternId) {
+        int offset = size * FIELDS;
+        if (offset + FIELDS > data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[offset] = start;
+        data[offset + 1] = end;
+        data[offset + 2] = patternId;
+        size++;
+    }
+
+    /**
+     * Sort matches by start position, longest first where starts are equal, then by pattern ID (so matches of
+     * the same span, i.e. of patterns which are equal after pre-processing, are in order of pattern addition).
+     *
+     * The match indices are quick-sorted (so this is O(n log n) however many patterns match), then the
+     * triples are permuted into place. The index and scratch arrays are kept for re-use, like the data array.
+     */
+    void sortByStartThenLongest() {
+        if (size < 2) return;
+        if (order.length < size) order = new int[data.length / FIELDS];
+        for (int i = 0; i < size; i++) order[i] = i;
+        IntArrays.quickSort(order, 0, size, byStartThenLongest);
+        if (scratch.length < data.length) scratch = new int[data.length];
+        for (int i = 0; i < size; i++)
+            System.arraycopy(data, order[i] * FIELDS, scratch, i * FIELDS, FIELDS);
+        int[] sorted = scratch;
+        scratch = data;
+        data = sorted;
+    }
+
+    /**
+     * Remove overlapping matches from matches sorted by sortByStartThenLongest(), longest match first (as the
+     * IntervalTree of the original aho-corasick library did): matches are taken longest first, then leftmost first,
+     * and a match is kept if it overlaps no match kept already. Of matches with the same span, the first is kept.
+     *
+     * The kept matches stay in sorted order. Like the sort, this re-uses its arrays, so allocates nothing once warm.
+     */
+    void removeOverlaps() {
+        if (size < 2) return;
+        int positions = 0;
+        for (int i = 0; i < size; i++) positions = Math.max(positions, end(i) + 1);
+        if (covered.length < positions) covered = new boolean[Math.max(positions, covered.length * 2)];
+        Arrays.fill(covered, 0, positions, false);
+        if (kept.length < size) kept = new boolean[data.length / FIELDS];
+        if (order.length < size) order = new int[data.length / FIELDS];
+
+        for (int i = 0; i < size; i++) order[i] = i;
+        IntArrays.quickSort(order, 0, size, byLongestThenStart);
+        for (int o = 0; o < size; o++) {
+            int i = order[o];
+            kept[i] = isUncovered(start(i), end(i));
+            if (kept[i]) Arrays.fill(covered, start(i), end(i) + 1, true);
+        }
+
+        int numKept = 0;
+        for (int i = 0; i < size; i++) {
+            if (kept[i]) {
+                if (numKept != i)
+                    copy(i, numKept);
+                numKept++;
+            }
+        }
+        size = numKept;
+    }
+
+    private boolean isUncovered(int start, int end) {
+        for (int position = start; position <= end; position++) {
+            if (covered[position]) return false;
+        }
+        return true;
+    }
+
+    private void copy(int from, int to) {
+        System.arraycopy(data, from * FIELDS, data, to * FIELDS, FIELDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MatchBuffer[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(start(i)).append(':').append(end(i)).append('=').append(patternId(i));
+        }
+        return sb.append(']').toString();
+    }
+}
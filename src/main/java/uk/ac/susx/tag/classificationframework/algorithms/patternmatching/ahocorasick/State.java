@@ -26,6 +26,11 @@ public class State<E> {
 
     private Set<ImmutableList<E>> emits = null;
 
+    private static final int[] NO_EMITS = new int[0];
+
+    private int[] emitIds = NO_EMITS;     // Pattern IDs of emits, filled in by compileEmits()
+    private int[] emitLengths = NO_EMITS; // Lengths of the corresponding patterns
+
     public State() {
         this(0);
     }
@@ -83,6 +88,34 @@ public class State<E> {
         return emits==null? Lists.newArrayList() : emits;
     }
 
+    /**
+     * Convert the emitted patterns to parallel primitive arrays of pattern IDs and lengths,
+     * so that scanning doesn't need to touch (or allocate) any collections.
+     */
+    public void compileEmits(Map<ImmutableList<E>, Integer> patternIds){
+        if (emits == null || emits.isEmpty()){
+            emitIds = NO_EMITS;
+            emitLengths = NO_EMITS;
+        } else {
+            emitIds = new int[emits.size()];
+            emitLengths = new int[emits.size()];
+            int i = 0;
+            for (ImmutableList<E> pattern : emits){
+                emitIds[i] = patternIds.get(pattern);
+                emitLengths[i] = pattern.size();
+                i++;
+            }
+        }
+    }
+
+    public int[] emitIds() {
+        return emitIds;
+    }
+
+    public int[] emitLengths() {
+        return emitLengths;
+    }
+
     public State<E> failure(){
         return failure;
     }
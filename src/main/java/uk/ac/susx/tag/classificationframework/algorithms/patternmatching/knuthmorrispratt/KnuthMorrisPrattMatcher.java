@@ -2,10 +2,14 @@ package uk.ac.susx.tag.classificationframework.algorithms.patternmatching.knuthm
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.AhoCorasickMatcher;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.MatchBuffer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -17,19 +21,53 @@ import java.util.TreeMap;
  *   3. Patterns that are subpatterns of other patterns will produce overlapping matches with their superpatterns.
  *      So you could find separately the matches for ["brown", "dog"] and ["big", "brown", "dog"]
  *
+ * By default every pattern keeps its own KMP state, which is advanced for every element of the query, so the
+ * cost is O(patterns x query length). Construct with sharedAutomaton=true to instead run all patterns through a
+ * single Aho-Corasick automaton (O(query length + matches)). Both modes return the same matches in the same
+ * order: by end position, then largest pattern first, then in order of pattern addition. The shared automaton is
+ * (re)built lazily on the first call to getMatches() after a pattern is added. See KnuthMorrisPrattBenchmark (in
+ * src/benchmark/java): the shared automaton is faster even for a single pattern, and its advantage grows linearly
+ * with the number of patterns.
+ *
  * Created by Andrew D. Robertson on 26/05/2016.
  */
 public class KnuthMorrisPrattMatcher<E> {
 
     private SortedMap<PatternState<E>, PrefixFunction<E>> patternPrefixFunctions;
+    private Set<ImmutableList<E>> patterns;
+
+    private final boolean sharedAutomaton;
+    private AhoCorasickMatcher<E> automaton = null; // Built lazily when sharedAutomaton is true
+    private MatchBuffer automatonMatches = null;
+    // The end of each pattern's last kept match in the current query, valid only where the pattern's stamp is the query's
+    private int[] lastEnd = null;
+    private int[] lastEndStamp = null;
+    private int queryStamp = 0;
 
     public KnuthMorrisPrattMatcher() {
-        patternPrefixFunctions = new TreeMap<>((o1, o2) -> Integer.compare(o2.size(), o1.size())); // Descending order so largest matches first
+        this(false);
+    }
+
+    public KnuthMorrisPrattMatcher(boolean sharedAutomaton) {
+        // Descending order so largest matches first. Ties broken by order of addition, so that patterns of the same size don't replace each other
+        patternPrefixFunctions = new TreeMap<>((o1, o2) -> o1.size() != o2.size() ? Integer.compare(o2.size(), o1.size()) : Integer.compare(o1.id, o2.id));
+        patterns = new HashSet<>();
+        this.sharedAutomaton = sharedAutomaton;
+    }
+
+    public boolean usesSharedAutomaton() {
+        return sharedAutomaton;
     }
 
     public List<Match<E>> getMatches(List<E> query) {
+        if (sharedAutomaton)
+            return getMatchesSharedAutomaton(query);
+
         List<Match<E>> matches = new ArrayList<>();
 
+        for (PatternState<E> p : patternPrefixFunctions.keySet()) {
+            p.resetState(); // Don't carry partial matches over from the previous query
+        }
 
         for (int i = 0; i < query.size(); i++) {
             for (SortedMap.Entry<PatternState<E>, PrefixFunction<E>> entry : patternPrefixFunctions.entrySet()) {
@@ -37,7 +75,7 @@ public class KnuthMorrisPrattMatcher<E> {
                 PrefixFunction<E> prefixFunc = entry.getValue();
 
                 while(p.getState() > 0 && !p.nextPart().equals(query.get(i))) {
-                    p.setState(prefixFunc.get(p.getState()));
+                    p.setState(prefixFunc.get(p.getState() - 1)); // Fall back to the longest proper border of the matched prefix
                 }
                 if (p.nextPart().equals(query.get(i))){
                     p.incState();
@@ -52,12 +90,68 @@ public class KnuthMorrisPrattMatcher<E> {
         return matches;
     }
 
+    /**
+     * Find all matches in one pass of an Aho-Corasick automaton over all patterns, then apply the same rules as the
+     * per-pattern KMP search: matches of the same pattern don't overlap (leftmost wins), matches of different
+     * patterns may. Matches are ordered as in getMatches(): by end position, then largest pattern first, then in
+     * order of addition. The automaton's pattern IDs follow the iteration order of patternPrefixFunctions (largest
+     * first, then order of addition), so this is the order of end position, then pattern ID.
+     */
+    private List<Match<E>> getMatchesSharedAutomaton(List<E> query) {
+        if (automaton == null)
+            buildAutomaton();
+
+        automaton.scan(query, automatonMatches);
+
+        // A new stamp invalidates every pattern's last end at once, so only the patterns which match are touched
+        if (++queryStamp == Integer.MAX_VALUE) {
+            Arrays.fill(lastEndStamp, 0);
+            queryStamp = 1;
+        }
+
+        // Keep the matches, packed as (end, pattern ID) so that sorting them gives the order of getMatches()
+        long[] kept = new long[automatonMatches.size()];
+        int numKept = 0;
+        for (int i = 0; i < automatonMatches.size(); i++) { // Buffer is sorted by start position
+            int id = automatonMatches.patternId(i);
+            if (lastEndStamp[id] != queryStamp || automatonMatches.start(i) > lastEnd[id]) {
+                kept[numKept++] = ((long)automatonMatches.end(i) << 32) | id;
+                lastEnd[id] = automatonMatches.end(i);
+                lastEndStamp[id] = queryStamp;
+            }
+        }
+        Arrays.sort(kept, 0, numKept);
+
+        List<Match<E>> matches = new ArrayList<>(numKept);
+        for (int i = 0; i < numKept; i++) {
+            int end = (int)(kept[i] >>> 32);
+            ImmutableList<E> pattern = automaton.getPattern((int)kept[i]);
+            matches.add(new Match<>(end - pattern.size() + 1, end, pattern));
+        }
+        return matches;
+    }
+
+    private void buildAutomaton() {
+        AhoCorasickMatcher.Builder<E> builder = AhoCorasickMatcher.builder();
+        builder.allowOverlaps();
+        for (PatternState<E> p : patternPrefixFunctions.keySet()) {
+            builder.addPattern(p.getPattern());
+        }
+        automaton = builder.build();
+        automatonMatches = new MatchBuffer();
+        lastEnd = new int[automaton.numPatterns()];
+        lastEndStamp = new int[automaton.numPatterns()];
+        queryStamp = 0;
+    }
+
     public void addPattern(List<E> pattern){
         addPattern(ImmutableList.copyOf(pattern));
     }
 
     public void addPattern(ImmutableList<E> pattern){
-        patternPrefixFunctions.put(new PatternState<>(pattern), new PrefixFunction<>(pattern));
+        if (patterns.add(pattern))
+            patternPrefixFunctions.put(new PatternState<>(pattern, patterns.size()), new PrefixFunction<>(pattern));
+        automaton = null;
     }
 
     public static class Match<E> {
@@ -85,9 +179,11 @@ public class KnuthMorrisPrattMatcher<E> {
 
         private ImmutableList<E> pattern;
         private int q;
+        private final int id;
 
-        public PatternState(ImmutableList<E> pattern) {
+        public PatternState(ImmutableList<E> pattern, int id) {
             this.pattern = pattern;
+            this.id = id;
             q = 0;
         }
 
@@ -134,7 +230,7 @@ public class KnuthMorrisPrattMatcher<E> {
             int k = 0;
             for (int q = 1; q < pattern.size(); q++){
                 while (k > 0 && !pattern.get(k).equals(pattern.get(q))) {
-                    k = prefixFunction[k];
+                    k = prefixFunction[k - 1];
                 }
                 if (pattern.get(k).equals(pattern.get(q))) {
                     k++;
@@ -32,6 +32,7 @@ import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import org.apache.commons.math.util.MathUtils;
+import uk.ac.susx.tag.classificationframework.datastructures.CorpusMatrix;
 import uk.ac.susx.tag.classificationframework.datastructures.ModelState.ClassifierName;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
@@ -100,6 +101,8 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
 
 	private Map<String, Object> metadata = new HashMap<>();
 
+    private transient ChangeTracker changes = null; // Keys changed since changes were last written, if tracking (see trackChanges())
+
 	public static final ClassifierName CLASSIFIER_NAME = ClassifierName.NB;
 
     /**
@@ -126,6 +129,12 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
 		this.metadata.put("classifier_class_name", CLASSIFIER_NAME);
     }
 
+    @Override
+    public void empiricalLabelPriors(boolean empiricalLabelPriors) {
+        super.empiricalLabelPriors(empiricalLabelPriors);
+        changedParameters();
+    }
+
 	public ClassifierName getClassifierName() {
 		return CLASSIFIER_NAME;
 	}
@@ -134,9 +143,9 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
 		return this.metadata;
 	}
 
-	public void setLabelSmoothing(double smoothingValue) {labelSmoothing = smoothingValue;}
+	public void setLabelSmoothing(double smoothingValue) {labelSmoothing = smoothingValue; changedParameters();}
 	public double getLabelSmoothing() {return labelSmoothing;}
-    public void setFeatureSmoothing(double smoothingValue) {featureSmoothing = smoothingValue;}
+    public void setFeatureSmoothing(double smoothingValue) {featureSmoothing = smoothingValue; changedParameters();}
 	public double getFeatureSmoothing() {return featureSmoothing;}
 
     /**
@@ -145,6 +154,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
     public void setLabelAlpha(int label, double alpha){
         labels.add(label);
         labelAlphas.addTo(label, alpha);
+        changedLabel(label);
     }
     public Int2DoubleOpenHashMap getLabelAlphas(){ return labelAlphas; }
 
@@ -156,6 +166,9 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         vocab.add(feature);
         featureAlphaTotals.addTo(label, alpha - getFromMap(label, labelFeatureAlphas).get(feature));
         getFromMap(label, labelFeatureAlphas).put(feature, alpha);
+        changedLabel(label);
+        changedFeature(feature);
+        changedFeatureAlpha(label, feature);
     }
     public Int2ObjectMap<Int2DoubleOpenHashMap> getLabelledFeatures(){ return labelFeatureAlphas; }
 
@@ -192,9 +205,12 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         for (int label : getLabels()){
             if (hasPseudoCounts(feature, label))
                 unlabelFeature(feature, label);
-            if (hasRealCounts(feature, label))
+            if (hasRealCounts(feature, label)) {
                 getFromMap(label, labelFeatureAlphas).remove(feature);
+                changedFeatureAlpha(label, feature);
+            }
         } vocab.remove(feature);
+        changedFeature(feature);
     }
 
     public boolean hasPseudoCounts(int feature, int label){
@@ -205,7 +221,7 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         return getFromMap(label, jointCounts).get(feature) > 0;
     }
 
-    public void setLabelMultiplier(int label, double multiplier){  labelMultipliers.put(label, multiplier); }
+    public void setLabelMultiplier(int label, double multiplier){  labelMultipliers.put(label, multiplier); changedLabel(label); }
     public Int2DoubleOpenHashMap getLabelMultipliers() { return labelMultipliers; }
 
 
@@ -261,6 +277,84 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         emTrain(documents, 0.1, this);
     }
 
+    /**
+     * Train on the labelled rows of a CorpusMatrix. Equivalent to train(documents, weight) over
+     * the same documents, but the counts are accumulated in arrays over blocks of rows in parallel.
+     */
+    public void train(CorpusMatrix documents, double weight){
+        addCounts(documents.labelIds(), documents.labelledCounts(documents.labelWeights(), documents.numLabels()), weight, false);
+    }
+
+    public void train(CorpusMatrix documents){
+        train(documents, 1);
+    }
+
+    /**
+     * EM training over the rows of a CorpusMatrix. Equivalent to emTrain(documents, weight, classifier)
+     * over the same documents, except that the counting is done in arrays in parallel.
+     *
+     * The rows are classified in parallel if the classifier is a NaiveBayesClassifier (not a
+     * subclass) or a NaiveBayesClassifierPreComputed, whose predictions only read their counts;
+     * otherwise they are classified one at a time.
+     */
+    public void emTrain(CorpusMatrix documents, double weight, Classifier classifier){
+        int[] labelIds = classifier.getLabels().toIntArray();
+        Arrays.sort(labelIds);
+        boolean parallel = classifier.getClass() == NaiveBayesClassifier.class || classifier instanceof NaiveBayesClassifierPreComputed;
+        if (classifier.getClass() == NaiveBayesClassifier.class)
+            ((NaiveBayesClassifier)classifier).prepareForConcurrentPrediction();
+        double[] posteriors = documents.predict(classifier, labelIds, parallel);
+        addCounts(labelIds, documents.labelledCounts(posteriors, labelIds.length), weight, true);
+    }
+
+    public void emTrain(CorpusMatrix documents, double weight){
+        emTrain(documents, weight, this);
+    }
+
+    /**
+     * Add counts obtained from a CorpusMatrix, multiplied by weight.
+     * @param allLabels If true, all labels are added to the label set (as in the E-step, where every
+     *                  document is assigned a probability for every label), otherwise only those
+     *                  which had documents.
+     */
+    private void addCounts(int[] labelIds, CorpusMatrix.LabelledCounts counts, double weight, boolean allLabels){
+        boolean anyFeatures = false;
+        for (int feature = 0; feature < counts.vocab.length; feature++) {
+            if (counts.vocab[feature]) {
+                vocab.add(feature);
+                changedFeature(feature);
+                anyFeatures = true;
+            }
+        }
+        for (int c = 0; c < labelIds.length; c++) {
+            int label = labelIds[c];
+            if (label < 0 || !(allLabels ? anyFeatures : counts.documents[c] > 0)) continue;
+            labels.add(label);
+            docCounts.addTo(label, counts.documents[c] * weight);
+            labelCounts.addTo(label, counts.featureOccurrences[c] * weight);
+            changedLabel(label);
+            Int2DoubleOpenHashMap labelJointCounts = getFromMap(label, jointCounts);
+            double[] joint = counts.jointCounts[c];
+            for (int feature = 0; feature < joint.length; feature++) {
+                if (joint[feature] != 0) {
+                    labelJointCounts.addTo(feature, joint[feature] * weight);
+                    changedJointCount(label, feature);
+                }
+            }
+        }
+    }
+
+    /**
+     * likelihood() lazily adds empty maps for labels without counts, so add them up front,
+     * after which predictions only read the counts.
+     */
+    private void prepareForConcurrentPrediction(){
+        for (int label : labels) {
+            getFromMap(label, jointCounts);
+            getFromMap(label, labelFeatureAlphas);
+        }
+    }
+
     /**
      * Train on a single document.
      * @param label Label of the document
@@ -273,10 +367,13 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         if (label < 0) return; // Skip documents which bear no label
         labels.add(label);
         docCounts.addTo(label, labelProbability * weight);
+        changedLabel(label);
         for (int feature : features) {
             vocab.add(feature);
             labelCounts.addTo(label, labelProbability * weight);
             getFromMap(label,jointCounts).addTo(feature, labelProbability * weight);
+            changedFeature(feature);
+            changedJointCount(label, feature);
         }
     }
 
@@ -380,6 +477,13 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
         for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : nb.jointCounts.int2ObjectEntrySet()){
             addTo(getFromMap(entry.getIntKey(), jointCounts), entry.getValue());
         }
+        if (changes != null) {
+            changes.labels.addAll(nb.labels);
+            changes.features.addAll(nb.vocab);
+            for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : nb.jointCounts.int2ObjectEntrySet())
+                for (int feature : entry.getValue().keySet())
+                    changedJointCount(entry.getIntKey(), feature);
+        }
     }
 
     /**
@@ -537,6 +641,189 @@ public class NaiveBayesClassifier extends AbstractNaiveBayesClassifier implement
     }
 
 
+    /**
+     * Start recording which parts of this classifier's state change (through its own methods, not through the
+     * maps and sets returned by its getters), so that writeJsonChanges() can write only those. Any changes
+     * recorded so far are forgotten. Only the keys which change are recorded, not their values.
+     *
+     * @throws UnsupportedOperationException if this is a subclass with further state (see canTrackChanges()).
+     */
+    public void trackChanges(){
+        if (!canTrackChanges())
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " can't track changes to its state");
+        changes = new ChangeTracker();
+    }
+
+    public void stopTrackingChanges(){ changes = null; }
+
+    public boolean isTrackingChanges(){ return changes != null; }
+
+    /**
+     * True if all of this classifier's state is recorded by trackChanges(). Subclasses with further state must
+     * override this (and record changes to that state) before they can be saved as changes.
+     */
+    public boolean canTrackChanges(){
+        return getClass() == NaiveBayesClassifier.class;
+    }
+
+    /**
+     * Write as a JSON object the current values of the parts of this classifier's state which have changed since
+     * trackChanges() or the last call to this method, then start recording afresh. Changed entries are written
+     * with their new values and removed entries are listed, so applying the same changes twice (see
+     * readJsonChanges()) has the same effect as applying them once. The cost is in proportion to the changes,
+     * not to the size of the model.
+     *
+     * @return false if nothing had changed (the object written is then empty).
+     */
+    public boolean writeJsonChanges(JsonWriter writer, FeatureExtractionPipeline pipeline) throws IOException {
+        if (changes == null) throw new IllegalStateException("Changes aren't being tracked (see trackChanges())");
+        ChangeTracker changed = changes;
+        writer.beginObject();
+        if (changed.parameters) {
+            writer.name("labelSmoothing").value(labelSmoothing);
+            writer.name("featureSmoothing").value(featureSmoothing);
+            writer.name("empiricalLabelPriors").value(empiricalLabelPriors);
+        }
+        writeSetChanges(writer, pipeline, "labels", labels, changed.labels, false);
+        writeSetChanges(writer, pipeline, "vocab", vocab, changed.features, true);
+        writeMapChanges(writer, pipeline, "labelMultipliers", labelMultipliers, changed.labels);
+        writeMapChanges(writer, pipeline, "docCounts", docCounts, changed.labels);
+        writeMapChanges(writer, pipeline, "labelCounts", labelCounts, changed.labels);
+        writeMapChanges(writer, pipeline, "jointCounts", jointCounts, changed.jointCounts);
+        writeMapChanges(writer, pipeline, "labelFeatureAlphas", labelFeatureAlphas, changed.labelFeatureAlphas);
+        writeMapChanges(writer, pipeline, "featureAlphaTotals", featureAlphaTotals, changed.labels);
+        writeMapChanges(writer, pipeline, "labelAlphas", labelAlphas, changed.labels);
+        writer.endObject();
+        changes = new ChangeTracker();
+        return !changed.isEmpty();
+    }
+
+    /**
+     * Apply changes written by writeJsonChanges().
+     */
+    public void readJsonChanges(JsonReader reader, FeatureExtractionPipeline pipeline) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()){
+            String name = reader.nextName();
+            switch (name) {
+                case "labelSmoothing":   labelSmoothing = reader.nextDouble(); break;
+                case "featureSmoothing": featureSmoothing = reader.nextDouble(); break;
+                case "empiricalLabelPriors": empiricalLabelPriors = reader.nextBoolean(); break;
+                case "labels+": labels.addAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "labels-": labels.removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "vocab+": vocab.addAll(readJsonIntSet(reader, pipeline, true)); break;
+                case "vocab-": vocab.removeAll(readJsonIntSet(reader, pipeline, true)); break;
+                case "labelMultipliers+": labelMultipliers.putAll(readJsonInt2DoubleMap(reader, pipeline, false)); break;
+                case "labelMultipliers-": labelMultipliers.keySet().removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "docCounts+": docCounts.putAll(readJsonInt2DoubleMap(reader, pipeline, false)); break;
+                case "docCounts-": docCounts.keySet().removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "labelCounts+": labelCounts.putAll(readJsonInt2DoubleMap(reader, pipeline, false)); break;
+                case "labelCounts-": labelCounts.keySet().removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "featureAlphaTotals+": featureAlphaTotals.putAll(readJsonInt2DoubleMap(reader, pipeline, false)); break;
+                case "featureAlphaTotals-": featureAlphaTotals.keySet().removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "labelAlphas+": labelAlphas.putAll(readJsonInt2DoubleMap(reader, pipeline, false)); break;
+                case "labelAlphas-": labelAlphas.keySet().removeAll(readJsonIntSet(reader, pipeline, false)); break;
+                case "jointCounts+": putAll(jointCounts, readJsonInt2ObjectMap(reader, pipeline)); break;
+                case "jointCounts-": removeAll(jointCounts, readJsonInt2ObjectMap(reader, pipeline)); break;
+                case "labelFeatureAlphas+": putAll(labelFeatureAlphas, readJsonInt2ObjectMap(reader, pipeline)); break;
+                case "labelFeatureAlphas-": removeAll(labelFeatureAlphas, readJsonInt2ObjectMap(reader, pipeline)); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void writeSetChanges(JsonWriter writer, FeatureExtractionPipeline pipeline, String name, IntSet current, IntSet changed, boolean areFeatures) throws IOException {
+        IntSet added = new IntOpenHashSet();
+        IntSet removed = new IntOpenHashSet();
+        for (int i : changed) {
+            if (current.contains(i)) added.add(i);
+            else removed.add(i);
+        }
+        if (!added.isEmpty()) { writer.name(name + "+"); writeJsonIntSet(writer, pipeline, added, areFeatures); }
+        if (!removed.isEmpty()) { writer.name(name + "-"); writeJsonIntSet(writer, pipeline, removed, areFeatures); }
+    }
+
+    private void writeMapChanges(JsonWriter writer, FeatureExtractionPipeline pipeline, String name, Int2DoubleOpenHashMap current, IntSet changedLabels) throws IOException {
+        Int2DoubleOpenHashMap changed = new Int2DoubleOpenHashMap();
+        IntSet removed = new IntOpenHashSet();
+        for (int label : changedLabels) {
+            if (current.containsKey(label)) changed.put(label, current.get(label));
+            else removed.add(label);
+        }
+        if (!changed.isEmpty()) { writer.name(name + "+"); writeJsonInt2DoubleMap(writer, pipeline, changed, false); }
+        if (!removed.isEmpty()) { writer.name(name + "-"); writeJsonIntSet(writer, pipeline, removed, false); }
+    }
+
+    private void writeMapChanges(JsonWriter writer, FeatureExtractionPipeline pipeline, String name,
+                                 Int2ObjectMap<Int2DoubleOpenHashMap> current, Int2ObjectMap<IntSet> changedEntries) throws IOException {
+        // Removed features are written as a map to zero, so that the label-feature map writer can be re-used
+        Int2ObjectMap<Int2DoubleOpenHashMap> changed = new Int2ObjectOpenHashMap<>();
+        Int2ObjectMap<Int2DoubleOpenHashMap> removed = new Int2ObjectOpenHashMap<>();
+        for (Int2ObjectMap.Entry<IntSet> entry : changedEntries.int2ObjectEntrySet()) {
+            int label = entry.getIntKey();
+            Int2DoubleOpenHashMap currentCounts = current.get(label);
+            for (int feature : entry.getValue()) {
+                if (currentCounts != null && currentCounts.containsKey(feature))
+                    getFromMap(label, changed).put(feature, currentCounts.get(feature));
+                else getFromMap(label, removed).put(feature, 0);
+            }
+        }
+        if (!changed.isEmpty()) { writer.name(name + "+"); writeJsonInt2ObjectMap(writer, pipeline, changed); }
+        if (!removed.isEmpty()) { writer.name(name + "-"); writeJsonInt2ObjectMap(writer, pipeline, removed); }
+    }
+
+    private void putAll(Int2ObjectMap<Int2DoubleOpenHashMap> map, Int2ObjectMap<Int2DoubleOpenHashMap> toBePut) {
+        for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : toBePut.int2ObjectEntrySet())
+            getFromMap(entry.getIntKey(), map).putAll(entry.getValue());
+    }
+
+    private void removeAll(Int2ObjectMap<Int2DoubleOpenHashMap> map, Int2ObjectMap<Int2DoubleOpenHashMap> toBeRemoved) {
+        for (Int2ObjectMap.Entry<Int2DoubleOpenHashMap> entry : toBeRemoved.int2ObjectEntrySet())
+            if (map.containsKey(entry.getIntKey())) map.get(entry.getIntKey()).keySet().removeAll(entry.getValue().keySet());
+    }
+
+    /**
+     * The keys of the state which have changed since changes were last written (see writeJsonChanges()).
+     */
+    private static class ChangeTracker {
+        boolean parameters = false;                          // Smoothing and empirical label priors
+        final IntSet labels = new IntOpenHashSet();          // Labels whose per-label values or label set membership changed
+        final IntSet features = new IntOpenHashSet();        // Features whose vocab membership may have changed
+        final Int2ObjectMap<IntSet> jointCounts = new Int2ObjectOpenHashMap<>();        // Label -> features
+        final Int2ObjectMap<IntSet> labelFeatureAlphas = new Int2ObjectOpenHashMap<>(); // Label -> features
+
+        static void add(Int2ObjectMap<IntSet> entries, int label, int feature) {
+            IntSet features = entries.get(label);
+            if (features == null) entries.put(label, features = new IntOpenHashSet());
+            features.add(feature);
+        }
+
+        boolean isEmpty() {
+            return !parameters && labels.isEmpty() && features.isEmpty() && jointCounts.isEmpty() && labelFeatureAlphas.isEmpty();
+        }
+    }
+
+    private void changedParameters(){
+        if (changes != null) changes.parameters = true;
+    }
+
+    private void changedLabel(int label){
+        if (changes != null) changes.labels.add(label);
+    }
+
+    private void changedFeature(int feature){
+        if (changes != null) changes.features.add(feature);
+    }
+
+    private void changedJointCount(int label, int feature){
+        if (changes != null) ChangeTracker.add(changes.jointCounts, label, feature);
+    }
+
+    private void changedFeatureAlpha(int label, int feature){
+        if (changes != null) ChangeTracker.add(changes.labelFeatureAlphas, label, feature);
+    }
+
     /**
      * calculates the pair wise Kullback-Leibler divergence of the language models pf each label
      *
@@ -10,10 +10,13 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.apache.commons.math3.analysis.differentiation.DerivativeStructure;
 import org.apache.commons.math3.analysis.differentiation.UnivariateDifferentiableFunction;
+import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.analysis.solvers.NewtonRaphsonSolver;
 import org.apache.commons.math3.exception.TooManyEvaluationsException;
 import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.datastructures.CorpusMatrix;
 import uk.ac.susx.tag.classificationframework.datastructures.FeatureMarginalsConstraint;
 import uk.ac.susx.tag.classificationframework.datastructures.ModelState.ClassifierName;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
@@ -27,6 +30,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by thomas on 2/22/14.
@@ -49,6 +56,16 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
 	// Maximum Number of iterations in the optimisation process
 	private int maxEvaluationsNewtonRaphson;
 
+	// Maximum time spent solving for any one word (0 for no limit)
+	private long maxSolveNanos = 0;
+
+	// Pool on which words are solved (null for the common pool)
+	private transient ForkJoinPool solvePool = null;
+
+	// Unnormalised P(w|+) solutions of the last calculation, and those to start the next calculation from (not saved with the model)
+	private Int2DoubleOpenHashMap solutions = null;
+	private Int2DoubleOpenHashMap warmStartSolutions = null;
+
 	// Map for optimal class-conditional probabilities per label
 	private Int2ObjectMap<Int2DoubleOpenHashMap> optClassCondFMProbs = new Int2ObjectOpenHashMap<>();
 
@@ -106,6 +123,37 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
         return this.maxEvaluationsNewtonRaphson;
     }
 
+    /**
+     * Limit the time spent solving the constraint for any single word (in addition to the limit
+     * on evaluations). Words which run out of time are treated as having no solution, so fall
+     * back to their ordinary NB likelihoods. 0 means no limit.
+     */
+    public void setMaxSolveTimePerWord(long time, TimeUnit unit)
+    {
+        this.maxSolveNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Solve for the words' probabilities on the given pool rather than the common pool, e.g. to bound
+     * the number of threads used. Null reverts to the common pool.
+     */
+    public void setSolvePool(ForkJoinPool pool)
+    {
+        this.solvePool = pool;
+    }
+
+    /**
+     * Start solving each word from another model's solution for it (where it has one), rather
+     * than from the middle of the word's target interval. After retraining on slightly more data
+     * the solutions move very little, so this cuts the number of Newton-Raphson iterations.
+     * Solutions are only available from models that have calculated feature marginals since
+     * they were created or loaded; pass this model itself to warm start from its last calculation.
+     */
+    public void warmStartFrom(NaiveBayesClassifierFeatureMarginals previous)
+    {
+        this.warmStartSolutions = previous.solutions;
+    }
+
 	public Int2ObjectMap<Int2DoubleOpenHashMap> getOptClassCondFMProbs () {
 		return this.optClassCondFMProbs;
 	}
@@ -123,11 +171,8 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
 
         // Calculate P(t|+) & P(t|-); the probabilities of a randomly drawn token from the labelled set being positive (ie. from a positively labelled instance) or negative
         // Calculate N(+), N(w|+), N(!w|+), N(-), N(w|-), N(!w|-)
-        double posTokenProb = 0.;
-        double negTokenProb = 0.;
         int tokenCount = 0;
         int posTokenCount = 0;
-        int negTokenCount = 0;
 
         Int2IntOpenHashMap posWordMap = new Int2IntOpenHashMap();
         posWordMap.defaultReturnValue(0);
@@ -152,8 +197,47 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
             }
         }
 
+        optimiseFeatureMarginals(wordProb, posWordMap, negWordMap, posTokenCount, tokenCount);
+    }
+
+    /**
+     * As calculateFeatureMarginals(Iterable, Iterable), but the word counts are accumulated in
+     * arrays over blocks of rows in parallel (see CorpusMatrix). The counts of a weighted
+     * matrix are rounded to whole numbers.
+     */
+    public void calculateFeatureMarginals(CorpusMatrix labelledData, CorpusMatrix unlabelledData) {
+        // P(w) for all words
+        Int2DoubleOpenHashMap wordProb = Util.calculateWordProbabilities(unlabelledData);
+
+        // Column 0 counts positively labelled rows, column 1 all others
+        double[] rowLabelWeights = new double[labelledData.numRows() * 2];
+        for (int row = 0; row < labelledData.numRows(); row++)
+            rowLabelWeights[row * 2 + (labelledData.label(row) == this.posLabel ? 0 : 1)] = 1;
+        CorpusMatrix.LabelledCounts counts = labelledData.labelledCounts(rowLabelWeights, 2);
+
+        Int2IntOpenHashMap posWordMap = new Int2IntOpenHashMap();
+        Int2IntOpenHashMap negWordMap = new Int2IntOpenHashMap();
+        for (int feature = 0; feature < labelledData.numFeatures(); feature++) {
+            if (counts.jointCounts[0][feature] != 0) posWordMap.put(feature, (int)Math.round(counts.jointCounts[0][feature]));
+            if (counts.jointCounts[1][feature] != 0) negWordMap.put(feature, (int)Math.round(counts.jointCounts[1][feature]));
+        }
+        int posTokenCount = (int)Math.round(counts.featureOccurrences[0]);
+        int tokenCount = posTokenCount + (int)Math.round(counts.featureOccurrences[1]);
+
+        optimiseFeatureMarginals(wordProb, posWordMap, negWordMap, posTokenCount, tokenCount);
+    }
+
+    /**
+     * Given P(w) from the unlabelled data, and N(w|+), N(w|-), N(+) and N from the labelled data,
+     * solve for the optimal class-conditional probabilities of each word.
+     */
+    private void optimiseFeatureMarginals(Int2DoubleOpenHashMap wordProb, Int2IntOpenHashMap posWordMap, Int2IntOpenHashMap negWordMap,
+                                          int posTokenCount, int tokenCount) {
+        double posTokenProb;
+        double negTokenProb;
+
         // N(-)
-        negTokenCount = tokenCount - posTokenCount;
+        int negTokenCount = tokenCount - posTokenCount;
 
         // P(t|+), P(t|-)
         posTokenProb = ((double) posTokenCount) / tokenCount;
@@ -178,36 +262,25 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
             targetIntervalMax.put(k, (wordProb.get(k) / posTokenProb));
         }
 
-        // go for the real shit
-        UnivariateDifferentiableFunction featureMarginals = null;
-        NewtonRaphsonSolver solver = new NewtonRaphsonSolver();
-        double result = -1.;
+        // go for the real shit: each word is an independent root-finding problem, so solve them in parallel
+        int[] words = wordProb.keySet().toIntArray();
+        double[] results = new double[words.length];
+        FeatureMarginalsProblem problem = new FeatureMarginalsProblem(words, results, wordProb, kMap, targetIntervalMax,
+                posWordMap, negWordMap, posTokenCount, negTokenCount, l, this.warmStartSolutions);
+        (solvePool == null ? ForkJoinPool.commonPool() : solvePool).invoke(new SolveShard(problem, 0, words.length));
+
+        if (problem.failures.get() > 0)
+            System.err.println("Feature marginals: no solution within budget for " + problem.failures.get() + " of " + words.length + " words");
 
-        Int2DoubleOpenHashMap pWPosFMOptimisedMap = new Int2DoubleOpenHashMap();
+        Int2DoubleOpenHashMap pWPosFMOptimisedMap = new Int2DoubleOpenHashMap(words.length);
         pWPosFMOptimisedMap.defaultReturnValue(-1.);
 
-        Int2DoubleOpenHashMap pWNegFMOptimisedMap = new Int2DoubleOpenHashMap();
+        Int2DoubleOpenHashMap pWNegFMOptimisedMap = new Int2DoubleOpenHashMap(words.length);
         pWNegFMOptimisedMap.defaultReturnValue(-1.);
 
-        for (int key : wordProb.keySet()) {
-            // N(w|+), N(!w|+), N(w|-), N(!w|-), k
-            int nWPos = posWordMap.get(key);
-            int nNotWPos = posTokenCount - nWPos;
-            int nWNeg = negWordMap.get(key);
-            double k = kMap.get(key);
-            int nNotWNeg = negTokenCount - nWNeg;
-
-            // Check for N(!w|+) > 0 and N(w|-) > 0
-            if (nNotWPos > 0 && nWNeg > 0) {
-
-                featureMarginals = new FeatureMarginalsConstraint(nWPos, nNotWPos, nWNeg, nNotWNeg, k, l);
-
-                try {
-                    result = solver.solve(this.maxEvaluationsNewtonRaphson, featureMarginals, 0, targetIntervalMax.get(key));
-                } catch (TooManyEvaluationsException ex) {
-                    ex.printStackTrace();
-                }
-            }
+        for (int i = 0; i < words.length; i++) {
+            int key = words[i];
+            double result = results[i];
 
             // Check result in target interval [0 P(w) / P(t|+)]
             if (result > 0. && result <= targetIntervalMax.get(key)) {
@@ -217,9 +290,11 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
                 double pWNegOpt = (wordProb.get(key) - (result * posTokenProb)) / negTokenProb;
                 pWNegFMOptimisedMap.put(key, pWNegOpt);
             }
-            result = -1.;
         }
 
+        // Keep the unnormalised solutions, which can warm start a later calculation (see warmStartFrom())
+        this.solutions = new Int2DoubleOpenHashMap(pWPosFMOptimisedMap);
+
         // Normalise Probabilities
         pWPosFMOptimisedMap = this.normaliseProbabilities(pWPosFMOptimisedMap);
         pWNegFMOptimisedMap = this.normaliseProbabilities(pWNegFMOptimisedMap);
@@ -396,6 +471,158 @@ public class NaiveBayesClassifierFeatureMarginals extends NaiveBayesClassifier i
 		writer.endObject();
 	}
 
+    /**
+     * The inputs and outputs of solving the feature marginals constraint for every word, shared by the SolveShards.
+     */
+    private class FeatureMarginalsProblem {
+        final int[] words;
+        final double[] results;    // Solution for P(w|+) of each word, or -1 where there is none
+        final double[] wordProbs;
+        final double[] ks;
+        final double[] intervalMaxes;
+        final int[] nWPos;
+        final int[] nWNeg;
+        final double[] startValues; // Warm start of each word, or NaN to start mid-interval
+        final int posTokenCount;
+        final int negTokenCount;
+        final double l;
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        FeatureMarginalsProblem(int[] words, double[] results, Int2DoubleOpenHashMap wordProb, Int2DoubleOpenHashMap kMap,
+                                Int2DoubleOpenHashMap targetIntervalMax, Int2IntOpenHashMap posWordMap, Int2IntOpenHashMap negWordMap,
+                                int posTokenCount, int negTokenCount, double l, Int2DoubleOpenHashMap warmStart) {
+            this.words = words;
+            this.results = results;
+            this.posTokenCount = posTokenCount;
+            this.negTokenCount = negTokenCount;
+            this.l = l;
+            // Unpack the maps into primitive arrays, so that the solving threads only read arrays
+            wordProbs = new double[words.length];
+            ks = new double[words.length];
+            intervalMaxes = new double[words.length];
+            nWPos = new int[words.length];
+            nWNeg = new int[words.length];
+            startValues = new double[words.length];
+            for (int i = 0; i < words.length; i++) {
+                int word = words[i];
+                wordProbs[i] = wordProb.get(word);
+                ks[i] = kMap.get(word);
+                intervalMaxes[i] = targetIntervalMax.get(word);
+                nWPos[i] = posWordMap.get(word);
+                nWNeg[i] = negWordMap.get(word);
+                startValues[i] = warmStart != null && warmStart.containsKey(word) ? warmStart.get(word) : Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Solves the constraint for a contiguous range of words, splitting it in half until it is
+     * at most SHARD_SIZE words. Each leaf has its own solver and re-uses a single constraint.
+     */
+    private class SolveShard extends RecursiveAction {
+        private static final int SHARD_SIZE = 256;
+
+        private final FeatureMarginalsProblem problem;
+        private final int from;
+        private final int to;
+
+        SolveShard(FeatureMarginalsProblem problem, int from, int to) {
+            this.problem = problem;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SHARD_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveShard(problem, from, middle), new SolveShard(problem, middle, to));
+                return;
+            }
+            NewtonRaphsonSolver solver = new NewtonRaphsonSolver();
+            FeatureMarginalsConstraint constraint = new FeatureMarginalsConstraint(0, 0, 0, 0, 0, 0);
+            BudgetedFunction function = new BudgetedFunction(constraint, maxSolveNanos);
+            for (int i = from; i < to; i++) {
+                problem.results[i] = solve(i, solver, constraint, function);
+            }
+        }
+
+        private double solve(int i, NewtonRaphsonSolver solver, FeatureMarginalsConstraint constraint, BudgetedFunction function) {
+            // N(w|+), N(!w|+), N(w|-), N(!w|-), k
+            int nWPos = problem.nWPos[i];
+            int nNotWPos = problem.posTokenCount - nWPos;
+            int nWNeg = problem.nWNeg[i];
+            int nNotWNeg = problem.negTokenCount - nWNeg;
+
+            // Check for N(!w|+) > 0 and N(w|-) > 0
+            if (nNotWPos <= 0 || nWNeg <= 0) return -1.;
+
+            constraint.set(nWPos, nNotWPos, nWNeg, nNotWNeg, problem.ks[i], problem.l);
+            double max = problem.intervalMaxes[i];
+            double start = problem.startValues[i];
+            function.startClock();
+            try {
+                if (start > 0 && start < max) {
+                    // From a warm start, Newton-Raphson can overshoot towards the pole at the end of the
+                    // interval and stop there, or run out of evaluations, where starting from the middle
+                    // wouldn't; so unless it found the root, fall back to that
+                    try {
+                        double result = solver.solve(maxEvaluationsNewtonRaphson, function, 0, max, start);
+                        if (result > 0 && result <= max && isRoot(constraint, result, max, solver.getAbsoluteAccuracy())) return result;
+                    } catch (TooManyEvaluationsException e) { /* Retry from the middle */ }
+                }
+                return solver.solve(maxEvaluationsNewtonRaphson, function, 0, max);
+            } catch (TooManyEvaluationsException | BudgetedFunction.OutOfTime e) {
+                problem.failures.incrementAndGet();
+                return -1.;
+            }
+        }
+    }
+
+    /**
+     * Whether the root of the constraint lies within accuracy of x. The constraint decreases from +infinity at 0
+     * to -infinity at max, so has one root in the interval, which is within accuracy of x if the constraint
+     * changes sign there.
+     */
+    private static boolean isRoot(FeatureMarginalsConstraint constraint, double x, double max, double accuracy) {
+        return constraint.value(Math.max(0, x - accuracy)) >= 0 && constraint.value(Math.min(max, x + accuracy)) <= 0;
+    }
+
+    /**
+     * Wraps a function so that evaluating it fails once a time budget since startClock() has run out.
+     * A budget of 0 or less means no limit.
+     */
+    private static class BudgetedFunction implements UnivariateDifferentiableFunction {
+
+        private static class OutOfTime extends RuntimeException {
+            OutOfTime() { super(null, null, false, false); }
+        }
+
+        private final UnivariateDifferentiableFunction function;
+        private final long budgetNanos;
+        private long deadline;
+
+        BudgetedFunction(UnivariateDifferentiableFunction function, long budgetNanos) {
+            this.function = function;
+            this.budgetNanos = budgetNanos;
+        }
+
+        void startClock() {
+            deadline = System.nanoTime() + budgetNanos;
+        }
+
+        @Override
+        public DerivativeStructure value(DerivativeStructure t) throws DimensionMismatchException {
+            if (budgetNanos > 0 && System.nanoTime() > deadline) throw new OutOfTime();
+            return function.value(t);
+        }
+
+        @Override
+        public double value(double x) {
+            return function.value(x);
+        }
+    }
+
     private Int2DoubleOpenHashMap normaliseProbabilities(Int2DoubleOpenHashMap map) {
         double sum = 0.;
 
@@ -0,0 +1,295 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A pre-computed Naive Bayes model read from a binary file, which scores documents directly from
+ * memory-mapped log likelihoods.
+ *
+ * Loading a model from JSON means parsing every count, and re-indexing a feature string for every
+ * (label, feature) pair. Here the file holds:
+ *
+ *  - A header, with the name of the classifier the model was written from, its smoothing parameters
+ *    (NaN where unknown) and whether empirical label priors are used.
+ *  - The log prior of each label.
+ *  - A dense table of log likelihoods, with a row per feature and a column per label, so that scoring
+ *    a document touches one contiguous row per feature.
+ *  - The vocabulary: the label and feature strings of the rows and columns.
+ *
+ * Opening a model maps the table without reading it, and indexes each feature string once through the
+ * pipeline to find the row of each of the pipeline's feature IDs. So the pipeline need not be the one
+ * the model was written with (e.g. a de-serialised pipeline, whose feature indexer starts empty).
+ *
+ * The model cannot be trained further; write it from a trained NaiveBayesClassifier (or the
+ * NaiveBayesClassifierPreComputed made from one):
+ *
+ *  NaiveBayesClassifierMapped.write(new File("nbmodel.bin"), classifier, pipeline);
+ *  NaiveBayesClassifierMapped model = NaiveBayesClassifierMapped.open(new File("nbmodel.bin"), pipeline);
+ *
+ * Scoring only reads the mapped table, so a model can be shared between threads.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NaiveBayesClassifierMapped extends NaiveBayesClassifierPreComputed {
+
+    static final int MAGIC = 0x54434E42; // "TCNB"
+    static final int VERSION = 1;
+    static final int FLAG_EMPIRICAL_LABEL_PRIORS = 1;
+    static final int HEADER_BYTES = 128;
+
+    private final String classifierName;
+    private final double labelSmoothing;
+    private final double featureSmoothing;
+
+    private final int[] labelIds;          // Pipeline label ID of each column
+    private final double[] logPriors;      // Log prior of each column
+    private final int[] rowOfFeature;      // Table row of each pipeline feature ID (-1 if not in the model)
+    private final DoubleBuffer likelihoods;
+
+    private NaiveBayesClassifierMapped(String classifierName, double labelSmoothing, double featureSmoothing,
+                                       int[] labelIds, double[] logPriors, int[] rowOfFeature, DoubleBuffer likelihoods) {
+        this.classifierName = classifierName;
+        this.labelSmoothing = labelSmoothing;
+        this.featureSmoothing = featureSmoothing;
+        this.labelIds = labelIds;
+        this.logPriors = logPriors;
+        this.rowOfFeature = rowOfFeature;
+        this.likelihoods = likelihoods;
+    }
+
+    /**
+     * Write a model in the binary format. The classifier must score documents as a plain NaiveBayesClassifier
+     * does (subclasses which change the scoring, e.g. with feature marginals, aren't supported).
+     */
+    public static void write(File file, AbstractNaiveBayesClassifier classifier, FeatureExtractionPipeline pipeline) throws IOException {
+        int[] labels = classifier.getLabels().toIntArray();
+        int[] features = classifier.getVocab().toIntArray();
+        Arrays.sort(labels);
+        Arrays.sort(features);
+
+        String classifierName;
+        double labelSmoothing = Double.NaN;
+        double featureSmoothing = Double.NaN;
+        double[] logPriors = new double[labels.length];
+        ColumnLikelihoods likelihoods;
+
+        if (classifier.getClass() == NaiveBayesClassifier.class) {
+            NaiveBayesClassifier nb = (NaiveBayesClassifier)classifier;
+            classifierName = nb.getClassifierName().toString();
+            labelSmoothing = nb.getLabelSmoothing();
+            featureSmoothing = nb.getFeatureSmoothing();
+            Int2DoubleMap priors = nb.labelPriors();
+            for (int i = 0; i < labels.length; i++) logPriors[i] = Math.log(priors.get(labels[i]));
+            likelihoods = (feature, label) -> Math.log(nb.likelihood(feature, label));
+        } else if (classifier.getClass() == NaiveBayesClassifierPreComputed.class || classifier instanceof NaiveBayesClassifierMapped) {
+            NaiveBayesClassifierPreComputed nb = (NaiveBayesClassifierPreComputed)classifier;
+            classifierName = classifier instanceof NaiveBayesClassifierMapped ? ((NaiveBayesClassifierMapped)classifier).classifierName : "NB";
+            if (classifier instanceof NaiveBayesClassifierMapped) {
+                labelSmoothing = ((NaiveBayesClassifierMapped)classifier).labelSmoothing;
+                featureSmoothing = ((NaiveBayesClassifierMapped)classifier).featureSmoothing;
+            }
+            Int2DoubleMap priors = nb.getLabelPriors();
+            for (int i = 0; i < labels.length; i++) logPriors[i] = priors.get(labels[i]);
+            Int2ObjectMap<Int2DoubleMap> featureLikelihoods = nb.getFeatureLikelihoods();
+            likelihoods = (feature, label) -> featureLikelihoods.get(label).get(feature);
+        } else {
+            throw new IllegalArgumentException("The binary model format only supports classifiers which score as NaiveBayesClassifier does, not " + classifier.getClass().getSimpleName());
+        }
+
+        long tableBytes = 8L * labels.length * features.length;
+        if (tableBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Model is too large to be mapped (" + tableBytes + " bytes of likelihoods)");
+
+        // Strings: the classifier name, then the label strings, then the feature strings
+        byte[][] strings = new byte[1 + labels.length + features.length][];
+        strings[0] = classifierName.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < labels.length; i++)
+            strings[1 + i] = pipeline.labelString(labels[i]).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < features.length; i++)
+            strings[1 + labels.length + i] = pipeline.featureString(features[i]).getBytes(StandardCharsets.UTF_8);
+
+        long priorsStart = HEADER_BYTES;
+        long likelihoodsStart = priorsStart + 8L * labels.length;
+        long stringOffsetsStart = likelihoodsStart + tableBytes;
+        long stringsStart = stringOffsetsStart + 8L * (strings.length + 1);
+        long fileLength = stringsStart;
+        for (byte[] s : strings) fileLength += s.length;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(classifier.empiricalLabelPriors() ? FLAG_EMPIRICAL_LABEL_PRIORS : 0);
+            out.writeInt(labels.length);
+            out.writeInt(features.length);
+            out.writeInt(0);
+            out.writeDouble(labelSmoothing);
+            out.writeDouble(featureSmoothing);
+            out.writeLong(priorsStart);
+            out.writeLong(likelihoodsStart);
+            out.writeLong(stringOffsetsStart);
+            out.writeLong(stringsStart);
+            out.writeLong(fileLength);
+            out.write(new byte[HEADER_BYTES - 80]);
+
+            for (double prior : logPriors) out.writeDouble(prior);
+            for (int feature : features) {
+                for (int label : labels) out.writeDouble(likelihoods.get(feature, label));
+            }
+            long offset = 0;
+            out.writeLong(offset);
+            for (byte[] s : strings) out.writeLong(offset += s.length);
+            for (byte[] s : strings) out.write(s);
+        }
+    }
+
+    /**
+     * Open a binary model, indexing its labels and features with the pipeline.
+     */
+    public static NaiveBayesClassifierMapped open(File file, FeatureExtractionPipeline pipeline) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long fileLength = channel.size();
+            if (fileLength < HEADER_BYTES)
+                throw new IOException("Not a binary model file: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC)
+                throw new IOException("Not a binary model file: " + file);
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported binary model version " + header.getInt(4) + " in " + file);
+            if (header.getLong(72) != fileLength)
+                throw new IOException("Binary model file is truncated: " + file);
+
+            int flags = header.getInt(8);
+            int numLabels = header.getInt(12);
+            int numFeatures = header.getInt(16);
+            double labelSmoothing = header.getDouble(24);
+            double featureSmoothing = header.getDouble(32);
+            long priorsStart = header.getLong(40);
+            long likelihoodsStart = header.getLong(48);
+            long stringOffsetsStart = header.getLong(56);
+            long stringsStart = header.getLong(64);
+
+            DoubleBuffer priorsBuffer = channel.map(FileChannel.MapMode.READ_ONLY, priorsStart, 8L * numLabels).asDoubleBuffer();
+            double[] logPriors = new double[numLabels];
+            priorsBuffer.get(logPriors);
+
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, likelihoodsStart, 8L * numLabels * numFeatures);
+
+            int numStrings = 1 + numLabels + numFeatures;
+            ByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, stringOffsetsStart, 8L * (numStrings + 1));
+            ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, stringsStart, fileLength - stringsStart);
+            byte[] buffer = new byte[64];
+
+            String classifierName = null;
+            int[] labelIds = new int[numLabels];
+            IntArrayList featureIds = new IntArrayList(numFeatures);
+            int maxFeatureId = -1;
+            for (int i = 0; i < numStrings; i++) {
+                int start = (int)offsets.getLong(8 * i);
+                int length = (int)offsets.getLong(8 * (i + 1)) - start;
+                if (buffer.length < length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                strings.position(start);
+                strings.get(buffer, 0, length);
+                String s = new String(buffer, 0, length, StandardCharsets.UTF_8);
+
+                if (i == 0) classifierName = s;
+                else if (i <= numLabels) labelIds[i - 1] = pipeline.labelIndex(s);
+                else {
+                    int feature = pipeline.featureIndex(s);
+                    featureIds.add(feature);
+                    maxFeatureId = Math.max(maxFeatureId, feature);
+                }
+            }
+
+            int[] rowOfFeature = new int[maxFeatureId + 1];
+            Arrays.fill(rowOfFeature, -1);
+            for (int row = 0; row < numFeatures; row++) rowOfFeature[featureIds.getInt(row)] = row;
+
+            NaiveBayesClassifierMapped model = new NaiveBayesClassifierMapped(classifierName, labelSmoothing, featureSmoothing,
+                                                                              labelIds, logPriors, rowOfFeature, table.asDoubleBuffer());
+            model.empiricalLabelPriors = (flags & FLAG_EMPIRICAL_LABEL_PRIORS) != 0;
+            model.labels = new IntOpenHashSet(labelIds);
+            model.vocab = new IntOpenHashSet(featureIds);
+            for (int i = 0; i < numLabels; i++) model.labelPriors.put(labelIds[i], logPriors[i]);
+            return model;
+        }
+    }
+
+    @Override
+    public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features) {
+        int numLabels = labelIds.length;
+        double[] scores = empiricalLabelPriors ? logPriors.clone() : new double[numLabels];
+        for (int feature : features) {
+            if (feature < 0 || feature >= rowOfFeature.length) continue;
+            int row = rowOfFeature[feature];
+            if (row < 0) continue;
+            int base = row * numLabels;
+            for (int i = 0; i < numLabels; i++) scores[i] += likelihoods.get(base + i);
+        }
+        Int2DoubleOpenHashMap labelScores = new Int2DoubleOpenHashMap(numLabels);
+        for (int i = 0; i < numLabels; i++) labelScores.put(labelIds[i], scores[i]);
+        return labelScores;
+    }
+
+    /**
+     * The name of the classifier that the model was written from (see ModelState.ClassifierName).
+     */
+    public String getClassifierName() { return classifierName; }
+
+    /**
+     * The smoothing parameters of the classifier that the model was written from (NaN if unknown).
+     */
+    public double getLabelSmoothing() { return labelSmoothing; }
+    public double getFeatureSmoothing() { return featureSmoothing; }
+
+    /**
+     * Copies the mapped likelihoods to the heap, as label --> feature --> log likelihood.
+     */
+    @Override
+    public Int2ObjectMap<Int2DoubleMap> getFeatureLikelihoods() {
+        Int2ObjectMap<Int2DoubleMap> featureLikelihoods = new Int2ObjectOpenHashMap<>();
+        for (int i = 0; i < labelIds.length; i++) {
+            Int2DoubleMap labelLikelihoods = new Int2DoubleOpenHashMap();
+            for (int feature = 0; feature < rowOfFeature.length; feature++) {
+                if (rowOfFeature[feature] >= 0)
+                    labelLikelihoods.put(feature, likelihoods.get(rowOfFeature[feature] * labelIds.length + i));
+            }
+            featureLikelihoods.put(labelIds[i], labelLikelihoods);
+        }
+        return featureLikelihoods;
+    }
+
+    @Override
+    public void setLabelPriors(Int2DoubleMap labelPriors) {
+        throw new UnsupportedOperationException("A mapped model is read-only");
+    }
+
+    @Override
+    public void setFeatureLikelihoods(Int2ObjectMap<Int2DoubleMap> featureLikelihoods) {
+        throw new UnsupportedOperationException("A mapped model is read-only");
+    }
+
+    private interface ColumnLikelihoods {
+        double get(int feature, int label);
+    }
+}
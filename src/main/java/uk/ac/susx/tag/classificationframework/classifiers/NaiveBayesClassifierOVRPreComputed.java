@@ -2,16 +2,23 @@ package uk.ac.susx.tag.classificationframework.classifiers;
 
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by thk22 on 02/02/2015.
  */
 public class NaiveBayesClassifierOVRPreComputed extends NaiveBayesClassifierPreComputed {
 	private Int2ObjectMap<Int2DoubleOpenHashMap> optClassCondFMProbs = new Int2ObjectOpenHashMap<>();
 	private Int2ObjectMap<AbstractNaiveBayesClassifier> ovrLearners = new Int2ObjectOpenHashMap<>();
+	// Scores of all the learners in one table, see CompiledScores
+	private CompiledScores compiledScores = null;
 
 	public NaiveBayesClassifierOVRPreComputed(Int2DoubleMap labelPriors,
 											 Int2ObjectMap<Int2DoubleMap> featureLikelihoods,
@@ -36,11 +43,16 @@ public class NaiveBayesClassifierOVRPreComputed extends NaiveBayesClassifierPreC
 		}
 		vocab.addAll(nbOVR.getVocab());
 		labels.addAll(nbOVR.getLabels());
+
+		compiledScores = CompiledScores.compile(ovrLearners);
+		if (compiledScores != null) ovrLearners.clear(); // Everything needed for scoring is now in the table
 	}
 
 	@Override
 	public Int2DoubleOpenHashMap logpriorPlusLoglikelihood(int[] features)
 	{
+		if (compiledScores != null) return compiledScores.score(features);
+
 		Int2DoubleOpenHashMap jll = new Int2DoubleOpenHashMap();
 		for (AbstractNaiveBayesClassifier learner : this.ovrLearners.values()) {
 			jll.putAll(learner.logpriorPlusLoglikelihood(features));
@@ -52,4 +64,92 @@ public class NaiveBayesClassifierOVRPreComputed extends NaiveBayesClassifierPreC
 		return jll;
 	}
 
+	/**
+	 * The log priors and log likelihoods of every learner's target label, laid out so that a single
+	 * pass over a document's features scores all the binary learners at once.
+	 *
+	 * Each learner contributes a column for its target label. Its OTHER_LABEL gets no column, since
+	 * that score is never reported. For every feature in any learner's vocabulary there is a row
+	 * holding the log likelihood of the feature under each column (0 where the feature isn't in that learner's vocabulary, which
+	 * is what the learner would add). A document's scores are the priors plus the sum of the rows
+	 * of its features, and each learner's score for its own target label is reported.
+	 */
+	private static class CompiledScores {
+
+		private final int numColumns;
+		private final int[] columnLabels;
+		private final double[] priors;
+		private final Int2IntOpenHashMap featureRows;
+		private final double[] likelihoods; // Row-major: featureRows.size() x numColumns
+
+		private CompiledScores(int[] columnLabels, double[] priors, Int2IntOpenHashMap featureRows, double[] likelihoods) {
+			this.numColumns = columnLabels.length;
+			this.columnLabels = columnLabels;
+			this.priors = priors;
+			this.featureRows = featureRows;
+			this.likelihoods = likelihoods;
+		}
+
+		/**
+		 * @return compiled scores, or null if any learner isn't a NaiveBayesClassifierPreComputed
+		 *         (whose scoring the table reproduces), or if the table would be too large for an array
+		 *         (in which case the learners score the features themselves).
+		 */
+		static CompiledScores compile(Int2ObjectMap<AbstractNaiveBayesClassifier> ovrLearners) {
+			IntArrayList columnLabels = new IntArrayList();
+			List<NaiveBayesClassifierPreComputed> columnLearners = new ArrayList<>();
+			Int2IntOpenHashMap featureRows = new Int2IntOpenHashMap();
+			featureRows.defaultReturnValue(-1);
+
+			for (AbstractNaiveBayesClassifier learner : ovrLearners.values()) {
+				if (!(learner instanceof NaiveBayesClassifierPreComputed)) return null;
+				NaiveBayesClassifierPreComputed nb = (NaiveBayesClassifierPreComputed) learner;
+				for (int label : nb.labels) {
+					if (label == NaiveBayesOVRClassifier.OTHER_LABEL) continue;
+					columnLabels.add(label);
+					columnLearners.add(nb);
+				}
+				for (int feature : nb.vocab) {
+					if (!featureRows.containsKey(feature)) featureRows.put(feature, featureRows.size());
+				}
+			}
+
+			int numColumns = columnLabels.size();
+			double[] priors = new double[numColumns];
+			int tableSize;
+			try {
+				tableSize = Math.multiplyExact(featureRows.size(), numColumns);
+			} catch (ArithmeticException e) {
+				return null;
+			}
+			double[] likelihoods = new double[tableSize];
+			for (int c = 0; c < numColumns; c++) {
+				NaiveBayesClassifierPreComputed nb = columnLearners.get(c);
+				int label = columnLabels.getInt(c);
+				priors[c] = nb.empiricalLabelPriors ? nb.labelPriors.get(label) : 0;
+				Int2DoubleMap labelLikelihoods = nb.featureLikelihoods.get(label);
+				if (labelLikelihoods == null) continue;
+				for (int feature : nb.vocab) {
+					likelihoods[featureRows.get(feature) * numColumns + c] = labelLikelihoods.get(feature);
+				}
+			}
+			return new CompiledScores(columnLabels.toIntArray(), priors, featureRows, likelihoods);
+		}
+
+		Int2DoubleOpenHashMap score(int[] features) {
+			double[] scores = priors.clone();
+			for (int feature : features) {
+				int row = featureRows.get(feature);
+				if (row < 0) continue;
+				int offset = row * numColumns;
+				for (int c = 0; c < numColumns; c++) scores[c] += likelihoods[offset + c];
+			}
+			// Later learners' scores replace earlier ones for the same label, as putAll() did
+			Int2DoubleOpenHashMap jll = new Int2DoubleOpenHashMap(numColumns);
+			for (int c = 0; c < numColumns; c++) {
+				jll.put(columnLabels[c], scores[c]);
+			}
+			return jll;
+		}
+	}
 }
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Created by thk22 on 03/10/2014.
@@ -363,6 +364,11 @@ public class NaiveBayesOVRClassifier<T extends NaiveBayesClassifier> extends Nai
 		return (this.ovrLearners.keySet().size() > 1) ? this.ovrLearners.get(label).likelihood(feature, label) : this.ovrLearners.get(OTHER_LABEL).likelihood(feature, label);
 	}
 
+    /**
+     * With more than two labels, a learner per label is trained concurrently, each of which reads all
+     * of the documents. So both the labelled and unlabelled documents are first read into memory once
+     * (unless they're already lists), rather than iterated by several threads at once.
+     */
     @Override
     public void train(Iterable<ProcessedInstance> labelledDocuments, Iterable<ProcessedInstance> unlabelledDocuments)
     {
@@ -438,6 +444,10 @@ public class NaiveBayesOVRClassifier<T extends NaiveBayesClassifier> extends Nai
 		return priors;
 	}
 
+    /**
+     * Each learner's probability for its own label. For scoring many documents, use
+     * getPrecomputedClassifier(), which scores all the learners in a single pass over the features.
+     */
     public Int2DoubleOpenHashMap predict(int[] features)
     {
         Int2DoubleOpenHashMap prediction = new Int2DoubleOpenHashMap();
@@ -482,20 +492,34 @@ public class NaiveBayesOVRClassifier<T extends NaiveBayesClassifier> extends Nai
         this.ovrLearners.get(OTHER_LABEL).train(labelledDocs, unlabelledDocuments);
     }
 
+    /*
+     * The learners are independent of each other, so they are trained concurrently (one task per
+     * label on the common ForkJoin pool). The documents are read into lists once up front, since
+     * an arbitrary Iterable may not support being iterated by several threads at once.
+     */
     private void trainOVRSupervised(Iterable<ProcessedInstance> labelledDocs)
     {
-        for (int l : this.labels) {
-            T currLearner = this.ovrLearners.get(l);
-            currLearner.train(this.binariseLabelledDocuments(labelledDocs, l));
-        }
+        List<ProcessedInstance> documents = asList(labelledDocs);
+        IntStream.of(this.labels.toIntArray()).parallel().forEach(l ->
+            this.ovrLearners.get(l).train(this.binariseLabelledDocuments(documents, l))
+        );
     }
 
     private void trainOVRSemiSupervised(Iterable<ProcessedInstance> labelledDocs, Iterable<ProcessedInstance> unlabelledDocs)
     {
-        for (int l : this.labels) {
-            T currLearner = this.ovrLearners.get(l);
-            currLearner.train(this.binariseLabelledDocuments(labelledDocs, l), unlabelledDocs);
-        }
+        List<ProcessedInstance> documents = asList(labelledDocs);
+        List<ProcessedInstance> unlabelled = asList(unlabelledDocs);
+        IntStream.of(this.labels.toIntArray()).parallel().forEach(l ->
+            this.ovrLearners.get(l).train(this.binariseLabelledDocuments(documents, l), unlabelled)
+        );
+    }
+
+    private static List<ProcessedInstance> asList(Iterable<ProcessedInstance> documents)
+    {
+        if (documents instanceof List) return (List<ProcessedInstance>) documents;
+        List<ProcessedInstance> list = new ArrayList<>();
+        for (ProcessedInstance p : documents) list.add(p);
+        return list;
     }
 
     private Iterable<ProcessedInstance> binariseLabelledDocuments(Iterable<ProcessedInstance> labelledDocs, int currLabel)
@@ -4,13 +4,12 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.primitives.Ints;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.math.stat.clustering.Cluster;
 import uk.ac.susx.tag.classificationframework.clusters.ClusteredProcessedInstance;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
-import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter;
+import uk.ac.susx.tag.classificationframework.datastructures.PackedRootedNgramCounter;
 import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter.TopNgram;
 import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterByRegex;
 import uk.ac.susx.tag.classificationframework.featureextraction.filtering.TokenFilterRelevanceStopwords;
@@ -293,22 +292,22 @@ public class ClusterFeatureAnalysis {
                                                                   int minPhraseSize,
                                                                   int maxPhraseSize){
 
-        List<RootedNgramCounter<Integer>> counters = topFeatures.stream()
-                                                        .map(f -> new RootedNgramCounter<>(f, minPhraseSize, maxPhraseSize, minleafPruningThreshold, minimumCount,level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
+        List<PackedRootedNgramCounter> counters = topFeatures.stream()
+                                                        .map(f -> new PackedRootedNgramCounter(f, minPhraseSize, maxPhraseSize, minleafPruningThreshold, minimumCount,level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
                                                         .collect(Collectors.toList());
         // For each document that is in the relevant cluster, count occurrences of surrounding words of each word of interest
         for (ClusteredProcessedInstance document : documents) {
             t.setup(document);
             if (t.isDocumentInCluster(document, clusterIndex)){
-                for(RootedNgramCounter<Integer> counter : counters){
-                    counter.addContext(Ints.asList(document.getDocument().features), 1);
+                for(PackedRootedNgramCounter counter : counters){
+                    counter.addContext(document.getDocument().features, 1);
                 }
             }
         }
 
         // For each word of interest, pick the longest most frequent phrases
         Map<Integer, List<TopNgram<Integer>>> topPhrasesPerFeature = new LinkedHashMap<>();
-        for (RootedNgramCounter<Integer> counter : counters){
+        for (PackedRootedNgramCounter counter : counters){
             topPhrasesPerFeature.put(counter.getRootToken(), counter.topNgrams(numPhrasesPerFeature));
         }
 
@@ -437,23 +436,23 @@ public class ClusterFeatureAnalysis {
 
         List<Integer> features = getTopFeatures(clusterIndex, numFeatures, m, featureType);
 
-        List<RootedNgramCounter<Integer>> counters = features.stream()
-                                                        .map(f -> new RootedNgramCounter<>(f, minPhraseSize, maxPhraseSize, minLeafPruningThreshold, minimumCount, level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
+        List<PackedRootedNgramCounter> counters = features.stream()
+                                                        .map(f -> new PackedRootedNgramCounter(f, minPhraseSize, maxPhraseSize, minLeafPruningThreshold, minimumCount, level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
                                                         .collect(Collectors.toList());
 
         // For each document that is in the relevant cluster, count occurrences of surrounding words of each word of interest
         for (ClusteredProcessedInstance document : documents){
             t.setup(document);
             if (t.isDocumentInCluster(document, clusterIndex)){
-                for (RootedNgramCounter<Integer> counter : counters){
-                    counter.addContext(Ints.asList(document.getDocument().features), 1);
+                for (PackedRootedNgramCounter counter : counters){
+                    counter.addContext(document.getDocument().features, 1);
                 }
             }
         }
 
         // For each word of interest, pick the longest most frequent phrases
         Map<Integer, List<TopNgram<Integer>>> topPhrases = new LinkedHashMap<>();
-        for (RootedNgramCounter<Integer> counter : counters){
+        for (PackedRootedNgramCounter counter : counters){
             topPhrases.put(counter.getRootToken(), counter.topNgrams(numPhrasesPerFeature));
         }
 
@@ -3,7 +3,6 @@ package uk.ac.susx.tag.classificationframework.clusters.clusteranalysis;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import uk.ac.susx.tag.classificationframework.clusters.ClusteredProcessedInstance;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
@@ -11,10 +10,12 @@ import uk.ac.susx.tag.classificationframework.featureextraction.inference.Featur
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Class for gathering statistics about features in clustered documents.
@@ -232,6 +233,13 @@ public abstract class FeatureClusterJointCounter implements Serializable {
      */
     public static class FeatureBasedCounts extends FeatureClusterJointCounter {
 
+        // Documents are only split between threads if each thread would get at least this many
+        private static final int MIN_DOCUMENTS_PER_SHARD = 1000;
+
+        private static final byte WORD = 0;
+        private static final byte HASH_TAG = 1;
+        private static final byte ACCOUNT_TAG = 2;
+
         public int numClusters;
 
         public int totalFeatureCount;
@@ -292,47 +300,7 @@ public abstract class FeatureClusterJointCounter implements Serializable {
             }
 
             // Obtain feature counts, and joint counts of features per cluster
-            for (ClusteredProcessedInstance instance : documents) {
-
-                t.setup(instance);
-
-                int[] features = instance.getDocument().features;
-
-                IntList words = new IntArrayList();
-                IntList hashTags = new IntArrayList();
-                IntList accountTags = new IntArrayList();
-
-                for (int feature : features) {
-                    String f = pipeline.featureString(feature, "**UNKNOWN**");
-                    if (f.startsWith("#")){
-                        hashTags.add(feature);
-                    } else if (f.startsWith("@")){
-                        accountTags.add(feature);
-                    } else {
-                        words.add(feature);
-                    }
-                }
-
-                totalFeatureCount += words.size();
-                for (int feature : features)
-                    featureCounts.addTo(feature, 1);
-                totalHashTagCount += hashTags.size();
-                for (int hashTag : hashTags)
-                    hashTagCounts.addTo(hashTag, 1);
-                totalAccountTagCount += accountTags.size();
-                for (int accountTag : accountTags)
-                    accountTagCounts.addTo(accountTag, 1);
-
-
-                for (int clusterIndex=0; clusterIndex < numClusters; clusterIndex++){
-                    if (t.isDocumentInCluster(instance, clusterIndex)){
-                        totalFeatureCountPerCluster[clusterIndex] += features.length;
-                        for (int feature : features) {
-                            jointCounts[clusterIndex].addTo(feature, 1);
-                        }
-                    }
-                }
-            }
+            countInShards(documents, t, pipeline, false, Runtime.getRuntime().availableProcessors());
         }
 
         @Override
@@ -346,75 +314,197 @@ public abstract class FeatureClusterJointCounter implements Serializable {
             }
 
             //  joint counts of features per cluster
-            for (ClusteredProcessedInstance instance : documents) {
+            countInShards(documents, t, pipeline, true, Runtime.getRuntime().availableProcessors());
+
+            for (Instance instance : backgroundDocuments) {
 
-                t.setup(instance);
+                List<String> words = pipeline.extractUnindexedFeatures(instance).stream()
+                                        .map(FeatureInferrer.Feature::value)
+                                        .filter(f -> !f.startsWith("#") && !f.startsWith("@"))
+                                        .collect(Collectors.toList());
 
-                int[] features = instance.getDocument().features;
+                totalFeatureCount += words.size();
 
-                IntList words = new IntArrayList();
-                IntList hashTags = new IntArrayList();
-                IntList accountTags = new IntArrayList();
+                for (String word : words)
+                    featureCounts.addTo(pipeline.featureIndex(word), 1);
+            }
+        }
 
-                for (int feature : features) {
-                    String f = pipeline.featureString(feature, "**UNKNOWN**");
-                    if (f.startsWith("#")){
-                        hashTags.add(feature);
-                    } else if (f.startsWith("@")){
-                        accountTags.add(feature);
+        /**
+         * Split the clustered documents into contiguous shards, count each shard into its own FeatureBasedCounts
+         * in parallel, then add the shards' counts to this one.
+         *
+         * @param separateFeatureTypes If true, count as in the background documents version of count(): words,
+         *                             hashtags and account tags get separate joint counts, and the clustered
+         *                             documents only contribute hashtag and account tag background counts.
+         *                             Otherwise count as in the version without background documents.
+         * @param maxShards The most shards to split the documents into (fewer if there are too few documents).
+         */
+        void countInShards(Collection<ClusteredProcessedInstance> documents, ClusterMembershipTest t, FeatureExtractionPipeline pipeline, boolean separateFeatureTypes, int maxShards){
+            List<ClusteredProcessedInstance> documentList = documents instanceof List? (List<ClusteredProcessedInstance>)documents : new ArrayList<>(documents);
+            byte[] featureTypes = featureTypes(pipeline);
+
+            int numShards = Math.max(1, Math.min(maxShards, documentList.size() / MIN_DOCUMENTS_PER_SHARD));
+
+            // If the membership test has state, it can only be used from this thread, so work out cluster membership up front
+            int[][] memberships = null;
+            if (numShards > 1 && !t.isStateless()) {
+                memberships = new int[documentList.size()][];
+                IntArrayList clusters = new IntArrayList();
+                for (int i = 0; i < documentList.size(); i++) {
+                    clusterMembership(documentList.get(i), t, clusters);
+                    memberships[i] = clusters.toIntArray();
+                }
+            }
+            final int[][] precomputedMemberships = memberships;
+
+            FeatureBasedCounts[] shards = new FeatureBasedCounts[numShards];
+            shards[0] = this;
+            for (int s = 1; s < numShards; s++)
+                shards[s] = new FeatureBasedCounts(numClusters);
+
+            int shardSize = (documentList.size() + numShards - 1) / numShards;
+            IntStream.range(0, numShards).parallel().forEach(s -> {
+                int start = Math.min(documentList.size(), s * shardSize);
+                int end = Math.min(documentList.size(), start + shardSize);
+                IntArrayList clusters = new IntArrayList();
+                for (int i = start; i < end; i++) {
+                    ClusteredProcessedInstance instance = documentList.get(i);
+                    int[] documentClusters;
+                    int numDocumentClusters;
+                    if (precomputedMemberships != null) {
+                        documentClusters = precomputedMemberships[i];
+                        numDocumentClusters = documentClusters.length;
                     } else {
-                        words.add(feature);
+                        clusterMembership(instance, t, clusters);
+                        documentClusters = clusters.elements();
+                        numDocumentClusters = clusters.size();
                     }
+                    if (separateFeatureTypes)
+                        shards[s].countSeparatingFeatureTypes(instance.getDocument().features, documentClusters, numDocumentClusters, featureTypes);
+                    else
+                        shards[s].countAllFeatures(instance.getDocument().features, documentClusters, numDocumentClusters, featureTypes);
                 }
+            });
 
-                for (int clusterIndex=0; clusterIndex < numClusters; clusterIndex++){
-                    if (t.isDocumentInCluster(instance, clusterIndex)){
+            for (int s = 1; s < numShards; s++)
+                addCounts(shards[s]);
+        }
 
-                        // Add joint counts and cluster totals for the words
-                        totalFeatureCountPerCluster[clusterIndex] += words.size();
-                        for (int word : words) {
-                            jointCounts[clusterIndex].addTo(word, 1);
-                        }
+        /**
+         * Fill the list with the indices of the clusters that the document is a member of.
+         */
+        private void clusterMembership(ClusteredProcessedInstance instance, ClusterMembershipTest t, IntArrayList clusters){
+            clusters.clear();
+            t.setup(instance);
+            for (int clusterIndex = 0; clusterIndex < numClusters; clusterIndex++){
+                if (t.isDocumentInCluster(instance, clusterIndex))
+                    clusters.add(clusterIndex);
+            }
+        }
 
-                        // Add joint counts, cluster totals, and background counts for hashtags/accounttags
-                        totalAccountTagCountPerCluster[clusterIndex] += accountTags.size();
-                        for(int accountTag : accountTags){
-                            accountTagJointCounts[clusterIndex].addTo(accountTag, 1);
-                        }
+        /**
+         * The type of every feature in the pipeline's feature index, determined once so that counting doesn't
+         * have to look up the string form of each feature occurrence. Features outside the index are words.
+         */
+        private static byte[] featureTypes(FeatureExtractionPipeline pipeline){
+            List<String> strings = pipeline.getFeatureIndexer().getStrings();
+            byte[] types = new byte[strings.size()];
+            for (int i = 0; i < types.length; i++){
+                String f = strings.get(i);
+                types[i] = f.startsWith("#")? HASH_TAG : f.startsWith("@")? ACCOUNT_TAG : WORD;
+            }
+            return types;
+        }
 
-                        totalHashTagCountPerCluster[clusterIndex] += hashTags.size();
-                        for (int hashTag : hashTags){
-                            hashTagJointCounts[clusterIndex].addTo(hashTag, 1);
-                        }
-                    }
-                }
+        private static byte featureType(int feature, byte[] featureTypes){
+            return feature >= 0 && feature < featureTypes.length? featureTypes[feature] : WORD;
+        }
 
-                // Use all clusters as background data for hash and account tags
-                totalHashTagCount += hashTags.size();
-                for (int hashTag : hashTags){
-                    hashTagCounts.addTo(hashTag, 1);
+        private void countAllFeatures(int[] features, int[] clusters, int numDocumentClusters, byte[] featureTypes){
+            for (int feature : features) {
+                featureCounts.addTo(feature, 1);
+                switch (featureType(feature, featureTypes)) {
+                    case HASH_TAG:
+                        totalHashTagCount++;
+                        hashTagCounts.addTo(feature, 1);
+                        break;
+                    case ACCOUNT_TAG:
+                        totalAccountTagCount++;
+                        accountTagCounts.addTo(feature, 1);
+                        break;
+                    default:
+                        totalFeatureCount++;
                 }
+            }
 
-                totalAccountTagCount += accountTags.size();
-                for (int accountTag : accountTags){
-                    accountTagCounts.addTo(accountTag, 1);
+            for (int c = 0; c < numDocumentClusters; c++){
+                int clusterIndex = clusters[c];
+                totalFeatureCountPerCluster[clusterIndex] += features.length;
+                for (int feature : features) {
+                    jointCounts[clusterIndex].addTo(feature, 1);
                 }
             }
+        }
 
-            for (Instance instance : backgroundDocuments) {
-
-                List<String> words = pipeline.extractUnindexedFeatures(instance).stream()
-                                        .map(FeatureInferrer.Feature::value)
-                                        .filter(f -> !f.startsWith("#") && !f.startsWith("@"))
-                                        .collect(Collectors.toList());
-
-                totalFeatureCount += words.size();
+        private void countSeparatingFeatureTypes(int[] features, int[] clusters, int numDocumentClusters, byte[] featureTypes){
+            for (int feature : features) {
+                switch (featureType(feature, featureTypes)) {
+                    case HASH_TAG:
+                        // Use all clusters as background data for hash and account tags
+                        totalHashTagCount++;
+                        hashTagCounts.addTo(feature, 1);
+                        for (int c = 0; c < numDocumentClusters; c++) {
+                            totalHashTagCountPerCluster[clusters[c]]++;
+                            hashTagJointCounts[clusters[c]].addTo(feature, 1);
+                        }
+                        break;
+                    case ACCOUNT_TAG:
+                        totalAccountTagCount++;
+                        accountTagCounts.addTo(feature, 1);
+                        for (int c = 0; c < numDocumentClusters; c++) {
+                            totalAccountTagCountPerCluster[clusters[c]]++;
+                            accountTagJointCounts[clusters[c]].addTo(feature, 1);
+                        }
+                        break;
+                    default:
+                        // Add joint counts and cluster totals for the words
+                        for (int c = 0; c < numDocumentClusters; c++) {
+                            totalFeatureCountPerCluster[clusters[c]]++;
+                            jointCounts[clusters[c]].addTo(feature, 1);
+                        }
+                }
+            }
+        }
 
-                for (String word : words)
-                    featureCounts.addTo(pipeline.featureIndex(word), 1);
+        /**
+         * Add all the counts of another FeatureBasedCounts (with the same number of clusters) to this one.
+         */
+        private void addCounts(FeatureBasedCounts other){
+            totalFeatureCount += other.totalFeatureCount;
+            totalHashTagCount += other.totalHashTagCount;
+            totalAccountTagCount += other.totalAccountTagCount;
+
+            addCounts(featureCounts, other.featureCounts);
+            addCounts(hashTagCounts, other.hashTagCounts);
+            addCounts(accountTagCounts, other.accountTagCounts);
+
+            for (int c = 0; c < numClusters; c++){
+                totalFeatureCountPerCluster[c] += other.totalFeatureCountPerCluster[c];
+                totalHashTagCountPerCluster[c] += other.totalHashTagCountPerCluster[c];
+                totalAccountTagCountPerCluster[c] += other.totalAccountTagCountPerCluster[c];
+
+                addCounts(jointCounts[c], other.jointCounts[c]);
+                addCounts(hashTagJointCounts[c], other.hashTagJointCounts[c]);
+                addCounts(accountTagJointCounts[c], other.accountTagJointCounts[c]);
             }
         }
 
+        private static void addCounts(Int2IntOpenHashMap counts, Int2IntOpenHashMap other){
+            for (Int2IntMap.Entry e : other.int2IntEntrySet())
+                counts.addTo(e.getIntKey(), e.getIntValue());
+        }
+
         @Override
         public double featurePrior(int feature, FeatureType t){
             switch (t) {
@@ -595,6 +685,18 @@ public abstract class FeatureClusterJointCounter implements Serializable {
          * Must return true if the document is considered to belong to the specified cluster.
          */
         boolean isDocumentInCluster(ClusteredProcessedInstance instance, int clusterIndex);
+
+        /**
+         * Return true if setup() keeps no state between calls, so that the same test can be used from several
+         * threads at once. Used to count documents in parallel.
+         *
+         * The default is false, meaning that the test can only be used from one thread, so cluster
+         * membership is worked out up front on the counting thread, and only the counting is parallelised.
+         * A subclass of a stateless test which adds state must override this to return false.
+         */
+        default boolean isStateless() {
+            return false;
+        }
     }
 
     /**
@@ -640,6 +742,13 @@ public abstract class FeatureClusterJointCounter implements Serializable {
         public boolean isDocumentInCluster(ClusteredProcessedInstance instance, int clusterIndex) {
             return instance.getClusterVector()[clusterIndex] >= threshold;
         }
+
+        /**
+         * This class is stateless, so can be shared between threads.
+         */
+        public boolean isStateless() {
+            return true;
+        }
     }
 
     public static class ProbabilityAboveUniform extends ProbabilityAboveThreshold {
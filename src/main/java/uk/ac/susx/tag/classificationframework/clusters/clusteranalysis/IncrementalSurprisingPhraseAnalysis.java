@@ -2,12 +2,12 @@ package uk.ac.susx.tag.classificationframework.clusters.clusteranalysis;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.primitives.Ints;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
 import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
-import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter;
+import uk.ac.susx.tag.classificationframework.datastructures.PackedRootedNgramCounter;
 import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter.TopNgram;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
 
@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline.PipelineChanges;
 
@@ -34,6 +35,7 @@ public class IncrementalSurprisingPhraseAnalysis {
     private static final Logger LOG = LoggerFactory.getLogger(IncrementalSurprisingPhraseAnalysis.class);
 
     private static final double featureSmoothing = 0.1;
+    private static final int MIN_DOCUMENTS_PER_SHARD = 1000; // Fewer documents than this per shard isn't worth the merge
 //     private static final Pattern punct = Pattern.compile("\\p{Punct}+");
     // allow for Chinese puncutation used in cluster analysis
    /* Ahmed Younes: I am not sure if  i need to add something to this pattern in order to allow Arabic punctuation but as i understood from Qiwei he is using
@@ -189,29 +191,69 @@ public class IncrementalSurprisingPhraseAnalysis {
                                                                                                 PipelineChanges prePhraseExtractionChanges,
                                                                                                 int batchSize){
 
-        // Prepare the rooted ngram counter objects, one for each top feature
-        List<RootedNgramCounter<Integer>> counters = topFeatures.stream()
-             .map(f -> new RootedNgramCounter<>(f, minPhraseSize, maxPhraseSize, minLeafPruningThreshold, minimumCount,
-                     level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
-             .collect(Collectors.toList());
+        // Prepare the rooted ngram counter objects, one for each top feature, in each shard
+        List<Integer> roots = topFeatures.stream().distinct().collect(Collectors.toList());
+        int numShards = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), documents.size() / MIN_DOCUMENTS_PER_SHARD));
+        List<List<PackedRootedNgramCounter>> shards = new ArrayList<>(numShards);
+        for (int s = 0; s < numShards; s++) {
+            shards.add(roots.stream()
+                 .map(f -> new PackedRootedNgramCounter(f, minPhraseSize, maxPhraseSize, minLeafPruningThreshold, minimumCount,
+                         level1NgramCount, level2NgramCount, level3NgramCount, stopwords))
+                 .collect(Collectors.toList()));
+        }
+
+        // Inverted index from root feature to the position of its counter in each shard
+        Int2IntOpenHashMap rootIndex = new Int2IntOpenHashMap(roots.size());
+        rootIndex.defaultReturnValue(-1);
+        for (int r = 0; r < roots.size(); r++)
+            rootIndex.put(roots.get(r).intValue(), r);
 
 //        LOG.info("Processing target documents for feature context counting.");
-        // Process the documents with any pipeline changes necessary, adding counts to the rooted ngram counters
-        for (ProcessedInstance i : pipeline.surroundProcessingWithChanges(prePhraseExtractionChanges, p -> p.extractFeaturesInBatches(documents, batchSize))) {
-            for (RootedNgramCounter<Integer> rootedNgramCounter : counters) {
-                rootedNgramCounter.addContext(Ints.asList(i.features), 1);
+        // Process the documents with any pipeline changes necessary, one batch at a time. Each batch is split between
+        // the shards, which dispatch each document's contexts in parallel to their own counters.
+        pipeline.surroundProcessingWithChanges(prePhraseExtractionChanges, p -> {
+            for (List<Instance> batch : Lists.partition(documents, batchSize)) {
+                List<ProcessedInstance> processed = p.extractFeaturesFromBatch(batch);
+                int shardSize = (processed.size() + numShards - 1) / numShards;
+                IntStream.range(0, numShards).parallel().forEach(s -> {
+                    int start = Math.min(processed.size(), s * shardSize);
+                    int end = Math.min(processed.size(), start + shardSize);
+                    dispatchContexts(processed.subList(start, end), rootIndex, shards.get(s));
+                });
             }
+            return null;
+        });
+
+        // Merge the shards' counts into the first shard
+        List<PackedRootedNgramCounter> counters = shards.get(0);
+        for (int s = 1; s < numShards; s++) {
+            List<PackedRootedNgramCounter> shard = shards.get(s);
+            IntStream.range(0, counters.size()).parallel().forEach(r -> counters.get(r).merge(shard.get(r)));
         }
 
 //        LOG.info("Taking top N phrases.");
         // For each word of interest, pick the longest most frequent phrases, using the counts found
         Map<Integer, List<TopNgram<Integer>>> topPhrasesPerFeature = new LinkedHashMap<>();
-        for (RootedNgramCounter<Integer> counter : counters){
+        for (PackedRootedNgramCounter counter : counters){
             topPhrasesPerFeature.put(counter.getRootToken(), counter.topNgrams(numPhrasesPerFeature));
         }
         return topPhrasesPerFeature;
     }
 
+    /**
+     * Scan each document once, and for every position holding one of the root features, add that context to the
+     * root's counter. Only the counters of roots that actually occur in a document are touched.
+     */
+    private static void dispatchContexts(List<ProcessedInstance> documents, Int2IntOpenHashMap rootIndex, List<PackedRootedNgramCounter> counters){
+        for (ProcessedInstance i : documents) {
+            for (int position = 0; position < i.features.length; position++) {
+                int r = rootIndex.get(i.features[position]);
+                if (r >= 0)
+                    counters.get(r).addContextAt(i.features, position, 1);
+            }
+        }
+    }
+
     /**
      * @param topFeatures Top features as obtained from getTopFeatures()
      * @param documents The same documents used for getTopFeatures(), ensure that indices match up if you did any reprocessing
@@ -0,0 +1,375 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import uk.ac.susx.tag.classificationframework.exceptions.ConfigurationException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A memory-mapped corpus of ProcessedInstances, as written by BinaryCorpusWriter.
+ *
+ * The file is laid out like a CSR sparse matrix: a block of varint-encoded feature ID
+ * deltas for every row (instance), followed by the offset of each row in that block, the
+ * cumulative feature counts (so that row lengths are known before decoding), a label column,
+ * sparse label probabilities, and source IDs. The whole file is mapped read-only, so opening
+ * a corpus costs nothing beyond reading the header, and pages are loaded as rows are touched.
+ *
+ * Rows can be read:
+ *
+ *  - Without allocation, by decoding into a caller-owned int[] (features(row, buffer)), or
+ *    with a RowCursor, which decodes each row in turn into a single reused buffer.
+ *  - As ProcessedInstances (instance(row), or iterating over instances()). Their source
+ *    Instances only have the ID set, since the text was not stored.
+ *
+ * The corpus records the size and a checksum of the feature and label vocabularies it was
+ * written with. open(file, pipeline) checks that the pipeline's indexers still begin with the
+ * same entries (they may have grown since), so the feature IDs mean the same thing.
+ *
+ * Usage:
+ *
+ *  BinaryCorpus corpus = BinaryCorpus.open(new File("training.corpus"), pipeline);
+ *  BinaryCorpus.RowCursor c = corpus.cursor();
+ *  while (c.next()) {
+ *      int[] features = c.features();  // Only the first c.length() entries are this row's
+ *      ...
+ *  }
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class BinaryCorpus {
+
+    static final int MAGIC = 0x54434643; // "TCFC"
+    static final int VERSION = 1;
+    static final int FLAG_SORTED = 1;
+    static final int HEADER_BYTES = 128;
+
+    // The file is mapped in overlapping segments, so that no row's feature data (up to the overlap in size) spans two
+    private static final long SEGMENT_STEP = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 1L << 24;
+
+    private final MappedByteBuffer[] segments;
+    private final long fileLength;
+
+    private final int flags;
+    private final int numRows;
+    private final long numFeatureOccurrences;
+    private final int vocabularySize;
+    private final int labelVocabularySize;
+    private final long checksum;
+
+    private final long rowByteOffsetsStart;
+    private final long rowFeatureOffsetsStart;
+    private final long labelProbabilityOffsetsStart;
+    private final long probabilitiesStart;
+    private final long idOffsetsStart;
+    private final long labelsStart;
+    private final long probabilityLabelsStart;
+    private final long idsStart;
+
+    private BinaryCorpus(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            fileLength = channel.size();
+            int numSegments = (int)Math.max(1, (fileLength + SEGMENT_STEP - 1) / SEGMENT_STEP);
+            segments = new MappedByteBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                long start = s * SEGMENT_STEP;
+                long size = Math.min(fileLength - start, SEGMENT_STEP + SEGMENT_OVERLAP);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        if (fileLength < HEADER_BYTES || getInt(0) != MAGIC)
+            throw new IOException("Not a binary corpus file: " + file);
+        if (getInt(4) != VERSION)
+            throw new IOException("Unsupported binary corpus version " + getInt(4) + " in " + file);
+
+        flags = getInt(8);
+        numRows = getInt(12);
+        numFeatureOccurrences = getLong(16);
+        vocabularySize = getInt(24);
+        labelVocabularySize = getInt(28);
+        checksum = getLong(32);
+        rowByteOffsetsStart = getLong(40);
+        rowFeatureOffsetsStart = getLong(48);
+        labelProbabilityOffsetsStart = getLong(56);
+        probabilitiesStart = getLong(64);
+        idOffsetsStart = getLong(72);
+        labelsStart = getLong(80);
+        probabilityLabelsStart = getLong(88);
+        idsStart = getLong(96);
+        if (getLong(104) != fileLength)
+            throw new IOException("Binary corpus file is truncated or was not closed properly: " + file);
+    }
+
+    /**
+     * Open a corpus without checking its vocabulary.
+     */
+    public static BinaryCorpus open(File file) throws IOException {
+        return new BinaryCorpus(file);
+    }
+
+    /**
+     * Open a corpus, checking that the pipeline's feature and label indexers are consistent
+     * with the ones used when the corpus was written.
+     */
+    public static BinaryCorpus open(File file, FeatureExtractionPipeline pipeline) throws IOException {
+        BinaryCorpus corpus = new BinaryCorpus(file);
+        if (!corpus.isCompatibleWith(pipeline))
+            throw new ConfigurationException("The pipeline's feature or label vocabulary does not match the one used to write " + file);
+        return corpus;
+    }
+
+    public boolean isCompatibleWith(FeatureExtractionPipeline pipeline) {
+        return pipeline.getFeatureIndexer().size() >= vocabularySize
+            && pipeline.getLabelIndexer().size() >= labelVocabularySize
+            && vocabularyChecksum(pipeline, vocabularySize, labelVocabularySize) == checksum;
+    }
+
+    /**
+     * A checksum over the first vocabularySize features and labelVocabularySize labels of the pipeline's indexers.
+     */
+    public static long vocabularyChecksum(FeatureExtractionPipeline pipeline, int vocabularySize, int labelVocabularySize) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        addToChecksum(hasher, pipeline.getFeatureIndexer().getStrings(), vocabularySize);
+        addToChecksum(hasher, pipeline.getLabelIndexer().getStrings(), labelVocabularySize);
+        return hasher.hash().asLong();
+    }
+
+    private static void addToChecksum(Hasher hasher, List<String> strings, int size) {
+        hasher.putInt(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            hasher.putInt(bytes.length);
+            hasher.putBytes(bytes);
+        }
+    }
+
+    public int numRows() { return numRows; }
+    public long numFeatureOccurrences() { return numFeatureOccurrences; }
+    public int vocabularySize() { return vocabularySize; }
+    public int labelVocabularySize() { return labelVocabularySize; }
+    public long checksum() { return checksum; }
+
+    /**
+     * True if the features of each row were sorted when written (their original order is lost).
+     */
+    public boolean featuresSorted() { return (flags & FLAG_SORTED) != 0; }
+
+/**********************************************************************************************************************
+ * Row access
+ **********************************************************************************************************************/
+
+    public int rowLength(int row) {
+        checkRow(row);
+        return (int)(getLong(rowFeatureOffsetsStart + 8L * (row + 1)) - getLong(rowFeatureOffsetsStart + 8L * row));
+    }
+
+    /**
+     * The start of the row in the cumulative feature count (like the indptr array of a CSR matrix).
+     */
+    public long rowStart(int row) {
+        if (row < 0 || row > numRows) throw new IndexOutOfBoundsException("Row " + row);
+        return getLong(rowFeatureOffsetsStart + 8L * row);
+    }
+
+    /**
+     * Decode the features of a row into the buffer, which must have at least rowLength(row) entries.
+     * @return the number of features decoded
+     */
+    public int features(int row, int[] buffer) {
+        return features(row, buffer, 0);
+    }
+
+    /**
+     * Decode the features of a row into the buffer starting at the offset.
+     * @return the number of features decoded
+     */
+    public int features(int row, int[] buffer, int offset) {
+        int length = rowLength(row);
+        if (buffer.length - offset < length)
+            throw new IllegalArgumentException("Buffer too small for row " + row + " of length " + length);
+        long start = HEADER_BYTES + getLong(rowByteOffsetsStart + 8L * row);
+
+        int segment = (int)(start / SEGMENT_STEP);
+        MappedByteBuffer bytes = segments[segment];
+        int position = (int)(start - segment * SEGMENT_STEP);
+
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = position < bytes.limit()? bytes.get(position++) : getByte(segment * SEGMENT_STEP + position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            previous += unzigzag(value);
+            buffer[offset + i] = previous;
+        }
+        return length;
+    }
+
+    public int[] features(int row) {
+        int[] features = new int[rowLength(row)];
+        features(row, features);
+        return features;
+    }
+
+    public int label(int row) {
+        checkRow(row);
+        return getInt(labelsStart + 4L * row);
+    }
+
+    public boolean hasExplicitLabelProbabilities(int row) {
+        checkRow(row);
+        return getLong(labelProbabilityOffsetsStart + 8L * (row + 1)) > getLong(labelProbabilityOffsetsStart + 8L * row);
+    }
+
+    public Int2DoubleOpenHashMap labelProbabilities(int row) {
+        checkRow(row);
+        long start = getLong(labelProbabilityOffsetsStart + 8L * row);
+        long end = getLong(labelProbabilityOffsetsStart + 8L * (row + 1));
+        Int2DoubleOpenHashMap probabilities = new Int2DoubleOpenHashMap();
+        if (start == end) {
+            int label = label(row);
+            if (label >= 0) probabilities.put(label, 1.0);
+        } else {
+            for (long i = start; i < end; i++)
+                probabilities.put(getInt(probabilityLabelsStart + 4 * i), getDouble(probabilitiesStart + 8 * i));
+        }
+        return probabilities;
+    }
+
+    /**
+     * The ID of the row's source instance (null if it had no ID).
+     */
+    public String id(int row) {
+        checkRow(row);
+        long start = getLong(idOffsetsStart + 8L * row);
+        long end = getLong(idOffsetsStart + 8L * (row + 1));
+        if (start == end) return null;
+        byte[] bytes = new byte[(int)(end - start)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = getByte(idsStart + start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build a ProcessedInstance for a row. Its source Instance has only its ID set.
+     */
+    public ProcessedInstance instance(int row) {
+        int label = label(row);
+        ProcessedInstance instance = new ProcessedInstance(label, features(row), new Instance("", null, id(row)));
+        if (hasExplicitLabelProbabilities(row))
+            instance.setLabeling(label, labelProbabilities(row));
+        return instance;
+    }
+
+    public Iterable<ProcessedInstance> instances() {
+        return () -> new Iterator<ProcessedInstance>() {
+            private int row = 0;
+            public boolean hasNext() { return row < numRows; }
+            public ProcessedInstance next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return instance(row++);
+            }
+            public void remove() { throw new UnsupportedOperationException(); }
+        };
+    }
+
+    public RowCursor cursor() {
+        return new RowCursor();
+    }
+
+    /**
+     * Primitive iterator over the rows. The features of the current row are decoded into a buffer
+     * which is reused (and grown if necessary) for every row, so iterating allocates nothing.
+     */
+    public class RowCursor {
+        private int row = -1;
+        private int length = 0;
+        private int[] buffer = new int[64];
+
+        public boolean next() {
+            if (row + 1 >= numRows) return false;
+            row++;
+            int rowLength = rowLength(row);
+            if (buffer.length < rowLength)
+                buffer = new int[Math.max(rowLength, buffer.length * 2)];
+            length = BinaryCorpus.this.features(row, buffer);
+            return true;
+        }
+
+        public int row() { return row; }
+        public int length() { return length; }
+        public int label() { return BinaryCorpus.this.label(row); }
+
+        /**
+         * The features of the current row are the first length() entries. Only valid until next() is called.
+         */
+        public int[] features() { return buffer; }
+    }
+
+/**********************************************************************************************************************
+ * Encoding
+ **********************************************************************************************************************/
+
+    static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Write an unsigned varint into the buffer at the position.
+     * @return the position after the varint
+     */
+    static int writeVarint(int value, byte[] buffer, int position) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte)value;
+        return position;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= numRows) throw new IndexOutOfBoundsException("Row " + row + " of " + numRows);
+    }
+
+    private MappedByteBuffer segmentFor(long position) {
+        return segments[(int)(position / SEGMENT_STEP)];
+    }
+
+    private byte getByte(long position) {
+        return segmentFor(position).get((int)(position % SEGMENT_STEP));
+    }
+
+    // Fixed width values are aligned to their size, and SEGMENT_STEP is a multiple of 8, so they never span two segments
+    private int getInt(long position) {
+        return segmentFor(position).getInt((int)(position % SEGMENT_STEP));
+    }
+
+    private long getLong(long position) {
+        return segmentFor(position).getLong((int)(position % SEGMENT_STEP));
+    }
+
+    private double getDouble(long position) {
+        return segmentFor(position).getDouble((int)(position % SEGMENT_STEP));
+    }
+}
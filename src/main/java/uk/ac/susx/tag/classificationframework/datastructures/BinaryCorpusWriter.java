@@ -0,0 +1,237 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes ProcessedInstances to the binary corpus format read by BinaryCorpus, so that
+ * datasets can be stored after feature extraction, and retraining or evaluation can skip it.
+ *
+ * Each instance's features are stored as a row of varint-encoded deltas between successive
+ * feature IDs. By default the features of each row are sorted first, which keeps the deltas
+ * small; duplicates are kept, so counts are unaffected, but the original order of the features
+ * is lost. Use sortFeatures=false where the order matters (e.g. for phrase analysis).
+ *
+ * Alongside the features are stored each instance's label, its label probabilities (only where
+ * they aren't simply probability 1 for the label) and its source Instance's ID. The source text
+ * and label strings are not stored.
+ *
+ * The file is tied to the pipeline's vocabulary (feature and label indexers) via a checksum,
+ * which is computed over the indexer entries that exist when the writer is closed.
+ *
+ * Usage:
+ *
+ *  try (BinaryCorpusWriter w = new BinaryCorpusWriter(new File("training.corpus"), pipeline)){
+ *      for (ProcessedInstance i : documents) w.write(i);
+ *  }
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class BinaryCorpusWriter implements AutoCloseable {
+
+    private final File file;
+    private final FeatureExtractionPipeline pipeline;
+    private final boolean sortFeatures;
+
+    private final DataOutputStream featureData;
+    private long featureBytes = 0;
+    private long numFeatureOccurrences = 0;
+
+    private final LongArrayList rowByteOffsets = new LongArrayList();
+    private final LongArrayList rowFeatureOffsets = new LongArrayList();
+    private final IntArrayList labels = new IntArrayList();
+    private final LongArrayList labelProbabilityOffsets = new LongArrayList();
+    private final IntArrayList probabilityLabels = new IntArrayList();
+    private final DoubleArrayList probabilities = new DoubleArrayList();
+    private final LongArrayList idOffsets = new LongArrayList();
+    private final FastByteArrayOutput ids = new FastByteArrayOutput();
+
+    private byte[] encodeBuffer = new byte[256];
+    private int[] sortBuffer = new int[64];
+    private boolean closed = false;
+
+    public BinaryCorpusWriter(File file, FeatureExtractionPipeline pipeline) throws IOException {
+        this(file, pipeline, true);
+    }
+
+    public BinaryCorpusWriter(File file, FeatureExtractionPipeline pipeline, boolean sortFeatures) throws IOException {
+        this.file = file;
+        this.pipeline = pipeline;
+        this.sortFeatures = sortFeatures;
+
+        featureData = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        featureData.write(new byte[BinaryCorpus.HEADER_BYTES]); // Filled in on close
+
+        rowByteOffsets.add(0);
+        rowFeatureOffsets.add(0);
+        labelProbabilityOffsets.add(0);
+        idOffsets.add(0);
+    }
+
+    public void write(ProcessedInstance instance) throws IOException {
+        if (closed) throw new IllegalStateException("Writer has been closed");
+
+        // Features
+        int[] features = instance.features;
+        if (sortFeatures) {
+            if (sortBuffer.length < features.length)
+                sortBuffer = new int[Math.max(features.length, sortBuffer.length * 2)];
+            System.arraycopy(features, 0, sortBuffer, 0, features.length);
+            Arrays.sort(sortBuffer, 0, features.length);
+            features = sortBuffer;
+        }
+        int length = instance.features.length;
+        if (encodeBuffer.length < length * 5)
+            encodeBuffer = new byte[Math.max(length * 5, encodeBuffer.length * 2)];
+        int encoded = 0;
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            encoded = BinaryCorpus.writeVarint(BinaryCorpus.zigzag(features[i] - previous), encodeBuffer, encoded);
+            previous = features[i];
+        }
+        featureData.write(encodeBuffer, 0, encoded);
+        featureBytes += encoded;
+        numFeatureOccurrences += length;
+        rowByteOffsets.add(featureBytes);
+        rowFeatureOffsets.add(numFeatureOccurrences);
+
+        // Labels
+        int label = instance.getLabel();
+        labels.add(label);
+        Int2DoubleOpenHashMap labelProbabilities = instance.getLabelProbabilities();
+        boolean trivial = label < 0? labelProbabilities.isEmpty()
+                                   : labelProbabilities.size() == 1 && labelProbabilities.get(label) == 1.0;
+        if (!trivial) {
+            for (Int2DoubleMap.Entry e : labelProbabilities.int2DoubleEntrySet()) {
+                probabilityLabels.add(e.getIntKey());
+                probabilities.add(e.getDoubleValue());
+            }
+        }
+        labelProbabilityOffsets.add(probabilityLabels.size());
+
+        // Source ID (the empty string stands for a null ID, see BinaryCorpus.id())
+        if (instance.source != null && instance.source.id != null)
+            ids.write(instance.source.id.getBytes(StandardCharsets.UTF_8));
+        idOffsets.add(ids.size());
+    }
+
+    public void write(Iterable<ProcessedInstance> instances) throws IOException {
+        for (ProcessedInstance i : instances) write(i);
+    }
+
+    public int numRows() {
+        return labels.size();
+    }
+
+    /**
+     * Write the row index, labels and IDs after the feature data, then fill in the header.
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        int numRows = labels.size();
+        long position = BinaryCorpus.HEADER_BYTES + featureBytes;
+        position = pad(position);
+
+        long rowByteOffsetsStart = position;
+        for (int i = 0; i <= numRows; i++) featureData.writeLong(rowByteOffsets.getLong(i));
+        position += 8L * (numRows + 1);
+
+        long rowFeatureOffsetsStart = position;
+        for (int i = 0; i <= numRows; i++) featureData.writeLong(rowFeatureOffsets.getLong(i));
+        position += 8L * (numRows + 1);
+
+        long labelProbabilityOffsetsStart = position;
+        for (int i = 0; i <= numRows; i++) featureData.writeLong(labelProbabilityOffsets.getLong(i));
+        position += 8L * (numRows + 1);
+
+        long probabilitiesStart = position;
+        for (int i = 0; i < probabilities.size(); i++) featureData.writeDouble(probabilities.getDouble(i));
+        position += 8L * probabilities.size();
+
+        long idOffsetsStart = position;
+        for (int i = 0; i <= numRows; i++) featureData.writeLong(idOffsets.getLong(i));
+        position += 8L * (numRows + 1);
+
+        long labelsStart = position;
+        for (int i = 0; i < numRows; i++) featureData.writeInt(labels.getInt(i));
+        position += 4L * numRows;
+
+        long probabilityLabelsStart = position;
+        for (int i = 0; i < probabilityLabels.size(); i++) featureData.writeInt(probabilityLabels.getInt(i));
+        position += 4L * probabilityLabels.size();
+
+        long idsStart = position;
+        featureData.write(ids.array(), 0, ids.size());
+        position += ids.size();
+        featureData.close();
+
+        int vocabularySize = pipeline.getFeatureIndexer().size();
+        int labelVocabularySize = pipeline.getLabelIndexer().size();
+        long checksum = BinaryCorpus.vocabularyChecksum(pipeline, vocabularySize, labelVocabularySize);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(BinaryCorpus.MAGIC);
+            raf.writeInt(BinaryCorpus.VERSION);
+            raf.writeInt(sortFeatures? BinaryCorpus.FLAG_SORTED : 0);
+            raf.writeInt(numRows);
+            raf.writeLong(numFeatureOccurrences);
+            raf.writeInt(vocabularySize);
+            raf.writeInt(labelVocabularySize);
+            raf.writeLong(checksum);
+            raf.writeLong(rowByteOffsetsStart);
+            raf.writeLong(rowFeatureOffsetsStart);
+            raf.writeLong(labelProbabilityOffsetsStart);
+            raf.writeLong(probabilitiesStart);
+            raf.writeLong(idOffsetsStart);
+            raf.writeLong(labelsStart);
+            raf.writeLong(probabilityLabelsStart);
+            raf.writeLong(idsStart);
+            raf.writeLong(position);
+        }
+    }
+
+    /**
+     * Pad the feature data so that the fixed width sections which follow are 8 byte aligned.
+     */
+    private long pad(long position) throws IOException {
+        while (position % 8 != 0) {
+            featureData.write(0);
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Growable byte array, exposing its backing array for writing.
+     */
+    private static class FastByteArrayOutput {
+        private byte[] data = new byte[1024];
+        private int size = 0;
+
+        void write(byte[] bytes) {
+            if (size + bytes.length > data.length)
+                data = Arrays.copyOf(data, Math.max(size + bytes.length, data.length * 2));
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] array() { return data; }
+        int size() { return size; }
+    }
+}
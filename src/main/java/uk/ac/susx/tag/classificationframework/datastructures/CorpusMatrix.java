@@ -0,0 +1,441 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import uk.ac.susx.tag.classificationframework.classifiers.Classifier;
+
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * A labelled corpus held as a sparse matrix in compressed sparse row (CSR) form, with one
+ * row per document and one column per feature ID.
+ *
+ * The features of row r are indices[indptr[r]] to indices[indptr[r+1]-1]. Repeated features
+ * are allowed, and count once per occurrence. Each occurrence can optionally carry a weight
+ * (weights[i] for indices[i]); without weights every occurrence counts 1.
+ *
+ * Alongside the features are each row's label (-1 if unlabelled), and a dense row-major matrix
+ * of label probabilities: labelProbability(row, column) is the probability of the label
+ * labelIds()[column]. For rows built from ProcessedInstances this is their getLabelProbabilities().
+ *
+ * The point of the matrix is that the counting done during training and querying can be done
+ * with arrays indexed by feature ID rather than with hash maps, and split over blocks of rows
+ * which are counted in parallel and then summed. See:
+ *
+ *   NaiveBayesClassifier.train(CorpusMatrix, double) / emTrain(CorpusMatrix, double, Classifier)
+ *   NaiveBayesClassifierFeatureMarginals.calculateFeatureMarginals(CorpusMatrix, CorpusMatrix)
+ *   Util.calculateWordProbabilities(CorpusMatrix)
+ *   Querying.queryFeatures(CorpusMatrix, ...)
+ *
+ * Since the counts are arrays over all feature IDs, the matrix suits corpora whose feature IDs
+ * are dense (as those assigned by a pipeline's indexer are).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class CorpusMatrix {
+
+    // Fewer rows than this per block aren't worth a thread
+    private static final int MIN_ROWS_PER_BLOCK = 1000;
+    // Upper limit on the number of doubles held in per-block accumulators at once (512MB)
+    private static final long MAX_ACCUMULATED_VALUES = 1L << 26;
+
+    private final int numRows;
+    private final int numFeatures;
+    private final int[] indptr;
+    private final int[] indices;
+    private final double[] weights;     // Null if every occurrence has weight 1
+    private final int[] labels;
+    private final int[] labelIds;
+    private final double[] labelProbabilities; // numRows x labelIds.length
+
+    /**
+     * @param numFeatures Number of columns; must be greater than every feature ID in indices.
+     * @param indptr numRows+1 offsets into indices
+     * @param indices Feature IDs of every row in turn
+     * @param weights Weight of each entry in indices, or null for all 1
+     * @param labels Label of each row (-1 for unlabelled)
+     * @param labelIds The label of each column of labelProbabilities
+     * @param labelProbabilities Row-major numRows x labelIds.length label probabilities
+     */
+    public CorpusMatrix(int numFeatures, int[] indptr, int[] indices, double[] weights,
+                        int[] labels, int[] labelIds, double[] labelProbabilities) {
+        this.numRows = labels.length;
+        if (indptr.length != numRows + 1)
+            throw new IllegalArgumentException("indptr must have one more entry than there are rows");
+        if (weights != null && weights.length < indptr[numRows])
+            throw new IllegalArgumentException("There must be a weight for every feature occurrence");
+        if (labelProbabilities.length != numRows * labelIds.length)
+            throw new IllegalArgumentException("There must be a label probability for every row and label");
+        this.numFeatures = numFeatures;
+        this.indptr = indptr;
+        this.indices = indices;
+        this.weights = weights;
+        this.labels = labels;
+        this.labelIds = labelIds;
+        this.labelProbabilities = labelProbabilities;
+    }
+
+    /**
+     * Build the matrix from ProcessedInstances. The iterable is iterated over twice.
+     */
+    public static CorpusMatrix fromInstances(Iterable<ProcessedInstance> instances) {
+        IntArrayList indptr = new IntArrayList();
+        IntArrayList indices = new IntArrayList();
+        IntArrayList labels = new IntArrayList();
+        IntSet labelSet = new IntOpenHashSet();
+        int maxFeature = -1;
+        indptr.add(0);
+        for (ProcessedInstance instance : instances) {
+            for (int feature : instance.features) {
+                if (feature < 0) throw new IllegalArgumentException("Feature IDs must be non-negative: " + feature);
+                indices.add(feature);
+                if (feature > maxFeature) maxFeature = feature;
+            }
+            indptr.add(indices.size());
+            labels.add(instance.getLabel());
+            if (instance.getLabel() >= 0) labelSet.add(instance.getLabel());
+            labelSet.addAll(instance.getLabelProbabilities().keySet());
+        }
+        int[] labelIds = sortedLabels(labelSet);
+
+        // Second pass for the probabilities, now that the label columns are known
+        double[] labelProbabilities = new double[labels.size() * labelIds.length];
+        int row = 0;
+        for (ProcessedInstance instance : instances) {
+            for (Int2DoubleMap.Entry e : instance.getLabelProbabilities().int2DoubleEntrySet())
+                labelProbabilities[row * labelIds.length + Arrays.binarySearch(labelIds, e.getIntKey())] = e.getDoubleValue();
+            row++;
+        }
+        return new CorpusMatrix(maxFeature + 1, indptr.toIntArray(), indices.toIntArray(), null,
+                                labels.toIntArray(), labelIds, labelProbabilities);
+    }
+
+    public static CorpusMatrix fromBinaryCorpus(BinaryCorpus corpus) {
+        int numRows = corpus.numRows();
+        if (corpus.numFeatureOccurrences() > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many feature occurrences for a CorpusMatrix: " + corpus.numFeatureOccurrences());
+
+        int[] indptr = new int[numRows + 1];
+        int[] indices = new int[(int)corpus.numFeatureOccurrences()];
+        int[] labels = new int[numRows];
+        IntSet labelSet = new IntOpenHashSet();
+        int maxFeature = corpus.vocabularySize() - 1;
+        for (int row = 0; row < numRows; row++) {
+            int length = corpus.features(row, indices, indptr[row]);
+            indptr[row + 1] = indptr[row] + length;
+            for (int i = indptr[row]; i < indptr[row + 1]; i++)
+                if (indices[i] > maxFeature) maxFeature = indices[i];
+            labels[row] = corpus.label(row);
+            if (labels[row] >= 0) labelSet.add(labels[row]);
+            if (corpus.hasExplicitLabelProbabilities(row))
+                labelSet.addAll(corpus.labelProbabilities(row).keySet());
+        }
+        int[] labelIds = sortedLabels(labelSet);
+
+        double[] labelProbabilities = new double[numRows * labelIds.length];
+        for (int row = 0; row < numRows; row++) {
+            if (corpus.hasExplicitLabelProbabilities(row)) {
+                for (Int2DoubleMap.Entry e : corpus.labelProbabilities(row).int2DoubleEntrySet())
+                    labelProbabilities[row * labelIds.length + Arrays.binarySearch(labelIds, e.getIntKey())] = e.getDoubleValue();
+            } else if (labels[row] >= 0) {
+                labelProbabilities[row * labelIds.length + Arrays.binarySearch(labelIds, labels[row])] = 1.0;
+            }
+        }
+        return new CorpusMatrix(maxFeature + 1, indptr, indices, null, labels, labelIds, labelProbabilities);
+    }
+
+    private static int[] sortedLabels(IntSet labelSet) {
+        int[] labelIds = labelSet.toIntArray();
+        Arrays.sort(labelIds);
+        return labelIds;
+    }
+
+    public int numRows() { return numRows; }
+    public int numFeatures() { return numFeatures; }
+    public int numLabels() { return labelIds.length; }
+    public int numFeatureOccurrences() { return indptr[numRows]; }
+    public boolean isWeighted() { return weights != null; }
+
+    public int rowStart(int row) { return indptr[row]; }
+    public int rowEnd(int row) { return indptr[row + 1]; }
+    public int rowLength(int row) { return indptr[row + 1] - indptr[row]; }
+    public int[] rowFeatures(int row) { return Arrays.copyOfRange(indices, indptr[row], indptr[row + 1]); }
+    public int feature(int i) { return indices[i]; }
+    public double weight(int i) { return weights == null ? 1 : weights[i]; }
+
+    public int label(int row) { return labels[row]; }
+
+    /**
+     * The label of each column of the label probabilities (sorted ascending).
+     */
+    public int[] labelIds() { return labelIds; }
+
+    /**
+     * The column of a label in the label probabilities, or -1 if it has none.
+     */
+    public int labelColumn(int label) {
+        int column = Arrays.binarySearch(labelIds, label);
+        return column < 0 ? -1 : column;
+    }
+
+    public double labelProbability(int row, int column) {
+        return labelProbabilities[row * labelIds.length + column];
+    }
+
+    /**
+     * The row-major label probability matrix (not copied). See labelWeights().
+     */
+    public double[] labelProbabilities() { return labelProbabilities; }
+
+    /**
+     * A row-major numRows x numLabels() matrix which has a 1 in the column of each row's label,
+     * and is 0 elsewhere (and for unlabelled rows). See labelledCounts().
+     */
+    public double[] labelWeights() {
+        double[] rowLabelWeights = new double[numRows * labelIds.length];
+        for (int row = 0; row < numRows; row++) {
+            if (labels[row] >= 0)
+                rowLabelWeights[row * labelIds.length + labelColumn(labels[row])] = 1;
+        }
+        return rowLabelWeights;
+    }
+
+    /**
+     * For each label column, the sum of its label probabilities over all rows.
+     */
+    public double[] labelProbabilityTotals() {
+        double[] totals = new double[labelIds.length];
+        for (int row = 0; row < numRows; row++)
+            for (int c = 0; c < labelIds.length; c++)
+                totals[c] += labelProbabilities[row * labelIds.length + c];
+        return totals;
+    }
+
+    /**
+     * For each feature, the sum of the weights of its occurrences.
+     */
+    public double[] featureTotals() {
+        return reduceRows(numFeatures,
+            () -> new double[numFeatures],
+            (totals, from, to) -> {
+                for (int i = indptr[from]; i < indptr[to]; i++)
+                    totals[indices[i]] += weight(i);
+            },
+            CorpusMatrix::addInto);
+    }
+
+    /**
+     * The sum of the weights of all feature occurrences.
+     */
+    public double totalWeight() {
+        if (weights == null) return indptr[numRows];
+        double total = 0;
+        for (int i = 0; i < indptr[numRows]; i++) total += weights[i];
+        return total;
+    }
+
+    /**
+     * Counts of features against label columns, where each row contributes to each column in
+     * proportion to its weight in rowLabelWeights (a row-major numRows x numColumns matrix,
+     * e.g. labelWeights() or labelProbabilities(), or posteriors from a classifier).
+     */
+    public LabelledCounts labelledCounts(double[] rowLabelWeights, int numColumns) {
+        if (rowLabelWeights.length != numRows * numColumns)
+            throw new IllegalArgumentException("There must be a weight for every row and column");
+
+        return reduceRows((long)numColumns * numFeatures,
+            () -> new LabelledCounts(numColumns, numFeatures),
+            (counts, from, to) -> {
+                for (int row = from; row < to; row++) {
+                    int start = indptr[row];
+                    int end = indptr[row + 1];
+                    if (start == end) continue;
+
+                    double rowTotal = 0;
+                    for (int c = 0; c < numColumns; c++) {
+                        double w = rowLabelWeights[row * numColumns + c];
+                        if (w == 0) continue;
+                        rowTotal += w;
+                        double[] joint = counts.jointCounts[c];
+                        double occurrences = 0;
+                        for (int i = start; i < end; i++) {
+                            double v = w * weight(i);
+                            joint[indices[i]] += v;
+                            occurrences += v;
+                        }
+                        counts.featureOccurrences[c] += occurrences;
+                        counts.documents[c] += w;
+                    }
+                    if (rowTotal > 0) {
+                        for (int i = start; i < end; i++) counts.vocab[indices[i]] = true;
+                    }
+                }
+            },
+            LabelledCounts::add);
+    }
+
+    /**
+     * Document frequencies: the number of rows in which each feature occurs at least once,
+     * both overall and for the rows of each label. Unlabelled rows count only towards the
+     * overall frequencies. Features in exceptions (may be null) are not counted.
+     */
+    public DocumentFrequencies documentFrequencies(IntSet exceptions) {
+        boolean[] excluded = new boolean[numFeatures];
+        if (exceptions != null) {
+            for (int feature : exceptions)
+                if (feature >= 0 && feature < numFeatures) excluded[feature] = true;
+        }
+        return reduceRows((long)(labelIds.length + 2) * numFeatures,
+            () -> new DocumentFrequencies(labelIds.length, numFeatures),
+            (counts, from, to) -> {
+                int[] lastSeen = new int[numFeatures]; // Row+1 in which each feature was last counted
+                for (int row = from; row < to; row++) {
+                    int column = labels[row] < 0 ? -1 : labelColumn(labels[row]);
+                    int[] joint = column < 0 ? null : counts.jointFrequencies[column];
+                    for (int i = indptr[row]; i < indptr[row + 1]; i++) {
+                        int feature = indices[i];
+                        if (excluded[feature] || lastSeen[feature] == row + 1) continue;
+                        lastSeen[feature] = row + 1;
+                        counts.frequencies[feature]++;
+                        if (joint != null) joint[feature]++;
+                    }
+                    if (column >= 0) counts.labelFrequencies[column]++;
+                }
+            },
+            DocumentFrequencies::add);
+    }
+
+    /**
+     * The classifier's predicted label probabilities for each row, as a row-major numRows x
+     * labelIds.length matrix (labels that the classifier didn't predict get probability 0).
+     * If parallel is true, rows are predicted concurrently, so the classifier's predict()
+     * must be safe to call from several threads.
+     */
+    public double[] predict(Classifier classifier, int[] labelIds, boolean parallel) {
+        double[] posteriors = new double[numRows * labelIds.length];
+        int numBlocks = numBlocks(labelIds.length);
+        IntStream blocks = IntStream.range(0, numBlocks);
+        (parallel ? blocks.parallel() : blocks).forEach(block -> {
+            for (int row = blockStart(block, numBlocks); row < blockStart(block + 1, numBlocks); row++) {
+                for (Int2DoubleMap.Entry e : classifier.predict(rowFeatures(row)).int2DoubleEntrySet()) {
+                    int column = Arrays.binarySearch(labelIds, e.getIntKey());
+                    if (column >= 0) posteriors[row * labelIds.length + column] = e.getDoubleValue();
+                }
+            }
+        });
+        return posteriors;
+    }
+
+    /**
+     * Convert back to ProcessedInstances (with no source Instances).
+     */
+    public Iterable<ProcessedInstance> instances() {
+        return () -> IntStream.range(0, numRows).mapToObj(row -> {
+            ProcessedInstance instance = new ProcessedInstance(labels[row], rowFeatures(row), null);
+            Int2DoubleOpenHashMap probabilities = new Int2DoubleOpenHashMap();
+            for (int c = 0; c < labelIds.length; c++) {
+                double p = labelProbability(row, c);
+                if (p != 0) probabilities.put(labelIds[c], p);
+            }
+            if (labels[row] < 0 ? !probabilities.isEmpty() : !(probabilities.size() == 1 && probabilities.get(labels[row]) == 1.0))
+                instance.setLabelingNonRandom(probabilities);
+            return instance;
+        }).iterator();
+    }
+
+    /**
+     * Counts obtained by labelledCounts().
+     */
+    public static class LabelledCounts {
+        public final double[][] jointCounts;      // [column][feature] weighted occurrences
+        public final double[] featureOccurrences;  // [column] weighted occurrences of all features
+        public final double[] documents;           // [column] weighted count of rows with at least one feature
+        public final boolean[] vocab;              // [feature] whether it occurs in a row with any label weight
+
+        LabelledCounts(int numColumns, int numFeatures) {
+            jointCounts = new double[numColumns][numFeatures];
+            featureOccurrences = new double[numColumns];
+            documents = new double[numColumns];
+            vocab = new boolean[numFeatures];
+        }
+
+        LabelledCounts add(LabelledCounts other) {
+            for (int c = 0; c < jointCounts.length; c++) addInto(jointCounts[c], other.jointCounts[c]);
+            addInto(featureOccurrences, other.featureOccurrences);
+            addInto(documents, other.documents);
+            for (int f = 0; f < vocab.length; f++) vocab[f] |= other.vocab[f];
+            return this;
+        }
+    }
+
+    /**
+     * Counts obtained by documentFrequencies().
+     */
+    public static class DocumentFrequencies {
+        public final int[] frequencies;        // [feature] number of rows containing it
+        public final int[][] jointFrequencies; // [label column][feature] number of rows with the label containing it
+        public final int[] labelFrequencies;   // [label column] number of rows with the label
+
+        DocumentFrequencies(int numColumns, int numFeatures) {
+            frequencies = new int[numFeatures];
+            jointFrequencies = new int[numColumns][numFeatures];
+            labelFrequencies = new int[numColumns];
+        }
+
+        DocumentFrequencies add(DocumentFrequencies other) {
+            addInto(frequencies, other.frequencies);
+            for (int c = 0; c < jointFrequencies.length; c++) addInto(jointFrequencies[c], other.jointFrequencies[c]);
+            addInto(labelFrequencies, other.labelFrequencies);
+            return this;
+        }
+    }
+
+    private interface RowBlockReducer<A> {
+        void reduce(A accumulator, int fromRow, int toRow);
+    }
+
+    /**
+     * Split the rows into contiguous blocks, reduce each block into its own accumulator in
+     * parallel, then merge the accumulators. The number of blocks is limited by the number of
+     * processors, the number of rows, and by the memory that the accumulators would take up.
+     */
+    private <A> A reduceRows(long accumulatorSize, Supplier<A> newAccumulator, RowBlockReducer<A> reducer, BinaryOperator<A> merge) {
+        int numBlocks = numBlocks(accumulatorSize);
+        return IntStream.range(0, numBlocks).parallel()
+                .mapToObj(block -> {
+                    A accumulator = newAccumulator.get();
+                    reducer.reduce(accumulator, blockStart(block, numBlocks), blockStart(block + 1, numBlocks));
+                    return accumulator;
+                })
+                .reduce(merge)
+                .orElseGet(newAccumulator);
+    }
+
+    private int numBlocks(long accumulatorSize) {
+        int byRows = numRows / MIN_ROWS_PER_BLOCK;
+        int byMemory = (int)Math.min(Integer.MAX_VALUE, MAX_ACCUMULATED_VALUES / Math.max(1, accumulatorSize));
+        int blocks = Math.min(Runtime.getRuntime().availableProcessors(), Math.min(byRows, byMemory));
+        return Math.max(1, blocks);
+    }
+
+    private int blockStart(int block, int numBlocks) {
+        return (int)((long)numRows * block / numBlocks);
+    }
+
+    private static double[] addInto(double[] totals, double[] toBeAdded) {
+        for (int i = 0; i < totals.length; i++) totals[i] += toBeAdded[i];
+        return totals;
+    }
+
+    private static int[] addInto(int[] totals, int[] toBeAdded) {
+        for (int i = 0; i < totals.length; i++) totals[i] += toBeAdded[i];
+        return totals;
+    }
+}
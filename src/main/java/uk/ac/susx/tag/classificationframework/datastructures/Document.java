@@ -87,6 +87,10 @@ public class Document extends ArrayList<AnnotatedToken> {
         attributes.put(name, attribute);
     }
 
+    public Map<String, Object> getAttributes(){
+        return attributes;
+    }
+
     @Override
     public String toString(){
         StringBuilder sb = new StringBuilder();
@@ -30,6 +30,19 @@ public class FeatureMarginalsConstraint implements UnivariateDifferentiableFunct
         this.l          = l;
     }
 
+    /**
+     * Re-use this constraint for another word.
+     */
+    public void set(double nWPos, double nNotWPos, double nWNeg, double nNotWNeg, double k, double l)
+    {
+        this.nWPos      = nWPos;
+        this.nWNeg      = nWNeg;
+        this.nNotWPos   = nNotWPos;
+        this.nNotWNeg   = nNotWNeg;
+        this.k          = k;
+        this.l          = l;
+    }
+
     @Override
     public DerivativeStructure value(DerivativeStructure derivativeStructure) throws DimensionMismatchException {
 
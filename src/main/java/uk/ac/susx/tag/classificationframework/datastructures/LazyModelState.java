@@ -0,0 +1,149 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only view of a model directory saved by ModelState, which loads each component (pipeline,
+ * classifier, metadata and training documents) from disk only when it is first asked for.
+ *
+ * ModelState.load() reads everything up front, including the training documents, which a node that only
+ * classifies never needs. Here, e.g., classifier() reads the metadata, the pipeline (needed to index the
+ * classifier's features) and the classifier, but the training documents are never touched.
+ *
+ * The training documents can also be streamed one at a time with trainingDocumentIterator(), rather than
+ * read into a list by trainingDocuments().
+ *
+ * Each component is loaded at most once, and the view can be shared between threads. Since the
+ * accessors can't throw checked exceptions, a failure to load a component is thrown as an
+ * UncheckedIOException (wrapping a ClassNotFoundException from de-serialising the pipeline in an
+ * IOException).
+ *
+ * Usage:
+ *
+ *  LazyModelState state = LazyModelState.open(new File("model"));
+ *  FeatureExtractionPipeline pipeline = state.pipeline();
+ *  NaiveBayesClassifier classifier = state.classifier();
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class LazyModelState {
+
+    private final File modelDirectory;
+    private final FeatureExtractionPipeline pipelineForReading;
+
+    private final Lazy<FeatureExtractionPipeline> pipeline;
+    private final Lazy<Map<String, Object>> metadata;
+    private final Lazy<NaiveBayesClassifier> classifier;
+    private final Lazy<List<Instance>> trainingDocuments;
+
+    private LazyModelState(File modelDirectory, FeatureExtractionPipeline pipelineForReading, boolean replace) throws IOException {
+        if (!modelDirectory.isDirectory()) throw new IOException("Must specify a valid directory.");
+        this.modelDirectory = modelDirectory;
+        this.pipelineForReading = pipelineForReading;
+
+        pipeline = replace ? new Lazy<>(() -> pipelineForReading) : new Lazy<>(() -> {
+            try {
+                return ModelState.readPipeline(modelDirectory);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        });
+        metadata = new Lazy<>(() -> ModelState.readMetadataIfPresent(modelDirectory));
+        classifier = new Lazy<>(() -> ModelState.readClassifier(modelDirectory, metadata(), pipelineForClassifier()));
+        trainingDocuments = new Lazy<>(() -> ModelState.readTrainingDocuments(modelDirectory));
+    }
+
+    /**
+     * The features and labels of the classifier will be indexed by the pipeline saved in "pipeline.ser".
+     */
+    public static LazyModelState open(File modelDirectory) throws IOException {
+        return new LazyModelState(modelDirectory, null, false);
+    }
+
+    /**
+     * The features and labels of the classifier will be indexed by pipelineForReading. As with
+     * ModelState.load(), the saved pipeline is still what pipeline() returns, unless replace is true.
+     */
+    public static LazyModelState open(File modelDirectory, FeatureExtractionPipeline pipelineForReading) throws IOException {
+        return open(modelDirectory, pipelineForReading, false);
+    }
+    public static LazyModelState open(File modelDirectory, FeatureExtractionPipeline pipelineForReading, boolean replace) throws IOException {
+        if (pipelineForReading == null) throw new NullPointerException("No pipeline for reading was specified.");
+        return new LazyModelState(modelDirectory, pipelineForReading, replace);
+    }
+
+    public File getModelDirectory() { return modelDirectory; }
+
+    public FeatureExtractionPipeline pipeline() { return pipeline.get(); }
+    public Map<String, Object> metadata() { return metadata.get(); }
+    public NaiveBayesClassifier classifier() { return classifier.get(); }
+    public List<Instance> trainingDocuments() { return trainingDocuments.get(); }
+
+    /**
+     * Stream the training documents from disk (see ModelState.streamTrainingDocuments()). The iterator must
+     * be closed. Each call reads the documents afresh, and doesn't load them into trainingDocuments().
+     */
+    public ModelState.TrainingDocumentIterator trainingDocumentIterator() throws IOException {
+        return ModelState.streamTrainingDocuments(modelDirectory);
+    }
+
+    public boolean isPipelineLoaded() { return pipeline.isLoaded(); }
+    public boolean isClassifierLoaded() { return classifier.isLoaded(); }
+    public boolean isTrainingDocumentsLoaded() { return trainingDocuments.isLoaded(); }
+
+    /**
+     * Load any components not yet loaded, and return them as a ModelState (which can then be modified and saved).
+     */
+    public ModelState toModelState() {
+        ModelState modelState = new ModelState(classifier(), trainingDocuments(), pipeline());
+        modelState.metadata = metadata();
+        return modelState;
+    }
+
+    private FeatureExtractionPipeline pipelineForClassifier() throws IOException {
+        FeatureExtractionPipeline p = pipelineForReading != null ? pipelineForReading : pipeline();
+        if (p == null) throw new NullPointerException("Neither a pipeline was specified, nor one was found in pipeline.ser. It is necessary for reading in a model.");
+        return p;
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * A value loaded on first access (once, even when first accessed by several threads at once).
+     */
+    private static class Lazy<T> {
+        private final Loader<T> loader;
+        private volatile boolean loaded = false;
+        private T value = null;
+
+        Lazy(Loader<T> loader) { this.loader = loader; }
+
+        T get() {
+            if (!loaded) {
+                synchronized (this) {
+                    if (!loaded) {
+                        try {
+                            value = loader.load();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        loaded = true;
+                    }
+                }
+            }
+            return value;
+        }
+
+        boolean isLoaded() { return loaded; }
+    }
+}
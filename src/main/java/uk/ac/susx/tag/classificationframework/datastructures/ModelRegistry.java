@@ -0,0 +1,297 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesOVRClassifier;
+import uk.ac.susx.tag.classificationframework.exceptions.UnknownModelException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many saved models (ModelState directories) in one JVM, keeping only the recently used ones in memory.
+ *
+ *  - Models are registered by ID and directory, and loaded on first use (see acquire()). Only the pipeline
+ *    and classifier are loaded (see LazyModelState), not the training documents.
+ *  - Pipeline components share their heavyweight models (see SharedModels), so e.g. a hundred models which
+ *    all POS tag with the CMU tagger hold one tagger model between them. The components themselves aren't
+ *    shared, since they have state which each model's pipeline may change (e.g. whether they're online).
+ *  - Pipelines share a single thread pool for batch processing, rather than each creating their own.
+ *  - Resident models are kept within a memory budget: when loading a model takes the estimated total over the
+ *    budget, the least recently used models are evicted. An evicted model is loaded again when next used.
+ *
+ * A model is used through a Lease, which keeps the model open until the lease is closed, even if it is
+ * evicted (or unregistered) in the meantime:
+ *
+ *  try (ModelRegistry.Lease model = registry.acquire("customer-42")) {
+ *      ProcessedInstance document = model.pipeline().extractFeatures(instance);
+ *      Int2DoubleOpenHashMap prediction = model.classifier().predict(document.features);
+ *  }
+ *
+ * The size of a model is estimated from its classifier's counts and its pipeline's feature vocabulary (see
+ * estimateBytes()); supply a ModelWeigher for a different estimate. Shared models aren't counted.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ModelRegistry implements AutoCloseable {
+
+    // Rough costs in bytes of the entries in fastutil hash maps, and of strings in a StringIndexer
+    private static final long BYTES_PER_COUNT = 24;
+    private static final long BYTES_PER_INDEXED_STRING = 80;
+    private static final long BYTES_PER_CHAR = 2;
+
+    private final Map<String, File> directories = new ConcurrentHashMap<>();
+    private final ExecutorService threadPool;
+    private final boolean ownsThreadPool;
+    private final ModelWeigher weigher;
+    private final Cache<String, Model> models;
+    private final List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+
+    public interface ModelWeigher {
+        long bytes(LazyModelState model);
+    }
+
+    /**
+     * Told when a model stops being resident (see addModelListener()).
+     */
+    public interface ModelListener {
+        /**
+         * @param unregistered True if the model was unregistered, false if it was evicted from memory (or
+         *                     replaced by re-registering its ID), in which case it's loaded again when next used.
+         */
+        void modelRemoved(String id, boolean unregistered);
+    }
+
+    /**
+     * A registry with a budget of *memoryBudgetBytes* for its resident models, and its own thread pool.
+     */
+    public ModelRegistry(long memoryBudgetBytes) {
+        this(memoryBudgetBytes, Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)), true, ModelRegistry::estimateBytes);
+    }
+
+    /**
+     * A registry whose pipelines use *threadPool*, which isn't shut down when the registry is closed.
+     */
+    public ModelRegistry(long memoryBudgetBytes, ExecutorService threadPool, ModelWeigher weigher) {
+        this(memoryBudgetBytes, threadPool, false, weigher);
+    }
+
+    private ModelRegistry(long memoryBudgetBytes, ExecutorService threadPool, boolean ownsThreadPool, ModelWeigher weigher) {
+        this.threadPool = threadPool;
+        this.ownsThreadPool = ownsThreadPool;
+        this.weigher = weigher;
+        // The cache weighs in kilobytes, since its weights are ints. It has a single segment, so that
+        // eviction is least recently used across all models (and a large model can use all the budget)
+        models = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(Math.max(1, memoryBudgetBytes / 1024))
+                .weigher((Weigher<String, Model>) (id, model) -> model.kilobytes)
+                .removalListener((RemovalListener<String, Model>) notification -> {
+                    notification.getValue().release();
+                    boolean unregistered = !directories.containsKey(notification.getKey());
+                    for (ModelListener listener : listeners) listener.modelRemoved(notification.getKey(), unregistered);
+                })
+                .build();
+    }
+
+    /**
+     * Register a model directory (saved with ModelState.save()) under an ID. The model isn't loaded until it's used.
+     * Re-registering an ID evicts the model previously registered with it.
+     */
+    public void register(String id, File modelDirectory) {
+        if (directories.put(id, modelDirectory) != null) models.invalidate(id);
+    }
+
+    /**
+     * Remove a model. Leases already acquired on it remain usable until closed.
+     */
+    public void unregister(String id) {
+        directories.remove(id);
+        models.invalidate(id);
+    }
+
+    /**
+     * Evict a model from memory (it stays registered, and will be reloaded when next used).
+     */
+    public void evict(String id) {
+        models.invalidate(id);
+    }
+
+    /**
+     * Get a model for use, loading it if it isn't resident. The lease must be closed after use. Throws
+     * UnknownModelException if no model is registered with the ID.
+     *
+     * A model larger than the whole budget is evicted as soon as it's loaded, so it's loaded afresh for each lease.
+     */
+    public Lease acquire(String id) throws IOException {
+        while (true) {
+            Model model;
+            Model[] loaded = new Model[1];
+            try {
+                model = models.get(id, () -> {
+                    File directory = directories.get(id);
+                    if (directory == null) throw new UnknownModelException(id);
+                    // Retained for this lease before the cache can evict it (which it does at once if it's over budget)
+                    loaded[0] = loadModel(id, directory, weigher);
+                    loaded[0].retain();
+                    return loaded[0];
+                });
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                throw new IOException(e.getCause());
+            } catch (UncheckedExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                throw e;
+            }
+            if (loaded[0] != null) return new Lease(loaded[0]);
+            // The model may be evicted (and closed) between the cache returning it and retaining it; if so, load it again
+            if (model.retain()) return new Lease(model);
+        }
+    }
+
+    public boolean isRegistered(String id) { return directories.containsKey(id); }
+    public boolean isResident(String id) { return models.asMap().containsKey(id); }
+    public int numResidentModels() { return models.asMap().size(); }
+
+    /**
+     * The estimated memory used by the resident models.
+     */
+    public long residentBytes() {
+        long bytes = 0;
+        for (Model model : models.asMap().values()) bytes += model.bytes;
+        return bytes;
+    }
+
+    /**
+     * Listen for models being evicted or unregistered. The listener is called on the thread which caused the
+     * removal (possibly while loading another model), so it should be quick.
+     */
+    public void addModelListener(ModelListener listener) { listeners.add(listener); }
+    public void removeModelListener(ModelListener listener) { listeners.remove(listener); }
+
+    /**
+     * Evict all models (each is closed when its last lease is closed), and shut down the registry's own thread pool.
+     */
+    @Override
+    public void close() {
+        directories.clear();
+        models.invalidateAll();
+        models.cleanUp();
+        if (ownsThreadPool) threadPool.shutdown();
+    }
+
+    private Model loadModel(String id, File directory, ModelWeigher weigher) throws IOException {
+        LazyModelState state = LazyModelState.open(directory);
+        try {
+            FeatureExtractionPipeline pipeline = state.pipeline();
+            if (pipeline == null) throw new IOException("No pipeline was found in model directory: " + directory);
+            pipeline.setThreadPool(threadPool);
+            state.classifier();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Model(id, state, weigher.bytes(state));
+    }
+
+    /**
+     * Estimate the memory used by a model's classifier counts and pipeline feature vocabulary.
+     */
+    public static long estimateBytes(LazyModelState model) {
+        long bytes = 0;
+        if (model.isClassifierLoaded() && model.classifier() != null)
+            bytes += estimateBytes(model.classifier());
+        if (model.isPipelineLoaded() && model.pipeline() != null) {
+            for (String feature : model.pipeline().getFeatureIndexer().getStrings())
+                bytes += BYTES_PER_INDEXED_STRING + BYTES_PER_CHAR * feature.length();
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(NaiveBayesClassifier classifier) {
+        long counts = classifier.getVocab().size() + classifier.getLabels().size();
+        for (Int2DoubleOpenHashMap labelCounts : classifier.getJointCounts().values()) counts += labelCounts.size();
+        for (Int2DoubleOpenHashMap labelAlphas : classifier.getLabelledFeatures().values()) counts += labelAlphas.size();
+        long bytes = BYTES_PER_COUNT * counts;
+        if (classifier instanceof NaiveBayesOVRClassifier) {
+            for (Object learner : ((NaiveBayesOVRClassifier<?>)classifier).getOvrLearners().values())
+                bytes += estimateBytes((NaiveBayesClassifier)learner);
+        }
+        return bytes;
+    }
+
+    /**
+     * A loaded model, closed when it has been evicted and all its leases have been closed.
+     */
+    private static class Model {
+        final String id;
+        final LazyModelState state;
+        final long bytes;
+        final int kilobytes;
+        // One reference for being resident, plus one per open lease; 0 once closed
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Model(String id, LazyModelState state, long bytes) {
+            this.id = id;
+            this.state = state;
+            this.bytes = bytes;
+            this.kilobytes = (int)Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 1024));
+        }
+
+        boolean retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) return false;
+                if (references.compareAndSet(count, count + 1)) return true;
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    state.pipeline().close();
+                } catch (Exception e) {
+                    System.err.println("Failed to close pipeline of model " + id + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A model in use. Close it when finished with, so that the model can be closed once it's been evicted.
+     */
+    public static class Lease implements AutoCloseable {
+        private final Model model;
+        private boolean closed = false;
+
+        private Lease(Model model) { this.model = model; }
+
+        public String id() { return model.id; }
+        public FeatureExtractionPipeline pipeline() { return model.state.pipeline(); }
+        public NaiveBayesClassifier classifier() { return model.state.classifier(); }
+        public Map<String, Object> metadata() { return model.state.metadata(); }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                model.release();
+            }
+        }
+    }
+}
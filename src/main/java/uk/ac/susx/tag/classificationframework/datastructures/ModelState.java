@@ -20,8 +20,12 @@ package uk.ac.susx.tag.classificationframework.datastructures;
  * #L%
  */
 
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import uk.ac.susx.tag.classificationframework.Util;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
 import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierFeatureMarginals;
@@ -31,6 +35,8 @@ import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.Featur
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 
 import static uk.ac.susx.tag.classificationframework.Util.*;
@@ -69,6 +75,15 @@ import static uk.ac.susx.tag.classificationframework.Util.*;
  *     serialised. There are convenience methods which extract the original Instance objects from those. See
  *     getSourceInstanceList() and setTrainingDocuments().
  *
+ *  4. save() rewrites every file. Where a model is saved repeatedly while it changes a little at a time (e.g.
+ *     after every few labels in an interactive tool), use saveIncremental() instead, which only writes what
+ *     changed since the last save (see saveIncremental()). load() reads both kinds of save. Only a plain
+ *     NaiveBayesClassifier can be saved incrementally (see NaiveBayesClassifier.canTrackChanges()).
+ *
+ *  5. load() reads every component. To read only the components that are used (e.g. not the training documents on
+ *     a node which only classifies), see LazyModelState. The training documents can also be streamed from disk
+ *     with streamTrainingDocuments().
+ *
  * User: Andrew D. Robertson
  * Date: 07/08/2013
  * Time: 14:41
@@ -79,13 +94,22 @@ public class ModelState {
     private static final String MODEL_FILE = "nbmodel.json";
     private static final String PIPELINE_FILE = "pipeline.ser";
     private static final String TRAINING_FILE = "training.json";
+    private static final String INCREMENTAL_FILE = "incremental.json";
+    private static final String TRAINING_LOG_PREFIX = "training.log.";
+    private static final String MODEL_DELTAS_PREFIX = "nbmodel.deltas.";
+    private static final String LABELS_LOG_PREFIX = "labels.log.";
 
+    public static final int DEFAULT_COMPACTION_INTERVAL = 100;
 
     public NaiveBayesClassifier classifier = null;
     public List<Instance> trainingDocuments = null;
     public FeatureExtractionPipeline pipeline = null;
     public Map<String, Object> metadata = null;
 
+    // What has been written by saveIncremental() since the last compaction (null if nothing has)
+    private IncrementalSaveState incremental = null;
+    private int compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+
     /**
      * Enum to map from tokens to classifier class names
      */
@@ -176,6 +200,20 @@ public class ModelState {
      * field to the pipelineForWriting).
      */
     public void save(File modelDirectory, FeatureExtractionPipeline pipelineForWriting) throws IOException {
+        // The full save supersedes any incremental logs: it starts a generation which has none
+        saveFull(modelDirectory, pipelineForWriting, IncrementalSaveState.summary(readGeneration(modelDirectory) + 1, 0));
+        incremental = null;
+        deleteLogs(modelDirectory, -1);
+    }
+
+    /**
+     * Save every file. The summary of the generation of incremental logs which applies to the save (see
+     * saveIncremental()) is written first, as part of the same SafeSave: if the save is interrupted after it
+     * is written, the logs of the previous generation are no longer applied to what has been saved (at worst
+     * the changes saved incrementally since the previous full save are lost, rather than re-applied to the
+     * wrong documents or counts).
+     */
+    private void saveFull(File modelDirectory, FeatureExtractionPipeline pipelineForWriting, Map<String, Object> incrementalSummary) throws IOException {
         if (modelDirectory.exists()) {
             if (!modelDirectory.isDirectory()) throw new IOException("Must specify a valid directory.");
         } else if (!modelDirectory.mkdirs()) throw new IOException("Cannot create one or more directories.");
@@ -184,6 +222,12 @@ public class ModelState {
 
         SafeSave safeSave = new SafeSave();
 
+        safeSave.add(new File(modelDirectory, INCREMENTAL_FILE), (f) -> {
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))){
+                gson.toJson(incrementalSummary, Map.class, bw);
+            }
+        });
+
         File modelFile = new File(modelDirectory, MODEL_FILE);
         if (classifier!=null) {
             safeSave.add(modelFile, (f) -> classifier.writeJson(f, pipelineForWriting));
@@ -234,11 +278,8 @@ public class ModelState {
 
         ModelState modelState = new ModelState();
 
-        File pipelineFile = new File(modelDirectory, PIPELINE_FILE);
-        if (!pipelineFile.exists()) throw new NullPointerException("Neither a pipeline was specified, nor one was found in pipeline.ser. It is necessary for reading in a model.");
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(pipelineFile))){
-            modelState.pipeline = (FeatureExtractionPipeline)in.readObject();
-        }
+        modelState.pipeline = readPipeline(modelDirectory);
+        if (modelState.pipeline == null) throw new NullPointerException("Neither a pipeline was specified, nor one was found in pipeline.ser. It is necessary for reading in a model.");
 
         loadTheRest(modelState, modelDirectory);
         loadTheClassifier(modelState, modelDirectory, modelState.pipeline);
@@ -263,12 +304,7 @@ public class ModelState {
         if(replace) {
             modelState.pipeline = pipelineForReading;
         } else {
-            File pipelineFile = new File(modelDirectory, PIPELINE_FILE);
-            if (pipelineFile.exists()){
-                try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(pipelineFile))){
-                    modelState.pipeline = (FeatureExtractionPipeline)in.readObject();
-                }
-            }
+            modelState.pipeline = readPipeline(modelDirectory);
         }
 
 
@@ -281,25 +317,91 @@ public class ModelState {
      * Perform the remaining de-serialisation tasks. Separate method to avoid code duplication.
      */
     private static void loadTheRest(ModelState modelState, File modelDirectory) throws IOException, ClassNotFoundException {
-        Gson gson = new Gson();
+        modelState.metadata = readMetadataIfPresent(modelDirectory);
+        modelState.trainingDocuments = readTrainingDocuments(modelDirectory);
+    }
 
-        File metadataFile = new File(modelDirectory, METADATA_FILE);
-        if (metadataFile.exists()){
-            try (BufferedReader br = new BufferedReader(new FileReader(metadataFile))){
-                modelState.metadata = gson.fromJson(br, new TypeToken<Map<String, Object>>(){}.getType());
+    private static void loadTheClassifier(ModelState modelState, File modelDirectory, FeatureExtractionPipeline pipelineForReading) throws IOException {
+        modelState.classifier = readClassifier(modelDirectory, modelState.metadata, pipelineForReading);
+    }
+
+    /**
+     * Read the pipeline saved in a model directory (null if there isn't one).
+     */
+    static FeatureExtractionPipeline readPipeline(File modelDirectory) throws IOException, ClassNotFoundException {
+        File pipelineFile = new File(modelDirectory, PIPELINE_FILE);
+        if (!pipelineFile.exists()) return null;
+        FeatureExtractionPipeline pipeline;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(pipelineFile))){
+            pipeline = (FeatureExtractionPipeline)in.readObject();
+        }
+
+        // Add the labels indexed since the pipeline was saved (see saveIncremental())
+        File labelsLog = new File(modelDirectory, LABELS_LOG_PREFIX + readGeneration(modelDirectory));
+        if (labelsLog.exists()) {
+            Map<Integer, String> logged = new LinkedHashMap<>();
+            forEachLogRecord(labelsLog, reader -> {
+                String label = null;
+                int index = -1;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "index": index = reader.nextInt(); break;
+                        case "label": label = reader.nextString(); break;
+                        default: reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                logged.put(index, label);
+            });
+            StringIndexer labels = pipeline.getLabelIndexer();
+            for (Map.Entry<Integer, String> entry : logged.entrySet()) {
+                if (entry.getKey() == labels.size() && entry.getValue() != null) labels.getIndex(entry.getValue(), true);
+                else if (entry.getValue() == null || !entry.getValue().equals(labels.getValue(entry.getKey())))
+                    throw new IOException("Labels log doesn't match the pipeline's labels at index " + entry.getKey());
             }
         }
+        return pipeline;
+    }
 
+    /**
+     * Read the metadata saved in a model directory (null if there isn't any).
+     */
+    static Map<String, Object> readMetadataIfPresent(File modelDirectory) throws IOException {
+        File metadataFile = new File(modelDirectory, METADATA_FILE);
+        if (!metadataFile.exists()) return null;
+        try (BufferedReader br = new BufferedReader(new FileReader(metadataFile))){
+            return new Gson().fromJson(br, new TypeToken<Map<String, Object>>(){}.getType());
+        }
+    }
+
+    /**
+     * Read the training documents saved in a model directory (null if there aren't any).
+     */
+    static List<Instance> readTrainingDocuments(File modelDirectory) throws IOException {
+        List<Instance> trainingDocuments = null;
         File trainingData = new File(modelDirectory, TRAINING_FILE);
         if (trainingData.exists()){
             try (BufferedReader br = new BufferedReader(new FileReader(trainingData))){
-                modelState.trainingDocuments = gson.fromJson(br, new TypeToken<List<Instance>>(){}.getType());
+                trainingDocuments = new Gson().fromJson(br, new TypeToken<List<Instance>>(){}.getType());
             }
         }
+
+        File trainingLog = new File(modelDirectory, TRAINING_LOG_PREFIX + readGeneration(modelDirectory));
+        if (trainingLog.exists()){
+            if (trainingDocuments == null) trainingDocuments = new ArrayList<>();
+            readTrainingLog(trainingLog).applyTo(trainingDocuments);
+        }
+        return trainingDocuments;
     }
 
-    private static void loadTheClassifier(ModelState modelState, File modelDirectory, FeatureExtractionPipeline pipelineForReading) {
-        ClassifierName clfName = modelState.metadata.containsKey("classifier_class_name") ? ClassifierName.valueOf((String)modelState.metadata.get("classifier_class_name")) : ClassifierName.NB;
+    /**
+     * Read the classifier saved in a model directory (null if there isn't one), using the metadata to
+     * determine its type, and indexing its features and labels with pipelineForReading.
+     */
+    static NaiveBayesClassifier readClassifier(File modelDirectory, Map<String, Object> metadata, FeatureExtractionPipeline pipelineForReading) throws IOException {
+        NaiveBayesClassifier classifier = null;
+        ClassifierName clfName = metadata != null && metadata.containsKey("classifier_class_name") ? ClassifierName.valueOf((String)metadata.get("classifier_class_name")) : ClassifierName.NB;
         Class<? extends NaiveBayesClassifier> khlav = getClassifierClassForName(clfName);
 
         try {
@@ -307,16 +409,465 @@ public class ModelState {
             File modelFile = new File(modelDirectory, MODEL_FILE);
 
             if (clfName.equals(ClassifierName.NB_OVR)) {
-                Class<? extends NaiveBayesClassifier> ovrKhlav = getClassifierClassForName(ClassifierName.valueOf((String)modelState.metadata.get("ovr_classifier_class_name")));
+                Class<? extends NaiveBayesClassifier> ovrKhlav = getClassifierClassForName(ClassifierName.valueOf((String)metadata.get("ovr_classifier_class_name")));
                 m = khlav.getMethod("readJson", File.class, FeatureExtractionPipeline.class, Class.class, Map.class);
-                if (modelFile.exists()) modelState.classifier = khlav.cast(m.invoke(khlav, modelFile, pipelineForReading, ovrKhlav, modelState.metadata));
+                if (modelFile.exists()) classifier = khlav.cast(m.invoke(khlav, modelFile, pipelineForReading, ovrKhlav, metadata));
             } else {
                 m = khlav.getMethod("readJson", File.class, FeatureExtractionPipeline.class);
-                if (modelFile.exists()) modelState.classifier = khlav.cast(m.invoke(khlav, modelFile, pipelineForReading));
+                if (modelFile.exists()) classifier = khlav.cast(m.invoke(khlav, modelFile, pipelineForReading));
             }
         } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
             e.printStackTrace();
         }
+
+        // Apply the changes saved by saveIncremental() since the last full save
+        File deltas = new File(modelDirectory, MODEL_DELTAS_PREFIX + readGeneration(modelDirectory));
+        if (deltas.exists() && classifier != null && classifier.canTrackChanges()){
+            NaiveBayesClassifier nb = classifier;
+            forEachLogRecord(deltas, reader -> nb.readJsonChanges(reader, pipelineForReading));
+        }
+        return classifier;
+    }
+
+    /**
+     * Iterate over the training documents saved in a model directory without reading them all into
+     * memory (only the changes logged by saveIncremental() are held). The iterator must be closed.
+     */
+    public static TrainingDocumentIterator streamTrainingDocuments(File modelDirectory) throws IOException {
+        File trainingLog = new File(modelDirectory, TRAINING_LOG_PREFIX + readGeneration(modelDirectory));
+        return new TrainingDocumentIterator(new File(modelDirectory, TRAINING_FILE),
+                                            trainingLog.exists() ? readTrainingLog(trainingLog) : new TrainingLogChanges());
+    }
+
+    /**
+     * See streamTrainingDocuments().
+     */
+    public static class TrainingDocumentIterator implements Iterator<Instance>, Closeable {
+        private final Gson gson = new Gson();
+        private final JsonReader reader;
+        private final TrainingLogChanges changes;
+        private int index = 0;
+        private Instance next = null;
+
+        private TrainingDocumentIterator(File trainingData, TrainingLogChanges changes) throws IOException {
+            this.changes = changes;
+            if (trainingData.exists()) {
+                reader = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(trainingData), StandardCharsets.UTF_8)));
+                reader.beginArray();
+            } else reader = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) next = readNext();
+            return next != null;
+        }
+
+        @Override
+        public Instance next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Instance instance = next;
+            next = null;
+            return instance;
+        }
+
+        private Instance readNext() {
+            try {
+                Instance instance = null;
+                if (reader != null && reader.hasNext()) {
+                    instance = changes.applyTo(index, gson.fromJson(reader, Instance.class));
+                } else if (changes.replacements.containsKey(index)) { // Documents added after the last full save
+                    instance = changes.replacements.get(index);
+                } else if (changes.lastIndex() >= index) {
+                    throw new IOException("Training log refers to a document that doesn't exist: " + changes.lastIndex());
+                }
+                if (instance != null) index++;
+                return instance;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) reader.close();
+        }
+    }
+
+    /**
+     * Save only what has changed since the last save to the same directory, so that frequent saves of a
+     * large model stay fast:
+     *
+     *  - Training documents added to the end of trainingDocuments, and changes to the labels of documents
+     *    already saved, are appended to a log. Any other change to the list (removal, re-ordering, or
+     *    replacing documents with different Instance objects) causes a compaction (see compact()).
+     *  - The classifier's changed counts are appended to a log of deltas. The classifier records which
+     *    counts its methods change (see NaiveBayesClassifier.trackChanges()), so changes made directly to
+     *    the maps returned by its getters aren't saved until the next compaction.
+     *  - Labels added to the pipeline's label indexer are appended to a log. The rest of the pipeline is
+     *    only rewritten if its configuration has changed (see FeatureExtractionPipeline.configuration()), and
+     *    replacing its label indexer causes a compaction.
+     *  - The metadata is rewritten.
+     *
+     * The first incremental save in a directory (and every compactionInterval saves after that, or when the
+     * deltas grow larger than the full model) is a compaction: a full save, after which the logs start again.
+     *
+     * Log records give absolute values (e.g. a count's new value, a document's position), so if a save is
+     * interrupted, re-applying a log leaves the same result. If a save fails, the next one is a compaction.
+     *
+     * @throws UnsupportedOperationException if the classifier is a subclass of NaiveBayesClassifier which
+     *                                       can't record its changes (see NaiveBayesClassifier.canTrackChanges()).
+     *                                       Use save() for those.
+     */
+    public void saveIncremental(File modelDirectory) throws IOException {
+        if (classifier != null && !classifier.canTrackChanges())
+            throw new UnsupportedOperationException(classifier.getClass().getSimpleName() + " can't be saved incrementally, use save()");
+        File directory = modelDirectory.getAbsoluteFile();
+        if (incremental == null
+                || !incremental.directory.equals(directory)
+                || incremental.classifier != classifier
+                || incremental.labelIndexer != (pipeline == null ? null : pipeline.getLabelIndexer())
+                || incremental.saves >= compactionInterval
+                || new File(directory, MODEL_DELTAS_PREFIX + incremental.generation).length() > new File(directory, MODEL_FILE).length()) {
+            compact(modelDirectory);
+            return;
+        }
+
+        try {
+            // Training documents
+            String trainingChanges = incremental.trainingChanges(trainingDocuments);
+            if (trainingChanges == null) { // Not just additions and relabelling
+                compact(modelDirectory);
+                return;
+            }
+            if (!trainingChanges.isEmpty())
+                appendToLog(new File(directory, TRAINING_LOG_PREFIX + incremental.generation), trainingChanges);
+
+            // Labels (before the classifier's deltas, which refer to them)
+            String labelChanges = incremental.labelChanges();
+            if (!labelChanges.isEmpty())
+                appendToLog(new File(directory, LABELS_LOG_PREFIX + incremental.generation), labelChanges);
+
+            // Classifier
+            if (classifier != null) {
+                StringWriter delta = new StringWriter();
+                try (JsonWriter writer = new JsonWriter(delta)) {
+                    if (classifier.writeJsonChanges(writer, pipeline))
+                        appendToLog(new File(directory, MODEL_DELTAS_PREFIX + incremental.generation), delta.toString() + "\n");
+                }
+            }
+
+            // Pipeline
+            SafeSave safeSave = new SafeSave();
+            long pipelineHash = pipelineHash(pipeline);
+            if (pipeline != null && pipelineHash != incremental.pipelineHash) {
+                safeSave.add(new File(directory, PIPELINE_FILE), (f) -> {
+                    try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(f))){
+                        out.writeObject(pipeline);
+                    }
+                });
+            }
+
+            // Metadata
+            incremental.saves++;
+            addMetadataSaves(safeSave, directory);
+            safeSave.save();
+            incremental.pipelineHash = pipelineHash;
+        } catch (IOException | RuntimeException e) {
+            // The saved state has already moved on to what was being saved, so it can't be trusted
+            incremental = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Perform a full save, and begin a new generation of incremental logs (deleting the old ones).
+     * See saveIncremental().
+     */
+    public void compact(File modelDirectory) throws IOException {
+        File directory = modelDirectory.getAbsoluteFile();
+        int generation = readGeneration(directory) + 1;
+
+        // Record the classifier's changes from the state about to be saved
+        if (incremental != null && incremental.classifier != null && incremental.classifier != classifier)
+            incremental.classifier.stopTrackingChanges();
+        if (classifier != null && classifier.canTrackChanges())
+            classifier.trackChanges();
+        incremental = null; // If the full save fails, the next incremental save must be a compaction too
+        IncrementalSaveState state = new IncrementalSaveState(directory, generation, classifier, trainingDocuments, pipeline);
+        saveFull(directory, pipeline, state.summary());
+        deleteLogs(directory, generation);
+        incremental = state;
+    }
+
+    public void setCompactionInterval(int saves) { compactionInterval = saves; }
+    public int getCompactionInterval() { return compactionInterval; }
+
+    private void addMetadataSaves(SafeSave safeSave, File directory) {
+        if (metadata == null) metadata = new HashMap<>();
+        if (classifier != null) metadata.putAll(classifier.getMetadata());
+        safeSave.add(new File(directory, METADATA_FILE), (f) -> {
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))){
+                new Gson().toJson(metadata, Map.class, bw);
+            }
+        });
+        IncrementalSaveState state = incremental;
+        safeSave.add(new File(directory, INCREMENTAL_FILE), (f) -> {
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))){
+                new Gson().toJson(state.summary(), Map.class, bw);
+            }
+        });
+    }
+
+    /**
+     * The generation of the incremental logs which apply to the full save in a directory (0 if there are none).
+     */
+    private static int readGeneration(File modelDirectory) throws IOException {
+        File file = new File(modelDirectory, INCREMENTAL_FILE);
+        if (!file.exists()) return 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))){
+            Map<String, Object> summary = new Gson().fromJson(br, new TypeToken<Map<String, Object>>(){}.getType());
+            return ((Number)summary.get("generation")).intValue();
+        }
+    }
+
+    /**
+     * Delete the incremental logs of all generations but one (-1 to delete all).
+     */
+    private static void deleteLogs(File modelDirectory, int keepGeneration) {
+        File[] files = modelDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if ((name.startsWith(TRAINING_LOG_PREFIX) || name.startsWith(MODEL_DELTAS_PREFIX) || name.startsWith(LABELS_LOG_PREFIX))
+                    && !name.endsWith("." + keepGeneration))
+                file.delete();
+        }
+    }
+
+    /**
+     * Append to a log, and sync it to disk, so that the save is durable once this returns.
+     */
+    private static void appendToLog(File log, String records) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(log, true)){
+            out.write(records.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private interface LogRecordReader {
+        void read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Read each line of a log as a JSON record. A partial last line (from an interrupted append) is ignored.
+     */
+    private static void forEachLogRecord(File log, LogRecordReader recordReader) throws IOException {
+        List<String> lines = Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isEmpty()) continue;
+            try (JsonReader reader = new JsonReader(new StringReader(lines.get(i)))) {
+                recordReader.read(reader);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                if (i < lines.size() - 1) throw new IOException("Corrupt record on line " + (i + 1) + " of " + log, e);
+            }
+        }
+    }
+
+    private static TrainingLogChanges readTrainingLog(File log) throws IOException {
+        TrainingLogChanges changes = new TrainingLogChanges();
+        forEachLogRecord(log, reader -> {
+            String op = null, label = null, id = null, text = null;
+            int index = -1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "op": op = reader.nextString(); break;
+                    case "index": index = reader.nextInt(); break;
+                    case "label": label = nextStringOrNull(reader); break;
+                    case "id": id = nextStringOrNull(reader); break;
+                    case "text": text = nextStringOrNull(reader); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (index < 0) throw new IOException("Training log record has no index");
+            if ("add".equals(op)) changes.add(index, new Instance(label, text, id));
+            else if ("label".equals(op)) changes.relabel(index, label);
+        });
+        return changes;
+    }
+
+    /**
+     * The net effect of a training log: the documents added at each index (which replace any document already
+     * there), and the new labels of documents which weren't added by the log.
+     */
+    private static class TrainingLogChanges {
+        final Map<Integer, Instance> replacements = new HashMap<>();
+        final Map<Integer, String> relabels = new HashMap<>();
+
+        void add(int index, Instance instance) {
+            replacements.put(index, instance);
+            relabels.remove(index);
+        }
+
+        void relabel(int index, String label) {
+            if (replacements.containsKey(index)) replacements.get(index).label = label;
+            else relabels.put(index, label);
+        }
+
+        int lastIndex() {
+            int last = -1;
+            for (int index : replacements.keySet()) last = Math.max(last, index);
+            for (int index : relabels.keySet()) last = Math.max(last, index);
+            return last;
+        }
+
+        Instance applyTo(int index, Instance saved) {
+            if (replacements.containsKey(index)) return replacements.get(index);
+            if (relabels.containsKey(index)) saved.label = relabels.get(index);
+            return saved;
+        }
+
+        void applyTo(List<Instance> documents) throws IOException {
+            ListIterator<Instance> iterator = documents.listIterator();
+            while (iterator.hasNext()) {
+                int index = iterator.nextIndex();
+                iterator.set(applyTo(index, iterator.next()));
+            }
+            while (replacements.containsKey(documents.size()))
+                documents.add(replacements.get(documents.size()));
+            if (lastIndex() >= documents.size())
+                throw new IOException("Training log refers to a document that doesn't exist: " + lastIndex());
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Hash of the pipeline's configuration (0 if there is no pipeline), and of the size of its feature indexer
+     * if the vocabulary is fixed (since that is saved with it). The label indexer is logged separately.
+     */
+    private static long pipelineHash(FeatureExtractionPipeline pipeline) {
+        if (pipeline == null) return 0;
+        return Hashing.murmur3_128().newHasher()
+                .putString(pipeline.configuration(), StandardCharsets.UTF_8)
+                .putInt(pipeline.getFixedVocabulary() ? pipeline.getFeatureIndexer().size() : -1)
+                .hash().asLong();
+    }
+
+    /**
+     * What has been saved to a directory in the current generation of incremental logs.
+     */
+    private static class IncrementalSaveState {
+        final File directory;
+        final int generation;
+        final NaiveBayesClassifier classifier;           // The classifier object whose changes are being tracked
+        final List<Instance> savedDocuments;             // Training documents saved, and their labels when saved
+        final List<String> savedLabels;
+        final StringIndexer labelIndexer;                // The pipeline's label indexer, and how many labels are saved
+        int savedLabelCount;
+        long pipelineHash;
+        int saves = 0;
+
+        IncrementalSaveState(File directory, int generation, NaiveBayesClassifier classifier, List<Instance> trainingDocuments, FeatureExtractionPipeline pipeline) {
+            this.directory = directory;
+            this.generation = generation;
+            this.classifier = classifier;
+            this.savedDocuments = trainingDocuments == null ? new ArrayList<>() : new ArrayList<>(trainingDocuments);
+            this.savedLabels = new ArrayList<>(savedDocuments.size());
+            for (Instance i : savedDocuments) savedLabels.add(i.label);
+            this.labelIndexer = pipeline == null ? null : pipeline.getLabelIndexer();
+            this.savedLabelCount = labelIndexer == null ? 0 : labelIndexer.size();
+            this.pipelineHash = pipelineHash(pipeline);
+        }
+
+        Map<String, Object> summary() {
+            return summary(generation, saves);
+        }
+
+        static Map<String, Object> summary(int generation, int saves) {
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("generation", generation);
+            summary.put("saves", saves);
+            return summary;
+        }
+
+        /**
+         * Log records for the labels indexed since the last save. Records them as saved.
+         */
+        String labelChanges() throws IOException {
+            if (labelIndexer == null) return "";
+            StringWriter records = new StringWriter();
+            for (int index = savedLabelCount; index < labelIndexer.size(); index++) {
+                JsonWriter writer = new JsonWriter(records);
+                writer.beginObject();
+                writer.name("index").value(index);
+                writer.name("label").value(labelIndexer.getValue(index));
+                writer.endObject();
+                writer.flush();
+                records.write('\n');
+            }
+            savedLabelCount = labelIndexer.size();
+            return records.toString();
+        }
+
+        /**
+         * Log records for the documents added and relabelled since the last save, or null if the
+         * documents have changed in any other way. Records the changes as saved.
+         */
+        String trainingChanges(List<Instance> documents) throws IOException {
+            if (documents == null) return savedDocuments.isEmpty() ? "" : null;
+
+            StringWriter records = new StringWriter();
+            List<Integer> relabelled = new ArrayList<>();
+            Iterator<Instance> current = documents.iterator();
+            for (int index = 0; index < savedDocuments.size(); index++) {
+                if (!current.hasNext()) return null;
+                Instance instance = current.next();
+                if (instance != savedDocuments.get(index)) return null;
+                if (!Objects.equals(instance.label, savedLabels.get(index))) {
+                    writeRecord(records, "label", index, instance, false);
+                    relabelled.add(index);
+                }
+            }
+            int index = savedDocuments.size();
+            while (current.hasNext()) {
+                writeRecord(records, "add", index++, current.next(), true);
+            }
+
+            // The caller appends the records next; if that fails it discards this state (see saveIncremental())
+            for (int i : relabelled) savedLabels.set(i, savedDocuments.get(i).label);
+            Iterator<Instance> added = documents.listIterator(savedDocuments.size());
+            while (added.hasNext()) {
+                Instance instance = added.next();
+                savedDocuments.add(instance);
+                savedLabels.add(instance.label);
+            }
+            return records.toString();
+        }
+
+        private static void writeRecord(StringWriter records, String op, int index, Instance instance, boolean full) throws IOException {
+            JsonWriter writer = new JsonWriter(records);
+            writer.setSerializeNulls(true);
+            writer.beginObject();
+            writer.name("op").value(op);
+            writer.name("index").value(index);
+            writer.name("label").value(instance.label);
+            if (full) {
+                writer.name("id").value(instance.id);
+                writer.name("text").value(instance.text);
+            }
+            writer.endObject();
+            writer.flush();
+            records.write('\n');
+        }
     }
 
     public static Class<? extends NaiveBayesClassifier> getClassifierClassForName(ClassifierName clfName) {
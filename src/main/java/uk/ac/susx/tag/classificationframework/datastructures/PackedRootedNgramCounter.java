@@ -0,0 +1,505 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter.TopNgram;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The same counting and phrase selection as RootedNgramCounter<Integer>, but for int token IDs (e.g. indexed
+ * features) stored in a packed, array-based trie.
+ *
+ * Each node is a slot in a set of parallel primitive arrays (parent, token, arc type, count, depth, first child,
+ * next sibling), and child lookup goes through a single primitive hash map keyed on (parent, arc type, token).
+ * So there's no per-node object, map or arc allocation, which is what makes counters for hundreds of root
+ * features over a large cluster fit comfortably in memory.
+ *
+ * Differences from RootedNgramCounter:
+ *
+ *  - Pruning never modifies the trie. topNgrams() works out which nodes survive pruning with the current settings
+ *    each time it is called, so it can be called repeatedly with different settings (no need for copyTrie() or
+ *    topNgramsWithCopy()), and more contexts can be added afterwards.
+ *  - Orderings find the lowest common ancestor of two nodes by walking parent pointers, rather than building a
+ *    map of ancestors per comparison. Stopword counts are computed once per call to topNgrams().
+ *  - Counters can be merged with merge(), so contexts can be counted in parallel with one counter per thread.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class PackedRootedNgramCounter {
+
+    private static final byte NULL_ARC = 0;
+    private static final byte FORWARD_ARC = 1;
+    private static final byte REVERSE_ARC = 2;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    // Parallel arrays, indexed by node ID. The root is node 0.
+    private int[] parent;
+    private int[] token;
+    private byte[] arcType;
+    private int[] count;
+    private int[] depth;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int size;
+
+    // (parent, arc type, token) --> child node ID
+    private Long2IntOpenHashMap childIndex;
+
+    private int minN;
+    private int maxN;
+
+    private double minLeafPruningThreshold;
+    private int minimumNgramCount;
+    private int level1NgramCount;
+    private int level2NgramCount;
+    private int level3NgramCount;
+
+    private IntSet stopwords;
+
+    /**
+     * See RootedNgramCounter for the meaning of the parameters.
+     */
+    public PackedRootedNgramCounter(int root,
+                                    int minN,
+                                    int maxN,
+                                    double minLeafPruningThreshold,
+                                    int minimumNgramCount,
+                                    int level1NgramCount,
+                                    int level2NgramCount,
+                                    int level3NgramCount,
+                                    Set<Integer> stopwords) {
+        if (maxN < 2)
+            throw new RuntimeException("You must specify a maximum phrase length (maxN) greater than 1, since one token is simply the original features");
+
+        this.minN = minN;
+        this.maxN = maxN;
+        this.minLeafPruningThreshold = minLeafPruningThreshold;
+        this.minimumNgramCount = minimumNgramCount;
+        this.level1NgramCount = level1NgramCount;
+        this.level2NgramCount = level2NgramCount;
+        this.level3NgramCount = level3NgramCount;
+        setStopwords(stopwords);
+
+        int initialCapacity = 64;
+        parent = new int[initialCapacity];
+        token = new int[initialCapacity];
+        arcType = new byte[initialCapacity];
+        count = new int[initialCapacity];
+        depth = new int[initialCapacity];
+        firstChild = new int[initialCapacity];
+        nextSibling = new int[initialCapacity];
+        childIndex = new Long2IntOpenHashMap(initialCapacity);
+        childIndex.defaultReturnValue(NONE);
+
+        size = 0;
+        newNode(NONE, NULL_ARC, root, 0);
+    }
+
+    /**
+     * Mostly sensible defaults, though be sure to use setStopwords() to assign stopwords to help its choice between
+     * ngrams.
+     */
+    public PackedRootedNgramCounter(int root){
+        this(root,
+             1, 6,  // min,max phrase length
+             0.2,   // min pruning threshold
+             4,     // min count for ngram
+             5, 7, 15, // occurrence thresholds
+             new HashSet<>());
+    }
+
+    public void setStopwords(Set<Integer> stopwords){
+        this.stopwords = stopwords==null? new IntOpenHashSet() : new IntOpenHashSet(stopwords);
+    }
+
+    public int getRootToken() { return token[ROOT]; }
+    public int getRootCount() { return count[ROOT]; }
+    public boolean isRootToken(int t) { return t == token[ROOT]; }
+
+    /**
+     * The number of nodes in the trie, including the root.
+     */
+    public int numNodes() { return size; }
+
+    public void setMinN(int minN) { this.minN = minN; }
+    public void setMaxN(int maxN) { this.maxN = maxN; }
+    public void setMinLeafPruningThreshold(double minLeafPruningThreshold) { this.minLeafPruningThreshold = minLeafPruningThreshold; }
+    public void setMinimumNgramCount(int minimumNgramCount) { this.minimumNgramCount = minimumNgramCount; }
+    public void setLevel1NgramCount(int level1NgramCount) { this.level1NgramCount = level1NgramCount; }
+    public void setLevel2NgramCount(int level2NgramCount) { this.level2NgramCount = level2NgramCount; }
+    public void setLevel3NgramCount(int level3NgramCount) { this.level3NgramCount = level3NgramCount; }
+
+/************************************
+ * Counting
+ ************************************/
+
+    /**
+     * Count up the contexts of the root token.
+     *
+     * @param context Context containing 0 or more instances of the root token
+     * @param count the number of counts to assign for this instances (usually 1 unless you wanna upweight this example).
+     */
+    public void addContext(int[] context, int count){
+        int rootToken = token[ROOT];
+        for (int i = 0; i < context.length; i++){
+            if (context[i] == rootToken)
+                addContextAt(context, i, count);
+        }
+    }
+
+    public void addContext(int[] context){
+        addContext(context, 1);
+    }
+
+    /**
+     * Count up a single occurrence of the root token, which the caller already knows is at position indexOfRoot
+     * in the context. Builds the same ngrams as RootedNgramCounter.addContextAt().
+     */
+    public void addContextAt(int[] context, int indexOfRoot, int count){
+        incCount(ROOT, count);
+
+        int beforeStart = Math.max(indexOfRoot-maxN+1, 0);
+        int numBefore = indexOfRoot - beforeStart;
+        int afterEnd = Math.min(indexOfRoot+maxN-1, context.length);
+        int numAfter = Math.max(0, afterEnd - (indexOfRoot+1));
+
+        // Make a phrase starting from root
+        int currentNode = ROOT;
+        for (int j = 0; j < numAfter; j++){
+            currentNode = incChild(currentNode, FORWARD_ARC, context[indexOfRoot+1+j], count);
+        }
+        // Make a phrase starting from 1...n before the root node
+        int lastBeforeNode = ROOT;
+        for (int i = 0; i < numBefore; i++){
+            currentNode = incChild(lastBeforeNode, REVERSE_ARC, context[indexOfRoot-1-i], count);
+            lastBeforeNode = currentNode;
+
+            // Stop the tree from allowing phrases longer than the max N
+            for (int j = 0; j < Math.min(numAfter, maxN - (i + 2)); j++){
+                currentNode = incChild(currentNode, FORWARD_ARC, context[indexOfRoot+1+j], count);
+            }
+        }
+    }
+
+    /**
+     * Add all the counts of another counter for the same root token to this one.
+     */
+    public void merge(PackedRootedNgramCounter other){
+        if (other.token[ROOT] != token[ROOT])
+            throw new IllegalArgumentException("Cannot merge counters with different root tokens: " + token[ROOT] + ", " + other.token[ROOT]);
+        merge(ROOT, other, ROOT);
+    }
+
+    private void merge(int node, PackedRootedNgramCounter other, int otherNode){
+        count[node] += other.count[otherNode];
+        for (int c = other.firstChild[otherNode]; c != NONE; c = other.nextSibling[c]){
+            int child = getOrAddChild(node, other.arcType[c], other.token[c]);
+            merge(child, other, c);
+        }
+    }
+
+    private void incCount(int node, int inc){
+        count[node] = Math.max(0, count[node] + inc);
+    }
+
+    private int incChild(int node, byte type, int t, int inc){
+        int child = getOrAddChild(node, type, t);
+        incCount(child, inc);
+        return child;
+    }
+
+    private int getOrAddChild(int node, byte type, int t){
+        long key = childKey(node, type, t);
+        int child = childIndex.get(key);
+        if (child == NONE){
+            child = newNode(node, type, t, 0);
+            childIndex.put(key, child);
+        }
+        return child;
+    }
+
+    private static long childKey(int node, byte type, int t){
+        return ((long)node << 34) | ((long)type << 32) | (t & 0xFFFFFFFFL);
+    }
+
+    private int newNode(int parentNode, byte type, int t, int initialCount){
+        if (size == parent.length){
+            int capacity = parent.length * 2;
+            parent = Arrays.copyOf(parent, capacity);
+            token = Arrays.copyOf(token, capacity);
+            arcType = Arrays.copyOf(arcType, capacity);
+            count = Arrays.copyOf(count, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+        }
+        int node = size++;
+        parent[node] = parentNode;
+        token[node] = t;
+        arcType[node] = type;
+        count[node] = initialCount;
+        firstChild[node] = NONE;
+        if (parentNode == NONE){
+            depth[node] = 0;
+            nextSibling[node] = NONE;
+        } else {
+            depth[node] = depth[parentNode] + 1;
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+        }
+        return node;
+    }
+
+/************************************
+ * Phrase selection
+ ************************************/
+
+    public List<TopNgram<Integer>> topNgrams(int K){
+        return topNgrams(K, true);
+    }
+
+    /**
+     * Find the nodes that survive pruning with the current settings, and return the top K ngrams amongst them
+     * (see RootedNgramCounter.topNgrams()). The trie itself is left untouched.
+     *
+     * @param K The number of ngrams to attempt to find (maybe 0 if none match the criteria)
+     * @param includeSubMatches If false, only consider ngrams that weren't extended by pruning (the leaves)
+     * @return the ngrams found
+     */
+    public List<TopNgram<Integer>> topNgrams(int K, boolean includeSubMatches){
+        boolean[] kept = new boolean[size];
+        kept[ROOT] = true;
+        prune(ROOT, kept);
+
+        int[] stopwordCount = new int[size];
+        for (int node = 0; node < size; node++){ // Parents always have lower IDs than their children
+            if (kept[node])
+                stopwordCount[node] = (node == ROOT? 0 : stopwordCount[parent[node]]) + (stopwords.contains(token[node])? 1 : 0);
+        }
+
+        int numCandidates = 0;
+        for (int node = 0; node < size; node++){
+            if (isCandidate(node, kept, includeSubMatches)) numCandidates++;
+        }
+
+        int[] topNodes = new int[Math.max(0, Math.min(K, numCandidates))];
+        int numTop = 0;
+        for (int node = 0; node < size; node++){
+            if (!isCandidate(node, kept, includeSubMatches))
+                continue;
+            // Insert into the descending top K list if it beats the worst so far
+            int position = numTop;
+            while (position > 0 && compare(node, topNodes[position-1], includeSubMatches, stopwordCount) > 0)
+                position--;
+            if (position < topNodes.length){
+                int toMove = Math.min(numTop, topNodes.length-1) - position;
+                System.arraycopy(topNodes, position, topNodes, position+1, toMove);
+                topNodes[position] = node;
+                numTop = Math.min(numTop+1, topNodes.length);
+            }
+        }
+
+        List<TopNgram<Integer>> topNgrams = new ArrayList<>();
+        for (int i = 0; i < numTop; i++){
+            List<Integer> ngram = getNgram(topNodes[i]);
+            if (ngram.size() >= minN)
+                topNgrams.add(new TopNgram<>(ngram, count[topNodes[i]]));
+        }
+
+        if (topNgrams.isEmpty() && minN <= 1){
+            List<Integer> ngram = new ArrayList<>();
+            ngram.add(token[ROOT]);
+            topNgrams.add(new TopNgram<>(ngram, count[ROOT]));
+        }
+        return topNgrams;
+    }
+
+    private boolean isCandidate(int node, boolean[] kept, boolean includeSubMatches){
+        if (!kept[node])
+            return false;
+        if (includeSubMatches)
+            return node != ROOT || minN <= 1;
+        if (node == ROOT)
+            return false;
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]){
+            if (kept[c]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mark the children of a node that survive pruning, then recurse into them. Forward and reverse children are
+     * considered separately so their occurrence totals make sense.
+     */
+    private void prune(int node, boolean[] kept){
+        pruneChildren(node, FORWARD_ARC, kept);
+        pruneChildren(node, REVERSE_ARC, kept);
+    }
+
+    private void pruneChildren(int node, byte type, boolean[] kept){
+        int choices = 0;
+        int childOccurrenceTotal = 0;
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]){
+            if (arcType[c] == type && count[c] > 0){
+                choices++;
+                childOccurrenceTotal += count[c];
+            }
+        }
+
+        if (childOccurrenceTotal == choices)
+            return; // No children, or every child only occurred once
+
+        double dynamicThreshold = calcDynamicThreshold(choices, childOccurrenceTotal);
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]){
+            if (arcType[c] != type || count[c] == 0 || count[c] < minimumNgramCount)
+                continue;
+            double proportion = count[c] / (double)count[node];
+            if (proportion < 1 && proportion <= dynamicThreshold)
+                continue;
+            kept[c] = true;
+            prune(c, kept);
+        }
+    }
+
+    private double calcDynamicThreshold(int numChoices, int totalOccurrences){
+        if (totalOccurrences < level1NgramCount){
+            return 1.0;
+        } else if (totalOccurrences < level2NgramCount){
+            return 0.75;
+        } else if (totalOccurrences < level3NgramCount){
+            return 0.5;
+        }
+        return Math.max(1.0/numChoices, minLeafPruningThreshold);
+    }
+
+    private int compare(int a, int b, boolean includeSelf, int[] stopwordCount){
+        return includeSelf? lowestCommonAncestorDifferenceIncludingSelf(a, b, stopwordCount)
+                          : lowestCommonAncestorDifferenceExcludingSelf(a, b, stopwordCount);
+    }
+
+    /**
+     * Lowest common ancestor excluding a and b (therefore makes the most sense using only leaf nodes).
+     */
+    private int lowestCommonAncestorDifferenceExcludingSelf(int a, int b, int[] stopwordCount){
+        int ancestor = lowestCommonAncestor(a, b);
+        if (ancestor == a || ancestor == b)
+            ancestor = parent[ancestor];
+        if (ancestor == NONE)
+            throw new RuntimeException("This shouldn't be possible... The root node at least should always be a common ancestor, but none were found.");
+
+        int diff = count[childOnPath(a, ancestor)] - count[childOnPath(b, ancestor)];
+        if (diff == 0)
+            diff = stopwordCount[b] - stopwordCount[a]; // opposite way around since more stopwords means less favourable (unlike child count)
+        if (diff == 0)
+            diff = stopwordTieBreak(a, b);
+        return diff;
+    }
+
+    private int lowestCommonAncestorDifferenceIncludingSelf(int a, int b, int[] stopwordCount){
+        if (a == b) return 0; // The two nodes are one and the same; therefore equal precedence
+
+        // Establish which node is deeper in the tree
+        int deeper, shallower;
+        boolean reverse = false;
+        if (depth[a] < depth[b]){
+            deeper = b;
+            shallower = a;
+        } else {
+            deeper = a;
+            shallower = b;
+            reverse = true;
+        }
+
+        int ancestor = lowestCommonAncestor(deeper, shallower);
+        if (ancestor == shallower)
+            return reverse? 1 : -1; // If the shallower node is an ancestor of the deeper, since the deeper is still not pruned, we favour the longer ngram
+
+        int diff = count[childOnPath(shallower, ancestor)] - count[childOnPath(deeper, ancestor)];
+        if (diff == 0)
+            diff = stopwordCount[deeper] - stopwordCount[shallower];
+        if (diff == 0)
+            diff = stopwordTieBreak(shallower, deeper);
+        return reverse? -diff : diff;
+    }
+
+    private int stopwordTieBreak(int a, int b){
+        boolean aEnds = stopwords.contains(token[a]);
+        boolean bEnds = stopwords.contains(token[b]);
+        if (aEnds && !bEnds) return -1;
+        return !aEnds && bEnds? 1 : 0;
+    }
+
+    private int lowestCommonAncestor(int a, int b){
+        while (depth[a] > depth[b]) a = parent[a];
+        while (depth[b] > depth[a]) b = parent[b];
+        while (a != b){
+            a = parent[a];
+            b = parent[b];
+        }
+        return a;
+    }
+
+    /**
+     * The node on the path from the root to a given node which is the immediate child of the ancestor.
+     */
+    private int childOnPath(int node, int ancestor){
+        while (parent[node] != ancestor)
+            node = parent[node];
+        return node;
+    }
+
+    /**
+     * The ngram represented by a node: tokens on reverse arcs (leftwards from the root), then the root, then the
+     * tokens on forward arcs.
+     */
+    public List<Integer> getNgram(int node){
+        int numForward = 0;
+        for (int n = node; n != ROOT; n = parent[n]){
+            if (arcType[n] == FORWARD_ARC) numForward++;
+        }
+        int length = depth[node] + 1;
+        Integer[] ngram = new Integer[length];
+        int numReverse = length - 1 - numForward;
+
+        // Walking up from the node, forward tokens come first (rightmost first), then reverse tokens (leftmost first)
+        int forwardPosition = length - 1;
+        int reversePosition = 0;
+        for (int n = node; n != ROOT; n = parent[n]){
+            if (arcType[n] == FORWARD_ARC)
+                ngram[forwardPosition--] = token[n];
+            else
+                ngram[reversePosition++] = token[n];
+        }
+        ngram[numReverse] = token[ROOT];
+        return Arrays.asList(ngram);
+    }
+
+    public void print(FeatureExtractionPipeline pipeline){
+        print(ROOT, "", true, pipeline);
+    }
+
+    public void print(){
+        print(null);
+    }
+
+    private void print(int node, String prefix, boolean isTail, FeatureExtractionPipeline pipeline){
+        String form = pipeline == null? Integer.toString(token[node]) : pipeline.featureString(token[node]);
+        String connection = arcType[node] == FORWARD_ARC? (isTail? "└>─ " : "├>─ ")
+                          : arcType[node] == REVERSE_ARC? (isTail? "└<─ " : "├<─ ")
+                          : (isTail? "└── " : "├── ");
+        System.out.println(prefix + connection + form + "(" + count[node] + ")");
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]){
+            print(c, prefix + (isTail? "    " : "│   "), nextSibling[c] == NONE, pipeline);
+        }
+    }
+}
@@ -184,6 +184,15 @@ public class ProcessedInstance {
         label = maxLabel;
     }
 
+    /**
+     * Set the probability distribution and the label exactly as given, e.g. when reading back a stored
+     * instance, so that the label is what was stored even when it's one of several equally probable.
+     */
+    void setLabeling(int label, Int2DoubleOpenHashMap labelProbabilities) {
+        this.labelProbabilities = labelProbabilities;
+        this.label = label;
+    }
+
 
     @Override
     public boolean equals(Object o) {
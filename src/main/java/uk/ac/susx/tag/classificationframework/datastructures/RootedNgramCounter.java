@@ -186,34 +186,57 @@ public class RootedNgramCounter<N> {
         if(indicesOfRoot.length == 0) return;
 
         for (int indexOfRoot : indicesOfRoot){
+            addContextAt(context, indexOfRoot, count);
+        }
+    }
+
+    /**
+     * Count up a single occurrence of the root token, which the caller already knows is at position indexOfRoot
+     * in the context. This lets a caller that is counting for many root tokens find all of their positions in
+     * one scan of the context, rather than each counter scanning the whole context for itself (see
+     * IncrementalSurprisingPhraseAnalysis.getTopIndexedPhrases()).
+     */
+    public void addContextAt(List<N> context, int indexOfRoot, int count){
+        root.incCount(count);
 
-            root.incCount(count);
+        Node currentNode = root;
+        Node lastBeforeNode = root;
 
-            Node currentNode = root;
-            Node lastBeforeNode = root;
+        List<N> beforeTokens = Lists.reverse(context.subList(Math.max(indexOfRoot-maxN+1, 0), indexOfRoot));
+        List<N> afterTokens = indexOfRoot==context.size()-1? new ArrayList<>() : context.subList(indexOfRoot+1, Math.min(indexOfRoot+maxN-1, context.size()));
 
-            List<N> beforeTokens = Lists.reverse(context.subList(Math.max(indexOfRoot-maxN+1, 0), indexOfRoot));
-            List<N> afterTokens = indexOfRoot==context.size()-1? new ArrayList<>() : context.subList(indexOfRoot+1, Math.min(indexOfRoot+maxN-1, context.size()));
+        // Make a phrase starting from root
+        for (N tokenAfter : afterTokens){
+            currentNode = currentNode.incForwardChild(tokenAfter, count);
+        }
+        // Make a phrase starting from 1...n before the root node
+        for (int i = 0; i < beforeTokens.size(); i++) {
+            N tokenBefore = beforeTokens.get(i);
+            currentNode = lastBeforeNode.incReverseChild(tokenBefore, count);
+            lastBeforeNode = currentNode;
 
-            // Make a phrase starting from root
-            for (N tokenAfter : afterTokens){
+            // Stop the tree from allowing phrases longer than the max N, since if we're interested in 3-grams, then we look 2 words either side of the root, so naively this could produce 5-grams if we built the full tree
+            for (int j = 0; j < Math.min(afterTokens.size(), maxN - (i + 2)); j++) {
+                N tokenAfter = afterTokens.get(j);
                 currentNode = currentNode.incForwardChild(tokenAfter, count);
             }
-            // Make a phrase starting from 1...n before the root node
-            for (int i = 0; i < beforeTokens.size(); i++) {
-                N tokenBefore = beforeTokens.get(i);
-                currentNode = lastBeforeNode.incReverseChild(tokenBefore, count);
-                lastBeforeNode = currentNode;
-
-                // Stop the tree from allowing phrases longer than the max N, since if we're interested in 3-grams, then we look 2 words either side of the root, so naively this could produce 5-grams if we built the full tree
-                for (int j = 0; j < Math.min(afterTokens.size(), maxN - (i + 2)); j++) {
-                    N tokenAfter = afterTokens.get(j);
-                    currentNode = currentNode.incForwardChild(tokenAfter, count);
-                }
-            }
         }
     }
 
+    /**
+     * Add all the counts of another counter for the same root token to this one. This allows contexts to be
+     * counted in parallel, with one counter per thread, before merging the results.
+     *
+     * Neither counter may have been pruned yet (by topNgrams()).
+     */
+    public void merge(RootedNgramCounter<N> other){
+        if (!getRootToken().equals(other.getRootToken()))
+            throw new IllegalArgumentException("Cannot merge counters with different root tokens: " + getRootToken() + ", " + other.getRootToken());
+        if (pruned || other.pruned)
+            throw new IllegalStateException("Cannot merge counters that have already been pruned.");
+        root.merge(other.root);
+    }
+
     public void addContext(List<N> context){
         addContext(context, 1);
     }
@@ -583,6 +606,18 @@ public class RootedNgramCounter<N> {
 
         public void incCount(int inc) { count = Math.max(0, count+inc); }
 
+        /**
+         * Recursively add the counts of a node from another counter (and its descendants) to this node.
+         */
+        private void merge(RootedNgramCounter<N>.Node other){
+            count += other.count;
+            for (Map.Entry<RootedNgramCounter<N>.Arc, RootedNgramCounter<N>.Node> entry : other.children.entrySet()){
+                RootedNgramCounter<N>.Arc otherArc = entry.getKey();
+                Node child = addIfNotPresent(new Arc(otherArc.form, otherArc.type), 0);
+                child.merge(entry.getValue());
+            }
+        }
+
         public List<Node> getLeafNodes() {
             List<Node> toBeExplored = Lists.newArrayList(this);
             List<Node> leafNodes = new ArrayList<>();
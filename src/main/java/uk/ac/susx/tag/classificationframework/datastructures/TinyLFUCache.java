@@ -0,0 +1,336 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, weighted cache with W-TinyLFU eviction.
+ *
+ * Plain LRU lets a burst of one-off entries flush out entries which are used again and again. Here, the access
+ * frequency of every key (whether cached or not) is estimated by a count-min sketch of 4-bit counters, which are
+ * halved periodically so that old popularity fades. A new entry goes into a small LRU "window". When the window
+ * overflows, its least recent entry becomes a candidate for the main cache, and is only admitted if it's been
+ * accessed more often than the entry it would evict (the main cache's least recent probationary entry).
+ *
+ * The main cache is segmented: entries start on probation, and are promoted to the protected segment when
+ * accessed again. Entries are demoted back to probation when the protected segment is full.
+ *
+ * The cache is bounded by the total weight of its entries (e.g. their estimated size in bytes), as given by a
+ * Weigher. An entry weighing more than the whole cache isn't cached.
+ *
+ * Hit, miss, eviction and rejected admission counts are kept. All methods are synchronized.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class TinyLFUCache<K, V> {
+
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long mainMaximum;
+    private final long protectedMaximum;
+    private final Weigher<K, V> weigher;
+    private final FrequencySketch sketch;
+
+    private final Map<K, Node<K, V>> index = new HashMap<>();
+    // Each segment is in order of least to most recently used
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> protectedSegment = new LinkedHashMap<>();
+    private long windowWeight = 0;
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long rejections = 0;
+
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    /**
+     * A cache holding at most *maximumWeight* total weight, with entries weighed by *weigher*. The frequency sketch
+     * is sized for *expectedEntries*, the number of entries the cache is expected to hold when full.
+     */
+    public TinyLFUCache(long maximumWeight, int expectedEntries, Weigher<K, V> weigher) {
+        if (maximumWeight <= 0) throw new IllegalArgumentException("The maximum weight must be positive.");
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, (long)(maximumWeight * WINDOW_FRACTION));
+        this.mainMaximum = Math.max(1, maximumWeight - windowMaximum);
+        this.protectedMaximum = (long)(mainMaximum * PROTECTED_FRACTION);
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(Math.max(16, expectedEntries));
+    }
+
+    /**
+     * A cache of at most *maximumSize* entries.
+     */
+    public static <K, V> TinyLFUCache<K, V> ofSize(int maximumSize) {
+        return new TinyLFUCache<>(maximumSize, maximumSize, (key, value) -> 1);
+    }
+
+    /**
+     * Get the value cached under *key*, or null if there is none. Either way, the access is counted towards the key's frequency.
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = index.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        onAccess(node);
+        return node.value;
+    }
+
+    /**
+     * Cache *value* under *key*, replacing any value already cached under it. The new entry (or another entry)
+     * may be evicted straight away if the cache is full and the new entry isn't used often enough.
+     */
+    public synchronized void put(K key, V value) {
+        sketch.increment(key.hashCode());
+        long weight = weigher.weigh(key, value);
+        Node<K, V> node = index.get(key);
+        if (node != null) {
+            if (weight > maximumWeight) {
+                remove(node);
+                return;
+            }
+            addWeight(node.segment, weight - node.weight);
+            node.value = value;
+            node.weight = weight;
+            onAccess(node);
+        } else {
+            if (weight > maximumWeight) return;
+            node = new Node<>(key, value, weight);
+            index.put(key, node);
+            add(window, node, Segment.WINDOW);
+        }
+        evict();
+    }
+
+    public synchronized void invalidate(K key) {
+        Node<K, V> node = index.get(key);
+        if (node != null) remove(node);
+    }
+
+    public synchronized void invalidateAll() {
+        index.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = probationWeight = protectedWeight = 0;
+    }
+
+    public synchronized boolean containsKey(K key) { return index.containsKey(key); }
+    public synchronized int size() { return index.size(); }
+    public synchronized long weightedSize() { return windowWeight + probationWeight + protectedWeight; }
+    public long maximumWeight() { return maximumWeight; }
+
+    public synchronized long hitCount() { return hits; }
+    public synchronized long missCount() { return misses; }
+
+    /**
+     * The number of entries removed to keep within the maximum weight, including new entries refused admission.
+     */
+    public synchronized long evictionCount() { return evictions; }
+
+    /**
+     * The number of new entries refused admission to the main cache, because they were used less than the entry they'd have replaced.
+     */
+    public synchronized long rejectionCount() { return rejections; }
+
+    public synchronized double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double)hits / requests;
+    }
+
+    /**
+     * The estimated number of recent accesses to *key* (capped at 15).
+     */
+    public synchronized int frequency(K key) { return sketch.frequency(key.hashCode()); }
+
+    private void onAccess(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.remove(node.key);
+                window.put(node.key, node);
+                break;
+            case PROBATION: // Accessed again while on probation, so promote
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                add(protectedSegment, node, Segment.PROTECTED);
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protectedSegment.remove(node.key);
+                protectedSegment.put(node.key, node);
+                break;
+        }
+    }
+
+    /**
+     * Demote the least recently used protected entries to probation until the protected segment is within its maximum.
+     */
+    private void demoteProtected() {
+        Iterator<Node<K, V>> lru = protectedSegment.values().iterator();
+        while (protectedWeight > protectedMaximum && lru.hasNext()) {
+            Node<K, V> demoted = lru.next();
+            lru.remove();
+            protectedWeight -= demoted.weight;
+            add(probation, demoted, Segment.PROBATION);
+        }
+    }
+
+    /**
+     * Move entries overflowing the window into the main cache if they win admission, evicting as necessary.
+     */
+    private void evict() {
+        Iterator<Node<K, V>> lru = window.values().iterator();
+        while (windowWeight > windowMaximum && lru.hasNext()) {
+            Node<K, V> candidate = lru.next();
+            lru.remove();
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+        // Only needed if a replaced value weighs more than the old one
+        while (weightedSize() > maximumWeight) {
+            Node<K, V> victim = leastRecentlyUsed(!probation.isEmpty() ? probation : !protectedSegment.isEmpty() ? protectedSegment : window);
+            remove(victim);
+            evictions++;
+        }
+    }
+
+    private void admit(Node<K, V> candidate) {
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (probationWeight + protectedWeight + candidate.weight > mainMaximum) {
+            Node<K, V> victim = leastRecentlyUsed(probation.isEmpty() ? protectedSegment : probation);
+            if (victim == null) break;
+            if (candidateFrequency > sketch.frequency(victim.key.hashCode())) {
+                remove(victim);
+                evictions++;
+            } else {
+                index.remove(candidate.key);
+                evictions++;
+                rejections++;
+                return;
+            }
+        }
+        add(probation, candidate, Segment.PROBATION);
+    }
+
+    private static <K, V> Node<K, V> leastRecentlyUsed(LinkedHashMap<K, Node<K, V>> segment) {
+        return segment.isEmpty() ? null : segment.values().iterator().next();
+    }
+
+    private void add(LinkedHashMap<K, Node<K, V>> segment, Node<K, V> node, Segment name) {
+        node.segment = name;
+        segment.put(node.key, node);
+        addWeight(name, node.weight);
+    }
+
+    private void remove(Node<K, V> node) {
+        index.remove(node.key);
+        segment(node.segment).remove(node.key);
+        addWeight(node.segment, -node.weight);
+    }
+
+    private LinkedHashMap<K, Node<K, V>> segment(Segment name) {
+        switch (name) {
+            case WINDOW: return window;
+            case PROBATION: return probation;
+            default: return protectedSegment;
+        }
+    }
+
+    private void addWeight(Segment name, long weight) {
+        switch (name) {
+            case WINDOW: windowWeight += weight; break;
+            case PROBATION: probationWeight += weight; break;
+            case PROTECTED: protectedWeight += weight; break;
+        }
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        V value;
+        long weight;
+        Segment segment;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, 16 to a long. Each key has a counter in each of 4 rows, and its
+     * frequency is the minimum of them. Once as many increments as 10 times the expected number of entries have
+     * been made, all counters are halved.
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xbe5466cfL, 0x8a7f7a5bL, 0x27d4eb2fL};
+        private static final long HALF_MASK = 0x7777777777777777L;
+
+        private final long[][] rows = new long[SEEDS.length][];
+        private final int counterMask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            // Clamped as in Caffeine, so that neither the number of counters nor the sample size overflows
+            int entries = Math.min(expectedEntries, Integer.MAX_VALUE >>> 1);
+            int counters = Integer.highestOneBit(Math.max(16, entries - 1) << 1);
+            for (int i = 0; i < rows.length; i++) rows[i] = new long[counters / 16];
+            counterMask = counters - 1;
+            sampleSize = (int)Math.min(Integer.MAX_VALUE, 10L * entries);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < rows.length; i++) {
+                int counter = counter(hash, i);
+                frequency = Math.min(frequency, (int)((rows[i][counter >>> 4] >>> ((counter & 15) << 2)) & 15));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean incremented = false;
+            for (int i = 0; i < rows.length; i++) {
+                int counter = counter(hash, i);
+                int shift = (counter & 15) << 2;
+                long word = rows[i][counter >>> 4];
+                if (((word >>> shift) & 15) < 15) {
+                    rows[i][counter >>> 4] = word + (1L << shift);
+                    incremented = true;
+                }
+            }
+            if (incremented && ++additions >= sampleSize) halve();
+        }
+
+        private void halve() {
+            for (long[] row : rows) {
+                for (int i = 0; i < row.length; i++) row[i] = (row[i] >>> 1) & HALF_MASK;
+            }
+            additions /= 2;
+        }
+
+        private int counter(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int)h & counterMask;
+        }
+    }
+}
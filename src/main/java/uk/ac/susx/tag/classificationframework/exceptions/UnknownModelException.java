@@ -0,0 +1,14 @@
+package uk.ac.susx.tag.classificationframework.exceptions;
+
+/**
+ * Thrown when a model is asked for by an ID under which no model is registered (see ModelRegistry).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class UnknownModelException extends IllegalArgumentException {
+
+    public UnknownModelException(String modelId) {
+        super("No model registered with ID: " + modelId);
+    }
+}
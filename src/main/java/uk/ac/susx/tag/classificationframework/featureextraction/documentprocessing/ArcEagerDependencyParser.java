@@ -3,6 +3,7 @@ package uk.ac.susx.tag.classificationframework.featureextraction.documentprocess
 import com.google.common.io.Resources;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.SharedModels;
 import uk.ac.susx.tag.dependencyparser.Parser;
 import uk.ac.susx.tag.dependencyparser.datastructures.Sentence;
 import uk.ac.susx.tag.dependencyparser.datastructures.Token;
@@ -13,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Arc eager parsing. This is a wrapper for the dependency parser project, which allows its use in the
@@ -31,7 +33,8 @@ public class ArcEagerDependencyParser extends DocProcessor {
     private static final String defaultModel = "*PARSER-DEFAULT*";
 
 
-    private transient Parser parser;
+    // Shared with other parsers using the same model (see SharedModels), and loaded on first use
+    private transient SharedModels.Handle<Parser> parser;
     private String modelName;
 
     /**
@@ -40,7 +43,7 @@ public class ArcEagerDependencyParser extends DocProcessor {
      */
     public ArcEagerDependencyParser() throws IOException {
         modelName = defaultModel;
-        parser = new Parser();
+        loadParser();
     }
 
     /**
@@ -50,11 +53,34 @@ public class ArcEagerDependencyParser extends DocProcessor {
      */
     public ArcEagerDependencyParser(String modelName) throws IOException {
         this.modelName = modelName;
-        loadParserFromResources(modelName);
+        loadParser();
     }
 
     @Override
     public Document process(Document document) {
+        return parse(document, parser());
+    }
+
+    /**
+     * Parse the batch in one chunk per worker of the pipeline's thread pool, fetching the shared parser
+     * once for the whole batch. (The parser parses one sentence at a time.)
+     */
+    @Override
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+        Parser parser = parser();
+        return processInChunks(documents, threadPool, () -> parser, this::parse);
+    }
+
+    /**
+     * The shared parser, which is only missing if a temporary model wasn't re-loaded after de-serialisation.
+     */
+    private Parser parser() {
+        if (parser == null)
+            throw new FeatureExtractionException("No parser model. Probably because you created a parser with a temporary model, then serialised and deserialised, without re-loading that temporary model.");
+        return parser.get();
+    }
+
+    private Document parse(Document document, Parser parser) {
         List<TweetTagConverter.Token> tokens = (List<TweetTagConverter.Token>)document.getAttribute("ExpandedTokens");
 
         // Tokens would only be null if the "TweetTagConverter" isn't used beforehand (user created pipeline incorrectly)
@@ -93,7 +119,7 @@ public class ArcEagerDependencyParser extends DocProcessor {
      * Outside of the pipeline framework, if you want to parse a list of these token types then use this.
      */
     public List<TweetTagConverter.Token> standaloneParse(List<TweetTagConverter.Token> tokens) {
-        return extractDependencies(parser.parseSentence(Sentence.createFromPoSandFormBearingTokens(tokens)), tokens);
+        return extractDependencies(parser.get().parseSentence(Sentence.createFromPoSandFormBearingTokens(tokens)), tokens);
     }
 
 
@@ -101,7 +127,7 @@ public class ArcEagerDependencyParser extends DocProcessor {
      * Outside of the pipeline framework, if you want to parse the token types that the parser knows about, use this.
      */
     public List<Token> standaloneParse(Sentence tokens) {
-        return parser.parseSentence(tokens);
+        return parser.get().parseSentence(tokens);
     }
 
     @Override
@@ -128,21 +154,31 @@ public class ArcEagerDependencyParser extends DocProcessor {
      */
     public void loadTemporaryModel(File index, File model) throws IOException {
         modelName = temporaryModel;
-        parser = new Parser(index, model);
+        if (parser != null) parser.close();
+        parser = SharedModels.acquire("arc-eager-parser:files:" + index.getAbsolutePath() + ":" + model.getAbsolutePath(),
+                                      () -> new Parser(index, model));
     }
 
+    /**
+     * Acquire the shared parser for the default model, or the model named by modelName.
+     */
+    private void loadParser() {
+        String name = modelName;
+        parser = SharedModels.acquire("arc-eager-parser:" + name,
+                                      () -> name.equals(defaultModel) ? new Parser() : loadParserFromResources(name));
+    }
 
-
-    private void loadParserFromResources(String parserName) throws IOException {
+    private static Parser loadParserFromResources(String parserName) throws IOException {
         File model = File.createTempFile("model", null);
         model.deleteOnExit();
 
         try (BufferedOutputStream modelStream = new BufferedOutputStream(new FileOutputStream(model)) ){
             Resources.copy(Resources.getResource(parserName+"-model"), modelStream);
         }
-        parser = new Parser(Resources.getResource(parserName+"-index").openStream(), model);
+        Parser parser = new Parser(Resources.getResource(parserName+"-index").openStream(), model);
 
         if (!model.delete()) System.err.print("WARNING: model temp file was not deleted: "+ model.getAbsolutePath());
+        return parser;
     }
 
     /**
@@ -152,8 +188,7 @@ public class ArcEagerDependencyParser extends DocProcessor {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         if (!modelName.equals(temporaryModel)){
-            if (modelName.equals(defaultModel)) parser = new Parser();
-            else loadParserFromResources(modelName);
+            loadParser();
         }
     }
 
@@ -161,4 +196,9 @@ public class ArcEagerDependencyParser extends DocProcessor {
     public boolean isThreadSafe() {
         return true;
     }
+
+    @Override
+    public void close() {
+        if (parser != null) parser.close();
+    }
 }
@@ -5,10 +5,13 @@ import cmu.arktweetnlp.impl.ModelSentence;
 import cmu.arktweetnlp.impl.Sentence;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.SharedModels;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * See DocProcessor class for the function of DocProcessors.
@@ -35,7 +38,10 @@ public class CMUTweetTagger extends DocProcessor {
 
     private double headlineThreshold = 0;
 
-    public transient Tagger tagger;
+    static final String MODEL_PATH = "/cmu/arktweetnlp/model.20120919";
+
+    // The tagger model is shared with all other CMU tagging components (see SharedModels), and loaded on first use
+    private transient SharedModels.Handle<Tagger> tagger;
 
     public CMUTweetTagger() throws IOException {
         loadTagger();
@@ -46,14 +52,62 @@ public class CMUTweetTagger extends DocProcessor {
         loadTagger();
     }
 
-    private void loadTagger() throws IOException {
-        tagger = new Tagger();
-        tagger.loadModel("/cmu/arktweetnlp/model.20120919");
+    private void loadTagger() {
+        tagger = acquireTagger();
+    }
+
+    /**
+     * Acquire a handle on the shared CMU tagger model (also used by TokeniserCMUTokenAndTag).
+     */
+    public static SharedModels.Handle<Tagger> acquireTagger() {
+        return SharedModels.acquire("cmu-arktweetnlp:" + MODEL_PATH, () -> {
+            Tagger t = new Tagger();
+            t.loadModel(MODEL_PATH);
+            return t;
+        });
+    }
+
+    /**
+     * The CMU tagger model (formerly the public "tagger" field). Loads the shared model if no component
+     * has used it yet.
+     */
+    public Tagger getTagger() {
+        return tagger.get();
     }
 
     @Override
     public Document process(Document document) {
-        List<String> tokens = new ArrayList<>(document.size());
+        return tag(document, tagger.get(), newSentence());
+    }
+
+    /**
+     * Tag the batch in one chunk per worker of the pipeline's thread pool. The tagger is fetched once per
+     * batch, and each worker re-uses a single Sentence and token list for all the documents in its chunk.
+     * (The CMU tagger has no batch decoding of its own, but the per-document set-up is avoided.)
+     */
+    @Override
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+        Tagger tagger = this.tagger.get();
+        return processInChunks(documents, threadPool, CMUTweetTagger::newSentence, (document, sentence) -> tag(document, tagger, sentence));
+    }
+
+    @Override
+    public String configuration() {
+        return "PARAM:headlineThreshold:"+headlineThreshold;
+    }
+
+    private static Sentence newSentence() {
+        Sentence sentence = new Sentence();
+        sentence.tokens = new ArrayList<>();
+        return sentence;
+    }
+
+    /**
+     * Tag a document, using *sentence* (whose token list is cleared first) as a buffer for its tokens.
+     */
+    private Document tag(Document document, Tagger tagger, Sentence sentence) {
+        List<String> tokens = sentence.tokens;
+        tokens.clear();
         for (AnnotatedToken token : document){
             tokens.add(token.get("form"));
         }
@@ -62,18 +116,13 @@ public class CMUTweetTagger extends DocProcessor {
                 normaliseHeadline(tokens);
             }
         }
-        List<Tagger.TaggedToken> tagPreTokenised = tagPreTokenised(tokens);
-        for (int i = 0; i < tagPreTokenised.size(); i++) {
-            document.get(i).put("pos", tagPreTokenised.get(i).tag);
+        int[] labels = tagPreTokenised(sentence, tagger);
+        for (int i = 0; i < labels.length; i++) {
+            document.get(i).put("pos", tagger.model.labelVocab.name(labels[i]));
         }
         return document;
     }
 
-    @Override
-    public String configuration() {
-        return "PARAM:headlineThreshold:"+headlineThreshold;
-    }
-
     /**
      * I'm not sure about the level of naughtiness of this code... I copied
      * it from the tokenizeAndTag method of CMU's Tagger class, because they
@@ -81,23 +130,14 @@ public class CMUTweetTagger extends DocProcessor {
      * sentence.
      *
      * It seems to work fine...
+     *
+     * Returns the label index of each token.
      */
-    private List<Tagger.TaggedToken> tagPreTokenised(List<String> tokens){
-        Sentence sentence = new Sentence();
-        sentence.tokens = tokens;
+    private static int[] tagPreTokenised(Sentence sentence, Tagger tagger){
         ModelSentence ms = new ModelSentence(sentence.T());
         tagger.featureExtractor.computeFeatures(sentence, ms);
         tagger.model.greedyDecode(ms, false);
-
-        ArrayList<Tagger.TaggedToken> taggedTokens = new ArrayList<>();
-
-        for (int t=0; t < sentence.T(); t++) {
-            Tagger.TaggedToken tt = new Tagger.TaggedToken();
-            tt.token = tokens.get(t);
-            tt.tag = tagger.model.labelVocab.name( ms.labels[t] );
-            taggedTokens.add(tt);
-        }
-        return taggedTokens;
+        return ms.labels;
     }
 
     private boolean isHeadline(List<String> tokens){
@@ -125,4 +165,14 @@ public class CMUTweetTagger extends DocProcessor {
     public boolean isThreadSafe() {
         return true;
     }
+
+    @Override
+    public void close() {
+        tagger.close();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        loadTagger();
+    }
 }
@@ -0,0 +1,343 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.TinyLFUCache;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed result cache in front of an expensive DocProcessor (e.g. ArcEagerDependencyParser or
+ * StanfordNERPipeline), so that duplicate documents (retweets, bot posts) are only processed once.
+ *
+ * A document's cache key is its source text, and a hash of the wrapped processor's class and configuration()
+ * and of everything already annotated on the document: its tokens (with their annotations and offsets) and its
+ * attributes. I.e. everything the processor could use, so a cache hit gives exactly the output of processing the
+ * document. The processed tokens are cached as copies, and a hit gives a fresh copy of them, with the source of
+ * the document being processed (later pipeline stages change tokens in place). Document attributes, which are
+ * rare before the expensive processors, are cached as JSON.
+ *
+ * The cache is bounded by an estimate of its size in bytes, and uses W-TinyLFU eviction (see TinyLFUCache), so
+ * frequently repeated documents are kept in preference to the many that only occur once.
+ *
+ * In a batch, duplicates are also collapsed before processing, so only one of each goes to the wrapped processor
+ * (whose own batch processing is used if it has any). They count as cache hits in stats().
+ *
+ * The processing is the same as the wrapped processor's, so this has the same configuration(). Nothing is
+ * cached across serialisation.
+ *
+ * Usage:
+ *
+ *  pipeline.add(new CachingDocProcessor(new ArcEagerDependencyParser()));
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class CachingDocProcessor extends DocProcessor {
+
+    private static final long serialVersionUID = 0L;
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+    // Rough cost of a cache entry excluding its strings (the key, the cache's nodes and map entries), of a
+    // token excluding its annotations, of an annotation excluding its strings, and of a character
+    private static final long BYTES_PER_ENTRY = 160;
+    private static final long BYTES_PER_TOKEN = 80;
+    private static final long BYTES_PER_ANNOTATION = 48;
+    private static final long BYTES_PER_CHAR = 2;
+    // Rough size of a cached document, for sizing the cache's frequency sketch
+    private static final long EXPECTED_BYTES_PER_DOCUMENT = 2048;
+
+    private final DocProcessor processor;
+    private final long maximumBytes;
+
+    private transient TinyLFUCache<Key, Processed> cache;
+    private transient AtomicLong hits;
+    private transient AtomicLong misses;
+    private transient AtomicLong failures;
+    private transient AtomicLong processingNanos;
+
+    public CachingDocProcessor(DocProcessor processor) {
+        this(processor, DEFAULT_MAXIMUM_BYTES);
+    }
+
+    public CachingDocProcessor(DocProcessor processor, long maximumBytes) {
+        this.processor = processor;
+        this.maximumBytes = maximumBytes;
+        initCache();
+    }
+
+    @Override
+    public Document process(Document document) {
+        Key key = key(document);
+        Processed cached = cache.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.copy(document.source);
+        }
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        Document processed;
+        try {
+            processed = processor.process(document);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            processingNanos.addAndGet(System.nanoTime() - start);
+        }
+        cache.put(key, new Processed(processed));
+        return processed;
+    }
+
+    /**
+     * Look up each document, then process one of each distinct document which missed, and fan its output out to its duplicates.
+     */
+    @Override
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+        // Document indices grouped by key, for the documents not in the cache
+        Map<Key, List<Integer>> missed = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            Key key = key(document);
+            List<Integer> duplicates = missed.get(key);
+            if (duplicates != null) {
+                duplicates.add(i);
+                hits.incrementAndGet();
+                continue;
+            }
+            Processed cached = cache.get(key);
+            if (cached != null) {
+                documents.set(i, cached.copy(document.source));
+                hits.incrementAndGet();
+            } else {
+                duplicates = new ArrayList<>();
+                duplicates.add(i);
+                missed.put(key, duplicates);
+                misses.incrementAndGet();
+            }
+        }
+        if (missed.isEmpty()) return documents;
+
+        List<Document> representatives = new ArrayList<>(missed.size());
+        for (List<Integer> duplicates : missed.values()) representatives.add(documents.get(duplicates.get(0)));
+
+        long start = System.nanoTime();
+        try {
+            representatives = processRepresentatives(representatives, threadPool);
+        } catch (RuntimeException e) {
+            failures.addAndGet(representatives.size());
+            throw e;
+        } finally {
+            processingNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        int r = 0;
+        for (Map.Entry<Key, List<Integer>> entry : missed.entrySet()) {
+            Document processed = representatives.get(r++);
+            Processed cached = new Processed(processed);
+            cache.put(entry.getKey(), cached);
+            List<Integer> duplicates = entry.getValue();
+            documents.set(duplicates.get(0), processed);
+            for (int i = 1; i < duplicates.size(); i++) {
+                int index = duplicates.get(i);
+                documents.set(index, cached.copy(documents.get(index).source));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Process the documents as the pipeline would have processed them with the wrapped processor.
+     */
+    private List<Document> processRepresentatives(List<Document> representatives, ExecutorService threadPool) {
+        try {
+            return processor.processBatch(representatives, threadPool);
+        } catch (UnsupportedOperationException e) {
+            if (processor.isThreadSafe())
+                return processInChunks(representatives, threadPool, () -> null, (document, state) -> processor.process(document));
+            for (int i = 0; i < representatives.size(); i++) {
+                representatives.set(i, processor.process(representatives.get(i)));
+            }
+            return representatives;
+        }
+    }
+
+    /**
+     * Cache statistics. A load is a document processed by the wrapped processor (the load time being the time spent
+     * processing), and evictions include documents refused admission to the cache.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), misses.get(), misses.get() - failures.get(), failures.get(), processingNanos.get(), cache.evictionCount());
+    }
+
+    public double hitRate() {
+        return stats().hitRate();
+    }
+
+    /**
+     * The number of documents cached, and the estimated bytes used by them.
+     */
+    public int cachedDocuments() { return cache.size(); }
+    public long cachedBytes() { return cache.weightedSize(); }
+
+    public void clearCache() {
+        cache.invalidateAll();
+    }
+
+    public DocProcessor getProcessor() { return processor; }
+
+    @Override
+    public String configuration() {
+        return processor.configuration();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return processor.isThreadSafe();
+    }
+
+    @Override
+    public void close() {
+        cache.invalidateAll();
+        processor.close();
+    }
+
+    private Key key(Document document) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        putString(hasher, processor.getClass().getName());
+        putString(hasher, processor.configuration());
+        hasher.putInt(document.size());
+        for (AnnotatedToken token : document) {
+            hasher.putInt(token.start()).putInt(token.end()).putBoolean(token.isFiltered());
+            Map<String, String> annotations = token.getAttributes();
+            String[] names = annotations.keySet().toArray(new String[annotations.size()]);
+            Arrays.sort(names); // Annotations in the same order whatever the history of the map
+            hasher.putInt(names.length);
+            for (String name : names) {
+                putString(hasher, name);
+                putString(hasher, String.valueOf(annotations.get(name)));
+            }
+        }
+        String attributes = attributesJson(document);
+        putString(hasher, attributes == null ? "" : attributes);
+        String text = document.source == null || document.source.text == null ? "" : document.source.text;
+        return new Key(text, hasher.hash());
+    }
+
+    /**
+     * Put a string preceded by its length, so that the boundaries between strings are part of the key.
+     */
+    private static void putString(Hasher hasher, String string) {
+        hasher.putInt(string.length()).putString(string, Charsets.UTF_8);
+    }
+
+    /**
+     * The JSON of a document's attributes (as a document with no tokens or source), or null if it has none.
+     */
+    private static String attributesJson(Document document) {
+        if (document.getAttributes().isEmpty()) return null;
+        Document attributes = new Document();
+        attributes.getAttributes().putAll(document.getAttributes());
+        return attributes.toJson();
+    }
+
+    private static AnnotatedToken copy(AnnotatedToken token) {
+        AnnotatedToken copy = new AnnotatedToken();
+        copy.getAttributes().putAll(token.getAttributes());
+        copy.start(token.start());
+        copy.end(token.end());
+        copy.setFiltered(token.isFiltered());
+        return copy;
+    }
+
+    /**
+     * A cache key: the source text, and a hash of everything else that processing depends on. The text is compared
+     * rather than hashed, so that documents with different text never share an entry.
+     */
+    private static final class Key {
+        final String text;
+        final HashCode annotations;
+
+        Key(String text, HashCode annotations) {
+            this.text = text;
+            this.annotations = annotations;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return annotations.equals(other.annotations) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return annotations.asInt();
+        }
+    }
+
+    /**
+     * The output of processing a document: copies of its tokens, and its attributes as JSON (null if it has none).
+     */
+    private static final class Processed {
+        final AnnotatedToken[] tokens;
+        final String attributesJson;
+        final long bytes;
+
+        Processed(Document processed) {
+            tokens = new AnnotatedToken[processed.size()];
+            long chars = 0;
+            long annotations = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = copy(processed.get(i));
+                for (Map.Entry<String, String> annotation : tokens[i].getAttributes().entrySet()) {
+                    chars += annotation.getKey().length() + (annotation.getValue() == null ? 0 : annotation.getValue().length());
+                    annotations++;
+                }
+            }
+            attributesJson = attributesJson(processed);
+            if (attributesJson != null) chars += attributesJson.length();
+            bytes = BYTES_PER_TOKEN * tokens.length + BYTES_PER_ANNOTATION * annotations + BYTES_PER_CHAR * chars;
+        }
+
+        /**
+         * A fresh copy of the processed document, with the given source.
+         */
+        Document copy(Instance source) {
+            Document document = attributesJson == null ? new Document() : Document.fromJson(attributesJson);
+            document.ensureCapacity(tokens.length);
+            for (AnnotatedToken token : tokens) document.add(CachingDocProcessor.copy(token));
+            document.source = source;
+            return document;
+        }
+    }
+
+    private void initCache() {
+        int expectedEntries = (int)Math.min(Integer.MAX_VALUE, Math.max(1, maximumBytes / EXPECTED_BYTES_PER_DOCUMENT));
+        cache = new TinyLFUCache<>(maximumBytes, expectedEntries, (key, processed) -> BYTES_PER_ENTRY + BYTES_PER_CHAR * key.text.length() + processed.bytes);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        failures = new AtomicLong();
+        processingNanos = new AtomicLong();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initCache();
+    }
+}
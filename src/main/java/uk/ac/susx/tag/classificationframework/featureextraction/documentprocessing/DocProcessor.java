@@ -21,9 +21,16 @@ package uk.ac.susx.tag.classificationframework.featureextraction.documentprocess
  */
 
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.ParallelExecutorService;
 import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineComponent;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * A document processor is NOT designed to produce features, but to annotate or modify
@@ -55,6 +62,66 @@ public abstract class DocProcessor extends PipelineComponent {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Process a batch of documents, with the pipeline's thread pool available for doing so concurrently.
+     * This is what the pipeline calls; by default it defers to processBatch(documents), so that unless
+     * either is overridden, the pipeline falls back to calling process() on each document.
+     */
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool){
+        return processBatch(documents);
+    }
+
+    /**
+     * Per-worker processing for processInChunks(): process a document, making use of state which is
+     * private to the worker (e.g. buffers to re-use), and return the processed document.
+     */
+    protected interface ChunkProcessor<S> {
+        Document process(Document document, S state);
+    }
+
+    /**
+     * A helper for batch implementations of thread-safe DocProcessors. Rather than a task per document, the
+     * batch is split into one contiguous chunk per worker of the thread pool, and each chunk is processed by
+     * a single task, with its own state from *newState*. So per-document set-up can be done once per chunk.
+     *
+     * The documents are processed in place, and the list is returned.
+     */
+    protected static <S> List<Document> processInChunks(List<Document> documents, ExecutorService threadPool, Supplier<S> newState, ChunkProcessor<S> processor){
+        int numChunks = Math.min(documents.size(), parallelism(threadPool));
+        if (numChunks <= 1) {
+            S state = newState.get();
+            for (int i = 0; i < documents.size(); i++) {
+                documents.set(i, processor.process(documents.get(i), state));
+            }
+            return documents;
+        }
+        int chunkSize = (documents.size() + numChunks - 1) / numChunks;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int chunkStart = 0; chunkStart < documents.size(); chunkStart += chunkSize) {
+            final int start = chunkStart;
+            final int end = Math.min(documents.size(), chunkStart + chunkSize);
+            futures.add(threadPool.submit(() -> {
+                S state = newState.get();
+                for (int i = start; i < end; i++) {
+                    documents.set(i, processor.process(documents.get(i), state));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) { throw new FeatureExtractionException(e); }
+        }
+        return documents;
+    }
+
+    /**
+     * The number of tasks a thread pool can run at once (or the number of processors if it can't be told).
+     */
+    protected static int parallelism(ExecutorService threadPool){
+        return ParallelExecutorService.parallelism(threadPool);
+    }
+
     /**
      * Return a string representing the configuration of this
      * DocProcessor's parameters. Given two DocProcessors of
@@ -14,6 +14,7 @@ import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Use this to add NER annotations to your tokens.
@@ -49,6 +50,22 @@ public class IllinoisNER extends DocProcessor {
 
     @Override
     public Document process(Document document) {
+        return tag(document, new ArrayList<>());
+    }
+
+    /**
+     * Tag the batch in one chunk per worker of the pipeline's thread pool, each worker re-using a single
+     * list of token spans for all the documents in its chunk. (The Illinois handler tags one record at a time.)
+     */
+    @Override
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+        return processInChunks(documents, threadPool, ArrayList::new, this::tag);
+    }
+
+    /**
+     * Tag a document, using *spans* (which is cleared first) as a buffer for its token spans.
+     */
+    private Document tag(Document document, List<SimpleSpan> spans) {
         String originalText = document.source.text;
         if (!originalText.trim().isEmpty()) {
             try {
@@ -58,7 +75,7 @@ public class IllinoisNER extends DocProcessor {
                 Span currentLabelSpan = labels.hasNext()? labels.next() : null;
                 boolean atStart = true;
 
-                List<SimpleSpan> preTokens = getSpans(document, originalText);
+                List<SimpleSpan> preTokens = getSpans(document, originalText, spans);
 
                 for (SimpleSpan token : preTokens){
 
@@ -90,8 +107,8 @@ public class IllinoisNER extends DocProcessor {
         return "";
     }
 
-    private static List<SimpleSpan> getSpans(Document document, String originalText){
-        List<SimpleSpan> spans = new ArrayList<>();
+    private static List<SimpleSpan> getSpans(Document document, String originalText, List<SimpleSpan> spans){
+        spans.clear();
         int lastEnd = 0;
         for (int i = 0; i < document.size(); i++) {
             String token = document.get(i).get("form");
@@ -1,8 +1,9 @@
 package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.AhoCorasickMatcher;
-import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.Emit;
+import uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick.MatchBuffer;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 
@@ -10,7 +11,6 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Created by Andrew D. Robertson on 07/06/2016.
@@ -26,6 +26,7 @@ public class PhraseMatcher extends DocProcessor {
     private boolean allowOverlaps;
     private boolean filterMatches;
     private transient AhoCorasickMatcher<String> matcher;
+    private transient ThreadLocal<MatchBuffer> matchBuffers;
 
     public PhraseMatcher(Collection<ImmutableList<String>> patterns,
                          boolean lowerCase,
@@ -38,6 +39,7 @@ public class PhraseMatcher extends DocProcessor {
         this.filterMatches = filterMatches;
 
         matcher = setupMatcher(patterns, lowerCase, allowOverlaps);
+        matchBuffers = ThreadLocal.withInitial(MatchBuffer::new);
     }
 
     public static AhoCorasickMatcher<String> setupMatcher(Collection<ImmutableList<String>> patterns, boolean lowerCase, boolean allowOverlaps){
@@ -50,12 +52,13 @@ public class PhraseMatcher extends DocProcessor {
 
     @Override
     public Document process(Document document) {
-        List<String> tokens = document.stream().map(t -> t.get("form")).collect(Collectors.toList());
+        // Lazy view over the token forms, and a per-thread match buffer, so nothing is allocated per match
+        List<String> tokens = Lists.transform(document, t -> t.get("form"));
 
-        List<Emit<String>> parse = matcher.parse(tokens);
-        for (int j = 0; j < parse.size(); j++) {
-            Emit<String> match = parse.get(j);
-            for (int i = match.getStart(); i <= match.getEnd(); i++) {
+        MatchBuffer matches = matchBuffers.get();
+        matcher.scan(tokens, matches);
+        for (int j = 0; j < matches.size(); j++) {
+            for (int i = matches.start(j); i <= matches.end(j); i++) {
                 AnnotatedToken t = document.get(i);
                 if (filterMatches)
                     t.setFiltered(true);
@@ -74,6 +77,7 @@ public class PhraseMatcher extends DocProcessor {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         matcher = setupMatcher(patterns, lowerCase, allowOverlaps);
+        matchBuffers = ThreadLocal.withInitial(MatchBuffer::new);
     }
 
     @Override
@@ -3,116 +3,157 @@ package uk.ac.susx.tag.classificationframework.featureextraction.documentprocess
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
 
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Form;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.NewCookie;
-import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
+ * Delegates document processing to a remote service, which is POSTed documents as JSON (a "document" form
+ * parameter for a single document, or "documents" for a list), and responds with the processed documents as JSON.
+ *
+ * A batch is split into sub-batches of at most maxDocumentsPerRequest documents and maxBytesPerRequest characters
+ * of JSON, which are sent concurrently (up to maxInFlight at once), so that one large request doesn't hold up
+ * the rest. Requests are retried with exponential backoff. See ServiceClient for the options.
+ *
+ * The service may have several endpoints (URLs of identical instances), between which requests are balanced.
+ * An endpoint which keeps failing is taken out of use for a while, and a request which is slow to get a response
+ * from one endpoint is also sent to another. See getEndpointStats() for the health and latencies of each.
+ *
  * Created by Andrew D. Robertson on 30/06/2016.
  */
 public class Service extends DocProcessor {
 
     private static final long serialVersionUID = -1401249243453799130L;
 
-    private String url;
-    private transient Client client;
-    private static final int tries = 5;
-
+    private String url;  // The primary endpoint (the first of urls)
+    private List<String> urls;
+    private ServiceClient.Options options = new ServiceClient.Options();
+    private transient ServiceClient client;
 
     public Service(String url){
-        this.url = url;
-        this.client = ClientBuilder.newClient();
+        this(url, new ServiceClient.Options());
+    }
+
+    public Service(String url, ServiceClient.Options options){
+        this(Collections.singletonList(url), options);
+    }
+
+    public Service(List<String> urls, ServiceClient.Options options){
+        if (urls.isEmpty()) throw new IllegalArgumentException("A service needs at least one URL");
+        this.urls = new ArrayList<>(urls);
+        this.url = urls.get(0);
+        this.options = options.copy();
+        this.client = new ServiceClient(this.urls, this.options);
     }
 
     public String getUrl(){
         return url;
     }
 
+    public List<String> getUrls(){
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Use a single endpoint.
+     */
     public void setUrl(String url){
-        this.url = url;
+        setUrls(Collections.singletonList(url));
+    }
+
+    public void setUrls(List<String> urls){
+        client.setUrls(urls); // Checks there's at least one
+        this.urls = new ArrayList<>(urls);
+        this.url = urls.get(0);
+    }
+
+    /**
+     * Replace endpoint *oldUrl* with *newUrl*, keeping the other endpoints. Returns false if there was no *oldUrl*.
+     */
+    public boolean replaceUrl(String oldUrl, String newUrl){
+        if (!urls.contains(oldUrl)) return false;
+        List<String> replaced = new ArrayList<>(urls);
+        Collections.replaceAll(replaced, oldUrl, newUrl);
+        setUrls(replaced);
+        return true;
+    }
+
+    /**
+     * The request counts, failures, circuit breaker state and recent latencies of each endpoint.
+     */
+    public List<ServiceClient.EndpointStats> getEndpointStats(){
+        return client.endpointStats();
+    }
+
+    public ServiceClient.Options getOptions(){
+        return options.copy();
+    }
+
+    /**
+     * Change the client options. The old client is closed, so this shouldn't be done while requests are in flight.
+     */
+    public void setOptions(ServiceClient.Options options){
+        ServiceClient old = client;
+        this.options = options.copy();
+        client = new ServiceClient(urls, this.options);
+        old.close();
     }
 
     @Override
     public Document process(Document document) {
-        String jsonQuery = document.toJson();
-        String jsonResponse = null;
-        int lastHTTPCode = 0;
-        int triesRemaining = tries;
-        // Keep requesting until we run out of tries or get a successful response
-        while (triesRemaining > 0 && jsonResponse == null){
-            triesRemaining--;
-            try {
-                WebTarget target = client.target(url);
-                Form form = new Form();
-                form.param("document", jsonQuery);
-                Invocation.Builder request = target.request(MediaType.APPLICATION_JSON_TYPE);
-
-                Response r = request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE));
-
-                if (r.getStatus() >= 400){ // If error code, record last error code for potential reporting if we run out of tries
-                    lastHTTPCode = r.getStatus();
-                } else { // Otherwise get JSON response
-                    jsonResponse = r.readEntity(String.class);
-                }
-            } catch (ProcessingException | WebApplicationException e){
-                if (triesRemaining == 0){
-                    throw new FeatureExtractionException("Service not working. Url: "+url, e);
-                }
-            }
-        }
-        if (jsonResponse != null) { // If we got a successful response
-            // Return a deserialised document
-            return Document.fromJson(jsonResponse);
-        } else throw new FeatureExtractionException("Service not working (last error code: " + lastHTTPCode + " url: "+url);
+        return Document.fromJson(await(client.post("document", document.toJson())));
     }
 
     @Override
     public List<Document> processBatch(List<Document> documents){
-        String jsonQuery = Document.toJsonList(documents);
-        String jsonResponse = null;
-        int lastHTTPCode = 0;
-        int triesRemaining = tries;
-        // Keep requesting until we run out of tries or get a successful response
-        while (triesRemaining > 0 && jsonResponse == null){
-            triesRemaining--;
-            try {
-                WebTarget target = client.target(url);
-                Form form = new Form();
-                form.param("documents", jsonQuery);
-                Invocation.Builder request = target.request(MediaType.APPLICATION_JSON_TYPE);
-
-                Response r = request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE));
-
-                if (r.getStatus() >= 400){ // If error code, record last error code for potential reporting if we run out of tries
-                    lastHTTPCode = r.getStatus();
-                } else { // Otherwise get JSON response
-                    jsonResponse = r.readEntity(String.class);
-                }
-            } catch (ProcessingException | WebApplicationException e){
-                if (triesRemaining == 0){
-                    throw new FeatureExtractionException("Service not working. Url: "+url, e);
-                }
+        if (documents.isEmpty()) return documents;
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (String jsonQuery : subBatches(documents, options.maxDocumentsPerRequest, options.maxBytesPerRequest)) {
+            responses.add(client.post("documents", jsonQuery));
+        }
+        // All the sub-batches are in flight; collect their responses in order
+        List<Document> processed = new ArrayList<>(documents.size());
+        for (CompletableFuture<String> response : responses) {
+            processed.addAll(Document.fromJsonList(await(response)));
+        }
+        return processed;
+    }
+
+    /**
+     * Serialise documents as JSON lists of at most *maxDocuments* documents and (unless a single document is longer)
+     * *maxChars* characters.
+     */
+    static List<String> subBatches(List<Document> documents, int maxDocuments, int maxChars) {
+        List<String> subBatches = new ArrayList<>();
+        StringBuilder subBatch = new StringBuilder("[");
+        int count = 0;
+        for (Document document : documents) {
+            String json = document.toJson();
+            if (count > 0 && (count >= maxDocuments || subBatch.length() + 1 + json.length() + 1 > maxChars)) {
+                subBatches.add(subBatch.append(']').toString());
+                subBatch = new StringBuilder("[");
+                count = 0;
             }
+            if (count > 0) subBatch.append(',');
+            subBatch.append(json);
+            count++;
         }
-        if (jsonResponse != null) { // If we got a successful response
-            // Return a deserialised document
-            return Document.fromJsonList(jsonResponse);
-        } else throw new FeatureExtractionException("Service not working (last error code: " + lastHTTPCode + " url: "+url);
+        if (count > 0 || subBatches.isEmpty()) subBatches.add(subBatch.append(']').toString());
+        return subBatches;
     }
 
+    private static String await(CompletableFuture<String> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof FeatureExtractionException) throw (FeatureExtractionException)e.getCause();
+            throw new FeatureExtractionException(e.getCause());
+        }
+    }
 
     @Override
     public boolean isThreadSafe() {
@@ -126,11 +167,14 @@ public class Service extends DocProcessor {
 
     @Override
     public String configuration() {
-        return "url:"+url;
+        return urls.size() == 1 ? "url:"+url : "urls:"+String.join(",", urls);
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        client = ClientBuilder.newClient();
+        if (options == null) options = new ServiceClient.Options(); // Serialised before there were options
+        if (urls == null) urls = Collections.singletonList(url);     // Serialised before there were several endpoints
+        urls = new ArrayList<>(urls);
+        client = new ServiceClient(urls, options);
     }
 }
@@ -0,0 +1,506 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.message.GZipEncoder;
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The HTTP client behind Service. Requests are asynchronous, so that a batch can be split into sub-batches which
+ * are all in flight at once (see Service.processBatch()).
+ *
+ *  - One JAX-RS client (and its connections) is used for all requests. Every response is closed, so that its
+ *    connection can be kept alive and re-used. (The JDK keeps at most "http.maxConnections" idle connections per
+ *    host, 5 by default; raise it if maxInFlight is much larger.)
+ *  - At most maxInFlight requests are in progress at once (including any waiting to retry). post() blocks until
+ *    a request can be started.
+ *  - A request failing with an error, a server error (5xx), or a 408 or 429 status is retried up to maxAttempts
+ *    times in all, after an exponential backoff with full jitter: a random delay of up to
+ *    baseBackoffMillis * 2^(attempt-1), capped at maxBackoffMillis. Waiting for a retry doesn't hold up any other
+ *    request. Any other client error (4xx) means the request itself is at fault, so it fails at once, and doesn't
+ *    count against the endpoint (see below).
+ *  - Optionally, request and response bodies are gzipped (the service must accept gzipped requests).
+ *
+ * There may be several endpoints (URLs of instances of the same service):
+ *
+ *  - Each request goes to the less loaded (by requests in flight) of two endpoints chosen at random, preferring
+ *    endpoints the request hasn't already failed on.
+ *  - Each endpoint has a circuit breaker: after failureThreshold consecutive failures, the endpoint is taken out
+ *    of use for openMillis, and then given a single trial request, which puts it back in use if it succeeds.
+ *  - If a request to an endpoint has taken longer than the endpoint's hedgePercentile latency (once it has served
+ *    enough requests to tell), a duplicate "hedged" request is sent to another endpoint, and whichever
+ *    responds first is used. So one slow instance doesn't set the tail latency of every batch.
+ *
+ * See endpointStats() for per-endpoint latencies, failures and circuit states.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ServiceClient implements AutoCloseable {
+
+    private final Options options;
+    private final Client client;
+    private final ScheduledExecutorService scheduler;  // For retries and hedges
+    private final Semaphore inFlight;
+    private volatile List<Endpoint> endpoints;
+
+    /**
+     * Configuration of a ServiceClient. Serialisable, so that a Service keeps its options.
+     */
+    public static class Options implements Serializable {
+        private static final long serialVersionUID = 0L;
+
+        public int maxInFlight = 8;
+        public int maxDocumentsPerRequest = 500;
+        public int maxBytesPerRequest = 4 * 1024 * 1024;  // Of JSON, as counted by its number of characters
+        public int maxAttempts = 5;
+        public long baseBackoffMillis = 100;
+        public long maxBackoffMillis = 10000;
+        public boolean gzip = false;
+        public int connectTimeoutMillis = 0;  // 0 for no timeout
+        public int readTimeoutMillis = 0;
+        public int failureThreshold = 5;      // Consecutive failures which take an endpoint out of use
+        public long openMillis = 30000;       // How long an endpoint is out of use before a trial request
+        public double hedgePercentile = 0.95; // 0 for no hedged requests
+
+        public Options copy() {
+            Options copy = new Options();
+            copy.maxInFlight = maxInFlight;
+            copy.maxDocumentsPerRequest = maxDocumentsPerRequest;
+            copy.maxBytesPerRequest = maxBytesPerRequest;
+            copy.maxAttempts = maxAttempts;
+            copy.baseBackoffMillis = baseBackoffMillis;
+            copy.maxBackoffMillis = maxBackoffMillis;
+            copy.gzip = gzip;
+            copy.connectTimeoutMillis = connectTimeoutMillis;
+            copy.readTimeoutMillis = readTimeoutMillis;
+            copy.failureThreshold = failureThreshold;
+            copy.openMillis = openMillis;
+            copy.hedgePercentile = hedgePercentile;
+            return copy;
+        }
+    }
+
+    public ServiceClient(String url, Options options) {
+        this(Collections.singletonList(url), options);
+    }
+
+    public ServiceClient(List<String> urls, Options options) {
+        this.options = options.copy();
+        ClientConfig config = new ClientConfig()
+                .property(ClientProperties.ASYNC_THREADPOOL_SIZE, Math.max(1, 2 * options.maxInFlight)) // Room for hedges
+                .property(ClientProperties.CONNECT_TIMEOUT, options.connectTimeoutMillis)
+                .property(ClientProperties.READ_TIMEOUT, options.readTimeoutMillis);
+        if (options.gzip) {
+            config.register(EncodingFilter.class)
+                  .register(GZipEncoder.class)
+                  .property(ClientProperties.USE_ENCODING, "gzip");
+        }
+        client = ClientBuilder.newClient(config);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("service-client-%d").setDaemon(true).build());
+        inFlight = new Semaphore(Math.max(1, options.maxInFlight));
+        setUrls(urls);
+    }
+
+    public String getUrl() { return endpoints.get(0).url; }
+
+    public List<String> getUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) urls.add(endpoint.url);
+        return urls;
+    }
+
+    public void setUrl(String url) {
+        setUrls(Collections.singletonList(url));
+    }
+
+    /**
+     * Replace the endpoints. Requests in flight carry on with the old endpoints, and the new ones start with no history.
+     */
+    public void setUrls(List<String> urls) {
+        if (urls.isEmpty()) throw new IllegalArgumentException("A service needs at least one URL");
+        List<Endpoint> newEndpoints = new ArrayList<>();
+        for (String url : urls) newEndpoints.add(new Endpoint(url, client.target(url), options));
+        endpoints = Collections.unmodifiableList(newEndpoints);
+    }
+
+    public Options getOptions() { return options.copy(); }
+
+    /**
+     * A snapshot of the statistics of each endpoint.
+     */
+    public List<EndpointStats> endpointStats() {
+        List<EndpointStats> stats = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) stats.add(endpoint.stats(System.nanoTime()));
+        return stats;
+    }
+
+    /**
+     * POST *json* as the form parameter *name*, and get the JSON response. Blocks until fewer than maxInFlight
+     * requests are in progress. The future fails with a FeatureExtractionException once all attempts have failed.
+     */
+    public CompletableFuture<String> post(String name, String json) {
+        inFlight.acquireUninterruptibly();
+        Form form = new Form();
+        form.param(name, json);
+        Call call = new Call(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE), endpoints);
+        call.result.whenComplete((response, error) -> inFlight.release());
+        call.startAttempt();
+        return call.result;
+    }
+
+    /**
+     * The delay before the retry following failed attempt number *attempt* (from 1): exponential backoff with full jitter.
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = options.baseBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > options.maxBackoffMillis) ceiling = options.maxBackoffMillis;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Choose an endpoint for a request: the less loaded of two endpoints chosen at random from those in use which
+     * aren't in *avoid* (or, unless *strict*, from all those in use if they're all to be avoided). Null if none is.
+     */
+    static Endpoint choose(List<Endpoint> endpoints, Set<Endpoint> avoid, boolean strict, long now) {
+        List<Endpoint> preferred = new ArrayList<>();
+        List<Endpoint> usable = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isUsable(now)) {
+                usable.add(endpoint);
+                if (!avoid.contains(endpoint)) preferred.add(endpoint);
+            }
+        }
+        List<Endpoint> candidates = preferred.isEmpty() && !strict ? usable : preferred;
+        while (!candidates.isEmpty()) {
+            Endpoint choice = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+            if (candidates.size() > 1) {
+                Endpoint other;
+                do { other = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size())); } while (other == choice);
+                if (other.inFlight.get() < choice.inFlight.get()) choice = other;
+            }
+            if (choice.tryAcquire(now)) return choice;
+            candidates.remove(choice); // Its trial request was taken by another request in the meantime
+        }
+        return null;
+    }
+
+    /**
+     * Close the client. Requests still in flight will fail (retries already scheduled are attempted, and fail at once).
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        client.close();
+    }
+
+    /**
+     * A request, and its attempts (each of which may be sent to two endpoints, if hedged).
+     */
+    private class Call {
+        final Entity<Form> entity;
+        final List<Endpoint> endpoints;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final Set<Endpoint> tried = new HashSet<>();
+        int attempt = 0;
+        int outstanding = 0;  // Requests of the current attempt still in flight
+        String lastError = null;
+        Throwable lastCause = null;
+
+        Call(Entity<Form> entity, List<Endpoint> endpoints) {
+            this.entity = entity;
+            this.endpoints = endpoints;
+        }
+
+        synchronized void startAttempt() {
+            attempt++;
+            Endpoint endpoint = choose(endpoints, tried, false, System.nanoTime());
+            if (endpoint == null) {
+                lastError = "Service not working (no endpoint available, all circuits open) urls: " + urls(endpoints);
+                retryOrFail();
+                return;
+            }
+            send(endpoint, false);
+            long hedgeDelay = endpoints.size() > 1 ? endpoint.hedgeDelayNanos() : -1;
+            if (hedgeDelay >= 0) {
+                int hedgedAttempt = attempt;
+                schedule(() -> hedge(hedgedAttempt), hedgeDelay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void hedge(int hedgedAttempt) {
+            if (result.isDone() || attempt != hedgedAttempt || outstanding == 0) return;
+            Endpoint endpoint = choose(endpoints, tried, true, System.nanoTime());
+            if (endpoint != null) send(endpoint, true); // Else there's no other endpoint to hedge with
+        }
+
+        /**
+         * Must hold the lock on the call.
+         */
+        private void send(Endpoint endpoint, boolean hedged) {
+            tried.add(endpoint);
+            outstanding++;
+            if (hedged) endpoint.hedges.incrementAndGet();
+            int sentAttempt = attempt;
+            long start = System.nanoTime();
+            try {
+                endpoint.target.request(MediaType.APPLICATION_JSON_TYPE).async().post(entity, new InvocationCallback<Response>() {
+                    public void completed(Response response) {
+                        try {
+                            if (response.getStatus() >= 400 && isRetryable(response.getStatus())) {
+                                Call.this.failed(endpoint, sentAttempt, "Service not working (last error code: " + response.getStatus() + " url: " + endpoint.url, null);
+                            } else if (response.getStatus() >= 400) {
+                                Call.this.rejected(endpoint, response.getStatus());
+                            } else {
+                                String body = response.readEntity(String.class);
+                                endpoint.succeeded(System.nanoTime() - start);
+                                result.complete(body);
+                            }
+                        } catch (RuntimeException e) {
+                            Call.this.failed(endpoint, sentAttempt, "Service not working. Url: " + endpoint.url, e);
+                        } finally {
+                            response.close();
+                        }
+                    }
+                    public void failed(Throwable throwable) {
+                        Call.this.failed(endpoint, sentAttempt, "Service not working. Url: " + endpoint.url, throwable);
+                    }
+                });
+            } catch (RuntimeException e) { // E.g. the client has been closed
+                outstanding--;
+                endpoint.failed();
+                lastError = "Service not working. Url: " + endpoint.url;
+                lastCause = e;
+                if (outstanding == 0) retryOrFail();
+            }
+        }
+
+        synchronized void failed(Endpoint endpoint, int failedAttempt, String error, Throwable cause) {
+            endpoint.failed();
+            if (failedAttempt != attempt) return;
+            outstanding--;
+            lastError = error;
+            lastCause = cause;
+            // Only retry once neither the request nor its hedge can still succeed
+            if (outstanding == 0 && !result.isDone()) retryOrFail();
+        }
+
+        synchronized void rejected(Endpoint endpoint, int status) {
+            endpoint.rejected();
+            result.completeExceptionally(new FeatureExtractionException("Service rejected the request (error code: " + status + " url: " + endpoint.url + ")"));
+        }
+
+        /**
+         * Must hold the lock on the call.
+         */
+        private void retryOrFail() {
+            if (attempt < options.maxAttempts && schedule(this::startAttempt, backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                return;
+            result.completeExceptionally(lastCause == null ? new FeatureExtractionException(lastError) : new FeatureExtractionException(lastError, lastCause));
+        }
+    }
+
+    private boolean schedule(Runnable task, long delay, TimeUnit unit) {
+        try {
+            scheduler.schedule(task, delay, unit);
+            return true;
+        } catch (RejectedExecutionException e) { // Closed
+            return false;
+        }
+    }
+
+    /**
+     * True if a request failing with HTTP *status* may succeed if retried: a server error, a request timeout or
+     * too many requests. Other client errors would fail again.
+     */
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    private static String urls(List<Endpoint> endpoints) {
+        List<String> urls = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) urls.add(endpoint.url);
+        return urls.toString();
+    }
+
+    public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * An instance of the service, with its circuit breaker and latency history.
+     */
+    static class Endpoint {
+        private static final int LATENCY_WINDOW = 1024;          // Latencies of the most recent successful requests
+        private static final int MIN_SAMPLES_FOR_HEDGING = 20;
+        private static final int SAMPLES_PER_HEDGE_UPDATE = 32;  // The hedging delay is re-computed this often
+
+        final String url;
+        final WebTarget target;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong hedges = new AtomicLong();
+        private final int failureThreshold;
+        private final long openNanos;
+        private final double hedgePercentile;
+
+        // Guarded by this
+        private CircuitState state = CircuitState.CLOSED;
+        private int consecutiveFailures = 0;
+        private long openUntil = 0;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int samples = 0;
+        private long hedgeDelay = -1;
+
+        Endpoint(String url, WebTarget target, Options options) {
+            this.url = url;
+            this.target = target;
+            this.failureThreshold = Math.max(1, options.failureThreshold);
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(options.openMillis);
+            this.hedgePercentile = options.hedgePercentile;
+        }
+
+        /**
+         * True if the endpoint could take a request: its circuit is closed, or it's due a trial request.
+         */
+        synchronized boolean isUsable(long now) {
+            return state == CircuitState.CLOSED || (state == CircuitState.OPEN && now - openUntil >= 0);
+        }
+
+        /**
+         * Take a request if usable. If the endpoint was due a trial request, this is it.
+         */
+        synchronized boolean tryAcquire(long now) {
+            if (!isUsable(now)) return false;
+            if (state == CircuitState.OPEN) state = CircuitState.HALF_OPEN;
+            inFlight.incrementAndGet();
+            requests.incrementAndGet();
+            return true;
+        }
+
+        synchronized void succeeded(long latencyNanos) {
+            inFlight.decrementAndGet();
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+            latencies[samples % LATENCY_WINDOW] = latencyNanos;
+            samples++;
+            if (samples >= MIN_SAMPLES_FOR_HEDGING && (hedgeDelay < 0 || samples % SAMPLES_PER_HEDGE_UPDATE == 0))
+                hedgeDelay = percentile(hedgePercentile);
+        }
+
+        synchronized void failed() {
+            inFlight.decrementAndGet();
+            failures.incrementAndGet();
+            consecutiveFailures++;
+            if (state == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = CircuitState.OPEN;
+                openUntil = System.nanoTime() + openNanos;
+            }
+        }
+
+        /**
+         * The endpoint rejected a request (a client error). That says nothing about its health, except that it's up,
+         * so it doesn't count as a failure: a trial request closes the circuit, and otherwise it's left as it is.
+         */
+        synchronized void rejected() {
+            inFlight.decrementAndGet();
+            if (state == CircuitState.HALF_OPEN) {
+                state = CircuitState.CLOSED;
+                consecutiveFailures = 0;
+            }
+        }
+
+        /**
+         * How long to wait for a response before hedging, or -1 if not hedging (yet).
+         */
+        synchronized long hedgeDelayNanos() {
+            return hedgePercentile > 0 ? hedgeDelay : -1;
+        }
+
+        /**
+         * The latency at percentile *p* (between 0 and 1) of the recent successful requests, or -1 if there were none.
+         */
+        synchronized long percentile(double p) {
+            int n = Math.min(samples, LATENCY_WINDOW);
+            if (n == 0) return -1;
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            int rank = (int)Math.ceil(p * n) - 1;  // Nearest rank
+            return sorted[Math.max(0, Math.min(n - 1, rank))];
+        }
+
+        synchronized EndpointStats stats(long now) {
+            CircuitState current = state == CircuitState.OPEN && now - openUntil >= 0 ? CircuitState.HALF_OPEN : state;
+            return new EndpointStats(url, current, requests.get(), failures.get(), hedges.get(), inFlight.get(),
+                    Math.min(samples, LATENCY_WINDOW), percentile(0.5), percentile(0.95), percentile(0.99));
+        }
+    }
+
+    /**
+     * Statistics of an endpoint. Latencies are in milliseconds, over its recent successful requests (-1 if none).
+     * The state is HALF_OPEN when an endpoint is due (or taking) a trial request.
+     */
+    public static class EndpointStats {
+        public final String url;
+        public final CircuitState state;
+        public final long requests;
+        public final long failures;
+        public final long hedgedRequests;  // Requests sent to this endpoint as hedges
+        public final int inFlight;
+        public final int latencySamples;
+        public final double p50LatencyMillis;
+        public final double p95LatencyMillis;
+        public final double p99LatencyMillis;
+
+        EndpointStats(String url, CircuitState state, long requests, long failures, long hedgedRequests, int inFlight,
+                      int latencySamples, long p50Nanos, long p95Nanos, long p99Nanos) {
+            this.url = url;
+            this.state = state;
+            this.requests = requests;
+            this.failures = failures;
+            this.hedgedRequests = hedgedRequests;
+            this.inFlight = inFlight;
+            this.latencySamples = latencySamples;
+            this.p50LatencyMillis = toMillis(p50Nanos);
+            this.p95LatencyMillis = toMillis(p95Nanos);
+            this.p99LatencyMillis = toMillis(p99Nanos);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos < 0 ? -1 : nanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return url + " " + state + " requests:" + requests + " failures:" + failures + " hedged:" + hedgedRequests
+                    + " inFlight:" + inFlight + " p50:" + p50LatencyMillis + "ms p95:" + p95LatencyMillis + "ms p99:" + p99LatencyMillis + "ms";
+        }
+    }
+}
@@ -9,10 +9,13 @@ import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.util.CoreMap;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.SharedModels;
 
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created with IntelliJ IDEA.
@@ -22,7 +25,10 @@ import java.util.Properties;
  */
 public class StanfordNERPipeline extends DocProcessor {
 
-    private transient StanfordCoreNLP pipeline;
+    private static final String ANNOTATORS = "tokenize, ssplit, pos, lemma, ner";
+
+    // Shared with other components using the same annotators (see SharedModels), and loaded on first use
+    private transient SharedModels.Handle<StanfordCoreNLP> pipeline;
 
     public StanfordNERPipeline(){
         loadPipeline();
@@ -32,29 +38,59 @@ public class StanfordNERPipeline extends DocProcessor {
     public Document process(Document document) {
         String originalText = document.source.text;
         if (!originalText.trim().isEmpty()) {
-            document.clear(); // Overwrite any current tokenisation
             Annotation toBeAnnotated = new Annotation(originalText);
-            pipeline.annotate(toBeAnnotated);
+            pipeline.get().annotate(toBeAnnotated);
+            addTokens(document, toBeAnnotated);
+        }
+        return document;
+    }
 
-            List<CoreMap> sentences = toBeAnnotated.get(CoreAnnotations.SentencesAnnotation.class);
-            for(CoreMap sentence: sentences) {
-                for (CoreLabel token: sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                    String word = token.get(CoreAnnotations.TextAnnotation.class);
-                    String pos = token.get(CoreAnnotations.PartOfSpeechAnnotation.class);
-                    String ne = token.get(CoreAnnotations.NamedEntityTagAnnotation.class);
-                    int start = token.get(CoreAnnotations.BeginIndexAnnotation.class);
-                    int end = token.get(CoreAnnotations.EndIndexAnnotation.class);
+    /**
+     * Annotate the whole batch with CoreNLP's own multi-threaded annotation, using as many threads as the
+     * pipeline's thread pool has workers.
+     */
+    @Override
+    public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+        List<Document> toBeTokenised = new ArrayList<>();
+        List<Annotation> toBeAnnotated = new ArrayList<>();
+        for (Document document : documents) {
+            String originalText = document.source.text;
+            if (!originalText.trim().isEmpty()) {
+                toBeTokenised.add(document);
+                toBeAnnotated.add(new Annotation(originalText));
+            }
+        }
+        if (!toBeAnnotated.isEmpty()) {
+            pipeline.get().annotate(toBeAnnotated, Math.min(toBeAnnotated.size(), parallelism(threadPool)));
+            for (int i = 0; i < toBeTokenised.size(); i++) {
+                addTokens(toBeTokenised.get(i), toBeAnnotated.get(i));
+            }
+        }
+        return documents;
+    }
 
-                    AnnotatedToken t = new AnnotatedToken(word);
-                    t.start(start);
-                    t.end(end);
-                    t.put("pos", pos);
-                    t.put("NERTag", ne);
-                    document.add(t);
-                }
+    /**
+     * Overwrite any current tokenisation of the document with the tokens of its annotation.
+     */
+    private static void addTokens(Document document, Annotation annotation) {
+        document.clear();
+        List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+        for(CoreMap sentence: sentences) {
+            for (CoreLabel token: sentence.get(CoreAnnotations.TokensAnnotation.class)) {
+                String word = token.get(CoreAnnotations.TextAnnotation.class);
+                String pos = token.get(CoreAnnotations.PartOfSpeechAnnotation.class);
+                String ne = token.get(CoreAnnotations.NamedEntityTagAnnotation.class);
+                int start = token.get(CoreAnnotations.BeginIndexAnnotation.class);
+                int end = token.get(CoreAnnotations.EndIndexAnnotation.class);
+
+                AnnotatedToken t = new AnnotatedToken(word);
+                t.start(start);
+                t.end(end);
+                t.put("pos", pos);
+                t.put("NERTag", ne);
+                document.add(t);
             }
         }
-        return document;
     }
 
     @Override
@@ -63,9 +99,12 @@ public class StanfordNERPipeline extends DocProcessor {
     }
 
     public void loadPipeline(){
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize, ssplit, pos, lemma, ner");
-        pipeline = new StanfordCoreNLP(props);
+        if (pipeline != null) pipeline.close();
+        pipeline = SharedModels.acquire("stanford-corenlp:annotators=" + ANNOTATORS, () -> {
+            Properties props = new Properties();
+            props.setProperty("annotators", ANNOTATORS);
+            return new StanfordCoreNLP(props);
+        });
     }
 
     private void readObject(ObjectInputStream in) throws Exception {
@@ -77,4 +116,9 @@ public class StanfordNERPipeline extends DocProcessor {
     public boolean isThreadSafe() {
         return true;
     }
+
+    @Override
+    public void close() {
+        pipeline.close();
+    }
 }
@@ -0,0 +1,381 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineMetrics.Stage;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A diagnostic for attributing the memory allocated by batch feature extraction (extractFeaturesInBatches(),
+ * extractUnindexedFeaturesInBatchesToStream(), etc.) to the components of a pipeline. See
+ * FeatureExtractionPipeline.setAllocationProfiler().
+ *
+ * The bytes allocated by each component invocation are measured with the JVM's per-thread allocation counters
+ * (com.sun.management.ThreadMXBean): on the thread invoking the component, and on the pipeline's thread pool for
+ * any tasks submitted to it during the invocation (whether by the pipeline or by the component itself). They're
+ * aggregated per component. Indexing (including building the ProcessedInstances) is attributed to the INDEX stage
+ * as a whole. The report also gives the largest Document (in tokens) and feature list seen, and the garbage
+ * collections which have happened since the profiler was created or reset.
+ *
+ * Reading the allocation counters costs around a microsecond, and is done twice per invocation and per
+ * per-document task, so this is for diagnosing, rather than to be left on (unlike RecordingPipelineMetrics).
+ * It needs a HotSpot-derived JVM (see isSupported()).
+ *
+ *  AllocationProfiler profiler = new AllocationProfiler();
+ *  pipeline.setAllocationProfiler(profiler);
+ *  pipeline.extractFeaturesInBatches(instances, 1000);
+ *  System.out.println(profiler.report());
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class AllocationProfiler {
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    private final Map<Stage, ConcurrentHashMap<String, Allocation>> allocations = new EnumMap<>(Stage.class);
+    private final LongAccumulator peakDocumentTokens = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakFeatures = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakBatchTokens = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakBatchFeatures = new LongAccumulator(Math::max, 0);
+    private volatile long gcCountAtStart;
+    private volatile long gcMillisAtStart;
+
+    /**
+     * @throws UnsupportedOperationException if the JVM can't measure per-thread allocation.
+     */
+    public AllocationProfiler() {
+        if (!isSupported()) throw new UnsupportedOperationException("This JVM can't measure the memory allocated by each thread");
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        for (Stage stage : Stage.values()) allocations.put(stage, new ConcurrentHashMap<>());
+        resetGarbageCollections();
+    }
+
+    public static boolean isSupported() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * Begin measuring an invocation of a component on the current thread.
+     */
+    Invocation start() { return new Invocation(); }
+
+    /**
+     * Note the sizes of a batch of documents (after tokenisation and document processing).
+     */
+    void documentsProcessed(List<Document> documents) {
+        long tokens = 0;
+        for (Document document : documents) {
+            peakDocumentTokens.accumulate(document.size());
+            tokens += document.size();
+        }
+        peakBatchTokens.accumulate(tokens);
+    }
+
+    /**
+     * Note the sizes of the feature lists of a batch of documents (after feature inference).
+     */
+    void featuresInferred(List<List<Feature>> featuresPerDocument) {
+        long features = 0;
+        for (List<Feature> documentFeatures : featuresPerDocument) {
+            peakFeatures.accumulate(documentFeatures.size());
+            features += documentFeatures.size();
+        }
+        peakBatchFeatures.accumulate(features);
+    }
+
+    /**
+     * The allocation of each component seen so far, in stage order.
+     */
+    public List<ComponentAllocation> componentAllocations() {
+        List<ComponentAllocation> out = new ArrayList<>();
+        for (Map.Entry<Stage, ConcurrentHashMap<String, Allocation>> stage : allocations.entrySet()) {
+            for (Map.Entry<String, Allocation> component : stage.getValue().entrySet())
+                out.add(component.getValue().snapshot(stage.getKey(), component.getKey()));
+        }
+        return out;
+    }
+
+    /**
+     * The allocation of each stage that has been used so far, over all of its components (so the component of each
+     * is PipelineMetrics.WHOLE_STAGE). The document count of a stage is that of its busiest component.
+     */
+    public List<ComponentAllocation> stageAllocations() {
+        List<ComponentAllocation> out = new ArrayList<>();
+        for (Map.Entry<Stage, ConcurrentHashMap<String, Allocation>> stage : allocations.entrySet()) {
+            if (stage.getValue().isEmpty()) continue;
+            long invocations = 0, documents = 0, bytes = 0;
+            for (Allocation component : stage.getValue().values()) {
+                invocations += component.invocations.sum();
+                documents = Math.max(documents, component.documents.sum());
+                bytes += component.bytes.sum();
+            }
+            out.add(new ComponentAllocation(stage.getKey(), PipelineMetrics.WHOLE_STAGE, invocations, documents, bytes));
+        }
+        return out;
+    }
+
+    /**
+     * Documents tokenised so far.
+     */
+    public long documents() {
+        long documents = 0;
+        for (Allocation tokeniser : allocations.get(Stage.TOKENISE).values()) documents += tokeniser.documents.sum();
+        return documents;
+    }
+
+    public long peakDocumentTokens() { return peakDocumentTokens.get(); }
+    public long peakDocumentFeatures() { return peakFeatures.get(); }
+    public long peakBatchTokens() { return peakBatchTokens.get(); }
+    public long peakBatchFeatures() { return peakBatchFeatures.get(); }
+
+    /**
+     * Garbage collections (by all collectors), and the milliseconds spent in them, since this was created or reset.
+     * These are JVM-wide, so include any collections caused by other work.
+     */
+    public long garbageCollections() { return gcCount() - gcCountAtStart; }
+    public long garbageCollectionMillis() { return gcMillis() - gcMillisAtStart; }
+
+    /**
+     * A human-readable table of bytes allocated per document by each stage and component, followed by the peak
+     * sizes and garbage collections.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        long documents = documents();
+        long totalBytes = 0;
+        for (ComponentAllocation stage : stageAllocations()) totalBytes += stage.getBytes();
+        sb.append(String.format("Allocation over %d documents: %.1f MB (%d bytes/document)%n",
+                documents, totalBytes / 1e6, documents == 0 ? 0 : totalBytes / documents));
+        sb.append(String.format("%-16s %-40s %14s %14s %12s%n", "stage", "component", "bytes/document", "total MB", "invocations"));
+        List<ComponentAllocation> components = componentAllocations();
+        for (ComponentAllocation stage : stageAllocations()) {
+            appendRow(sb, stage);
+            for (ComponentAllocation component : components) {
+                if (component.getStage() == stage.getStage() && !component.getComponent().equals(PipelineMetrics.WHOLE_STAGE))
+                    appendRow(sb, component);
+            }
+        }
+        sb.append(String.format("Peak document: %d tokens, %d features. Peak batch: %d tokens, %d features%n",
+                peakDocumentTokens(), peakDocumentFeatures(), peakBatchTokens(), peakBatchFeatures()));
+        sb.append(String.format("Garbage collections: %d, taking %d ms%n", garbageCollections(), garbageCollectionMillis()));
+        return sb.toString();
+    }
+
+    /**
+     * Forget everything recorded so far, and start counting garbage collections afresh.
+     */
+    public void reset() {
+        for (ConcurrentHashMap<String, Allocation> stage : allocations.values()) stage.clear();
+        peakDocumentTokens.reset();
+        peakFeatures.reset();
+        peakBatchTokens.reset();
+        peakBatchFeatures.reset();
+        resetGarbageCollections();
+    }
+
+    private static void appendRow(StringBuilder sb, ComponentAllocation a) {
+        boolean wholeStage = a.getComponent().equals(PipelineMetrics.WHOLE_STAGE);
+        sb.append(String.format("%-16s %-40s %14d %14.1f %12d%n",
+                wholeStage ? a.getStage() : "", wholeStage ? PipelineMetrics.WHOLE_STAGE : "  " + a.getComponent(),
+                a.getBytesPerDocument(), a.getBytes() / 1e6, a.getInvocations()));
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void resetGarbageCollections() {
+        gcCountAtStart = gcCount();
+        gcMillisAtStart = gcMillis();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    private Allocation allocation(Stage stage, String component) {
+        ConcurrentHashMap<String, Allocation> stageAllocations = allocations.get(stage);
+        Allocation allocation = stageAllocations.get(component);
+        return allocation != null ? allocation : stageAllocations.computeIfAbsent(component, c -> new Allocation());
+    }
+
+    /**
+     * The measurement of one invocation of a component. Tasks submitted to the pool returned by pool() are
+     * measured on the threads that run them.
+     */
+    class Invocation {
+
+        private final long startBytes = allocatedBytes();
+        private final LongAdder taskBytes = new LongAdder();
+
+        /**
+         * A view of *threadPool* which measures the tasks submitted to it. Shutting it down shuts down *threadPool*.
+         */
+        ExecutorService pool(ExecutorService threadPool) {
+            return new MeasuredExecutor(threadPool, taskBytes);
+        }
+
+        void end(Stage stage, String component, int documents) {
+            long bytes = allocatedBytes() - startBytes + taskBytes.sum();
+            Allocation allocation = allocation(stage, component);
+            allocation.invocations.increment();
+            allocation.documents.add(documents);
+            allocation.bytes.add(bytes);
+        }
+    }
+
+    /**
+     * A view of a thread pool which adds the bytes allocated by each task to those of an invocation. The tasks of
+     * submit() and invokeAll() have their bytes added before their futures complete, so an invocation which waits
+     * on its futures sees all of its tasks' allocation. A Runnable passed straight to execute() has its bytes added
+     * after it returns, so any completion it signals itself may come first.
+     */
+    public class MeasuredExecutor extends AbstractExecutorService implements ParallelExecutorService {
+
+        private final ExecutorService threadPool;
+        private final LongAdder bytes;
+
+        MeasuredExecutor(ExecutorService threadPool, LongAdder bytes) {
+            this.threadPool = threadPool;
+            this.bytes = bytes;
+        }
+
+        /**
+         * The pool which runs the tasks.
+         */
+        public ExecutorService getThreadPool() { return threadPool; }
+
+        @Override
+        public int getParallelism() { return ParallelExecutorService.parallelism(threadPool); }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) { return new MeasuredTask<>(callable); }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) { return new MeasuredTask<>(Executors.callable(runnable, value)); }
+
+        @Override
+        public void execute(Runnable task) {
+            if (task instanceof MeasuredTask) {
+                threadPool.execute(task);
+                return;
+            }
+            threadPool.execute(() -> {
+                long start = allocatedBytes();
+                try {
+                    task.run();
+                } finally {
+                    bytes.add(allocatedBytes() - start);
+                }
+            });
+        }
+
+        @Override public void shutdown() { threadPool.shutdown(); }
+        @Override public List<Runnable> shutdownNow() { return threadPool.shutdownNow(); }
+        @Override public boolean isShutdown() { return threadPool.isShutdown(); }
+        @Override public boolean isTerminated() { return threadPool.isTerminated(); }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return threadPool.awaitTermination(timeout, unit);
+        }
+
+        /**
+         * A task which adds its bytes when its result (or exception) is set, i.e. before its future completes.
+         */
+        private class MeasuredTask<T> extends FutureTask<T> {
+
+            private long startBytes;
+
+            MeasuredTask(Callable<T> callable) { super(callable); }
+
+            @Override
+            public void run() {
+                startBytes = allocatedBytes();
+                super.run();
+            }
+
+            @Override
+            protected void set(T value) {
+                bytes.add(allocatedBytes() - startBytes);
+                super.set(value);
+            }
+
+            @Override
+            protected void setException(Throwable t) {
+                bytes.add(allocatedBytes() - startBytes);
+                super.setException(t);
+            }
+        }
+    }
+
+    private static class Allocation {
+        final LongAdder invocations = new LongAdder();
+        final LongAdder documents = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        ComponentAllocation snapshot(Stage stage, String component) {
+            return new ComponentAllocation(stage, component, invocations.sum(), documents.sum(), bytes.sum());
+        }
+    }
+
+    /**
+     * A snapshot of the memory allocated by a component (or a whole stage).
+     */
+    public static class ComponentAllocation {
+
+        private final Stage stage;
+        private final String component;
+        private final long invocations;
+        private final long documents;
+        private final long bytes;
+
+        public ComponentAllocation(Stage stage, String component, long invocations, long documents, long bytes) {
+            this.stage = stage;
+            this.component = component;
+            this.invocations = invocations;
+            this.documents = documents;
+            this.bytes = bytes;
+        }
+
+        public Stage getStage() { return stage; }
+        public String getComponent() { return component; }
+        public long getInvocations() { return invocations; }
+        public long getDocuments() { return documents; }
+        public long getBytes() { return bytes; }
+        public long getBytesPerDocument() { return documents == 0 ? 0 : bytes / documents; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %d bytes over %d documents (%d bytes/document) in %d invocations",
+                    stage, component, bytes, documents, getBytesPerDocument(), invocations);
+        }
+    }
+}
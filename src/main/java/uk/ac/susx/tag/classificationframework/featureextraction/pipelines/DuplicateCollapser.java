@@ -0,0 +1,242 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the instances of a batch whose texts are duplicates, so that a pipeline can process only one
+ * instance of each group (its representative, the first in the batch) and give its features to the rest.
+ * See FeatureExtractionPipeline.setDuplicateCollapser().
+ *
+ * Exact duplicates are found by hashing the text. Optionally, near-duplicates (e.g. a retweet with an "RT @user:"
+ * prefix, or a templated message with a different link) can also be grouped: each text is given a 64-bit SimHash
+ * of its lowercased words, and texts whose SimHashes differ in at most maxHammingDistance bits are grouped. Note
+ * that a near-duplicate gets the features of its representative's text rather than its own.
+ *
+ * Near-duplicate candidates are found by splitting the SimHashes into maxHammingDistance+1 bands: any two
+ * SimHashes within the distance must be identical in at least one band. The larger the distance, the narrower the
+ * bands, and so the more candidates each band gives (a distance of 63 gives 64 single-bit bands).
+ *
+ * Statistics over all batches grouped so far are kept (see duplicationFactor()).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class DuplicateCollapser {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+    private static final Pattern whitespace = Pattern.compile("\\s+");
+
+    private final int maxHammingDistance;  // Negative if near-duplicates aren't grouped
+
+    private final AtomicLong instances = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong exactDuplicates = new AtomicLong();
+    private final AtomicLong nearDuplicates = new AtomicLong();
+
+    /**
+     * Group exact duplicates only.
+     */
+    public DuplicateCollapser() {
+        maxHammingDistance = -1;
+    }
+
+    /**
+     * Group exact duplicates, and near-duplicates whose SimHashes differ in at most *maxHammingDistance* bits (of 64).
+     */
+    public DuplicateCollapser(int maxHammingDistance) {
+        if (maxHammingDistance < 0 || maxHammingDistance > 63)
+            throw new IllegalArgumentException("The maximum Hamming distance must be between 0 and 63");
+        this.maxHammingDistance = maxHammingDistance;
+    }
+
+    public boolean groupsNearDuplicates() { return maxHammingDistance >= 0; }
+
+    /**
+     * Group a batch of instances by their texts.
+     */
+    public Grouping group(List<Instance> batch) {
+        int[] groupOf = new int[batch.size()];
+        IntArrayList representatives = new IntArrayList();
+        Map<HashCode, Integer> exactGroups = new HashMap<>();
+        SimHashIndex nearGroups = groupsNearDuplicates() ? new SimHashIndex(maxHammingDistance) : null;
+        int exact = 0, near = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            String text = batch.get(i).text;
+            HashCode hash = text == null ? null : hashFunction.hashString(text, Charsets.UTF_8); // Null texts are grouped under a null key
+            Integer group = exactGroups.get(hash);
+            if (group != null) {
+                exact++;
+            } else {
+                long simHash = 0;
+                if (nearGroups != null) {
+                    simHash = simHash(text);
+                    group = nearGroups.find(simHash);
+                }
+                if (group != null) {
+                    near++;
+                } else {
+                    group = representatives.size();
+                    representatives.add(i);
+                    if (nearGroups != null) nearGroups.add(simHash, group);
+                }
+                exactGroups.put(hash, group);
+            }
+            groupOf[i] = group;
+        }
+        instances.addAndGet(batch.size());
+        groups.addAndGet(representatives.size());
+        exactDuplicates.addAndGet(exact);
+        nearDuplicates.addAndGet(near);
+        return new Grouping(groupOf, representatives.toIntArray());
+    }
+
+    /**
+     * A 64-bit SimHash of the lowercased, whitespace separated words of a text.
+     */
+    public static long simHash(String text) {
+        if (text == null) return 0;
+        int[] votes = new int[64];
+        for (String word : whitespace.split(text.toLowerCase())) {
+            if (word.isEmpty()) continue;
+            long hash = hashFunction.hashString(word, Charsets.UTF_8).asLong();
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) simHash |= 1L << bit;
+        }
+        return simHash;
+    }
+
+    /**
+     * Statistics over all batches grouped so far.
+     */
+    public long instances() { return instances.get(); }
+    public long groups() { return groups.get(); }
+    public long exactDuplicates() { return exactDuplicates.get(); }
+    public long nearDuplicates() { return nearDuplicates.get(); }
+
+    /**
+     * The average number of instances per group, i.e. the factor by which collapsing reduces the work of processing.
+     */
+    public double duplicationFactor() {
+        long g = groups.get();
+        return g == 0 ? 1.0 : (double)instances.get() / g;
+    }
+
+    public void resetStatistics() {
+        instances.set(0);
+        groups.set(0);
+        exactDuplicates.set(0);
+        nearDuplicates.set(0);
+    }
+
+    /**
+     * The groups of a batch. Groups are numbered in order of their first instance in the batch, which is their representative.
+     */
+    public static class Grouping {
+        private final int[] groupOf;
+        private final int[] representatives;
+
+        private Grouping(int[] groupOf, int[] representatives) {
+            this.groupOf = groupOf;
+            this.representatives = representatives;
+        }
+
+        public int numGroups() { return representatives.length; }
+        public int numInstances() { return groupOf.length; }
+        public boolean hasDuplicates() { return representatives.length < groupOf.length; }
+
+        /**
+         * The group of the instance at *index* in the batch.
+         */
+        public int groupOf(int index) { return groupOf[index]; }
+
+        /**
+         * The batch index of a group's representative.
+         */
+        public int representative(int group) { return representatives[group]; }
+
+        /**
+         * Select the items at the batch indices of each group's representative (in group order).
+         */
+        public <T> List<T> representativesOf(List<T> batch) {
+            List<T> selected = new ArrayList<>(representatives.length);
+            for (int index : representatives) selected.add(batch.get(index));
+            return selected;
+        }
+    }
+
+    /**
+     * Finds a group whose SimHash is within a Hamming distance of a given SimHash.
+     */
+    static class SimHashIndex {
+        private final int maxDistance;
+        private final int bandBits;
+        private final List<Long2ObjectOpenHashMap<IntArrayList>> bands = new ArrayList<>();
+        private final LongArrayList simHashes = new LongArrayList();  // SimHash of each group, by group
+
+        SimHashIndex(int maxDistance) {
+            this.maxDistance = maxDistance;
+            int numBands = maxDistance + 1;
+            this.bandBits = 64 / numBands;  // The last band also takes the remaining bits
+            for (int i = 0; i < numBands; i++) bands.add(new Long2ObjectOpenHashMap<>());
+        }
+
+        /**
+         * Return the first group within the distance, or null if none is.
+         */
+        Integer find(long simHash) {
+            for (int band = 0; band < bands.size(); band++) {
+                IntArrayList candidates = bands.get(band).get(band(simHash, band));
+                if (candidates == null) continue;
+                for (int i = 0; i < candidates.size(); i++) {
+                    int group = candidates.getInt(i);
+                    if (Long.bitCount(simHashes.getLong(group) ^ simHash) <= maxDistance) return group;
+                }
+            }
+            return null;
+        }
+
+        void add(long simHash, int group) {
+            simHashes.size(Math.max(simHashes.size(), group + 1));
+            simHashes.set(group, simHash);
+            for (int band = 0; band < bands.size(); band++) {
+                Long2ObjectOpenHashMap<IntArrayList> bandGroups = bands.get(band);
+                long key = band(simHash, band);
+                IntArrayList groups = bandGroups.get(key);
+                if (groups == null) {
+                    groups = new IntArrayList();
+                    bandGroups.put(key, groups);
+                }
+                groups.add(group);
+            }
+        }
+
+        long band(long simHash, int band) {
+            int shift = band * bandBits;
+            int bits = band == bands.size() - 1 ? 64 - shift : bandBits;
+            long mask = bits >= 64 ? -1L : (1L << bits) - 1;
+            return (simHash >>> shift) & mask;
+        }
+
+        int numBands() { return bands.size(); }
+    }
+}
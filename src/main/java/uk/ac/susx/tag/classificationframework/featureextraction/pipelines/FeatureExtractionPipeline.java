@@ -41,6 +41,7 @@ import uk.ac.susx.tag.classificationframework.featureextraction.inference.Featur
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
 import uk.ac.susx.tag.classificationframework.featureextraction.inference.featureselection.FeatureSelector;
 import uk.ac.susx.tag.classificationframework.featureextraction.normalisation.TokenNormaliser;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineMetrics.Stage;
 import uk.ac.susx.tag.classificationframework.featureextraction.tokenisation.Tokeniser;
 import weka.core.Stopwords;
 
@@ -54,11 +55,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -129,6 +132,11 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     private transient String configurationString = ""; // Keep updated with updateCachingConfiguration(). Represents the configuration of the DocProcessors and Tokeniser, for caching purposes
 
     private transient ExecutorService threadPool = null;
+    private transient boolean sharedThreadPool = false;   // True if the thread pool belongs to someone else (see setThreadPool())
+    private transient DuplicateCollapser duplicateCollapser = null;  // See setDuplicateCollapser()
+    private transient PipelineMetrics metrics = null;  // See setPipelineMetrics()
+    private transient volatile Map<Object, String> metricNames = new IdentityHashMap<>();  // Component to metric name, see updateMetricNames()
+    private transient AllocationProfiler allocationProfiler = null;  // See setAllocationProfiler()
 
     private static final Pattern forNormalisingWhitespace = Pattern.compile("[\r\n\t]");
     private static final Pattern forNormalisingZeroWidthCharacters = Pattern.compile("[\\ufeff\\u200b\\p{InVariation_Selectors}]");
@@ -139,7 +147,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     private boolean fixedVocabulary = false;
 
     /* Getters and Setters */
-    public FeatureExtractionPipeline setTokeniser(Tokeniser tokeniser) { this.tokeniser = tokeniser; return this;}
+    public FeatureExtractionPipeline setTokeniser(Tokeniser tokeniser) { this.tokeniser = tokeniser; updateMetricNames(); return this;}
     public Tokeniser getTokeniser() { return tokeniser; }
 
     public boolean getFixedVocabulary() {
@@ -203,10 +211,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     public void updateService(String oldUrl, String newUrl){
         for (DocProcessor d : docProcessors){
             if (d instanceof Service){
-                Service s = (Service)d;
-                if (s.getUrl().equals(oldUrl)){
-                    s.setUrl(newUrl);
-                }
+                ((Service)d).replaceUrl(oldUrl, newUrl);
             }
         }
     }
@@ -301,6 +306,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     protected FeatureExtractionPipeline(Tokeniser tokeniser) {
         this.tokeniser = tokeniser;
+        updateMetricNames();
     }
     /********************************************************/
 
@@ -375,8 +381,37 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     /**
      * Per-stage concurrent processing for a single batch of instances.
+     *
+     * If a DuplicateCollapser is set (see setDuplicateCollapser()), only one instance of each group of duplicates
+     * is processed, and each member of the group gets a ProcessedInstance with its features, and the member's own
+     * label and source.
      */
     public List<ProcessedInstance> extractFeaturesFromBatch(List<Instance> instances) {
+        if (duplicateCollapser != null) {
+            DuplicateCollapser.Grouping grouping = groupDuplicates(instances);
+            if (grouping.hasDuplicates()) {
+                List<List<Feature>> featuresPerGroup = extractUnindexedFeaturesFromDistinctBatch(grouping.representativesOf(instances));
+                int[][] indexedFeaturesPerGroup = new int[grouping.numGroups()][];
+                AllocationProfiler.Invocation allocation = startAllocation();
+                List<ProcessedInstance> out = new ArrayList<>();
+                for (int i = 0; i < instances.size(); i++){
+                    Instance instance = instances.get(i);
+                    int group = grouping.groupOf(i);
+                    int label = instance.label.trim().isEmpty()? -1 : labelIndexer.getIndex(instance.label);
+                    // Features are indexed once per group, when its first member (the representative) is reached
+                    int[] features = indexedFeaturesPerGroup[group] == null ?
+                            (indexedFeaturesPerGroup[group] = indexFeatures(featuresPerGroup.get(group))) :
+                            indexedFeaturesPerGroup[group].clone();
+                    out.add(new ProcessedInstance(label, features, instance));
+                }
+                endAllocation(allocation, Stage.INDEX, null, out.size());
+                return out;
+            }
+        }
+        return extractFeaturesFromDistinctBatch(instances);
+    }
+
+    private List<ProcessedInstance> extractFeaturesFromDistinctBatch(List<Instance> instances) {
         ExecutorService pool = getThreadPool();
 
         // Tokenise batch concurrently
@@ -395,12 +430,14 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         List<List<Feature>> featuresPerDocument = extractInferredFeaturesFromBatch(documents, pool);
 
         // Build ProcessedDocuments by indexing features and labels
+        AllocationProfiler.Invocation allocation = startAllocation();
         List<ProcessedInstance> out = new ArrayList<>();
         for (int i = 0; i < featuresPerDocument.size(); i++){
             Document doc = documents.get(i);
             int label = doc.source.label.trim().isEmpty()? -1 : labelIndexer.getIndex(doc.source.label);
             out.add(new ProcessedInstance(label, indexFeatures(featuresPerDocument.get(i)), doc.source));
         }
+        endAllocation(allocation, Stage.INDEX, null, out.size());
         return out;
     }
 
@@ -463,7 +500,29 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         };
     }
 
+    /**
+     * Per-stage concurrent processing for a single batch of instances, without indexing the features.
+     *
+     * Unlike the indexing methods, this may be called by several threads at once (on different instances), since
+     * each component which isn't thread-safe is only used by one batch at a time.
+     */
     public List<List<Feature>> extractUnindexedFeaturesFromBatch(List<Instance> instances){
+        if (duplicateCollapser != null) {
+            DuplicateCollapser.Grouping grouping = groupDuplicates(instances);
+            if (grouping.hasDuplicates()) {
+                List<List<Feature>> featuresPerGroup = extractUnindexedFeaturesFromDistinctBatch(grouping.representativesOf(instances));
+                List<List<Feature>> out = new ArrayList<>();
+                for (int i = 0; i < instances.size(); i++){
+                    int group = grouping.groupOf(i);
+                    out.add(grouping.representative(group) == i ? featuresPerGroup.get(group) : new ArrayList<>(featuresPerGroup.get(group)));
+                }
+                return out;
+            }
+        }
+        return extractUnindexedFeaturesFromDistinctBatch(instances);
+    }
+
+    private List<List<Feature>> extractUnindexedFeaturesFromDistinctBatch(List<Instance> instances){
         ExecutorService pool = getThreadPool();
 
         // Tokenise batch concurrently
@@ -483,56 +542,94 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     }
 
 
-    private List<Document> tokeniseDocumentBatch(List<Instance> instances, ExecutorService threadPool) {
-        List<Future<Document>> futures = new ArrayList<>();
-        // Submit tokenisation tasks
-        for (Instance i : instances) {
-            futures.add(threadPool.submit(() -> {
-                if (!Util.isNullOrEmptyText(i)) {
-                    i.text = forNormalisingWhitespace.matcher(i.text).replaceAll(" ");
-                    i.text = forNormalisingZeroWidthCharacters.matcher(i.text).replaceAll("");
-                }
-                return tokeniser.tokenise(i);
-            }));
+    /**
+     * Normalise the text of each instance as tokenisation would (so that duplicates are judged by what is tokenised), then group duplicates.
+     */
+    private DuplicateCollapser.Grouping groupDuplicates(List<Instance> instances) {
+        instances.forEach(this::normaliseText);
+        return duplicateCollapser.group(instances);
+    }
+
+    /**
+     * The lock held while a component processes a batch: the component itself if it isn't thread-safe, so that
+     * concurrent batches use it one at a time, otherwise a fresh object (i.e. no lock).
+     */
+    private static Object lockFor(PipelineComponent component) {
+        return component.isThreadSafe() ? new Object() : component;
+    }
+
+    private void normaliseText(Instance i) {
+        if (!Util.isNullOrEmptyText(i)) {
+            i.text = forNormalisingWhitespace.matcher(i.text).replaceAll(" ");
+            i.text = forNormalisingZeroWidthCharacters.matcher(i.text).replaceAll("");
         }
-        // Iterate through futures, blocking until each is done, producing a list of tokenised documents in the original order
-        return futures.stream().map(f -> {
-            try {
-                return f.get();
-            } catch (InterruptedException | ExecutionException e) { throw new FeatureExtractionException(e);}
-        }).collect(Collectors.toList());
+    }
+
+    private List<Document> tokeniseDocumentBatch(List<Instance> instances, ExecutorService threadPool) {
+        long start = startTiming();
+        AllocationProfiler.Invocation allocation = startAllocation();
+        ExecutorService pool = allocation == null ? threadPool : allocation.pool(threadPool);
+        try {
+            List<Future<Document>> futures = new ArrayList<>();
+            // Submit tokenisation tasks
+            for (Instance i : instances) {
+                futures.add(pool.submit(() -> {
+                    normaliseText(i);
+                    return tokeniser.tokenise(i);
+                }));
+            }
+            // Iterate through futures, blocking until each is done, producing a list of tokenised documents in the original order
+            List<Document> documents = futures.stream().map(f -> {
+                try {
+                    return f.get();
+                } catch (InterruptedException | ExecutionException e) { throw new FeatureExtractionException(e);}
+            }).collect(Collectors.toList());
+            recordInvocation(Stage.TOKENISE, tokeniser, start, documents);
+            endAllocation(allocation, Stage.TOKENISE, tokeniser, documents.size());
+            return documents;
+        } catch (RuntimeException e) { throw recordFailure(Stage.TOKENISE, tokeniser, e); }
     }
 
     private List<Document> processDocumentBatch(List<Document> documents, ExecutorService threadPool) {
         List<Future<Document>> futures;
         for (DocProcessor dp : docProcessors){
             if (dp.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    documents = dp.processBatch(documents);
-                } catch (UnsupportedOperationException e) { // Otherwise handle it here
-                    // If safe, do processing concurrently
-                    if (dp.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        // Submit a process task for each document
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit(() -> {
-                                return dp.process(d);
-                            }));
-                        }
-                        // Wait for each task in original order
-                        for (int i = 0; i < futures.size(); i++) {
-                            try {
-                                documents.set(i, futures.get(i).get());
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        }
-                    } else { // Otherwise if unsafe just process serially
-                        for (int i = 0; i < documents.size(); i++) {
-                            documents.set(i , dp.process(documents.get(i)));
+                long start = startTiming();
+                AllocationProfiler.Invocation allocation = startAllocation();
+                ExecutorService pool = allocation == null ? threadPool : allocation.pool(threadPool);
+                try {
+                    synchronized (lockFor(dp)) {
+                        try { // If component wants to do its own batch processing, let it
+                            documents = dp.processBatch(documents, pool);
+                        } catch (UnsupportedOperationException e) { // Otherwise handle it here
+                            // If safe, do processing concurrently
+                            if (dp.isThreadSafe()) {
+                                futures = new ArrayList<>();
+                                // Submit a process task for each document
+                                for (Document d : documents) {
+                                    futures.add(pool.submit(() -> {
+                                        return dp.process(d);
+                                    }));
+                                }
+                                // Wait for each task in original order
+                                for (int i = 0; i < futures.size(); i++) {
+                                    try {
+                                        documents.set(i, futures.get(i).get());
+                                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                                }
+                            } else { // Otherwise if unsafe just process serially
+                                for (int i = 0; i < documents.size(); i++) {
+                                    documents.set(i , dp.process(documents.get(i)));
+                                }
+                            }
                         }
                     }
-                }
+                } catch (RuntimeException e) { throw recordFailure(Stage.DOC_PROCESSING, dp, e); }
+                recordInvocation(Stage.DOC_PROCESSING, dp, start, documents);
+                endAllocation(allocation, Stage.DOC_PROCESSING, dp, documents.size());
             }
         }
+        if (allocationProfiler != null) allocationProfiler.documentsProcessed(documents);
         return documents;
     }
 
@@ -540,38 +637,47 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         List<Future> futures;
         for (TokenFilter f : tokenFilters) {
             if (f.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    f.filterBatch(documents);
-                } catch (UnsupportedOperationException e) { // Otherwise handle it here
-                    // If safe, do processing concurrently
-                    if (f.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        // Submit a filter task for each document
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit((Runnable) () -> {
-                                for (int i=0; i<d.size(); i++) {
-                                    if (f.filter(i, d)) {
-                                        d.get(i).setFiltered(true);
-                                    }
+                long start = startTiming();
+                AllocationProfiler.Invocation allocation = startAllocation();
+                ExecutorService pool = allocation == null ? threadPool : allocation.pool(threadPool);
+                try {
+                    synchronized (lockFor(f)) {
+                        try { // If component wants to do its own batch processing, let it
+                            f.filterBatch(documents);
+                        } catch (UnsupportedOperationException e) { // Otherwise handle it here
+                            // If safe, do processing concurrently
+                            if (f.isThreadSafe()) {
+                                futures = new ArrayList<>();
+                                // Submit a filter task for each document
+                                for (Document d : documents) {
+                                    futures.add(pool.submit((Runnable) () -> {
+                                        for (int i=0; i<d.size(); i++) {
+                                            if (f.filter(i, d)) {
+                                                d.get(i).setFiltered(true);
+                                            }
+                                        }
+                                    }));
                                 }
-                            }));
-                        }
-                        // Wait for each task in original order
-                        futures.forEach(future -> {
-                            try {
-                                future.get();
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        });
-                    } else { // Otherwise if unsafe just process serially
-                        for (Document d : documents){
-                            for (int i=0; i<d.size(); i++) {
-                                if (f.filter(i, d)) {
-                                    d.get(i).setFiltered(true);
+                                // Wait for each task in original order
+                                futures.forEach(future -> {
+                                    try {
+                                        future.get();
+                                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                                });
+                            } else { // Otherwise if unsafe just process serially
+                                for (Document d : documents){
+                                    for (int i=0; i<d.size(); i++) {
+                                        if (f.filter(i, d)) {
+                                            d.get(i).setFiltered(true);
+                                        }
+                                    }
                                 }
                             }
                         }
                     }
-                }
+                } catch (RuntimeException e) { throw recordFailure(Stage.FILTER, f, e); }
+                recordInvocation(Stage.FILTER, f, start, documents);
+                endAllocation(allocation, Stage.FILTER, f, documents.size());
             }
         }
     }
@@ -580,32 +686,41 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         List<Future> futures;
         for (TokenNormaliser n : tokenNormalisers) {
             if (n.isOnline()) {
-                try { // If component wants to do its own batch processing, let it
-                    n.normaliseBatch(documents);
-                } catch (UnsupportedOperationException e) {
-                    if (n.isThreadSafe()) {
-                        futures = new ArrayList<>();
-                        for (Document d : documents) {
-                            futures.add(threadPool.submit((Runnable) ()-> {
-                                for (int i = 0; i < d.size(); i++) {
-                                    n.normalise(i, d);
+                long start = startTiming();
+                AllocationProfiler.Invocation allocation = startAllocation();
+                ExecutorService pool = allocation == null ? threadPool : allocation.pool(threadPool);
+                try {
+                    synchronized (lockFor(n)) {
+                        try { // If component wants to do its own batch processing, let it
+                            n.normaliseBatch(documents);
+                        } catch (UnsupportedOperationException e) {
+                            if (n.isThreadSafe()) {
+                                futures = new ArrayList<>();
+                                for (Document d : documents) {
+                                    futures.add(pool.submit((Runnable) ()-> {
+                                        for (int i = 0; i < d.size(); i++) {
+                                            n.normalise(i, d);
+                                        }
+                                    }));
+                                }
+                                // Wait for each task in original order
+                                futures.forEach(future -> {
+                                    try {
+                                        future.get();
+                                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                                });
+                            } else { // Otherwise if unsafe just process serially
+                                for (Document d : documents){
+                                    for (int i = 0; i < d.size(); i++) {
+                                        n.normalise(i, d);
+                                    }
                                 }
-                            }));
-                        }
-                        // Wait for each task in original order
-                        futures.forEach(future -> {
-                            try {
-                                future.get();
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        });
-                    } else { // Otherwise if unsafe just process serially
-                        for (Document d : documents){
-                            for (int i = 0; i < d.size(); i++) {
-                                n.normalise(i, d);
                             }
                         }
                     }
-                }
+                } catch (RuntimeException e) { throw recordFailure(Stage.NORMALISE, n, e); }
+                recordInvocation(Stage.NORMALISE, n, start, documents);
+                endAllocation(allocation, Stage.NORMALISE, n, documents.size());
             }
         }
     }
@@ -617,31 +732,43 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         List<Future<List<Feature>>> futures;
         for (FeatureInferrer fi : featureInferrers) {
             if (fi.isOnline()) {
+                long start = startTiming();
+                AllocationProfiler.Invocation allocation = startAllocation();
+                ExecutorService pool = allocation == null ? threadPool : allocation.pool(threadPool);
+                int featuresBefore = start == NOT_TIMED ? 0 : countFeatures(featuresPerDocument);
                 try {
-                    featuresPerDocument = fi.addInferredFeaturesFromBatch(documents, featuresPerDocument);
-                } catch (UnsupportedOperationException e) {
-                    if (fi.isThreadSafe()){
-                        futures = new ArrayList<>();
-                        for (int i = 0; i < documents.size(); i++) {
-                            final int finalI = i;
-                            final List<Feature> features = featuresPerDocument.get(i);
-                            futures.add(threadPool.submit(() ->
-                                    fi.addInferredFeatures( documents.get(finalI), features)));
-                        }
-                        // Wait for each task in original order
-                        for (int i = 0; i < futures.size(); i++) {
-                            try {
-                                featuresPerDocument.set(i, futures.get(i).get());
-                            } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
-                        }
-                    } else { // Otherwise if unsafe just process serially
-                        for (int i = 0; i < documents.size(); i++) {
-                            featuresPerDocument.set(i, fi.addInferredFeatures(documents.get(i), featuresPerDocument.get(i)));
+                    synchronized (lockFor(fi)) {
+                        try {
+                            featuresPerDocument = fi.addInferredFeaturesFromBatch(documents, featuresPerDocument);
+                        } catch (UnsupportedOperationException e) {
+                            if (fi.isThreadSafe()){
+                                futures = new ArrayList<>();
+                                for (int i = 0; i < documents.size(); i++) {
+                                    final int finalI = i;
+                                    final List<Feature> features = featuresPerDocument.get(i);
+                                    futures.add(pool.submit(() ->
+                                            fi.addInferredFeatures( documents.get(finalI), features)));
+                                }
+                                // Wait for each task in original order
+                                for (int i = 0; i < futures.size(); i++) {
+                                    try {
+                                        featuresPerDocument.set(i, futures.get(i).get());
+                                    } catch (InterruptedException | ExecutionException taskEx) { throw new FeatureExtractionException(taskEx); }
+                                }
+                            } else { // Otherwise if unsafe just process serially
+                                for (int i = 0; i < documents.size(); i++) {
+                                    featuresPerDocument.set(i, fi.addInferredFeatures(documents.get(i), featuresPerDocument.get(i)));
+                                }
+                            }
                         }
                     }
-                }
+                } catch (RuntimeException e) { throw recordFailure(Stage.INFER, fi, e); }
+                if (start != NOT_TIMED)
+                    recordInvocation(Stage.INFER, fi, start, documents.size(), 0, countFeatures(featuresPerDocument) - featuresBefore);
+                endAllocation(allocation, Stage.INFER, fi, documents.size());
             }
         }
+        if (allocationProfiler != null) allocationProfiler.featuresInferred(featuresPerDocument);
         return featuresPerDocument;
     }
 
@@ -757,10 +884,12 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * ProcessedInstance.
      */
     public int[] indexFeatures(List<Feature> features) {
+        long start = startTiming();
         int[] indices = new int[features.size()];
         for (int i = 0; i < features.size(); i++) {
             indices[i] = featureIndexer.getIndex(features.get(i).value(), !fixedVocabulary);
         }
+        recordInvocation(Stage.INDEX, null, start, 1, 0, indices.length);
         return indices;
     }
 
@@ -844,11 +973,22 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * Same functionality as processDocument(), except that the Document instance is not cached.
      */
     public Document processDocumentWithoutCache(Instance document) {
-        document.text = forNormalisingWhitespace.matcher(document.text).replaceAll(" ");
-        document.text = forNormalisingZeroWidthCharacters.matcher(document.text).replaceAll("");
-        Document processedDoc = tokeniser.tokenise(document);
+        long start = startTiming();
+        Document processedDoc;
+        try {
+            document.text = forNormalisingWhitespace.matcher(document.text).replaceAll(" ");
+            document.text = forNormalisingZeroWidthCharacters.matcher(document.text).replaceAll("");
+            processedDoc = tokeniser.tokenise(document);
+        } catch (RuntimeException e) { throw recordFailure(Stage.TOKENISE, tokeniser, e); }
+        recordInvocation(Stage.TOKENISE, tokeniser, start, 1, processedDoc.size(), 0);
         for (DocProcessor docProcessor : docProcessors){
-            if (docProcessor.isOnline()) processedDoc = docProcessor.process(processedDoc);
+            if (docProcessor.isOnline()) {
+                start = startTiming();
+                try {
+                    processedDoc = docProcessor.process(processedDoc);
+                } catch (RuntimeException e) { throw recordFailure(Stage.DOC_PROCESSING, docProcessor, e); }
+                recordInvocation(Stage.DOC_PROCESSING, docProcessor, start, 1, processedDoc.size(), 0);
+            }
         }
         return processedDoc;
     }
@@ -866,25 +1006,25 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
     // Use these methods for adding the various types of token processing and feature extraction to the pipeline.
     // If a name is specified, then the particular component can be accessed using "getPipelineComponent" (see class documentation above)
-    public FeatureExtractionPipeline add(DocProcessor d) { docProcessors.add(d); return this;}
+    public FeatureExtractionPipeline add(DocProcessor d) { docProcessors.add(d); updateMetricNames(); return this;}
     public FeatureExtractionPipeline add(DocProcessor d, String name){
         componentMap.put(name, d);
         return add(d);
     }
 
-    public FeatureExtractionPipeline add(TokenFilter f)  { tokenFilters.add(f); return this;}
+    public FeatureExtractionPipeline add(TokenFilter f)  { tokenFilters.add(f); updateMetricNames(); return this;}
     public FeatureExtractionPipeline add(TokenFilter f, String name) {
         componentMap.put(name, f);
         return add(f);
     }
 
-    public FeatureExtractionPipeline add(TokenNormaliser n){ tokenNormalisers.add(n); return this;}
+    public FeatureExtractionPipeline add(TokenNormaliser n){ tokenNormalisers.add(n); updateMetricNames(); return this;}
     public FeatureExtractionPipeline add(TokenNormaliser n, String name){
         componentMap.put(name, n);
         return add(n);
     }
 
-    public FeatureExtractionPipeline add(FeatureInferrer c){ featureInferrers.add(c); return this;}
+    public FeatureExtractionPipeline add(FeatureInferrer c){ featureInferrers.add(c); updateMetricNames(); return this;}
     public FeatureExtractionPipeline add(FeatureInferrer c, String name){
         componentMap.put(name, c);
         return add(c);
@@ -894,6 +1034,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         if (componentMap.containsKey(name)){
             PipelineComponent p = componentMap.get(name);
             componentMap.remove(name);
+            updateMetricNames();
             if (p instanceof DocProcessor){
                 return docProcessors.removeIf(d -> d == p);
             } else if (p instanceof TokenNormaliser){
@@ -967,6 +1108,7 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
             }
         }
         removeComponentsFromNameMapping(toBeUnMapped);
+        updateMetricNames();
         return seen;
     }
 
@@ -1001,6 +1143,38 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      */
     public void removeAllFeatureInferrers() {
         featureInferrers = new ArrayList<>();
+        updateMetricNames();
+    }
+
+    /**
+     * Collapse duplicates in batch extraction (see extractFeaturesFromBatch() and DuplicateCollapser), or stop
+     * collapsing if *collapser* is null. The collapser keeps statistics on the duplicates found.
+     */
+    public void setDuplicateCollapser(DuplicateCollapser collapser) { duplicateCollapser = collapser; }
+    public DuplicateCollapser getDuplicateCollapser() { return duplicateCollapser; }
+
+    /**
+     * Record the latency and throughput of each stage and component of feature extraction with *metrics* (see
+     * PipelineMetrics and RecordingPipelineMetrics), or stop recording if *metrics* is null (the default).
+     */
+    public void setPipelineMetrics(PipelineMetrics metrics) { this.metrics = metrics; }
+    public PipelineMetrics getPipelineMetrics() { return metrics; }
+
+    /**
+     * Attribute the memory allocated by batch extraction to each stage and component with *profiler* (see
+     * AllocationProfiler), or stop if *profiler* is null (the default). Single document extraction isn't profiled.
+     */
+    public void setAllocationProfiler(AllocationProfiler profiler) { allocationProfiler = profiler; }
+    public AllocationProfiler getAllocationProfiler() { return allocationProfiler; }
+
+    /**
+     * Use a thread pool owned elsewhere (e.g. one shared between many pipelines) for batch processing. It
+     * won't be shut down when this pipeline is closed.
+     */
+    public synchronized void setThreadPool(ExecutorService threadPool) {
+        shutdownThreadPool();
+        this.threadPool = threadPool;
+        this.sharedThreadPool = true;
     }
 
     @Override
@@ -1010,17 +1184,20 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         featureInferrers.forEach(PipelineComponent::close);
         tokenNormalisers.forEach(PipelineComponent::close);
         tokenFilters.forEach(PipelineComponent::close);
+        if (tokeniser != null)
+            tokeniser.close();
     }
 
-    private ExecutorService getThreadPool() {
+    private synchronized ExecutorService getThreadPool() {
         if (threadPool == null) {
-            threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() - 1);
+            threadPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+            sharedThreadPool = false;
         }
         return threadPool;
     }
 
     private void shutdownThreadPool() {
-        if (threadPool != null && !threadPool.isShutdown()) {
+        if (threadPool != null && !sharedThreadPool && !threadPool.isShutdown()) {
             threadPool.shutdown();
         }
     }
@@ -1293,6 +1470,41 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
         return sb.toString();
     }
 
+    /**
+     * Represents the structure of the whole pipeline: the configuration of the tokeniser and DocProcessors (as
+     * for caching), the classes of the other components and whether each is online, the names of components,
+     * and whether the vocabulary is fixed. It's cheap compared to serialising the pipeline, so is used to spot
+     * a changed pipeline (e.g. by ModelState.saveIncremental()).
+     *
+     * NOTE: the indexers aren't represented, nor are parameters which the filters, normalisers and inferrers
+     *       keep internally, so changing one of those in place isn't detected.
+     */
+    public String configuration(){
+        StringBuilder sb = new StringBuilder();
+        if (tokeniser != null) sb.append(docProcessingConfiguration());
+        for (PipelineComponent c : docProcessors) sb.append(c.isOnline() ? ":online" : ":offline");
+        for (PipelineComponent c : tokenFilters) appendComponent(sb, "TokenFilter", c);
+        for (PipelineComponent c : tokenNormalisers) appendComponent(sb, "TokenNormaliser", c);
+        for (PipelineComponent c : featureInferrers) appendComponent(sb, "FeatureInferrer", c);
+        for (String name : new TreeSet<>(componentMap.keySet())) {
+            sb.append(":Name:");
+            sb.append(name);
+            sb.append("=");
+            sb.append(componentMap.get(name).getClass().getName());
+        }
+        sb.append(":FixedVocabulary:");
+        sb.append(fixedVocabulary);
+        return sb.toString();
+    }
+
+    private static void appendComponent(StringBuilder sb, String type, PipelineComponent component){
+        sb.append(":");
+        sb.append(type);
+        sb.append(":");
+        sb.append(component.getClass().getName());
+        sb.append(component.isOnline() ? ":online" : ":offline");
+    }
+
 
 /********************************************************************************************************************
  * Run pipeline components in serial
@@ -1305,16 +1517,20 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * on the AnnotatedToken.
      */
     private void applyFilters(Document document) {
-        for (int i=0; i<document.size(); i++) {
-            for (TokenFilter tokenFilter : tokenFilters){
-                if (tokenFilter.isOnline()) {
-                    if (tokenFilter.filter(i, document)) {
-                        document.get(i).setFiltered(true);
-                        break;
+        long start = startTiming();
+        try {
+            for (int i=0; i<document.size(); i++) {
+                for (TokenFilter tokenFilter : tokenFilters){
+                    if (tokenFilter.isOnline()) {
+                        if (tokenFilter.filter(i, document)) {
+                            document.get(i).setFiltered(true);
+                            break;
+                        }
                     }
                 }
             }
-        }
+        } catch (RuntimeException e) { throw recordFailure(Stage.FILTER, null, e); }
+        recordInvocation(Stage.FILTER, null, start, 1, document.size(), 0);
     }
 
     /**
@@ -1324,12 +1540,16 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
      * (e.g. token.put("form", "URL")). These normalisations will then be present in the unigram features.
      */
     private void applyNormalisers(Document document) {
-        for (int i = 0; i < document.size(); i++) {
-            for (TokenNormaliser tokenNormaliser : tokenNormalisers) {
-                if (tokenNormaliser.isOnline())
-                    if (!tokenNormaliser.normalise(i, document)) break;
+        long start = startTiming();
+        try {
+            for (int i = 0; i < document.size(); i++) {
+                for (TokenNormaliser tokenNormaliser : tokenNormalisers) {
+                    if (tokenNormaliser.isOnline())
+                        if (!tokenNormaliser.normalise(i, document)) break;
+                }
             }
-        }
+        } catch (RuntimeException e) { throw recordFailure(Stage.NORMALISE, null, e); }
+        recordInvocation(Stage.NORMALISE, null, start, 1, document.size(), 0);
     }
 
     /**
@@ -1339,11 +1559,110 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
     private List<Feature> extractInferredFeatures(Document document){
         List<Feature> features = new ArrayList<>();
         for (FeatureInferrer featureInferrer : featureInferrers) {
-            if(featureInferrer.isOnline()) features = featureInferrer.addInferredFeatures(document, features);
+            if(featureInferrer.isOnline()) {
+                long start = startTiming();
+                int featuresBefore = features.size();
+                try {
+                    features = featureInferrer.addInferredFeatures(document, features);
+                } catch (RuntimeException e) { throw recordFailure(Stage.INFER, featureInferrer, e); }
+                recordInvocation(Stage.INFER, featureInferrer, start, 1, 0, features.size() - featuresBefore);
+            }
         }
         return features;
     }
 
+/**********************************************************************************************************************
+ * Recording metrics (see setPipelineMetrics() and setAllocationProfiler())
+ **********************************************************************************************************************/
+
+    /**
+     * The start time of an invocation, or NOT_TIMED if metrics aren't being recorded.
+     */
+    private long startTiming() {
+        return metrics == null ? NOT_TIMED : System.nanoTime();
+    }
+
+    // Never a start time in practice (System.nanoTime() may be zero or negative, so neither is a safe sentinel)
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * Record an invocation of *component* (or of a whole stage if it's null) which began at *start*, if metrics were
+     * being recorded when it began.
+     */
+    private void recordInvocation(Stage stage, Object component, long start, int documents, int tokens, int features) {
+        PipelineMetrics m = metrics;
+        if (m != null && start != NOT_TIMED)
+            m.recordInvocation(stage, metricName(component), System.nanoTime() - start, documents, tokens, features);
+    }
+
+    private void recordInvocation(Stage stage, Object component, long start, List<Document> documents) {
+        if (metrics != null && start != NOT_TIMED) {
+            int tokens = 0;
+            for (Document document : documents) tokens += document.size();
+            recordInvocation(stage, component, start, documents.size(), tokens, 0);
+        }
+    }
+
+    /**
+     * Record that an invocation of *component* (or of a whole stage if it's null) failed with *e*, and return *e*
+     * to be rethrown.
+     */
+    private RuntimeException recordFailure(Stage stage, Object component, RuntimeException e) {
+        PipelineMetrics m = metrics;
+        if (m != null) m.recordFailure(stage, metricName(component), e);
+        return e;
+    }
+
+    /**
+     * Begin measuring the allocation of an invocation on the current thread, or return null if there's no profiler.
+     */
+    private AllocationProfiler.Invocation startAllocation() {
+        AllocationProfiler profiler = allocationProfiler;
+        return profiler == null ? null : profiler.start();
+    }
+
+    private void endAllocation(AllocationProfiler.Invocation allocation, Stage stage, Object component, int documents) {
+        if (allocation != null) allocation.end(stage, metricName(component), documents);
+    }
+
+    private static int countFeatures(List<List<Feature>> featuresPerDocument) {
+        int features = 0;
+        for (List<Feature> documentFeatures : featuresPerDocument) features += documentFeatures.size();
+        return features;
+    }
+
+    /**
+     * The name a component was added with, else the simple name of its class.
+     */
+    private String metricName(Object component) {
+        if (component == null) return PipelineMetrics.WHOLE_STAGE;
+        String name = metricNames.get(component);
+        return name != null ? name : className(component);
+    }
+
+    private static String className(Object component) {
+        String name = component.getClass().getSimpleName();
+        return name.isEmpty() ? component.getClass().getName() : name;
+    }
+
+    /**
+     * Resolve the metric name of each component, so that recording an invocation needn't search for it. Call
+     * whenever components are added, removed, renamed or replaced. The map is replaced rather than modified,
+     * since extraction may be reading it on other threads.
+     */
+    private void updateMetricNames() {
+        Map<Object, String> names = new IdentityHashMap<>();
+        List<Object> components = new ArrayList<>();
+        if (tokeniser != null) components.add(tokeniser);
+        components.addAll(docProcessors);
+        components.addAll(tokenFilters);
+        components.addAll(tokenNormalisers);
+        components.addAll(featureInferrers);
+        for (Object component : components) names.put(component, className(component));
+        for (Map.Entry<String, PipelineComponent> entry : componentMap.entrySet()) names.put(entry.getValue(), entry.getKey());
+        metricNames = names;
+    }
+
 
 /**********************************************************************************************************************
  * Serialisation helpers
@@ -1396,5 +1715,6 @@ public class FeatureExtractionPipeline implements Serializable, AutoCloseable {
 
         handLabelledData = new ArrayList<>();
         machineLabelledData = new ArrayList<>();
+        updateMetricNames();
     }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Exposes the statistics of a RecordingPipelineMetrics over JMX (e.g. to JConsole or VisualVM), registered with the
+ * platform MBean server under the name "uk.ac.susx.tag.classificationframework:type=PipelineMetrics,name=<name>".
+ * Each component's statistics appear as composite data, with the attributes of ComponentStatistics.
+ *
+ *  RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+ *  pipeline.setPipelineMetrics(metrics);
+ *  JmxPipelineMetrics jmx = new JmxPipelineMetrics(metrics, "sentiment");
+ *  ...
+ *  jmx.close(); // Unregister
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class JmxPipelineMetrics implements PipelineMetricsMXBean, AutoCloseable {
+
+    public static final String DOMAIN = "uk.ac.susx.tag.classificationframework";
+
+    private final RecordingPipelineMetrics metrics;
+    private final ObjectName objectName;
+    private final MBeanServer server;
+
+    public JmxPipelineMetrics(RecordingPipelineMetrics metrics, String name) {
+        this(metrics, name, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxPipelineMetrics(RecordingPipelineMetrics metrics, String name, MBeanServer server) {
+        this.metrics = metrics;
+        this.server = server;
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=PipelineMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register pipeline metrics with JMX: " + name, e);
+        }
+    }
+
+    public ObjectName getObjectName() { return objectName; }
+
+    public RecordingPipelineMetrics getMetrics() { return metrics; }
+
+    @Override
+    public List<RecordingPipelineMetrics.ComponentStatistics> getComponentStatistics() { return metrics.componentStatistics(); }
+
+    @Override
+    public List<RecordingPipelineMetrics.ComponentStatistics> getStageStatistics() { return metrics.stageStatistics(); }
+
+    @Override
+    public long getDocuments() { return metrics.documents(); }
+
+    @Override
+    public double getDocumentsPerSecond() { return metrics.documentsPerSecond(); }
+
+    @Override
+    public void reset() { metrics.reset(); }
+
+    /**
+     * Unregister from the MBean server.
+     */
+    @Override
+    public void close() {
+        try {
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't unregister pipeline metrics from JMX: " + objectName, e);
+        }
+    }
+}
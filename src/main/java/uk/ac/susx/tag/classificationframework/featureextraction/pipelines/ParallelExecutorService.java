@@ -0,0 +1,31 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * An ExecutorService which can say how many of its tasks run at once. Views of a pool which pass their tasks
+ * on to it (e.g. AllocationProfiler.MeasuredExecutor) implement this, so that components which split their work
+ * into a task per worker (see DocProcessor.processInChunks()) split it as for the pool itself.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public interface ParallelExecutorService extends ExecutorService {
+
+    int getParallelism();
+
+    /**
+     * The number of tasks a thread pool can run at once (or the number of processors if it can't be told).
+     */
+    static int parallelism(ExecutorService threadPool) {
+        if (threadPool instanceof ParallelExecutorService)
+            return ((ParallelExecutorService)threadPool).getParallelism();
+        if (threadPool instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor)threadPool).getMaximumPoolSize();
+        if (threadPool instanceof ForkJoinPool)
+            return ((ForkJoinPool)threadPool).getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,40 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+/**
+ * Receives timings of the work done by a FeatureExtractionPipeline, per stage and per component. See
+ * FeatureExtractionPipeline.setPipelineMetrics(). RecordingPipelineMetrics keeps statistics over them (which
+ * JmxPipelineMetrics exposes over JMX), but other monitoring systems can be plugged in by implementing this.
+ *
+ * An invocation is one use of a component: on a single document in single document extraction, or on a whole
+ * batch in batch extraction (however the component divides the batch between threads).
+ *
+ * Components are identified by the name they were added to the pipeline with, else by their class's simple
+ * name. Work which belongs to a stage as a whole, rather than any one component, is recorded under WHOLE_STAGE:
+ * indexing, and the filters and normalisers of single document extraction (which are interleaved token by token).
+ *
+ * Implementations are called concurrently by the pipeline's threads (and by all pipelines they're given to), so
+ * must be thread-safe, and should be cheap.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public interface PipelineMetrics {
+
+    String WHOLE_STAGE = "(all)";
+
+    enum Stage { TOKENISE, DOC_PROCESSING, FILTER, NORMALISE, INFER, INDEX }
+
+    /**
+     * An invocation of *component* completed in *nanos* nanoseconds.
+     *
+     * @param documents the number of documents it was invoked on.
+     * @param tokens the number of tokens produced (TOKENISE and DOC_PROCESSING), or examined (FILTER and NORMALISE).
+     * @param features the number of features produced (INFER), or indexed (INDEX).
+     */
+    void recordInvocation(Stage stage, String component, long nanos, int documents, int tokens, int features);
+
+    /**
+     * An invocation of *component* threw *e*, which is about to be rethrown by the pipeline.
+     */
+    void recordFailure(Stage stage, String component, Throwable e);
+}
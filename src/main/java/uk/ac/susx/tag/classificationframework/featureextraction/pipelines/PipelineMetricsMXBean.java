@@ -0,0 +1,22 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import java.util.List;
+
+/**
+ * The management interface of the statistics kept by a RecordingPipelineMetrics. See JmxPipelineMetrics.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public interface PipelineMetricsMXBean {
+
+    List<RecordingPipelineMetrics.ComponentStatistics> getComponentStatistics();
+
+    List<RecordingPipelineMetrics.ComponentStatistics> getStageStatistics();
+
+    long getDocuments();
+
+    double getDocumentsPerSecond();
+
+    void reset();
+}
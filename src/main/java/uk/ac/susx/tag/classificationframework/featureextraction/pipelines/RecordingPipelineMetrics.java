@@ -0,0 +1,283 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps statistics over the invocations of the components of one or more pipelines (see PipelineMetrics):
+ * invocation, document, token and feature counts, failures, total and percentile latencies, and throughput.
+ *
+ * It's cheap enough to leave on permanently: each invocation costs two calls to System.nanoTime() in the pipeline,
+ * and here, a few striped counters (LongAdder) and one increment of a fixed log-scale latency histogram. No locks
+ * are taken once a component has been seen. The price of the histogram is that percentiles are approximate: they're
+ * accurate to within 1/16 (6.25%) of the true latency.
+ *
+ *  RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+ *  pipeline.setPipelineMetrics(metrics);
+ *  ...
+ *  for (RecordingPipelineMetrics.ComponentStatistics s : metrics.componentStatistics()) System.out.println(s);
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class RecordingPipelineMetrics implements PipelineMetrics {
+
+    private final Map<Stage, ConcurrentHashMap<String, Recorder>> recorders = new EnumMap<>(Stage.class);
+    private volatile long startNanos = System.nanoTime();
+
+    public RecordingPipelineMetrics() {
+        for (Stage stage : Stage.values()) recorders.put(stage, new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public void recordInvocation(Stage stage, String component, long nanos, int documents, int tokens, int features) {
+        recorder(stage, component).record(nanos, documents, tokens, features);
+    }
+
+    @Override
+    public void recordFailure(Stage stage, String component, Throwable e) {
+        recorder(stage, component).failures.increment();
+    }
+
+    /**
+     * Statistics for each component seen so far, in stage order.
+     */
+    public List<ComponentStatistics> componentStatistics() {
+        List<ComponentStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<Stage, ConcurrentHashMap<String, Recorder>> stage : recorders.entrySet()) {
+            for (Map.Entry<String, Recorder> component : stage.getValue().entrySet())
+                statistics.add(component.getValue().statistics(stage.getKey(), component.getKey()));
+        }
+        return statistics;
+    }
+
+    /**
+     * Statistics for each stage that has been used so far, over all of its components (so the component of each is
+     * WHOLE_STAGE). Document counts are those of the stage's busiest component (the number of documents which went
+     * through the stage), and the other counts are totals.
+     */
+    public List<ComponentStatistics> stageStatistics() {
+        List<ComponentStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<Stage, ConcurrentHashMap<String, Recorder>> stage : recorders.entrySet()) {
+            if (stage.getValue().isEmpty()) continue;
+            Recorder total = new Recorder();
+            long documents = 0;
+            for (Recorder component : stage.getValue().values()) {
+                total.add(component);
+                documents = Math.max(documents, component.documents.sum());
+            }
+            total.documents.add(documents);
+            statistics.add(total.statistics(stage.getKey(), WHOLE_STAGE));
+        }
+        return statistics;
+    }
+
+    /**
+     * Documents tokenised so far.
+     */
+    public long documents() {
+        long documents = 0;
+        for (Recorder tokeniser : recorders.get(Stage.TOKENISE).values()) documents += tokeniser.documents.sum();
+        return documents;
+    }
+
+    /**
+     * Documents tokenised per second of wall-clock time since this was created or reset.
+     */
+    public double documentsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : documents() / seconds;
+    }
+
+    /**
+     * Forget everything recorded so far. Invocations being recorded concurrently may or may not be forgotten.
+     */
+    public void reset() {
+        for (ConcurrentHashMap<String, Recorder> stage : recorders.values()) stage.clear();
+        startNanos = System.nanoTime();
+    }
+
+    private Recorder recorder(Stage stage, String component) {
+        ConcurrentHashMap<String, Recorder> stageRecorders = recorders.get(stage);
+        Recorder recorder = stageRecorders.get(component);  // Avoid the locking of computeIfAbsent() in the common case
+        return recorder != null ? recorder : stageRecorders.computeIfAbsent(component, c -> new Recorder());
+    }
+
+    /**
+     * The counters of one component.
+     */
+    private static class Recorder {
+
+        final LongAdder invocations = new LongAdder();
+        final LongAdder documents = new LongAdder();
+        final LongAdder tokens = new LongAdder();
+        final LongAdder features = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        void record(long nanos, int documents, int tokens, int features) {
+            invocations.increment();
+            this.documents.add(documents);
+            this.tokens.add(tokens);
+            this.features.add(features);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            latencies.record(nanos);
+        }
+
+        /**
+         * Add all but the document count of *other*.
+         */
+        void add(Recorder other) {
+            invocations.add(other.invocations.sum());
+            tokens.add(other.tokens.sum());
+            features.add(other.features.sum());
+            failures.add(other.failures.sum());
+            totalNanos.add(other.totalNanos.sum());
+            maxNanos.accumulate(other.maxNanos.get());
+            latencies.add(other.latencies);
+        }
+
+        ComponentStatistics statistics(Stage stage, String component) {
+            long[] counts = latencies.counts();
+            return new ComponentStatistics(stage, component, invocations.sum(), documents.sum(), tokens.sum(),
+                    features.sum(), failures.sum(), totalNanos.sum(), maxNanos.get(),
+                    LatencyHistogram.percentile(counts, 0.5),
+                    LatencyHistogram.percentile(counts, 0.95),
+                    LatencyHistogram.percentile(counts, 0.99));
+        }
+    }
+
+    /**
+     * Counts of latencies in log-scale buckets: each power of 2 is divided into 8 equal buckets, so a bucket's
+     * midpoint is within 1/16 of any latency in it.
+     */
+    static class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucket(Math.max(0, nanos)));
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < counts.length(); i++) counts.addAndGet(i, other.counts.get(i));
+        }
+
+        long[] counts() {
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) snapshot[i] = counts.get(i);
+            return snapshot;
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int)value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * The midpoint of the values which fall in *bucket*.
+         */
+        static long midpoint(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            long lower = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+            return lower + width / 2;
+        }
+
+        /**
+         * The *p*th percentile (nearest rank) of the latencies counted in *counts*, or 0 if there are none.
+         */
+        static long percentile(long[] counts, double p) {
+            long total = 0;
+            for (long count : counts) total += count;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return midpoint(i);
+            }
+            return midpoint(counts.length - 1);
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a component (or of a whole stage). Latencies are of invocations, in
+     * nanoseconds. The getters are so it can be exposed over JMX (see JmxPipelineMetrics).
+     */
+    public static class ComponentStatistics {
+
+        private final Stage stage;
+        private final String component;
+        private final long invocations;
+        private final long documents;
+        private final long tokens;
+        private final long features;
+        private final long failures;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p95Nanos;
+        private final long p99Nanos;
+
+        public ComponentStatistics(Stage stage, String component, long invocations, long documents, long tokens,
+                                   long features, long failures, long totalNanos, long maxNanos,
+                                   long p50Nanos, long p95Nanos, long p99Nanos) {
+            this.stage = stage;
+            this.component = component;
+            this.invocations = invocations;
+            this.documents = documents;
+            this.tokens = tokens;
+            this.features = features;
+            this.failures = failures;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public Stage getStage() { return stage; }
+        public String getComponent() { return component; }
+        public long getInvocations() { return invocations; }
+        public long getDocuments() { return documents; }
+        public long getTokens() { return tokens; }
+        public long getFeatures() { return features; }
+        public long getFailures() { return failures; }
+        public long getTotalNanos() { return totalNanos; }
+        public long getMaxNanos() { return maxNanos; }
+        public long getP50Nanos() { return p50Nanos; }
+        public long getP95Nanos() { return p95Nanos; }
+        public long getP99Nanos() { return p99Nanos; }
+
+        public long getMeanNanos() { return invocations == 0 ? 0 : totalNanos / invocations; }
+
+        /**
+         * Documents per second of time spent in the component (i.e. its throughput when busy).
+         */
+        public double getDocumentsPerSecond() { return totalNanos == 0 ? 0 : documents * 1e9 / totalNanos; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %d invocations, %d documents, %d tokens, %d features, %d failures, " +
+                            "%.3fms total, latency mean=%dns p50=%dns p95=%dns p99=%dns max=%dns, %.1f docs/s",
+                    stage, component, invocations, documents, tokens, features, failures, totalNanos / 1e6,
+                    getMeanNanos(), p50Nanos, p95Nanos, p99Nanos, maxNanos, getDocumentsPerSecond());
+        }
+    }
+}
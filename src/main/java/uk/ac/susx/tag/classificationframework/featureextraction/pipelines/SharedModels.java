@@ -0,0 +1,137 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import uk.ac.susx.tag.classificationframework.exceptions.FeatureExtractionException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of the heavyweight models used by pipeline components (taggers, parsers, CoreNLP
+ * pipelines), so that every component in the JVM which needs the same model shares one instance of it.
+ *
+ * Components acquire a Handle on a model by a key naming the model and its configuration (e.g. its resource
+ * path). The model isn't loaded until the first call to Handle.get(), so constructing or de-serialising a
+ * component doesn't block on model I/O. The model is loaded once, however many handles there are, and is
+ * dropped from the cache when the last handle is closed (a component closes its handle in close()).
+ *
+ * Shared models must be safe to use from several threads at once, since the components sharing them may be
+ * used concurrently. (Each component using this cache already declared itself thread-safe with a model of
+ * its own.)
+ *
+ * Usage, within a component:
+ *
+ *  private transient SharedModels.Handle<Tagger> tagger;
+ *  ...
+ *  tagger = SharedModels.acquire("cmu-tagger:" + MODEL_PATH, () -> loadTagger(MODEL_PATH));
+ *  ...
+ *  tagger.get().tokenizeAndTag(text);
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class SharedModels {
+
+    private static final Map<String, Entry> models = new HashMap<>();
+
+    private SharedModels() {}
+
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Acquire a handle on the model with *key*, which will be loaded by *loader* on first use if no other
+     * handle has loaded it already. The handle must be closed when the model is no longer needed.
+     */
+    public static <T> Handle<T> acquire(String key, Loader<T> loader) {
+        synchronized (models) {
+            Entry entry = models.get(key);
+            if (entry == null) {
+                entry = new Entry(key, loader);
+                models.put(key, entry);
+            }
+            entry.references++;
+            return new Handle<>(entry);
+        }
+    }
+
+    /**
+     * True if a model is cached under *key* and has been loaded.
+     */
+    public static boolean isLoaded(String key) {
+        synchronized (models) {
+            Entry entry = models.get(key);
+            return entry != null && entry.model != null;
+        }
+    }
+
+    /**
+     * The number of handles held on the model with *key*.
+     */
+    public static int references(String key) {
+        synchronized (models) {
+            Entry entry = models.get(key);
+            return entry == null ? 0 : entry.references;
+        }
+    }
+
+    private static void release(Entry entry) {
+        synchronized (models) {
+            if (--entry.references == 0 && models.get(entry.key) == entry)
+                models.remove(entry.key);
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final Loader<?> loader;
+        int references = 0;              // Guarded by the models map
+        volatile Object model = null;
+
+        Entry(String key, Loader<?> loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        synchronized Object load() {
+            if (model == null) {
+                try {
+                    model = loader.load();
+                } catch (IOException e) {
+                    throw new FeatureExtractionException("Failed to load shared model: " + key, e);
+                }
+            }
+            return model;
+        }
+    }
+
+    /**
+     * A reference to a shared model. See SharedModels.
+     */
+    public static class Handle<T> implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Handle(Entry entry) { this.entry = entry; }
+
+        /**
+         * Get the model, loading it if this is the first use of it by any handle.
+         */
+        @SuppressWarnings("unchecked")
+        public T get() {
+            Object model = entry.model;
+            return (T)(model != null ? model : entry.load());
+        }
+
+        public String key() { return entry.key; }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+}
@@ -54,4 +54,9 @@ public interface Tokeniser extends Serializable {
      */
     String configuration();
 
+    /**
+     * Release any resources held by the tokeniser (e.g. shared models). Called when its pipeline is closed.
+     */
+    default void close() {}
+
 }
@@ -25,6 +25,8 @@ import uk.ac.susx.tag.classificationframework.Util;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.CMUTweetTagger;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.SharedModels;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -47,22 +49,30 @@ public class TokeniserCMUTokenAndTag implements Tokeniser {
 
     private static final long serialVersionUID = 0L;
 
-    public transient Tagger tagger;
+    // The tagger model is shared with all other CMU tagging components (see SharedModels), and loaded on first use
+    private transient SharedModels.Handle<Tagger> tagger;
 
     public TokeniserCMUTokenAndTag() throws IOException {
         loadTagger();
     }
 
-    private void loadTagger() throws IOException {
-        tagger = new Tagger();
-        tagger.loadModel("/cmu/arktweetnlp/model.20120919");
+    private void loadTagger() {
+        tagger = CMUTweetTagger.acquireTagger();
+    }
+
+    /**
+     * The CMU tagger model (formerly the public "tagger" field). Loads the shared model if no component
+     * has used it yet.
+     */
+    public Tagger getTagger() {
+        return tagger.get();
     }
 
     public Document tokenise (Instance document) {
         Document processed = new Document(document);
         if (!Util.isNullOrEmptyText(document)){
             int end = 0;
-            for (Tagger.TaggedToken taggedToken : tagger.tokenizeAndTag(document.text)) {
+            for (Tagger.TaggedToken taggedToken : tagger.get().tokenizeAndTag(document.text)) {
                 int start = document.text.indexOf(taggedToken.token, end);
                 end = start + taggedToken.token.length();
                 AnnotatedToken annotatedToken = new AnnotatedToken(taggedToken);
@@ -79,6 +89,11 @@ public class TokeniserCMUTokenAndTag implements Tokeniser {
         return "";
     }
 
+    @Override
+    public void close() {
+        tagger.close();
+    }
+
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         loadTagger();
@@ -4,6 +4,7 @@ import uk.ac.susx.tag.classificationframework.Util;
 import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
 import uk.ac.susx.tag.classificationframework.datastructures.Document;
 import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.SharedModels;
 
 
 import edu.stanford.nlp.pipeline.*;
@@ -19,7 +20,10 @@ import java.util.*;
 public class TokeniserChineseStanford implements Tokeniser {
 
     private static final long serialVersionUID = 0L;
-    private transient StanfordCoreNLP pipeline;
+    private static final String PROPERTIES = "StanfordCoreNLP-chinese.properties";
+
+    // Shared with other Chinese tokenisers (see SharedModels), and loaded on first use
+    private transient SharedModels.Handle<StanfordCoreNLP> pipeline;
 
     public TokeniserChineseStanford() throws IOException {
         loadPipeline();
@@ -37,7 +41,7 @@ public class TokeniserChineseStanford implements Tokeniser {
             int end = 0;
 
             Annotation annotation = new Annotation(document.text);
-            pipeline.annotate(annotation);
+            pipeline.get().annotate(annotation);
             List<CoreLabel> tokens = annotation.get(CoreAnnotations.TokensAnnotation.class);
             for (CoreLabel token : tokens) {
                 String word = token.get(CoreAnnotations.TextAnnotation.class);
@@ -81,9 +85,17 @@ public class TokeniserChineseStanford implements Tokeniser {
     }
 
     public void loadPipeline(){
-        Properties props = StringUtils.argsToProperties("-props", "StanfordCoreNLP-chinese.properties");
-        props.setProperty("annotators", "tokenize");
-        pipeline = new StanfordCoreNLP(props);
+        if (pipeline != null) pipeline.close();
+        pipeline = SharedModels.acquire("stanford-corenlp:props=" + PROPERTIES + ":annotators=tokenize", () -> {
+            Properties props = StringUtils.argsToProperties("-props", PROPERTIES);
+            props.setProperty("annotators", "tokenize");
+            return new StanfordCoreNLP(props);
+        });
+    }
+
+    @Override
+    public void close() {
+        pipeline.close();
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -0,0 +1,188 @@
+package uk.ac.susx.tag.classificationframework.jsonhandling;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An iterator over the elements in a JSON array of Instances, which produces ProcessedInstances
+ * (see JsonIteratorProcessedInstance), but overlaps parsing with feature extraction.
+ *
+ * A background thread parses Instances from the file in batches, and places them in a bounded
+ * read-ahead buffer. The consuming thread takes one batch at a time from the buffer and passes
+ * it through the pipeline's extractFeaturesFromBatch(), which extracts features concurrently
+ * where the pipeline's components allow. So while one batch is having its features extracted,
+ * the following batches are being parsed, and ProcessedInstances are produced at the rate of
+ * the slower of the two stages rather than the sum of both.
+ *
+ * ProcessedInstances are returned in the same order as the Instances in the file.
+ *
+ * At most readAheadBatches parsed batches are held in memory at once (plus the batch being
+ * extracted). Call close() if you stop iterating before the end of the file, so that the parsing
+ * thread stops and the file is closed (JsonListStreamReader does this for the iterators it creates
+ * when it is closed). If the reader is closed under the parsing thread, the thread stops.
+ *
+ * See JsonListStreamReader for usage.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class JsonIteratorProcessedInstanceBatched implements Iterator<ProcessedInstance>, AutoCloseable {
+
+    // Placed on the buffer by the parsing thread when there are no more instances (or parsing failed), if
+    // there's room. Otherwise the consumer finds the end when the parsing thread has exited.
+    private static final List<Instance> END = Collections.emptyList();
+    private static final long POLL_MILLIS = 100;
+
+    private final FeatureExtractionPipeline pipeline;
+    private final JsonReader jsonReader;
+    private final BlockingQueue<List<Instance>> parsedBatches;
+    private final Thread parser;
+
+    private volatile Throwable parseError = null;
+    private volatile boolean closed = false;
+
+    private Iterator<ProcessedInstance> currentBatch = Collections.emptyIterator();
+    private boolean finished = false;
+
+    public JsonIteratorProcessedInstanceBatched(JsonReader jsonReader, FeatureExtractionPipeline pipeline, Gson gson, int batchSize, int readAheadBatches) throws IOException {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1");
+        if (readAheadBatches < 1) throw new IllegalArgumentException("Must read ahead at least 1 batch");
+
+        this.pipeline = pipeline;
+        this.jsonReader = jsonReader;
+        this.parsedBatches = new ArrayBlockingQueue<>(readAheadBatches);
+
+        jsonReader.beginArray();
+
+        parser = new Thread(() -> parse(gson, batchSize), "json-instance-parser");
+        parser.setDaemon(true);
+        parser.start();
+    }
+
+    private void parse(Gson gson, int batchSize) {
+        try {
+            List<Instance> batch = new ArrayList<>(batchSize);
+            while (!closed && jsonReader.hasNext()) {
+                batch.add(gson.fromJson(jsonReader, Instance.class));
+                if (batch.size() == batchSize) {
+                    put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty())
+                put(batch);
+            if (!closed)
+                jsonReader.endArray();
+        } catch (InterruptedException e) {
+            return; // Closed while waiting for buffer space
+        } catch (Throwable e) {
+            if (closed) return; // The reader was closed under the parser
+            parseError = e;
+        }
+        // Never wait for room for the end: the consumer may have gone (e.g. the reader was closed under the
+        // parser after the consumer stopped iterating), and if it hasn't, it notices that this thread has exited
+        parsedBatches.offer(END);
+    }
+
+    private void put(List<Instance> batch) throws InterruptedException {
+        // Don't block forever if the consumer has closed the iterator
+        while (!closed) {
+            if (parsedBatches.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    /**
+     * The next parsed batch, or END if there are no more. Waits for the parsing thread, unless it has exited.
+     */
+    private List<Instance> takeBatch() throws InterruptedException {
+        while (true) {
+            List<Instance> batch = parsedBatches.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) return batch;
+            if (!parser.isAlive()) { // Everything it put on the buffer is visible now that it has exited
+                batch = parsedBatches.poll();
+                return batch == null ? END : batch;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            if (finished) return false;
+
+            List<Instance> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for parsed instances", e);
+            }
+
+            if (batch == END) {
+                finished = true;
+                closeQuietly();
+                if (parseError != null)
+                    throw new RuntimeException("Failed to parse JSON instances", parseError);
+                return false;
+            }
+            currentBatch = pipeline.extractFeaturesFromBatch(batch).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ProcessedInstance next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return currentBatch.next();
+    }
+
+    @Override
+    public void remove() { throw new UnsupportedOperationException(); }
+
+    /**
+     * True while the parsing thread is running.
+     */
+    public boolean isParsing() {
+        return parser.isAlive();
+    }
+
+    /**
+     * Stop the parsing thread and close the underlying reader.
+     */
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            parser.interrupt();
+            try {
+                parser.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished = true;
+            parsedBatches.clear();
+            jsonReader.close();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
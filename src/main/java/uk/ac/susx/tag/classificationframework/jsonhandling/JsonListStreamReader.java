@@ -30,7 +30,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Class for reading a JSON array over Instance objects iteratively from a file.
@@ -46,6 +48,12 @@ import java.util.Iterator;
  *      object, which contains the resulting features and the contents of the label field of the
  *      Instance object (indexed).
  *
+ *   iterableOverProcessedInstances(pipeline, batchSize, readAheadBatches)
+ *      As above, but the Instances are parsed on a background thread while features are extracted
+ *      from the previous batch concurrently (see JsonIteratorProcessedInstanceBatched). Instances
+ *      are still returned in file order. Closing this reader stops the background threads of any
+ *      iterators over it which haven't reached the end of the file.
+ *
  * Usage:
  *
  *  try(JsonListStreamReader sr = new JsonListStreamReader(new File("test.json"), new Gson())){
@@ -60,6 +68,8 @@ public class JsonListStreamReader implements AutoCloseable {
 
     private final JsonReader jsonReader;
     private final Gson gson;
+    // Closed with this reader, so that their parsing threads don't outlive it
+    private final List<JsonIteratorProcessedInstanceBatched> batchedIterators = new ArrayList<>();
 
     public JsonListStreamReader(File jsonFile, Gson gson) throws IOException {
         jsonReader = new JsonReader(new InputStreamReader(new FileInputStream(jsonFile), "UTF8"));
@@ -67,6 +77,10 @@ public class JsonListStreamReader implements AutoCloseable {
     }
 
     public void close() throws IOException {
+        synchronized (batchedIterators) {
+            for (JsonIteratorProcessedInstanceBatched iterator : batchedIterators) iterator.close();
+            batchedIterators.clear();
+        }
         jsonReader.close();
     }
 
@@ -91,4 +105,24 @@ public class JsonListStreamReader implements AutoCloseable {
             }
         };
     }
+
+    /**
+     * Parse instances on a background thread, holding up to readAheadBatches batches of batchSize
+     * instances in memory, while features are extracted from each batch with the pipeline's
+     * extractFeaturesFromBatch().
+     */
+    public Iterable<ProcessedInstance> iterableOverProcessedInstances(final FeatureExtractionPipeline pipeline, final int batchSize, final int readAheadBatches){
+        return new Iterable<ProcessedInstance>() {
+            @Override
+            public Iterator<ProcessedInstance> iterator() {
+                try {
+                    JsonIteratorProcessedInstanceBatched iterator = new JsonIteratorProcessedInstanceBatched(jsonReader, pipeline, gson, batchSize, readAheadBatches);
+                    synchronized (batchedIterators) {
+                        batchedIterators.add(iterator);
+                    }
+                    return iterator;
+                } catch (IOException e) {  e.printStackTrace(); return null; }
+            }
+        };
+    }
 }
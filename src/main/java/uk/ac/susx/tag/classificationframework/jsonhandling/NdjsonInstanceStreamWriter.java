@@ -0,0 +1,69 @@
+package uk.ac.susx.tag.classificationframework.jsonhandling;
+
+import com.google.gson.stream.JsonWriter;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write Instances as newline-delimited JSON (NDJSON): one JSON object per line, with no
+ * enclosing array. Unlike a single JSON array (see JsonInstanceListStreamWriter), such a
+ * file can be split at any line boundary, appended to, and read in parallel using
+ * NdjsonStreamReader.
+ *
+ * Newlines inside the text are escaped by the JSON encoding, so each line is exactly one Instance.
+ *
+ * Usage:
+ *
+ *  Iterable<Instance> instanceList = some iterable over Instance objects
+ *  try (NdjsonInstanceStreamWriter sw = new NdjsonInstanceStreamWriter(new File("text.ndjson"))){
+ *      sw.write(instanceList);
+ *  }
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NdjsonInstanceStreamWriter implements AutoCloseable {
+
+    private final Writer writer;
+
+    public NdjsonInstanceStreamWriter(File ndjsonFile) throws IOException {
+        this(ndjsonFile, false);
+    }
+
+    /**
+     * @param append If true, instances are added to the end of an existing file.
+     */
+    public NdjsonInstanceStreamWriter(File ndjsonFile, boolean append) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ndjsonFile, append), StandardCharsets.UTF_8));
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void write(Instance i) throws IOException {
+        // JsonWriter writes straight through to the underlying writer, and isn't closed, so one per line is cheap
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginObject();
+        jsonWriter.name("label").value(i.label);
+        jsonWriter.name("id").value(i.id);
+        jsonWriter.name("text").value(i.text);
+        jsonWriter.endObject();
+        writer.write('\n');
+    }
+
+    public void write(Iterable<Instance> instances) throws IOException {
+        for (Instance i : instances) write(i);
+    }
+}
@@ -0,0 +1,491 @@
+package uk.ac.susx.tag.classificationframework.jsonhandling;
+
+import com.google.gson.Gson;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer.Feature;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class for reading newline-delimited JSON (NDJSON) files of Instances, one Instance per line
+ * (see NdjsonInstanceStreamWriter).
+ *
+ * Because every line boundary is a valid place to start reading, the file can be divided into
+ * byte ranges, each starting at the beginning of a line. Each range is memory-mapped and parsed
+ * independently, so:
+ *
+ *   iterableOverInstances(fromOffset) :
+ *      Iterate over the instances in file order, starting from a byte offset.
+ *
+ *   processInParallel(fromOffset, numThreads, function, consumer) :
+ *      Hand the ranges to worker threads, which parse and process them independently. The
+ *      results of each range are passed to the consumer in file order, along with the byte
+ *      offset from which to resume reading if processing is interrupted after that point.
+ *
+ *   extractFeaturesInParallel(pipeline, fromOffset, numThreads, batchSize, consumer) :
+ *      The above, where workers parse the ranges, and the features of each range are then
+ *      extracted with the pipeline's batch extraction, batchSize instances at a time.
+ *
+ * Byte offsets passed as "fromOffset" must be the start of a line, e.g. 0, or an offset
+ * previously passed to a consumer.
+ *
+ * Usage:
+ *
+ *  NdjsonStreamReader sr = new NdjsonStreamReader(new File("tweets.ndjson"), new Gson());
+ *  sr.extractFeaturesInParallel(pipeline, 0, 8, 1000, (processed, resumeOffset) -> {
+ *      store(processed);
+ *      saveCheckpoint(resumeOffset);
+ *  });
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NdjsonStreamReader {
+
+    private static final long MIN_RANGE_BYTES = 1024 * 1024;
+    private static final long MAX_RANGE_BYTES = 16 * 1024 * 1024;
+    private static final int RANGES_PER_THREAD = 4;
+    // Default limit on the total bytes of the ranges being processed or awaiting the consumer
+    public static final long DEFAULT_MAX_PENDING_BYTES = 256 * 1024 * 1024;
+
+    private final File file;
+    private final Gson gson;
+
+    public NdjsonStreamReader(File ndjsonFile, Gson gson) {
+        this.file = ndjsonFile;
+        this.gson = gson;
+    }
+
+    /**
+     * A range of bytes in the file, from start (inclusive, the start of a line) to end
+     * (exclusive, the start of the next range's first line, or the end of the file).
+     */
+    public static class Range {
+        public final long start;
+        public final long end;
+
+        public Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long length() { return end - start; }
+
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * Processing applied by a worker thread to all the instances in a range.
+     */
+    public interface RangeFunction<R> {
+        R apply(Range range, Iterator<Instance> instances) throws Exception;
+    }
+
+    /**
+     * Receives the result of each range in file order. After the result has been dealt with, it
+     * is safe to resume reading from resumeOffset (the end of the range).
+     */
+    public interface RangeResultConsumer<R> {
+        void accept(R result, long resumeOffset) throws Exception;
+    }
+
+/**********************************************************************************************************************
+ * Splitting the file
+ **********************************************************************************************************************/
+
+    /**
+     * Divide the file from a given offset into ranges which start at line boundaries, with
+     * enough ranges to keep numThreads busy.
+     */
+    public List<Range> split(long fromOffset, int numThreads) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (fromOffset < 0 || fromOffset > length)
+                throw new IllegalArgumentException("Offset " + fromOffset + " is outside of the file (length " + length + ")");
+
+            long remaining = length - fromOffset;
+            long targetRangeBytes = Math.max(MIN_RANGE_BYTES, Math.min(MAX_RANGE_BYTES, remaining / (Math.max(1, numThreads) * RANGES_PER_THREAD)));
+
+            List<Range> ranges = new ArrayList<>();
+            long start = fromOffset;
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (start < length) {
+                long end = start + targetRangeBytes >= length? length : nextLineStart(channel, start + targetRangeBytes, length, buffer);
+                ranges.add(new Range(start, end));
+                start = end;
+            }
+            return ranges;
+        }
+    }
+
+    /**
+     * The offset of the first line that starts at or after the given offset.
+     */
+    private static long nextLineStart(FileChannel channel, long offset, long length, ByteBuffer buffer) throws IOException {
+        long position = offset - 1; // If the previous byte is a newline, then offset is already a line start
+        while (position < length) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return length;
+    }
+
+/**********************************************************************************************************************
+ * Reading ranges
+ **********************************************************************************************************************/
+
+    /**
+     * Iterate over the instances in a single range, by memory-mapping it.
+     */
+    public Iterator<Instance> instances(Range range) throws IOException {
+        if (range.length() == 0)
+            return Collections.emptyIterator();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping remains valid after the channel is closed
+            return new RangeIterator(channel.map(FileChannel.MapMode.READ_ONLY, range.start, range.length()), gson);
+        }
+    }
+
+    public Iterable<Instance> iterableOverInstances() throws IOException {
+        return iterableOverInstances(0);
+    }
+
+    /**
+     * Iterate over all instances in file order, starting from a given line start offset.
+     */
+    public Iterable<Instance> iterableOverInstances(long fromOffset) throws IOException {
+        final List<Range> ranges = split(fromOffset, 1);
+        return () -> new Iterator<Instance>() {
+            private int nextRange = 0;
+            private Iterator<Instance> current = Collections.emptyIterator();
+
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (nextRange >= ranges.size()) return false;
+                    try {
+                        current = instances(ranges.get(nextRange++));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return true;
+            }
+
+            public Instance next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+
+            public void remove() { throw new UnsupportedOperationException(); }
+        };
+    }
+
+    /**
+     * Parses one Instance per line of a mapped range. Blank lines are skipped.
+     */
+    private static class RangeIterator implements Iterator<Instance> {
+
+        private final MappedByteBuffer buffer;
+        private final Gson gson;
+        private byte[] line = new byte[1024];
+        private Instance next;
+
+        RangeIterator(MappedByteBuffer buffer, Gson gson) {
+            this.buffer = buffer;
+            this.gson = gson;
+            next = readNext();
+        }
+
+        private Instance readNext() {
+            while (buffer.hasRemaining()) {
+                int length = 0;
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') break;
+                    if (length == line.length)
+                        line = Arrays.copyOf(line, line.length * 2);
+                    line[length++] = b;
+                }
+                if (length > 0 && line[length - 1] == '\r')
+                    length--;
+                if (length > 0)
+                    return gson.fromJson(new String(line, 0, length, StandardCharsets.UTF_8), Instance.class);
+            }
+            return null;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Instance next() {
+            if (next == null) throw new NoSuchElementException();
+            Instance current = next;
+            next = readNext();
+            return current;
+        }
+
+        public void remove() { throw new UnsupportedOperationException(); }
+    }
+
+/**********************************************************************************************************************
+ * Parallel processing
+ **********************************************************************************************************************/
+
+    /**
+     * Split the file from a given offset into ranges, and apply the function to each range on
+     * one of numThreads worker threads. The results are passed to the consumer (on a single
+     * thread at a time) in file order. At most 2 * numThreads ranges, and (other than a single
+     * range larger than it) DEFAULT_MAX_PENDING_BYTES of the file, are in flight or awaiting the
+     * consumer at once, so memory use stays bounded even if one range is slow.
+     *
+     * If any range fails, processing stops and an IOException is thrown whose message gives the
+     * offset from which to resume (the end of the last range passed to the consumer).
+     *
+     * @return the offset at which processing finished (the length of the file)
+     */
+    public <R> long processInParallel(long fromOffset, int numThreads, RangeFunction<R> function, RangeResultConsumer<R> consumer) throws IOException {
+        return processInParallel(fromOffset, numThreads, DEFAULT_MAX_PENDING_BYTES, function, consumer);
+    }
+
+    /**
+     * As above, but with at most maxPendingBytes of the file in flight or awaiting the consumer
+     * (other than a single range larger than it). Choose it according to the memory taken by the
+     * results of that much of the file.
+     */
+    public <R> long processInParallel(long fromOffset, int numThreads, long maxPendingBytes, RangeFunction<R> function, RangeResultConsumer<R> consumer) throws IOException {
+        List<Range> ranges = split(fromOffset, numThreads);
+        InFlight inFlight = new InFlight(2 * Math.max(1, numThreads), maxPendingBytes);
+        OrderedDelivery<R> delivery = new OrderedDelivery<>(ranges, consumer, fromOffset, inFlight);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int r = 0; r < ranges.size(); r++) {
+                inFlight.acquire(ranges.get(r));
+                if (delivery.failed()) break;
+                final int index = r;
+                futures.add(pool.submit(() -> {
+                    R result;
+                    try {
+                        Range range = ranges.get(index);
+                        result = function.apply(range, instances(range));
+                    } catch (Throwable e) {
+                        delivery.fail(index, e);
+                        return;
+                    }
+                    delivery.complete(index, result);
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted; resume from offset " + delivery.resumeOffset(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed processing; resume from offset " + delivery.resumeOffset(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (delivery.failed())
+            throw new IOException("Failed processing range " + ranges.get(delivery.failedRange) + "; resume from offset " + delivery.resumeOffset(), delivery.failure);
+        return delivery.resumeOffset();
+    }
+
+    /**
+     * Extract features from the file using a pipeline, passing the ProcessedInstances of each
+     * range to the consumer in file order.
+     *
+     * numThreads workers parse and extract the features of ranges concurrently. Each range's
+     * features are extracted with the pipeline's extractUnindexedFeaturesFromBatch(), batchSize
+     * instances at a time (so only a batch of each range's Instances and Documents is held at
+     * once). That extracts features concurrently on the pipeline's own thread pool where its
+     * components are thread-safe, and uses each component which isn't by one batch at a time.
+     * Only the indexing of features and labels is done by one worker at a time. The pipeline
+     * mustn't be used elsewhere in the meantime.
+     *
+     * Instances without a label are treated as unlabelled.
+     */
+    public long extractFeaturesInParallel(FeatureExtractionPipeline pipeline, long fromOffset, int numThreads, int batchSize, RangeResultConsumer<List<ProcessedInstance>> consumer) throws IOException {
+        final Object indexing = new Object();
+        return processInParallel(fromOffset, numThreads, (range, instances) -> {
+            List<ProcessedInstance> processed = new ArrayList<>();
+            List<Instance> batch = new ArrayList<>(batchSize);
+            while (instances.hasNext()) {
+                Instance instance = instances.next();
+                if (instance.label == null) instance.label = "";
+                batch.add(instance);
+                if (batch.size() == batchSize || !instances.hasNext()) {
+                    List<List<Feature>> features = pipeline.extractUnindexedFeaturesFromBatch(batch);
+                    synchronized (indexing) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            Instance source = batch.get(i);
+                            int label = source.label.trim().isEmpty()? -1 : pipeline.labelIndex(source.label);
+                            processed.add(new ProcessedInstance(label, pipeline.indexFeatures(features.get(i)), source));
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+            return processed;
+        }, consumer);
+    }
+
+    /**
+     * Collects the results of ranges completed out of order, and passes them to the consumer in
+     * range order, tracking the offset up to which everything has been consumed.
+     */
+    private static class OrderedDelivery<R> {
+
+        private final List<Range> ranges;
+        private final RangeResultConsumer<R> consumer;
+        private final InFlight inFlight;
+        private final Object[] results;
+        private final boolean[] done;
+        private int nextToDeliver = 0;
+        private boolean delivering = false; // True while a worker is passing results to the consumer
+        private volatile long resumeOffset;
+
+        private volatile Throwable failure = null;
+        private volatile int failedRange = -1;
+
+        /**
+         * @param inFlight has each range released once it has been delivered to the
+         *                 consumer, or once it's known that it never will be (after a failure).
+         */
+        OrderedDelivery(List<Range> ranges, RangeResultConsumer<R> consumer, long fromOffset, InFlight inFlight) {
+            this.ranges = ranges;
+            this.consumer = consumer;
+            this.inFlight = inFlight;
+            this.results = new Object[ranges.size()];
+            this.done = new boolean[ranges.size()];
+            this.resumeOffset = fromOffset;
+        }
+
+        void complete(int index, R result) {
+            synchronized (this) {
+                if (failure != null) { // Never to be delivered
+                    inFlight.release(ranges.get(index));
+                    return;
+                }
+                results[index] = result;
+                done[index] = true;
+                if (delivering) return; // The worker delivering will pass it on when its turn comes
+                delivering = true;
+            }
+            deliver();
+        }
+
+        /**
+         * Pass completed results to the consumer in order, until the next one isn't complete. The
+         * consumer is called without holding the lock, so a slow consumer doesn't hold up the
+         * workers completing other ranges.
+         */
+        @SuppressWarnings("unchecked")
+        private void deliver() {
+            while (true) {
+                int index;
+                R next;
+                synchronized (this) {
+                    if (failure != null || nextToDeliver == results.length || !done[nextToDeliver]) {
+                        delivering = false;
+                        return;
+                    }
+                    index = nextToDeliver++;
+                    next = (R) results[index];
+                    results[index] = null;
+                }
+                try {
+                    consumer.accept(next, ranges.get(index).end);
+                } catch (Throwable e) {
+                    fail(index, e);
+                    synchronized (this) { delivering = false; }
+                    return;
+                }
+                resumeOffset = ranges.get(index).end;
+                inFlight.release(ranges.get(index));
+            }
+        }
+
+        /**
+         * Record the first failure, and release the permits of the failed range and of any
+         * completed ranges waiting to be delivered, since they won't be.
+         */
+        synchronized void fail(int index, Throwable e) {
+            if (failure == null) {
+                failure = e;
+                failedRange = index;
+                for (int r = nextToDeliver; r < results.length; r++) {
+                    if (done[r] && r != index) {
+                        results[r] = null;
+                        inFlight.release(ranges.get(r));
+                    }
+                }
+            }
+            inFlight.release(ranges.get(index));
+        }
+
+        boolean failed() { return failure != null; }
+
+        long resumeOffset() { return resumeOffset; }
+    }
+
+    /**
+     * Limits the number of ranges, and their total bytes, which are in flight or awaiting the
+     * consumer. A range larger than the byte limit is let through when nothing else is pending.
+     */
+    private static class InFlight {
+
+        private final int maxRanges;
+        private final long maxBytes;
+        private int ranges = 0;
+        private long bytes = 0;
+
+        InFlight(int maxRanges, long maxBytes) {
+            this.maxRanges = maxRanges;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized void acquire(Range range) throws InterruptedException {
+            while (ranges >= maxRanges || (ranges > 0 && bytes + range.length() > maxBytes))
+                wait();
+            ranges++;
+            bytes += range.length();
+        }
+
+        synchronized void release(Range range) {
+            ranges--;
+            bytes -= range.length();
+            notifyAll();
+        }
+    }
+}
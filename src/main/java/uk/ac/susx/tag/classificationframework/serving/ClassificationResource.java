@@ -0,0 +1,96 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.exceptions.UnknownModelException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The HTTP interface of a ClassificationService. Documents are JSON objects with "id" and "text" fields.
+ *
+ *  POST models/{model}/classify        a document      => {"id": ..., "label": ..., "probabilities": {label: probability}}
+ *  POST models/{model}/classify-batch  [documents]     => [classifications], in the same order
+ *  GET  models/{model}/stats                           => batching statistics of the model
+ *
+ * Responses are asynchronous, so a request waiting for its micro-batch doesn't hold a server thread.
+ * An unknown model gives a 404, and malformed JSON a 400.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+@Path("models")
+public class ClassificationResource {
+
+    private static final Gson gson = new Gson();
+
+    private final ClassificationService service;
+
+    public ClassificationResource(ClassificationService service) {
+        this.service = service;
+    }
+
+    @POST
+    @Path("{model}/classify")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void classify(@PathParam("model") String model, String body, @Suspended AsyncResponse response) {
+        try {
+            Instance document = gson.fromJson(body, Instance.class);
+            if (document == null) throw new JsonParseException("No document");
+            respond(service.classify(model, document), response);
+        } catch (RuntimeException e) {
+            response.resume(error(e));
+        }
+    }
+
+    @POST
+    @Path("{model}/classify-batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void classifyBatch(@PathParam("model") String model, String body, @Suspended AsyncResponse response) {
+        try {
+            List<Instance> documents = gson.fromJson(body, new TypeToken<List<Instance>>(){}.getType());
+            if (documents == null) throw new JsonParseException("No documents");
+            respond(service.classifyBatch(model, documents), response);
+        } catch (RuntimeException e) {
+            response.resume(error(e));
+        }
+    }
+
+    @GET
+    @Path("{model}/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats(@PathParam("model") String model) {
+        if (!service.getRegistry().isRegistered(model)) return error(new UnknownModelException(model));
+        return Response.ok(gson.toJson(service.stats(model)), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private static void respond(CompletableFuture<?> result, AsyncResponse response) {
+        result.whenComplete((classification, error) -> {
+            if (error == null) response.resume(Response.ok(gson.toJson(classification), MediaType.APPLICATION_JSON_TYPE).build());
+            else response.resume(error(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
+        });
+    }
+
+    private static Response error(Throwable error) {
+        Response.Status status = error instanceof UnknownModelException ? Response.Status.NOT_FOUND
+                               : error instanceof JsonParseException ? Response.Status.BAD_REQUEST
+                               : Response.Status.INTERNAL_SERVER_ERROR;
+        return Response.status(status).entity(String.valueOf(error.getMessage())).type(MediaType.TEXT_PLAIN_TYPE).build();
+    }
+}
@@ -0,0 +1,86 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelRegistry;
+
+import java.io.File;
+import java.net.URI;
+
+/**
+ * A lightweight embedded HTTP server for classifying documents with the models of a ModelRegistry (see
+ * ClassificationResource for the endpoints, and ClassificationService for how requests are micro-batched).
+ *
+ * It runs on an embedded Grizzly HTTP server (which supports the asynchronous responses of ClassificationResource),
+ * so needs no servlet container:
+ *
+ *  ModelRegistry registry = new ModelRegistry(2L << 30);
+ *  registry.register("sentiment", new File("models/sentiment"));
+ *  try (ClassificationServer server = new ClassificationServer(URI.create("http://localhost:8080/"), registry)) {
+ *      ...
+ *  }
+ *
+ * Or from the command line:
+ *
+ *  java ...ClassificationServer <port> <modelID>=<modelDirectory> [<modelID>=<modelDirectory> ...]
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ClassificationServer implements AutoCloseable {
+
+    private final ClassificationService service;
+    private final HttpServer server;
+    private final URI baseUri;
+
+    public ClassificationServer(URI baseUri, ModelRegistry registry) {
+        this(baseUri, registry, new ClassificationService.Options());
+    }
+
+    /**
+     * Start serving at *baseUri* (e.g. http://localhost:8080/).
+     */
+    public ClassificationServer(URI baseUri, ModelRegistry registry, ClassificationService.Options options) {
+        this.baseUri = baseUri;
+        service = new ClassificationService(registry, options);
+        server = GrizzlyHttpServerFactory.createHttpServer(baseUri, new ResourceConfig().register(new ClassificationResource(service)));
+    }
+
+    public URI getBaseUri() { return baseUri; }
+
+    /**
+     * The port actually listened on (e.g. if *baseUri* had port 0).
+     */
+    public int getPort() { return server.getListeners().iterator().next().getPort(); }
+
+    public ClassificationService getService() { return service; }
+
+    /**
+     * Stop the server and the classification service. The registry isn't closed.
+     */
+    @Override
+    public void close() {
+        server.shutdownNow();
+        service.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ClassificationServer <port> <modelID>=<modelDirectory> [<modelID>=<modelDirectory> ...]");
+            System.exit(1);
+        }
+        ModelRegistry registry = new ModelRegistry(Runtime.getRuntime().maxMemory() / 2);
+        for (int i = 1; i < args.length; i++) {
+            String[] model = args[i].split("=", 2);
+            if (model.length != 2) throw new IllegalArgumentException("Expected <modelID>=<modelDirectory>, got: " + args[i]);
+            registry.register(model[0], new File(model[1]));
+        }
+        ClassificationServer server = new ClassificationServer(URI.create("http://0.0.0.0:" + args[0] + "/"), registry);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            registry.close();
+        }));
+        System.out.println("Serving " + (args.length - 1) + " model(s) at " + server.getBaseUri());
+    }
+}
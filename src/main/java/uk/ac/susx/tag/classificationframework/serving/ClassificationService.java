@@ -0,0 +1,216 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.CorpusMatrix;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelRegistry;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.exceptions.UnknownModelException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+/**
+ * Classifies documents with the models of a ModelRegistry, coalescing requests for the same model into
+ * micro-batches (see MicroBatcher), so that many single-document requests are processed like a batch: with
+ * extractFeaturesFromBatch() (i.e. concurrently, per stage, over the pipeline's thread pool), and scored
+ * together under a single lease on the model.
+ *
+ *  - Each model has its own batcher, which processes one batch at a time, so a pipeline is never used by two
+ *    batches at once. Batches of different models are processed concurrently, by workerThreads threads.
+ *  - A single-document request waits at most maxDelayMillis for others to join its batch (its latency budget),
+ *    and a batch holds at most maxBatchSize documents.
+ *  - A batch request joins the same queue, so it's split into batches of at most maxBatchSize, and shares
+ *    them with single-document requests.
+ *  - A model's batcher is closed and removed when the model is unregistered, or when it's evicted from the
+ *    registry while the batcher is idle (so its statistics start again).
+ *
+ * The labels of submitted documents are ignored. See ClassificationServer for the HTTP interface.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ClassificationService implements AutoCloseable {
+
+    private final ModelRegistry registry;
+    private final Options options;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final Map<String, MicroBatcher<Instance, Classification>> batchers = new ConcurrentHashMap<>();
+    private final ModelRegistry.ModelListener removeBatchers = this::removeBatcher;
+
+    public static class Options implements Serializable {
+        private static final long serialVersionUID = 0L;
+
+        public int maxBatchSize = 64;
+        public long maxDelayMillis = 5;
+        public int workerThreads = Runtime.getRuntime().availableProcessors();
+
+        public Options copy() {
+            Options copy = new Options();
+            copy.maxBatchSize = maxBatchSize;
+            copy.maxDelayMillis = maxDelayMillis;
+            copy.workerThreads = workerThreads;
+            return copy;
+        }
+    }
+
+    /**
+     * The classification of a document: its ID, most probable label, and the probability of each label.
+     */
+    public static class Classification {
+        public final String id;
+        public final String label;
+        public final Map<String, Double> probabilities;
+
+        public Classification(String id, String label, Map<String, Double> probabilities) {
+            this.id = id;
+            this.label = label;
+            this.probabilities = probabilities;
+        }
+    }
+
+    public ClassificationService(ModelRegistry registry) {
+        this(registry, new Options());
+    }
+
+    public ClassificationService(ModelRegistry registry, Options options) {
+        this.registry = registry;
+        this.options = options.copy();
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("classification-batcher-%d").setDaemon(true).build());
+        workers = Executors.newFixedThreadPool(Math.max(1, options.workerThreads),
+                new ThreadFactoryBuilder().setNameFormat("classification-worker-%d").setDaemon(true).build());
+        registry.addModelListener(removeBatchers);
+    }
+
+    public ModelRegistry getRegistry() { return registry; }
+    public Options getOptions() { return options.copy(); }
+
+    /**
+     * Classify a document with a model. Throws UnknownModelException if no model is registered with the ID.
+     */
+    public CompletableFuture<Classification> classify(String modelId, Instance document) {
+        return submit(modelId, batcher -> batcher.submit(document));
+    }
+
+    /**
+     * Classify documents with a model, returning their classifications in the same order.
+     */
+    public CompletableFuture<List<Classification>> classifyBatch(String modelId, List<Instance> documents) {
+        List<CompletableFuture<Classification>> classifications = submit(modelId, batcher -> batcher.submitAll(documents));
+        return CompletableFuture.allOf(classifications.toArray(new CompletableFuture<?>[classifications.size()]))
+                .thenApply(done -> {
+                    List<Classification> results = new ArrayList<>(classifications.size());
+                    for (CompletableFuture<Classification> classification : classifications) results.add(classification.join());
+                    return results;
+                });
+    }
+
+    /**
+     * Classify a batch of documents immediately (on the calling thread), as each micro-batch is classified:
+     * the features of the whole batch are extracted together, then its rows are scored together (see
+     * CorpusMatrix.predict()).
+     */
+    public List<Classification> classifyNow(String modelId, List<Instance> documents) throws Exception {
+        List<Instance> unlabelled = new ArrayList<>(documents.size());
+        for (Instance document : documents) {
+            unlabelled.add(new Instance("", document.text == null ? "" : document.text, document.id));
+        }
+        try (ModelRegistry.Lease model = registry.acquire(modelId)) {
+            FeatureExtractionPipeline pipeline = model.pipeline();
+            NaiveBayesClassifier classifier = model.classifier();
+            List<ProcessedInstance> processed = pipeline.extractFeaturesFromBatch(unlabelled);
+            int[] labelIds = classifier.getLabels().toIntArray();
+            Arrays.sort(labelIds);
+            String[] labels = new String[labelIds.length];
+            for (int column = 0; column < labelIds.length; column++) labels[column] = pipeline.labelString(labelIds[column]);
+
+            // Micro-batches are smaller than a block of rows, so they're scored on this thread
+            double[] posteriors = CorpusMatrix.fromInstances(processed).predict(classifier, labelIds, false);
+            List<Classification> classifications = new ArrayList<>(processed.size());
+            for (int row = 0; row < processed.size(); row++) {
+                Map<String, Double> probabilities = new LinkedHashMap<>();
+                String best = null;
+                double bestProbability = Double.NEGATIVE_INFINITY;
+                for (int column = 0; column < labelIds.length; column++) {
+                    double probability = posteriors[row * labelIds.length + column];
+                    probabilities.put(labels[column], probability);
+                    if (probability > bestProbability) {
+                        best = labels[column];
+                        bestProbability = probability;
+                    }
+                }
+                classifications.add(new Classification(processed.get(row).source.id, best, probabilities));
+            }
+            return classifications;
+        }
+    }
+
+    /**
+     * Statistics of a model's batcher: batches processed, documents classified, mean batch size, and documents queued.
+     */
+    public Map<String, Object> stats(String modelId) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        MicroBatcher<Instance, Classification> batcher = batchers.get(modelId);
+        stats.put("batches", batcher == null ? 0 : batcher.batches());
+        stats.put("documents", batcher == null ? 0 : batcher.items());
+        stats.put("failedBatches", batcher == null ? 0 : batcher.failedBatches());
+        stats.put("meanBatchSize", batcher == null ? 0.0 : batcher.meanBatchSize());
+        stats.put("queued", batcher == null ? 0 : batcher.queued());
+        stats.put("resident", registry.isResident(modelId));
+        return stats;
+    }
+
+    /**
+     * Stop accepting documents. Batches already being classified finish, and documents still queued fail.
+     */
+    @Override
+    public void close() {
+        registry.removeModelListener(removeBatchers);
+        for (MicroBatcher<Instance, Classification> batcher : batchers.values()) batcher.close();
+        scheduler.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * Submit documents to the model's batcher, creating it if necessary. This is done while holding the batcher's
+     * entry in the map, so that the batcher can't be removed (see removeBatcher()) between being got and being used.
+     */
+    private <T> T submit(String modelId, Function<MicroBatcher<Instance, Classification>, T> submission) {
+        if (!registry.isRegistered(modelId)) throw new UnknownModelException(modelId);
+        List<T> submitted = new ArrayList<>(1);
+        batchers.compute(modelId, (id, batcher) -> {
+            if (batcher == null)
+                batcher = new MicroBatcher<>(batch -> classifyNow(id, batch), options.maxBatchSize, options.maxDelayMillis, scheduler, workers);
+            submitted.add(submission.apply(batcher));
+            return batcher;
+        });
+        return submitted.get(0);
+    }
+
+    /**
+     * Close and remove a model's batcher when the model is unregistered, or when it's evicted while the batcher
+     * is idle. A busy batcher is kept when its model is evicted, so that a new one doesn't use the reloaded model's
+     * pipeline at the same time; it'll be removed on a later eviction. Closed batchers still process their queues.
+     */
+    private void removeBatcher(String modelId, boolean unregistered) {
+        batchers.computeIfPresent(modelId, (id, batcher) -> {
+            if (!unregistered && !batcher.isIdle()) return batcher;
+            batcher.close();
+            return null;
+        });
+    }
+}
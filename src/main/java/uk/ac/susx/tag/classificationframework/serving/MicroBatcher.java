@@ -0,0 +1,187 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces items submitted one (or a few) at a time into batches, so that they can be processed together.
+ *
+ *  - A batch is dispatched as soon as maxBatchSize items are waiting, or when the oldest waiting item has
+ *    waited maxDelayMillis (its latency budget), whichever comes first.
+ *  - One batch is processed at a time. Items arriving while a batch is being processed wait for the next
+ *    batch, so batches grow with the load: under light load each item is processed after at most maxDelayMillis,
+ *    and under heavy load items are processed in batches of up to maxBatchSize, back to back.
+ *
+ * The processor is given the items of a batch in order of submission, and must return one output per item, in
+ * the same order. If it throws, every item of the batch fails.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    public interface BatchProcessor<I, O> {
+        List<O> process(List<I> batch) throws Exception;
+    }
+
+    private final BatchProcessor<I, O> processor;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService scheduler;  // For the latency budget timer
+    private final Executor worker;                     // For processing batches
+
+    // Guarded by this
+    private final ArrayDeque<Pending<I, O>> queue = new ArrayDeque<>();
+    private boolean processing = false;
+    private boolean closed = false;
+    private ScheduledFuture<?> timer = null;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    public MicroBatcher(BatchProcessor<I, O> processor, int maxBatchSize, long maxDelayMillis,
+                        ScheduledExecutorService scheduler, Executor worker) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("The maximum batch size must be at least 1");
+        this.processor = processor;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.scheduler = scheduler;
+        this.worker = worker;
+    }
+
+    public CompletableFuture<O> submit(I item) {
+        return submitAll(Collections.singletonList(item)).get(0);
+    }
+
+    /**
+     * Submit several items at once. They may be split across batches, but they all have the same latency budget.
+     */
+    public List<CompletableFuture<O>> submitAll(List<I> newItems) {
+        List<CompletableFuture<O>> futures = new ArrayList<>(newItems.size());
+        long deadline = System.nanoTime() + maxDelayNanos;
+        synchronized (this) {
+            for (I item : newItems) {
+                CompletableFuture<O> future = new CompletableFuture<>();
+                if (closed) future.completeExceptionally(new IllegalStateException("The batcher has been closed"));
+                else queue.add(new Pending<>(item, future, deadline));
+                futures.add(future);
+            }
+            maybeDispatch();
+        }
+        return futures;
+    }
+
+    /**
+     * Batches processed so far, items processed in them, and batches that failed.
+     */
+    public long batches() { return batches.get(); }
+    public long items() { return items.get(); }
+    public long failedBatches() { return failedBatches.get(); }
+
+    public double meanBatchSize() {
+        long b = batches.get();
+        return b == 0 ? 0 : (double)items.get() / b;
+    }
+
+    public synchronized int queued() { return queue.size(); }
+
+    /**
+     * True if no items are waiting or being processed.
+     */
+    public synchronized boolean isIdle() { return !processing && queue.isEmpty(); }
+
+    /**
+     * Stop accepting items. Items already waiting are still processed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Dispatch a batch if one is due, else make sure the timer is set for the oldest waiting item. Must hold the lock.
+     */
+    private void maybeDispatch() {
+        if (processing || queue.isEmpty()) return;
+        long wait = queue.peek().deadline - System.nanoTime();
+        if (queue.size() >= maxBatchSize || wait <= 0 || closed) {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            List<Pending<I, O>> batch = new ArrayList<>(Math.min(queue.size(), maxBatchSize));
+            while (batch.size() < maxBatchSize && !queue.isEmpty()) batch.add(queue.poll());
+            processing = true;
+            try {
+                worker.execute(() -> process(batch));
+            } catch (RejectedExecutionException e) {
+                processing = false;
+                for (Pending<I, O> pending : batch) pending.future.completeExceptionally(e);
+                maybeDispatch();
+            }
+        } else if (timer == null) {
+            try {
+                timer = scheduler.schedule(this::onTimer, wait, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) { // The scheduler has been shut down, so don't wait
+                closed = true;
+                maybeDispatch();
+            }
+        }
+    }
+
+    private synchronized void onTimer() {
+        timer = null;
+        maybeDispatch();
+    }
+
+    private void process(List<Pending<I, O>> batch) {
+        try {
+            List<I> inputs = new ArrayList<>(batch.size());
+            for (Pending<I, O> pending : batch) inputs.add(pending.item);
+            List<O> outputs = processor.process(inputs);
+            if (outputs.size() != batch.size())
+                throw new IllegalStateException("Expected " + batch.size() + " outputs of batch processing, got " + outputs.size());
+            count(batch, false);
+            for (int i = 0; i < batch.size(); i++) batch.get(i).future.complete(outputs.get(i));
+        } catch (Throwable e) {
+            count(batch, true);
+            for (Pending<I, O> pending : batch) pending.future.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                processing = false;
+                maybeDispatch();
+            }
+        }
+    }
+
+    /**
+     * Count a batch before completing its items, so the statistics are up to date for whoever is waiting on them.
+     */
+    private void count(List<Pending<I, O>> batch, boolean failed) {
+        batches.incrementAndGet();
+        items.addAndGet(batch.size());
+        if (failed) failedBatches.incrementAndGet();
+    }
+
+    private static class Pending<I, O> {
+        final I item;
+        final CompletableFuture<O> future;
+        final long deadline;
+
+        Pending(I item, CompletableFuture<O> future, long deadline) {
+            this.item = item;
+            this.future = future;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package uk.ac.susx.tag.classificationframework.algorithms.patternmatching.ahocorasick;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the AhoCorasickMatcher.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class AhoCorasickMatcherTest {
+
+    private static AhoCorasickMatcher<String> matcher(boolean allowOverlaps) {
+        AhoCorasickMatcher.Builder<String> b = AhoCorasickMatcher.builder(String::toLowerCase);
+        if (allowOverlaps)
+            b.allowOverlaps();
+        b.addPattern(ImmutableList.of("a", "b", "c"));
+        b.addPattern(ImmutableList.of("b", "c", "d"));
+        b.addPattern(ImmutableList.of("c"));
+        return b.build();
+    }
+
+    /**
+     * All matches are reported in order of start position, with pattern IDs in order of addition.
+     */
+    @Test
+    public void scanWithOverlaps() {
+        MatchBuffer buffer = new MatchBuffer(1);
+        int n = matcher(true).scan(Lists.newArrayList("x", "A", "b", "C", "d", "x"), buffer);
+
+        assertThat(n, is(3));
+        assertThat(buffer.start(0), is(1)); assertThat(buffer.end(0), is(3)); assertThat(buffer.patternId(0), is(0));
+        assertThat(buffer.start(1), is(2)); assertThat(buffer.end(1), is(4)); assertThat(buffer.patternId(1), is(1));
+        assertThat(buffer.start(2), is(3)); assertThat(buffer.end(2), is(3)); assertThat(buffer.patternId(2), is(2));
+    }
+
+    /**
+     * Overlaps are resolved longest first, then leftmost first, and the buffer is cleared between scans.
+     */
+    @Test
+    public void scanRemovingOverlaps() {
+        AhoCorasickMatcher<String> m = matcher(false);
+        MatchBuffer buffer = new MatchBuffer();
+
+        m.scan(Lists.newArrayList("x", "a", "b", "c", "d", "x"), buffer);
+        assertThat(buffer.size(), is(1));
+        assertThat(m.getPattern(buffer.patternId(0)), is(ImmutableList.of("a", "b", "c")));
+
+        m.scan(Lists.newArrayList("c", "x", "b", "c", "d"), buffer);
+        assertThat(buffer.size(), is(2));
+        assertThat(buffer.start(0), is(0)); assertThat(buffer.patternId(0), is(2));
+        assertThat(buffer.start(1), is(2)); assertThat(buffer.patternId(1), is(1));
+    }
+
+    /**
+     * A longer match wins over an overlapping shorter match even when the shorter one starts first, and
+     * then shorter matches are kept where they don't overlap anything kept.
+     */
+    @Test
+    public void longestMatchWinsOverLeftmost() {
+        AhoCorasickMatcher.Builder<String> b = AhoCorasickMatcher.builder();
+        b.addPattern(ImmutableList.of("a", "b"));
+        b.addPattern(ImmutableList.of("b", "c", "d"));
+        b.addPattern(ImmutableList.of("d", "e"));
+        b.addPattern(ImmutableList.of("e", "f"));
+        AhoCorasickMatcher<String> m = b.build();
+        MatchBuffer buffer = new MatchBuffer();
+
+        m.scan(Lists.newArrayList("a", "b", "c", "d", "e", "f"), buffer);
+        assertThat(buffer.size(), is(2));
+        assertThat(m.getPattern(buffer.patternId(0)), is(ImmutableList.of("b", "c", "d")));
+        assertThat(m.getPattern(buffer.patternId(1)), is(ImmutableList.of("e", "f")));
+        assertThat(buffer.start(1), is(4));
+    }
+
+    /**
+     * parse() and scan() agree.
+     */
+    @Test
+    public void parseMatchesScan() {
+        AhoCorasickMatcher<String> m = matcher(false);
+        List<String> query = Lists.newArrayList("b", "c", "d", "a", "b", "c");
+        MatchBuffer buffer = new MatchBuffer();
+        m.scan(query, buffer);
+        List<Emit<String>> emits = m.parse(query);
+
+        assertThat(emits.size(), is(buffer.size()));
+        for (int i = 0; i < emits.size(); i++) {
+            assertThat(emits.get(i).getStart(), is(buffer.start(i)));
+            assertThat(emits.get(i).getEnd(), is(buffer.end(i)));
+            assertThat(emits.get(i).getPattern(), is(m.getPattern(buffer.patternId(i))));
+        }
+    }
+
+    /**
+     * Sorting agrees with a stable sort by start, then longest first, on many matches.
+     */
+    @Test
+    public void sortByStartThenLongest() {
+        Random random = new Random(0);
+        MatchBuffer buffer = new MatchBuffer();
+        List<int[]> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(200), end = start + random.nextInt(4);
+            buffer.add(start, end, i);
+            expected.add(new int[]{start, end, i});
+        }
+        expected.sort(Comparator.<int[]>comparingInt(m -> m[0]).thenComparing(Comparator.<int[]>comparingInt(m -> m[1]).reversed()));
+        buffer.sortByStartThenLongest();
+
+        assertThat(buffer.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(buffer.start(i), is(expected.get(i)[0]));
+            assertThat(buffer.end(i), is(expected.get(i)[1]));
+            assertThat(buffer.patternId(i), is(expected.get(i)[2]));
+        }
+    }
+
+    /**
+     * Matches of patterns which are equal after pre-processing have the same span, and are ordered by pattern ID
+     * (order of addition); when overlaps are removed the first added wins.
+     */
+    @Test
+    public void equalSpanMatchesAreInPatternOrder() {
+        for (boolean allowOverlaps : new boolean[]{true, false}) {
+            AhoCorasickMatcher.Builder<String> b = AhoCorasickMatcher.builder(String::toLowerCase);
+            if (allowOverlaps)
+                b.allowOverlaps();
+            for (String[] pattern : new String[][]{{"b", "C"}, {"B", "c"}, {"a", "b"}, {"b", "c"}})
+                b.addPattern(ImmutableList.copyOf(pattern));
+            AhoCorasickMatcher<String> m = b.build();
+            MatchBuffer buffer = new MatchBuffer();
+
+            m.scan(Lists.newArrayList("x", "b", "c"), buffer);
+            assertThat(buffer.size(), is(allowOverlaps ? 3 : 1));
+            for (int i = 0; i < buffer.size(); i++) {
+                assertThat(buffer.start(i), is(1));
+                assertThat(buffer.patternId(i), is(i == 0 ? 0 : i == 1 ? 1 : 3));
+            }
+        }
+    }
+}
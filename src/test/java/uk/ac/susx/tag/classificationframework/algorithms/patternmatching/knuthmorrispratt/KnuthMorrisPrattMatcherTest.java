@@ -0,0 +1,99 @@
+package uk.ac.susx.tag.classificationframework.algorithms.patternmatching.knuthmorrispratt;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the KnuthMorrisPrattMatcher, in both per-pattern and shared automaton modes.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class KnuthMorrisPrattMatcherTest {
+
+    /**
+     * Patterns with repeated prefixes need the prefix function to fall back correctly on a mismatch.
+     */
+    @Test
+    public void repeatedPrefixPatterns() {
+        for (boolean shared : new boolean[]{false, true}) {
+            KnuthMorrisPrattMatcher<String> k = new KnuthMorrisPrattMatcher<>(shared);
+            k.addPattern(ImmutableList.of("a", "a", "b"));
+
+            List<KnuthMorrisPrattMatcher.Match<String>> matches = k.getMatches(Lists.newArrayList("a", "a", "a", "b", "a", "a", "b"));
+            assertThat(matches.size(), is(2));
+            assertThat(matches.get(0).start, is(1));
+            assertThat(matches.get(1).start, is(4));
+        }
+    }
+
+    /**
+     * The shared automaton mode produces exactly the same matches, in the same order, as the per-pattern mode.
+     */
+    @Test
+    public void sharedAutomatonAgreesWithPerPattern() {
+        Random random = new Random(1);
+        KnuthMorrisPrattMatcher<String> kmp = new KnuthMorrisPrattMatcher<>(false);
+        KnuthMorrisPrattMatcher<String> shared = new KnuthMorrisPrattMatcher<>(true);
+        for (int i = 0; i < 4; i++) {
+            List<String> pattern = randomSequence(random, i + 1);
+            kmp.addPattern(pattern);
+            shared.addPattern(pattern);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            List<String> query = randomSequence(random, 30);
+            List<KnuthMorrisPrattMatcher.Match<String>> expected = kmp.getMatches(query);
+            List<KnuthMorrisPrattMatcher.Match<String>> actual = shared.getMatches(query);
+
+            assertThat(actual.size(), is(expected.size()));
+            for (int j = 0; j < expected.size(); j++) {
+                assertThat(actual.get(j).start, is(expected.get(j).start));
+                assertThat(actual.get(j).end, is(expected.get(j).end));
+                assertThat(actual.get(j).pattern, is(expected.get(j).pattern));
+            }
+        }
+    }
+
+    /**
+     * Equal-length patterns which overlap each other (and themselves) are ordered by end position, then by order of
+     * addition, in both modes.
+     */
+    @Test
+    public void equalLengthOverlappingPatterns() {
+        for (boolean shared : new boolean[]{false, true}) {
+            KnuthMorrisPrattMatcher<String> k = new KnuthMorrisPrattMatcher<>(shared);
+            k.addPattern(ImmutableList.of("b", "a"));
+            k.addPattern(ImmutableList.of("a", "b"));
+            k.addPattern(ImmutableList.of("a", "a"));
+            k.addPattern(ImmutableList.of("a"));
+
+            List<KnuthMorrisPrattMatcher.Match<String>> matches = k.getMatches(Lists.newArrayList("a", "a", "b", "a", "b"));
+            int[][] expected = {{0, 0}, {0, 1}, {1, 1}, {1, 2}, {2, 3}, {3, 3}, {3, 4}};
+            List<?>[] expectedPatterns = {ImmutableList.of("a"), ImmutableList.of("a", "a"), ImmutableList.of("a"),
+                    ImmutableList.of("a", "b"), ImmutableList.of("b", "a"), ImmutableList.of("a"), ImmutableList.of("a", "b")};
+            assertThat(matches.size(), is(expected.length));
+            for (int i = 0; i < expected.length; i++) {
+                assertThat(matches.get(i).start, is(expected[i][0]));
+                assertThat(matches.get(i).end, is(expected[i][1]));
+                assertThat((List<?>)matches.get(i).pattern, is((List<?>)expectedPatterns[i]));
+            }
+        }
+    }
+
+    private static List<String> randomSequence(Random random, int length) {
+        List<String> sequence = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            sequence.add(random.nextBoolean() ? "a" : "b");
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for solving for the feature marginals of each word in parallel, and from a previous solution.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NaiveBayesClassifierFeatureMarginalsTest {
+
+    // Enough words to be split over several shards
+    private static final int VOCABULARY_SIZE = 2000;
+
+    private static final double SOLVER_ACCURACY = 1e-6;
+
+    private static final IntSet LABELS = new IntOpenHashSet(new int[]{0, 1});
+
+    private static List<ProcessedInstance> documents(int n, boolean labelled, long seed) {
+        Random random = new Random(seed);
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int label = random.nextInt(2);
+            int[] features = new int[1 + random.nextInt(20)];
+            for (int j = 0; j < features.length; j++)
+                // Skew each label towards half of the vocabulary
+                features[j] = random.nextInt(3) == 0 ? random.nextInt(VOCABULARY_SIZE) : label * VOCABULARY_SIZE / 2 + random.nextInt(VOCABULARY_SIZE / 2);
+            documents.add(new ProcessedInstance(labelled ? label : -1, features, null));
+        }
+        return documents;
+    }
+
+    private static NaiveBayesClassifierFeatureMarginals calculate(List<ProcessedInstance> labelled, List<ProcessedInstance> unlabelled,
+                                                                  ForkJoinPool pool, NaiveBayesClassifierFeatureMarginals warmStart) {
+        NaiveBayesClassifierFeatureMarginals classifier = new NaiveBayesClassifierFeatureMarginals(LABELS);
+        classifier.setSolvePool(pool);
+        if (warmStart != null) classifier.warmStartFrom(warmStart);
+        classifier.calculateFeatureMarginals(labelled, unlabelled);
+        return classifier;
+    }
+
+    private static double maxDifference(NaiveBayesClassifierFeatureMarginals expected, NaiveBayesClassifierFeatureMarginals actual) {
+        Int2ObjectMap<Int2DoubleOpenHashMap> expectedProbabilities = expected.getOptClassCondFMProbs();
+        Int2ObjectMap<Int2DoubleOpenHashMap> actualProbabilities = actual.getOptClassCondFMProbs();
+        assertThat(actualProbabilities.keySet(), is(expectedProbabilities.keySet()));
+        double max = 0;
+        for (int label : expectedProbabilities.keySet()) {
+            assertThat(expectedProbabilities.get(label).size() > VOCABULARY_SIZE / 2, is(true));
+            assertThat(actualProbabilities.get(label).keySet(), is(expectedProbabilities.get(label).keySet()));
+            for (int feature : expectedProbabilities.get(label).keySet())
+                max = Math.max(max, Math.abs(expectedProbabilities.get(label).get(feature) - actualProbabilities.get(label).get(feature)));
+        }
+        return max;
+    }
+
+    @Test
+    public void parallelSolvesMatchSerial() throws Exception {
+        List<ProcessedInstance> labelled = documents(1000, true, 1);
+        List<ProcessedInstance> unlabelled = documents(3000, false, 2);
+        ForkJoinPool serial = new ForkJoinPool(1);
+        ForkJoinPool parallel = new ForkJoinPool(4);
+        try {
+            // Each word is solved independently, so the results are identical however they're divided between threads
+            assertThat(maxDifference(calculate(labelled, unlabelled, serial, null), calculate(labelled, unlabelled, parallel, null)), is(0.0));
+        } finally {
+            serial.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    public void warmStartsMatchColdStarts() throws Exception {
+        List<ProcessedInstance> labelled = documents(1000, true, 3);
+        List<ProcessedInstance> unlabelled = documents(3000, false, 4);
+        NaiveBayesClassifierFeatureMarginals previous = calculate(labelled.subList(0, 900), unlabelled.subList(0, 2700), null, null);
+        NaiveBayesClassifierFeatureMarginals cold = calculate(labelled, unlabelled, null, null);
+
+        // Words have one solution each, which the solver finds to within its accuracy (1e-6) from any start
+        assertThat(maxDifference(cold, calculate(labelled, unlabelled, null, previous)) < SOLVER_ACCURACY, is(true));
+        assertThat(maxDifference(cold, calculate(labelled, unlabelled, null, cold)) < SOLVER_ACCURACY, is(true));
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for writing and reading the binary Naive Bayes model format.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NaiveBayesClassifierMappedTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureExtractionPipeline buildPipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    private static List<Instance> documents() {
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+        documents.add(new Instance("neutral", "this is a film", "3"));
+        documents.add(new Instance("positive", "great great film", "4"));
+        return documents;
+    }
+
+    private static void assertSameScores(Int2DoubleOpenHashMap expected, Int2DoubleOpenHashMap actual, FeatureExtractionPipeline expectedPipeline, FeatureExtractionPipeline actualPipeline) {
+        assertThat(actual.size(), is(expected.size()));
+        for (int label : expected.keySet()) {
+            int actualLabel = actualPipeline.labelIndex(expectedPipeline.labelString(label));
+            assertTrue(Math.abs(expected.get(label) - actual.get(actualLabel)) < EPSILON);
+        }
+    }
+
+    @Test
+    public void scoresMatchPreComputed() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(pipeline.extractFeaturesInBatches(documents(), 10));
+        NaiveBayesClassifierPreComputed expected = new NaiveBayesClassifierPreComputed(classifier);
+
+        File file = folder.newFile("nbmodel.bin");
+        NaiveBayesClassifierMapped.write(file, classifier, pipeline);
+
+        // A fresh pipeline indexes the features in a different order
+        FeatureExtractionPipeline freshPipeline = buildPipeline();
+        freshPipeline.extractFeatures(new Instance("", "unknown words first", null));
+        NaiveBayesClassifierMapped actual = NaiveBayesClassifierMapped.open(file, freshPipeline);
+
+        assertThat(actual.getClassifierName(), is("NB"));
+        assertThat(actual.getVocab().size(), is(classifier.getVocab().size()));
+        for (String text : new String[]{"this is great", "a bad film", "unknown words", ""}) {
+            ProcessedInstance document = pipeline.extractFeatures(new Instance("", text, null));
+            ProcessedInstance freshDocument = freshPipeline.extractFeatures(new Instance("", text, null));
+            assertSameScores(expected.logpriorPlusLoglikelihood(document.features),
+                             actual.logpriorPlusLoglikelihood(freshDocument.features), pipeline, freshPipeline);
+        }
+    }
+}
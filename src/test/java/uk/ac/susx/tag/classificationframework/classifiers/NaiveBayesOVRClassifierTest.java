@@ -0,0 +1,113 @@
+package uk.ac.susx.tag.classificationframework.classifiers;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for training one-vs-rest learners concurrently, and scoring them in one compiled pass.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NaiveBayesOVRClassifierTest {
+
+    private static final int NUM_LABELS = 4;
+
+    // Compiled scores add the same log likelihoods as the learners, in a different order
+    private static final double SCORE_TOLERANCE = 3e-14;
+
+    // Learners trained concurrently add the same counts as serial training, so should match to rounding
+    private static final double COUNT_TOLERANCE = 1e-9;
+
+    private static final IntSet LABELS = new IntOpenHashSet(new int[]{0, 1, 2, 3});
+
+    private static List<ProcessedInstance> documents(int n, boolean labelled, long seed) {
+        Random random = new Random(seed);
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int label = random.nextInt(NUM_LABELS);
+            int[] features = new int[1 + random.nextInt(10)];
+            for (int j = 0; j < features.length; j++)
+                features[j] = random.nextBoolean() ? label * 50 + random.nextInt(50) : random.nextInt(NUM_LABELS * 50);
+            documents.add(new ProcessedInstance(labelled ? label : -1, features, null));
+        }
+        return documents;
+    }
+
+    private static void assertSameCounts(NaiveBayesClassifier expected, NaiveBayesClassifier actual) {
+        assertThat(actual.getLabels(), is(expected.getLabels()));
+        assertThat(actual.getVocab(), is(expected.getVocab()));
+        for (int label : expected.getLabels()) {
+            for (int feature : expected.getVocab())
+                assertTrue(Math.abs(expected.likelihood(feature, label) - actual.likelihood(feature, label)) < COUNT_TOLERANCE);
+            assertTrue(Math.abs(expected.labelPriors().get(label) - actual.labelPriors().get(label)) < COUNT_TOLERANCE);
+        }
+    }
+
+    /**
+     * An Iterable which can only be iterated once, and not by two threads at once.
+     */
+    private static Iterable<ProcessedInstance> once(List<ProcessedInstance> documents) {
+        AtomicBoolean iterated = new AtomicBoolean(false);
+        return () -> {
+            if (iterated.getAndSet(true)) throw new IllegalStateException("Iterated more than once");
+            return documents.iterator();
+        };
+    }
+
+    private static void assertCompiledScoresMatchLearners(NaiveBayesOVRClassifier<NaiveBayesClassifier> classifier, List<ProcessedInstance> documents) {
+        AbstractNaiveBayesClassifier compiled = classifier.getPrecomputedClassifier();
+        for (ProcessedInstance document : documents) {
+            Int2DoubleOpenHashMap expected = classifier.logpriorPlusLoglikelihood(document.features);
+            Int2DoubleOpenHashMap actual = compiled.logpriorPlusLoglikelihood(document.features);
+            assertThat(actual.keySet(), is(expected.keySet()));
+            for (int label : expected.keySet())
+                assertTrue(Math.abs(expected.get(label) - actual.get(label)) <= SCORE_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void compiledScoresMatchLearners() {
+        List<ProcessedInstance> labelled = documents(1000, true, 1);
+        List<ProcessedInstance> test = documents(200, false, 2);
+
+        NaiveBayesOVRClassifier<NaiveBayesClassifier> supervised = new NaiveBayesOVRClassifier<>(LABELS, NaiveBayesClassifier.class);
+        supervised.train(labelled);
+        assertCompiledScoresMatchLearners(supervised, test);
+
+        NaiveBayesOVRClassifier<NaiveBayesClassifier> semiSupervised = new NaiveBayesOVRClassifier<>(LABELS, NaiveBayesClassifier.class);
+        semiSupervised.train(labelled, documents(1000, false, 3));
+        assertCompiledScoresMatchLearners(semiSupervised, test);
+    }
+
+    @Test
+    public void concurrentTrainingMatchesSerialTraining() {
+        List<ProcessedInstance> labelled = documents(1000, true, 4);
+        List<ProcessedInstance> unlabelled = documents(1000, false, 5);
+
+        // The documents are only iterated once, however many learners there are
+        NaiveBayesOVRClassifier<NaiveBayesClassifier> classifier = new NaiveBayesOVRClassifier<>(LABELS, NaiveBayesClassifier.class);
+        classifier.train(once(labelled), once(unlabelled));
+
+        for (int label : LABELS) {
+            List<ProcessedInstance> binarised = new ArrayList<>();
+            for (ProcessedInstance p : labelled)
+                binarised.add(new ProcessedInstance(p.getLabel() == label ? label : NaiveBayesOVRClassifier.OTHER_LABEL, p.features, p.source));
+            NaiveBayesClassifier expected = new NaiveBayesClassifier(new IntOpenHashSet(new int[]{label, NaiveBayesOVRClassifier.OTHER_LABEL}));
+            expected.train(binarised, unlabelled);
+            assertSameCounts(expected, classifier.getOvrLearners().get(label));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.susx.tag.classificationframework.clusters.clusteranalysis;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.clusters.ClusteredProcessedInstance;
+import uk.ac.susx.tag.classificationframework.clusters.clusteranalysis.FeatureClusterJointCounter.ClusterMembershipTest;
+import uk.ac.susx.tag.classificationframework.clusters.clusteranalysis.FeatureClusterJointCounter.FeatureBasedCounts;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the counting of features per cluster.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class FeatureClusterJointCounterTest {
+
+    private static final int NUM_CLUSTERS = 3;
+    private static final String[] VOCABULARY = {"cat", "dog", "fish", "#pets", "#food", "@vet", "@shop", "bird", "tree"};
+
+    private static FeatureExtractionPipeline pipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    /**
+     * Enough documents to be split into several shards.
+     */
+    private static List<ClusteredProcessedInstance> documents(FeatureExtractionPipeline pipeline) {
+        Random random = new Random(0);
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 1 + random.nextInt(8); w++)
+                text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]).append(' ');
+            instances.add(new Instance("", text.toString(), Integer.toString(i)));
+        }
+        List<ClusteredProcessedInstance> documents = new ArrayList<>();
+        for (ProcessedInstance document : pipeline.extractFeaturesInBatches(instances, 1000)) {
+            double[] clusterVector = new double[NUM_CLUSTERS];
+            for (int c = 0; c < NUM_CLUSTERS; c++) clusterVector[c] = random.nextDouble();
+            documents.add(new ClusteredProcessedInstance(document, clusterVector));
+        }
+        return documents;
+    }
+
+    /**
+     * Count each document on its own, so that nothing is sharded.
+     */
+    private static FeatureBasedCounts serialCounts(List<ClusteredProcessedInstance> documents, ClusterMembershipTest t, FeatureExtractionPipeline pipeline, boolean background) {
+        FeatureBasedCounts counts = new FeatureBasedCounts(NUM_CLUSTERS);
+        for (ClusteredProcessedInstance document : documents) {
+            if (background)
+                counts.count(Collections.singletonList(document), Collections.<Instance>emptyList(), t, pipeline, false);
+            else
+                counts.count(Collections.singletonList(document), t, pipeline, false);
+        }
+        return counts;
+    }
+
+    private static void assertSameCounts(FeatureBasedCounts actual, FeatureBasedCounts expected, FeatureExtractionPipeline pipeline) {
+        assertThat(actual.totalFeatureCount, is(expected.totalFeatureCount));
+        assertThat(actual.totalHashTagCount, is(expected.totalHashTagCount));
+        assertThat(actual.totalAccountTagCount, is(expected.totalAccountTagCount));
+        assertThat(actual.featureCounts, is(expected.featureCounts));
+        assertThat(actual.hashTagCounts, is(expected.hashTagCounts));
+        assertThat(actual.accountTagCounts, is(expected.accountTagCounts));
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            assertThat(actual.jointCounts[c], is(expected.jointCounts[c]));
+            assertThat(actual.hashTagJointCounts[c], is(expected.hashTagJointCounts[c]));
+            assertThat(actual.accountTagJointCounts[c], is(expected.accountTagJointCounts[c]));
+            for (String feature : VOCABULARY) {
+                int index = pipeline.featureIndex(feature);
+                assertThat(actual.likelihoodFeatureGivenCluster(index, c), is(expected.likelihoodFeatureGivenCluster(index, c)));
+            }
+        }
+    }
+
+    @Test
+    public void shardedCountsEqualSerialCounts() throws Exception {
+        ClusterMembershipTest[] tests = {
+                new FeatureClusterJointCounter.HighestProbabilityOnly(),      // Has state, so membership is worked out up front
+                new FeatureClusterJointCounter.ProbabilityAboveThreshold(0.5) // Stateless, so shared by the shards
+        };
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            List<ClusteredProcessedInstance> documents = documents(pipeline);
+            for (ClusterMembershipTest t : tests) {
+                for (boolean background : new boolean[]{false, true}) {
+                    FeatureBasedCounts sharded = new FeatureBasedCounts(NUM_CLUSTERS);
+                    sharded.countInShards(documents, t, pipeline, background, 4);
+                    FeatureBasedCounts serial = serialCounts(documents, t, pipeline, background);
+                    assertThat(sharded.totalHashTagCount > 0 && sharded.totalAccountTagCount > 0, is(true));
+                    assertSameCounts(sharded, serial, pipeline);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void onlyStatelessMembershipTestsAreShared() {
+        assertThat(new FeatureClusterJointCounter.ProbabilityAboveThreshold(0.5).isStateless(), is(true));
+        assertThat(new FeatureClusterJointCounter.ProbabilityAboveUniform(2).isStateless(), is(true));
+        assertThat(new FeatureClusterJointCounter.HighestProbabilityOnly().isStateless(), is(false));
+
+        // Tests which don't say otherwise are only used from the counting thread
+        ClusterMembershipTest custom = new ClusterMembershipTest() {
+            public void setup(ClusteredProcessedInstance instance) { }
+            public boolean isDocumentInCluster(ClusteredProcessedInstance instance, int clusterIndex) { return clusterIndex == 0; }
+        };
+        assertThat(custom.isStateless(), is(false));
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.exceptions.ConfigurationException;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for writing and reading the BinaryCorpus format.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class BinaryCorpusTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureExtractionPipeline buildPipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<ProcessedInstance> documents = new ArrayList<>();
+        documents.add(pipeline.extractFeatures(new Instance("positive", "this is great is great great great", "1")));
+        documents.add(pipeline.extractFeatures(new Instance("negative", "this is bad", "2")));
+        documents.add(pipeline.extractFeatures(new Instance("", "unlabelled and unknown", "3")));
+        documents.add(pipeline.extractFeatures(new Instance("", "", null)));
+        Int2DoubleOpenHashMap probabilities = new Int2DoubleOpenHashMap();
+        probabilities.put(0, 0.25);
+        probabilities.put(1, 0.75);
+        documents.get(2).setLabeling(probabilities);
+        // Equally probable labels, so the label must be read back as stored rather than recomputed
+        documents.add(pipeline.extractFeatures(new Instance("", "a tie", "5")));
+        Int2DoubleOpenHashMap tied = new Int2DoubleOpenHashMap();
+        tied.put(0, 0.5);
+        tied.put(1, 0.5);
+        documents.get(4).setLabeling(1, tied);
+
+        File file = folder.newFile("corpus.bin");
+        try (BinaryCorpusWriter writer = new BinaryCorpusWriter(file, pipeline, false)) {
+            writer.write(documents);
+        }
+
+        BinaryCorpus corpus = BinaryCorpus.open(file, pipeline);
+        assertThat(corpus.numRows(), is(documents.size()));
+        assertThat(corpus.featuresSorted(), is(false));
+
+        for (int row = 0; row < documents.size(); row++) {
+            ProcessedInstance expected = documents.get(row);
+            ProcessedInstance actual = corpus.instance(row);
+            assertThat(actual.features, is(expected.features));
+            assertThat(actual.getLabel(), is(expected.getLabel()));
+            assertThat(actual.getLabelProbabilities(), is(expected.getLabelProbabilities()));
+            assertThat(actual.source.id, is(expected.source.id));
+        }
+
+        BinaryCorpus.RowCursor cursor = corpus.cursor();
+        int rows = 0;
+        while (cursor.next()) {
+            assertThat(Arrays.copyOf(cursor.features(), cursor.length()), is(documents.get(cursor.row()).features));
+            rows++;
+        }
+        assertThat(rows, is(documents.size()));
+    }
+
+    @Test
+    public void sortedFeaturesKeepCounts() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        ProcessedInstance document = pipeline.extractFeatures(new Instance("positive", "great this is great but is it great", "1"));
+
+        File file = folder.newFile("sorted.bin");
+        try (BinaryCorpusWriter writer = new BinaryCorpusWriter(file, pipeline)) {
+            writer.write(document);
+        }
+
+        int[] expected = document.features.clone();
+        Arrays.sort(expected);
+        assertThat(BinaryCorpus.open(file, pipeline).features(0), is(expected));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void rejectsDifferentVocabulary() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        File file = folder.newFile("vocabulary.bin");
+        try (BinaryCorpusWriter writer = new BinaryCorpusWriter(file, pipeline)) {
+            writer.write(pipeline.extractFeatures(new Instance("positive", "this is great", "1")));
+        }
+
+        FeatureExtractionPipeline other = buildPipeline();
+        other.extractFeatures(new Instance("positive", "great is this", "1"));
+        BinaryCorpus.open(file, other);
+    }
+}
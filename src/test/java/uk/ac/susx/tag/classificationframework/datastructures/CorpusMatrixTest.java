@@ -0,0 +1,124 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.Querying;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierFeatureMarginals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the CorpusMatrix fast paths give the same results as iterating over ProcessedInstances.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class CorpusMatrixTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private static List<ProcessedInstance> documents(int n, boolean labelled, long seed) {
+        Random random = new Random(seed);
+        List<ProcessedInstance> documents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int label = labelled ? random.nextInt(3) : -1;
+            int[] features = new int[random.nextInt(8)];
+            for (int j = 0; j < features.length; j++)
+                // Skew each label towards its own features, with some shared ones
+                features[j] = random.nextBoolean() && label >= 0 ? label * 20 + random.nextInt(20) : random.nextInt(60);
+            documents.add(new ProcessedInstance(label, features, null));
+        }
+        return documents;
+    }
+
+    private static void assertSameCounts(NaiveBayesClassifier expected, NaiveBayesClassifier actual) {
+        assertThat(actual.getLabels(), is(expected.getLabels()));
+        assertThat(actual.getVocab(), is(expected.getVocab()));
+        for (int label : expected.getLabels()) {
+            for (int feature : expected.getVocab()) {
+                assertTrue(Math.abs(expected.likelihood(feature, label) - actual.likelihood(feature, label)) < EPSILON);
+            }
+            assertTrue(Math.abs(expected.labelPriors().get(label) - actual.labelPriors().get(label)) < EPSILON);
+        }
+    }
+
+    @Test
+    public void trainMatchesInstances() {
+        List<ProcessedInstance> labelled = documents(3000, true, 1);
+        List<ProcessedInstance> unlabelled = documents(3000, false, 2);
+
+        NaiveBayesClassifier expected = new NaiveBayesClassifier();
+        expected.train(labelled, 1);
+        expected.emTrain(unlabelled, 0.1);
+
+        NaiveBayesClassifier actual = new NaiveBayesClassifier();
+        actual.train(CorpusMatrix.fromInstances(labelled), 1);
+        actual.emTrain(CorpusMatrix.fromInstances(unlabelled), 0.1);
+
+        assertSameCounts(expected, actual);
+    }
+
+    @Test
+    public void wordProbabilitiesMatchInstances() {
+        List<ProcessedInstance> unlabelled = documents(2000, false, 3);
+        Int2DoubleOpenHashMap expected = Util.calculateWordProbabilities(unlabelled);
+        Int2DoubleOpenHashMap actual = Util.calculateWordProbabilities(CorpusMatrix.fromInstances(unlabelled));
+
+        assertThat(actual.keySet(), is(expected.keySet()));
+        for (int feature : expected.keySet())
+            assertTrue(Math.abs(expected.get(feature) - actual.get(feature)) < EPSILON);
+    }
+
+    @Test
+    public void queryFeaturesMatchesInstances() {
+        List<ProcessedInstance> labelled = documents(2000, true, 4);
+        Int2ObjectMap<Int2DoubleOpenHashMap> labelledFeatures = new Int2ObjectOpenHashMap<>();
+        labelledFeatures.put(0, new Int2DoubleOpenHashMap());
+        labelledFeatures.get(0).put(3, 1.0);
+
+        // K covers every feature, so that ties in information gain can't change the selection
+        Int2ObjectMap<IntList> expected = Querying.queryFeatures(labelled, labelledFeatures, 100, 0.75, null, null);
+        Int2ObjectMap<IntList> actual = Querying.queryFeatures(CorpusMatrix.fromInstances(labelled), labelledFeatures, 100, 0.75, null);
+
+        assertThat(actual.keySet(), is(expected.keySet()));
+        for (int label : expected.keySet())
+            assertThat(new IntOpenHashSet(actual.get(label)), is(new IntOpenHashSet(expected.get(label))));
+    }
+
+    @Test
+    public void featureMarginalsMatchInstances() {
+        // Labels other than the positive one (including the third) count as negative in both versions
+        List<ProcessedInstance> labelled = documents(2000, true, 5);
+        List<ProcessedInstance> unlabelled = documents(2000, false, 6);
+        IntSet labels = new IntOpenHashSet(new int[]{0, 1});
+
+        NaiveBayesClassifierFeatureMarginals expected = new NaiveBayesClassifierFeatureMarginals(labels);
+        expected.calculateFeatureMarginals(labelled, unlabelled);
+
+        NaiveBayesClassifierFeatureMarginals actual = new NaiveBayesClassifierFeatureMarginals(labels);
+        actual.calculateFeatureMarginals(CorpusMatrix.fromInstances(labelled), CorpusMatrix.fromInstances(unlabelled));
+
+        assertThat(actual.getOptClassCondFMProbs().keySet(), is(expected.getOptClassCondFMProbs().keySet()));
+        for (int label : expected.getOptClassCondFMProbs().keySet()) {
+            Int2DoubleOpenHashMap expectedProbabilities = expected.getOptClassCondFMProbs().get(label);
+            Int2DoubleOpenHashMap actualProbabilities = actual.getOptClassCondFMProbs().get(label);
+            assertThat(expectedProbabilities.isEmpty(), is(false));
+            assertThat(actualProbabilities.keySet(), is(expectedProbabilities.keySet()));
+            for (int feature : expectedProbabilities.keySet())
+                assertTrue(Math.abs(expectedProbabilities.get(feature) - actualProbabilities.get(feature)) < EPSILON);
+        }
+    }
+}
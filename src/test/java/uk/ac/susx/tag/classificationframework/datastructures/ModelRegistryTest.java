@@ -0,0 +1,107 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for loading and evicting models in a ModelRegistry.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ModelRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File saveModel(String name, String positiveText) throws Exception {
+        FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", positiveText, "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(pipeline.extractFeaturesInBatches(documents, 10));
+
+        File directory = folder.newFolder(name);
+        new ModelState(classifier, documents, pipeline).save(directory);
+        return directory;
+    }
+
+    @Test
+    public void componentsAreNotShared() throws Exception {
+        try (ModelRegistry registry = new ModelRegistry(1L << 30)) {
+            registry.register("a", saveModel("a", "this is great"));
+            registry.register("b", saveModel("b", "this is lovely"));
+
+            try (ModelRegistry.Lease a = registry.acquire("a");
+                 ModelRegistry.Lease b = registry.acquire("b")) {
+                assertThat(a.pipeline().getTokeniser(), not(sameInstance(b.pipeline().getTokeniser())));
+                assertThat(a.classifier().getLabels().size(), is(2));
+            }
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedModelsAreEvicted() throws Exception {
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        // Each model weighs 600KB, so only one fits in the budget
+        try (ModelRegistry registry = new ModelRegistry(1 << 20, threadPool, model -> 600 * 1024)) {
+            registry.register("a", saveModel("a", "this is great"));
+            registry.register("b", saveModel("b", "this is lovely"));
+
+            ModelRegistry.Lease a = registry.acquire("a");
+            registry.acquire("b").close();
+            assertThat(registry.isResident("a"), is(false));
+            assertThat(registry.isResident("b"), is(true));
+
+            // An evicted model stays usable until its lease is closed
+            FeatureExtractionPipeline evicted = a.pipeline();
+            assertThat(a.pipeline().extractFeatures(new Instance("", "this is great", null)).features.length, is(3));
+            a.close();
+
+            try (ModelRegistry.Lease reloaded = registry.acquire("a")) {
+                assertThat(reloaded.pipeline(), not(sameInstance(evicted)));
+                assertThat(registry.isResident("a"), is(true));
+                assertThat(registry.isResident("b"), is(false));
+            }
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void modelsLargerThanTheBudgetAreLoadedForEachLease() throws Exception {
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        // Each model weighs 2MB, more than the whole budget
+        try (ModelRegistry registry = new ModelRegistry(1 << 20, threadPool, model -> 2 << 20)) {
+            registry.register("a", saveModel("a", "this is great"));
+
+            try (ModelRegistry.Lease a = registry.acquire("a");
+                 ModelRegistry.Lease again = registry.acquire("a")) {
+                assertThat(registry.isResident("a"), is(false));
+                assertThat(a.pipeline().extractFeatures(new Instance("", "this is great", null)).features.length, is(3));
+                assertThat(again.pipeline(), not(sameInstance(a.pipeline())));
+            }
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+}
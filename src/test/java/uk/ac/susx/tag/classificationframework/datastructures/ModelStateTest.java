@@ -0,0 +1,217 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifierFeatureMarginals;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for saving and loading a ModelState incrementally.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ModelStateTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureExtractionPipeline buildPipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    private static NaiveBayesClassifier train(List<Instance> documents, FeatureExtractionPipeline pipeline) {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(pipeline.extractFeaturesInBatches(documents, 10));
+        return classifier;
+    }
+
+    private static void assertSameModel(ModelState expected, ModelState actual) {
+        assertThat(actual.trainingDocuments.size(), is(expected.trainingDocuments.size()));
+        for (int i = 0; i < expected.trainingDocuments.size(); i++) {
+            assertThat(actual.trainingDocuments.get(i).text, is(expected.trainingDocuments.get(i).text));
+            assertThat(actual.trainingDocuments.get(i).label, is(expected.trainingDocuments.get(i).label));
+        }
+        assertThat(actual.classifier.getLabels(), is(expected.classifier.getLabels()));
+        assertThat(actual.classifier.getVocab(), is(expected.classifier.getVocab()));
+        for (int label : expected.classifier.getLabels()) {
+            for (int feature : expected.classifier.getVocab())
+                assertTrue(Math.abs(expected.classifier.likelihood(feature, label) - actual.classifier.likelihood(feature, label)) < EPSILON);
+            assertTrue(Math.abs(expected.classifier.labelPriors().get(label) - actual.classifier.labelPriors().get(label)) < EPSILON);
+        }
+    }
+
+    @Test
+    public void incrementalSavesLoad() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+
+        ModelState state = new ModelState(train(documents, pipeline), documents, pipeline);
+        File directory = folder.newFolder("model");
+        state.saveIncremental(directory); // First save is a full one
+
+        // Add and relabel documents, then save twice more
+        documents.add(new Instance("positive", "really great stuff", "3"));
+        documents.get(1).label = "neutral";
+        state.classifier = train(documents, pipeline);
+        state.saveIncremental(directory); // New classifier object, so another full save
+        documents.add(new Instance("negative", "awful and bad", "4"));
+        state.classifier.train(pipeline.extractFeaturesInBatches(documents.subList(3, 4), 10));
+        state.saveIncremental(directory);
+
+        assertTrue(new File(directory, "nbmodel.deltas.2").exists());
+        assertTrue(new File(directory, "training.log.2").exists());
+        assertSameModel(state, ModelState.load(directory, pipeline));
+
+        // Loading lazily, and streaming the documents, sees the same changes
+        LazyModelState lazyState = LazyModelState.open(directory, pipeline);
+        assertSameModel(state, lazyState.toModelState());
+        List<Instance> streamed = new ArrayList<>();
+        try (ModelState.TrainingDocumentIterator documentIterator = lazyState.trainingDocumentIterator()) {
+            while (documentIterator.hasNext()) streamed.add(documentIterator.next());
+        }
+        assertSameModel(state, new ModelState(lazyState.classifier(), streamed, pipeline));
+
+        // A full save replaces the logs
+        state.save(directory);
+        assertThat(new File(directory, "nbmodel.deltas.2").exists(), is(false));
+        assertSameModel(state, ModelState.load(directory, pipeline));
+    }
+
+    @Test
+    public void relabellingRemovalsAndNewLabelsAreLogged() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+
+        ModelState state = new ModelState(train(documents, pipeline), documents, pipeline);
+        File directory = folder.newFolder("model");
+        state.saveIncremental(directory);
+
+        // Relabel a document and label a feature
+        documents.get(0).label = "negative";
+        int great = pipeline.featureIndex("great");
+        state.classifier.setFeatureAlpha(great, pipeline.labelIndex("positive"), 5);
+        state.saveIncremental(directory);
+        assertThat(read(new File(directory, "training.log.1")).contains("\"op\":\"label\""), is(true));
+        assertSameModel(state, ModelState.load(directory, pipeline));
+
+        // Removing the labelled feature is saved as a removal
+        state.classifier.unlabelFeature(great, pipeline.labelIndex("positive"));
+        state.saveIncremental(directory);
+        assertThat(read(new File(directory, "nbmodel.deltas.1")).contains("labelFeatureAlphas-"), is(true));
+        assertSameModel(state, ModelState.load(directory, pipeline));
+
+        // A new label is logged rather than the pipeline being rewritten
+        long pipelineModified = new File(directory, "pipeline.ser").lastModified();
+        documents.add(new Instance("neutral", "this is fine", "3"));
+        state.classifier.train(pipeline.extractFeaturesInBatches(documents.subList(2, 3), 10));
+        state.saveIncremental(directory);
+        assertThat(new File(directory, "pipeline.ser").lastModified(), is(pipelineModified));
+        assertThat(ModelState.readPipeline(directory).getLabelIndexer().getStrings(), is(pipeline.getLabelIndexer().getStrings()));
+        assertSameModel(state, ModelState.load(directory, pipeline));
+    }
+
+    @Test
+    public void failedIncrementalSaveIsFollowedByACompaction() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+
+        ModelState state = new ModelState(train(documents, pipeline), documents, pipeline);
+        File directory = folder.newFolder("model");
+        state.saveIncremental(directory);
+
+        // Appending to the training log fails
+        File trainingLog = new File(directory, "training.log.1");
+        assertTrue(trainingLog.mkdir());
+        documents.add(new Instance("positive", "really great stuff", "3"));
+        state.classifier.train(pipeline.extractFeaturesInBatches(documents.subList(2, 3), 10));
+        try {
+            state.saveIncremental(directory);
+            throw new AssertionError("Expected failure");
+        } catch (IOException e) {
+            assertTrue(trainingLog.delete());
+        }
+
+        // So the next save starts a new generation, which includes what failed to save
+        state.saveIncremental(directory);
+        assertThat(read(new File(directory, "incremental.json")).contains("\"generation\":2"), is(true));
+        assertSameModel(state, ModelState.load(directory, pipeline));
+    }
+
+    @Test
+    public void onlyChangedCountsAreLogged() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+
+        ModelState state = new ModelState(train(documents, pipeline), documents, pipeline);
+        File directory = folder.newFolder("model");
+        state.saveIncremental(directory);
+
+        documents.add(new Instance("positive", "really great", "3"));
+        state.classifier.train(pipeline.extractFeaturesInBatches(documents.subList(2, 3), 10));
+        state.saveIncremental(directory);
+        String deltas = read(new File(directory, "nbmodel.deltas.1"));
+        assertThat(deltas.contains("\"really\""), is(true));
+        assertThat(deltas.contains("\"bad\""), is(false)); // Only counted under the label that didn't change
+        assertSameModel(state, ModelState.load(directory, pipeline));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void subclassesAreNotSavedIncrementally() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        NaiveBayesClassifier classifier = new NaiveBayesClassifierFeatureMarginals(new IntOpenHashSet());
+        classifier.train(pipeline.extractFeaturesInBatches(documents, 10));
+
+        new ModelState(classifier, documents, pipeline).saveIncremental(folder.newFolder("model"));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void lazyLoadingOnlyReadsWhatIsUsed() throws Exception {
+        FeatureExtractionPipeline pipeline = buildPipeline();
+        List<Instance> documents = new ArrayList<>();
+        documents.add(new Instance("positive", "this is great", "1"));
+        documents.add(new Instance("negative", "this is bad", "2"));
+        File directory = folder.newFolder("model");
+        new ModelState(train(documents, pipeline), documents, pipeline).save(directory);
+
+        LazyModelState state = LazyModelState.open(directory);
+        assertThat(state.isPipelineLoaded(), is(false));
+        assertThat(state.classifier().getLabels().size(), is(2));
+        assertThat(state.isPipelineLoaded(), is(true));
+        assertThat(state.isTrainingDocumentsLoaded(), is(false));
+    }
+}
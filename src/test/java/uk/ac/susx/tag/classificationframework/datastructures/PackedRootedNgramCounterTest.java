@@ -0,0 +1,88 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.RootedNgramCounter.TopNgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the PackedRootedNgramCounter.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class PackedRootedNgramCounterTest {
+
+    private static final int[][] PHRASES = {
+            {5, 0, 6, 7},
+            {5, 0, 6, 7},
+            {1, 0, 8},
+            {0, 9},
+            {0, 2, 10},
+            {0}
+    };
+
+    /**
+     * The packed counter keeps the same ngrams (with the same counts) after pruning as the RootedNgramCounter,
+     * and doesn't change its answer when asked again.
+     */
+    @Test
+    public void matchesRootedNgramCounter() {
+        Random random = new Random(0);
+        Set<Integer> stopwords = Sets.newHashSet(1, 2);
+
+        RootedNgramCounter<Integer> expectedCounter = new RootedNgramCounter<>(0, 1, 6, 0.2, 4, 5, 7, 15, stopwords);
+        PackedRootedNgramCounter packed = new PackedRootedNgramCounter(0, 1, 6, 0.2, 4, 5, 7, 15, stopwords);
+        PackedRootedNgramCounter shard1 = new PackedRootedNgramCounter(0, 1, 6, 0.2, 4, 5, 7, 15, stopwords);
+        PackedRootedNgramCounter shard2 = new PackedRootedNgramCounter(0, 1, 6, 0.2, 4, 5, 7, 15, stopwords);
+
+        for (int i = 0; i < 2000; i++) {
+            // Random filler around one of a few recurring phrases containing the root
+            List<Integer> tokens = new ArrayList<>();
+            for (int j = 0; j < 4; j++)
+                tokens.add(3 + random.nextInt(20));
+            int[] phrase = PHRASES[random.nextInt(PHRASES.length)];
+            tokens.addAll(Ints.asList(phrase));
+            for (int j = 0; j < 4; j++)
+                tokens.add(3 + random.nextInt(20));
+            int[] context = Ints.toArray(tokens);
+            expectedCounter.addContext(Ints.asList(context));
+            packed.addContext(context);
+            (i % 2 == 0? shard1 : shard2).addContext(context);
+        }
+        shard1.merge(shard2);
+
+        assertThat(packed.getRootCount(), is(expectedCounter.getRoot().count));
+        assertThat(shard1.getRootCount(), is(expectedCounter.getRoot().count));
+
+        Map<List<Integer>, Integer> expected = asMap(expectedCounter.topNgrams(1000));
+        assertThat(expected.size() > 1, is(true));
+        assertThat(asMap(packed.topNgrams(1000)), is(expected));
+        assertThat(asMap(packed.topNgrams(1000)), is(expected));
+        assertThat(asMap(shard1.topNgrams(1000)), is(expected));
+
+        // The best ngrams come out in the same order
+        List<TopNgram<Integer>> expectedTop = expectedCounter.topNgrams(3);
+        List<TopNgram<Integer>> actualTop = packed.topNgrams(3);
+        assertThat(actualTop.size(), is(expectedTop.size()));
+        for (int i = 0; i < expectedTop.size(); i++)
+            assertThat(actualTop.get(i).ngram, is(expectedTop.get(i).ngram));
+    }
+
+    private static Map<List<Integer>, Integer> asMap(List<TopNgram<Integer>> ngrams){
+        Map<List<Integer>, Integer> map = new HashMap<>();
+        for (TopNgram<Integer> ngram : ngrams)
+            map.put(new ArrayList<>(ngram.ngram), ngram.count);
+        return map;
+    }
+}
@@ -0,0 +1,63 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the RootedNgramCounter.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class RootedNgramCounterTest {
+
+    /**
+     * Counting contexts split across several counters and then merging them gives the same top ngrams as
+     * counting them all in a single counter.
+     */
+    @Test
+    public void mergedCountsMatchSingleCounter() {
+        Random random = new Random(0);
+        List<List<Integer>> contexts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            List<Integer> context = new ArrayList<>();
+            for (int j = 0; j < 12; j++)
+                context.add(random.nextInt(8));
+            contexts.add(context);
+        }
+
+        RootedNgramCounter<Integer> single = new RootedNgramCounter<>(0);
+        List<RootedNgramCounter<Integer>> shards = Lists.newArrayList(
+                new RootedNgramCounter<>(0), new RootedNgramCounter<>(0), new RootedNgramCounter<>(0));
+
+        for (int i = 0; i < contexts.size(); i++) {
+            List<Integer> context = contexts.get(i);
+            single.addContext(context);
+            RootedNgramCounter<Integer> shard = shards.get(i % shards.size());
+            for (int position : shard.getIndicesOfRootTokenOccurrences(context))
+                shard.addContextAt(context, position, 1);
+        }
+
+        RootedNgramCounter<Integer> merged = shards.get(0);
+        merged.merge(shards.get(1));
+        merged.merge(shards.get(2));
+
+        assertThat(merged.getRoot().count, is(single.getRoot().count));
+
+        List<RootedNgramCounter.TopNgram<Integer>> expected = single.topNgrams(10);
+        List<RootedNgramCounter.TopNgram<Integer>> actual = merged.topNgrams(10);
+        assertThat(expected.isEmpty(), is(false));
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).ngram, is(expected.get(i).ngram));
+            assertThat(actual.get(i).count, is(expected.get(i).count));
+        }
+    }
+}
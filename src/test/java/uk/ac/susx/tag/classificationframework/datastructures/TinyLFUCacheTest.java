@@ -0,0 +1,66 @@
+package uk.ac.susx.tag.classificationframework.datastructures;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the bounds, admission policy and statistics of TinyLFUCache.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class TinyLFUCacheTest {
+
+    @Test
+    public void frequentlyUsedEntriesSurviveAScanOfOneOffEntries() {
+        TinyLFUCache<Integer, String> cache = TinyLFUCache.ofSize(100);
+        // A working set of hot keys, each used several times
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (cache.get(key) == null) cache.put(key, "hot" + key);
+            }
+        }
+        // A long scan of keys that are each used once
+        for (int key = 1000; key < 11000; key++) {
+            if (cache.get(key) == null) cache.put(key, "cold" + key);
+        }
+        assertThat(cache.size() <= 100, is(true));
+        int hotResident = 0;
+        for (int key = 0; key < 50; key++) {
+            if (cache.containsKey(key)) hotResident++;
+        }
+        assertTrue("Only " + hotResident + " hot entries survived", hotResident >= 45);
+        assertTrue(cache.rejectionCount() > 0);
+    }
+
+    @Test
+    public void totalWeightIsBounded() {
+        TinyLFUCache<Integer, String> cache = new TinyLFUCache<>(1000, 50, (key, value) -> value.length());
+        for (int key = 0; key < 500; key++) {
+            cache.put(key, new String(new char[1 + key % 40]));
+            assertThat(cache.weightedSize() <= 1000, is(true));
+        }
+        cache.put(-1, new String(new char[1001])); // Weighs more than the whole cache
+        assertThat(cache.containsKey(-1), is(false));
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        TinyLFUCache<String, String> cache = TinyLFUCache.ofSize(10);
+        assertThat(cache.get("a"), is(nullValue()));
+        cache.put("a", "A");
+        assertThat(cache.get("a"), is("A"));
+        assertThat(cache.get("a"), is("A"));
+        assertThat(cache.hitCount(), is(2L));
+        assertThat(cache.missCount(), is(1L));
+        assertThat(cache.hitRate(), is(2.0 / 3));
+
+        cache.invalidate("a");
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+}
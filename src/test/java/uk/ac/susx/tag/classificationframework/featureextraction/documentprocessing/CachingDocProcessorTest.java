@@ -0,0 +1,107 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the result caching of CachingDocProcessor.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class CachingDocProcessorTest {
+
+    /**
+     * Annotates each token with its length, counting the documents it processes.
+     */
+    private static class Lengths extends DocProcessor {
+        final AtomicInteger processed = new AtomicInteger();
+
+        public Document process(Document document) {
+            processed.incrementAndGet();
+            for (AnnotatedToken token : document) token.put("length", Integer.toString(token.get("form").length()));
+            return document;
+        }
+
+        public String configuration() { return ""; }
+
+        public boolean isThreadSafe() { return true; }
+    }
+
+    private static Document document(String id, String text) {
+        Document document = new Document(new Instance("", text, id));
+        for (String form : text.split(" ")) document.add(new AnnotatedToken(form));
+        return document;
+    }
+
+    @Test
+    public void duplicatesAreOnlyProcessedOnce() {
+        Lengths lengths = new Lengths();
+        CachingDocProcessor cached = new CachingDocProcessor(lengths);
+
+        cached.process(document("1", "the same tweet"));
+        Document duplicate = document("2", "the same tweet");
+        Document processed = cached.process(duplicate);
+
+        assertThat(lengths.processed.get(), is(1));
+        assertThat(processed.get(2).get("length"), is("5"));
+        assertThat(processed.source, sameInstance(duplicate.source));
+        assertThat(cached.stats().hitCount(), is(1L));
+        assertThat(cached.stats().missCount(), is(1L));
+
+        cached.process(document("3", "a different tweet"));
+        assertThat(lengths.processed.get(), is(2));
+    }
+
+    @Test
+    public void duplicatesWithinABatchAreCollapsed() {
+        Lengths lengths = new Lengths();
+        CachingDocProcessor cached = new CachingDocProcessor(lengths);
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) documents.add(document(Integer.toString(i), i % 4 == 0 ? "original tweet " + i : "RT retweeted"));
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(2);
+        try {
+            List<Document> processed = cached.processBatch(documents, threadPool);
+
+            assertThat(lengths.processed.get(), is(6));
+            for (int i = 0; i < 20; i++) {
+                assertThat(processed.get(i).source.id, is(Integer.toString(i)));
+                assertThat(processed.get(i).get(0).get("length"), is(i % 4 == 0 ? "8" : "2"));
+            }
+            assertThat(cached.stats().hitCount(), is(14L));
+
+            cached.processBatch(processed.subList(0, 1), threadPool);
+            assertThat(lengths.processed.get(), is(7)); // Now annotated with lengths, so no longer the same document
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void hitsAreIndependentCopies() {
+        Lengths lengths = new Lengths();
+        CachingDocProcessor cached = new CachingDocProcessor(lengths);
+
+        cached.process(document("1", "the same tweet")).get(0).put("length", "changed later in the pipeline");
+        Document first = cached.process(document("2", "the same tweet"));
+        first.get(0).put("length", "changed again");
+        Document second = cached.process(document("3", "the same tweet"));
+
+        assertThat(lengths.processed.get(), is(1));
+        assertThat(second.get(0).get("length"), is("3"));
+        assertThat(second.get(0).end(), is(first.get(0).end()));
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the chunked batch processing available to DocProcessors.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class DocProcessorTest {
+
+    /**
+     * Marks each token with its document's position in the batch, and the ID of the worker state used.
+     */
+    private static class Marker extends DocProcessor {
+        final AtomicInteger states = new AtomicInteger();
+
+        public Document process(Document document) { return mark(document, -1); }
+
+        public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+            return processInChunks(documents, threadPool, states::incrementAndGet, this::mark);
+        }
+
+        private Document mark(Document document, int state) {
+            document.get(0).put("state", Integer.toString(state));
+            return document;
+        }
+
+        public String configuration() { return ""; }
+
+        public boolean isThreadSafe() { return true; }
+    }
+
+    @Test
+    public void batchesAreProcessedInOrderWithOneStatePerChunk() {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Document document = new Document(new Instance("", Integer.toString(i), ""));
+            document.add(new AnnotatedToken(Integer.toString(i)));
+            documents.add(document);
+        }
+        Marker marker = new Marker();
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        try {
+            List<Document> processed = marker.processBatch(new ArrayList<>(documents), threadPool);
+
+            assertThat(marker.states.get(), is(3));
+            Set<String> statesUsed = new HashSet<>();
+            for (int i = 0; i < processed.size(); i++) {
+                assertThat(processed.get(i).source.text, is(Integer.toString(i)));
+                statesUsed.add(processed.get(i).get(0).get("state"));
+            }
+            assertThat(statesUsed.size(), is(3));
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void smallBatchesAreProcessedOnTheCallingThread() {
+        Document document = new Document(new Instance("", "only", ""));
+        document.add(new AnnotatedToken("only"));
+        List<Document> documents = new ArrayList<>();
+        documents.add(document);
+
+        Marker marker = new Marker();
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        threadPool.shutdown(); // Would reject any task submitted
+        marker.processBatch(documents, threadPool);
+        assertThat(marker.states.get(), is(1));
+        assertThat(documents.get(0).get(0).get("state"), is("1"));
+    }
+}
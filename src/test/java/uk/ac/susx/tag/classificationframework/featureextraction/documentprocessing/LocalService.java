@@ -0,0 +1,80 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.message.GZipEncoder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.filter.EncodingFilter;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fake service on its own local HTTP server, for testing ServiceClient. It echoes the "data" form parameter,
+ * after failing a given number of requests, and after a delay. It accepts and sends gzipped bodies.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class LocalService implements AutoCloseable {
+
+    public final Resource resource = new Resource();
+    private final HttpServer server;
+
+    public LocalService() {
+        ResourceConfig config = new ResourceConfig()
+                .register(resource)
+                .register(EncodingFilter.class)
+                .register(GZipEncoder.class);
+        server = GrizzlyHttpServerFactory.createHttpServer(URI.create("http://localhost:0/"), config);
+    }
+
+    public String url() {
+        return "http://localhost:" + server.getListeners().iterator().next().getPort() + "/service";
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+
+    @Path("service")
+    public static class Resource {
+        public final AtomicInteger requests = new AtomicInteger();
+        public final AtomicInteger concurrent = new AtomicInteger();
+        public final AtomicInteger maxConcurrent = new AtomicInteger();
+        public volatile int failures = 0;        // The number of requests to fail (from now)
+        public volatile int failureStatus = 503;
+        public volatile long delayMillis = 0;
+        public volatile String contentEncoding = null;  // Of the last request
+
+        @POST
+        @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+        @Produces(MediaType.APPLICATION_JSON)
+        public Response post(@FormParam("data") String data, @HeaderParam("Content-Encoding") String encoding) throws InterruptedException {
+            requests.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                contentEncoding = encoding;
+                if (delayMillis > 0) Thread.sleep(delayMillis);
+                synchronized (this) {
+                    if (failures > 0) {
+                        failures--;
+                        return Response.status(failureStatus).build();
+                    }
+                }
+                return Response.ok(data).build();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+}
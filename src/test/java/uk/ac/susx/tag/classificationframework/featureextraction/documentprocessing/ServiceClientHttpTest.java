@@ -0,0 +1,158 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests of ServiceClient's requests to services on local HTTP servers (see LocalService).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ServiceClientHttpTest {
+
+    private static ServiceClient.Options options() {
+        ServiceClient.Options options = new ServiceClient.Options();
+        options.baseBackoffMillis = 1;
+        options.maxBackoffMillis = 10;
+        options.readTimeoutMillis = 10000;
+        return options;
+    }
+
+    @Test(timeout = 30000)
+    public void requestsAreRetriedAfterServerErrors() throws Exception {
+        try (LocalService service = new LocalService();
+             ServiceClient client = new ServiceClient(service.url(), options())) {
+            service.resource.failures = 2;
+            assertThat(client.post("data", "[1,2]").get(10, TimeUnit.SECONDS), is("[1,2]"));
+            assertThat(service.resource.requests.get(), is(3));
+            assertThat(client.endpointStats().get(0).failures, is(2L));
+
+            // Once the attempts run out, the failure is reported
+            service.resource.failures = 5;
+            try {
+                client.post("data", "[3]").get(10, TimeUnit.SECONDS);
+                throw new AssertionError("Expected failure");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage().contains("503"), is(true));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void requestsInFlightAreBounded() throws Exception {
+        ServiceClient.Options options = options();
+        options.maxInFlight = 3;
+        try (LocalService service = new LocalService();
+             ServiceClient client = new ServiceClient(service.url(), options)) {
+            service.resource.delayMillis = 50;
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 12; i++) responses.add(client.post("data", "[" + i + "]"));
+            for (int i = 0; i < 12; i++) assertThat(responses.get(i).get(10, TimeUnit.SECONDS), is("[" + i + "]"));
+
+            assertThat(service.resource.maxConcurrent.get() <= 3, is(true));
+            assertThat(service.resource.maxConcurrent.get() > 1, is(true));
+            assertThat(client.endpointStats().get(0).inFlight, is(0));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void gzippedRequestsRoundTrip() throws Exception {
+        ServiceClient.Options options = options();
+        options.gzip = true;
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) json.append(i == 0 ? "" : ",").append("\"document ").append(i).append('"');
+        json.append(']');
+        try (LocalService service = new LocalService();
+             ServiceClient client = new ServiceClient(service.url(), options)) {
+            assertThat(client.post("data", json.toString()).get(10, TimeUnit.SECONDS), is(json.toString()));
+            assertThat(service.resource.contentEncoding, is("gzip"));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void clientErrorsFailAtOnceWithoutCountingAgainstTheEndpoint() throws Exception {
+        try (LocalService service = new LocalService();
+             ServiceClient client = new ServiceClient(service.url(), options())) {
+            service.resource.failures = 1;
+            service.resource.failureStatus = 400;
+            try {
+                client.post("data", "[1]").get(10, TimeUnit.SECONDS);
+                throw new AssertionError("Expected failure");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage().contains("400"), is(true));
+            }
+            assertThat(service.resource.requests.get(), is(1));
+            assertThat(client.endpointStats().get(0).failures, is(0L));
+            assertThat(client.endpointStats().get(0).inFlight, is(0));
+
+            // Too many requests is worth retrying
+            service.resource.failures = 1;
+            service.resource.failureStatus = 429;
+            assertThat(client.post("data", "[2]").get(10, TimeUnit.SECONDS), is("[2]"));
+            assertThat(service.resource.requests.get(), is(3));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void requestsToASlowEndpointAreHedged() throws Exception {
+        try (LocalService slow = new LocalService();
+             LocalService fast = new LocalService();
+             ServiceClient client = new ServiceClient(Arrays.asList(slow.url(), fast.url()), options())) {
+            // Enough requests to both endpoints for their latencies to be known
+            for (int i = 0; i < 100; i++) assertThat(client.post("data", "[" + i + "]").get(10, TimeUnit.SECONDS), is("[" + i + "]"));
+            assertThat(client.endpointStats().get(0).latencySamples >= 20, is(true));
+            assertThat(client.endpointStats().get(1).latencySamples >= 20, is(true));
+
+            // A request to the slow endpoint is answered by a hedge to the fast one long before the slow one answers
+            slow.resource.delayMillis = 5000;
+            int slowRequests = slow.resource.requests.get();
+            long hedges = client.endpointStats().get(1).hedgedRequests;  // Some of the above may have been hedged too
+            for (int i = 0; i < 50 && slow.resource.requests.get() == slowRequests; i++)
+                assertThat(client.post("data", "[" + i + "]").get(2500, TimeUnit.MILLISECONDS), is("[" + i + "]"));
+            assertThat(slow.resource.requests.get(), is(slowRequests + 1));
+            assertThat(client.endpointStats().get(1).hedgedRequests, is(hedges + 1));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void failingEndpointsAreRetriedElsewhereAndTheirCircuitsOpenAndClose() throws Exception {
+        ServiceClient.Options options = options();
+        options.failureThreshold = 2;
+        options.openMillis = 1000;
+        options.hedgePercentile = 0;
+        try (LocalService broken = new LocalService();
+             LocalService working = new LocalService();
+             ServiceClient client = new ServiceClient(Arrays.asList(broken.url(), working.url()), options)) {
+            broken.resource.failures = Integer.MAX_VALUE;
+
+            // Each failure is retried on the working endpoint, until the broken one's circuit opens
+            for (int i = 0; i < 50 && client.endpointStats().get(0).state != ServiceClient.CircuitState.OPEN; i++)
+                assertThat(client.post("data", "[" + i + "]").get(10, TimeUnit.SECONDS), is("[" + i + "]"));
+            assertThat(client.endpointStats().get(0).state, is(ServiceClient.CircuitState.OPEN));
+            assertThat(broken.resource.requests.get(), is(2));
+
+            // While open, it gets no requests
+            for (int i = 0; i < 5; i++) client.post("data", "[]").get(10, TimeUnit.SECONDS);
+            assertThat(broken.resource.requests.get(), is(2));
+
+            // Once it's due a trial, a successful one closes the circuit
+            Thread.sleep(1100);
+            assertThat(client.endpointStats().get(0).state, is(ServiceClient.CircuitState.HALF_OPEN));
+            broken.resource.failures = 0;
+            for (int i = 0; i < 50 && client.endpointStats().get(0).state != ServiceClient.CircuitState.CLOSED; i++)
+                client.post("data", "[]").get(10, TimeUnit.SECONDS);
+            assertThat(client.endpointStats().get(0).state, is(ServiceClient.CircuitState.CLOSED));
+            assertThat(broken.resource.requests.get(), is(3));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the endpoint selection, circuit breakers and latency tracking of ServiceClient (without a network).
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ServiceClientTest {
+
+    private static ServiceClient.Endpoint endpoint(String url, int failureThreshold, long openMillis) {
+        ServiceClient.Options options = new ServiceClient.Options();
+        options.failureThreshold = failureThreshold;
+        options.openMillis = openMillis;
+        return new ServiceClient.Endpoint(url, null, options);
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailuresAndClosesAfterASuccessfulTrial() {
+        ServiceClient.Endpoint endpoint = endpoint("a", 3, 0);
+        long now = System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            assertThat(endpoint.tryAcquire(now), is(true));
+            endpoint.failed();
+        }
+        assertThat(endpoint.stats(now).state, is(ServiceClient.CircuitState.CLOSED));
+        endpoint.tryAcquire(now);
+        endpoint.failed();
+
+        // Open for 0ms, so immediately due a single trial request
+        long later = System.nanoTime() + 1;
+        assertThat(endpoint.tryAcquire(later), is(true));
+        assertThat(endpoint.tryAcquire(later), is(false));
+        endpoint.succeeded(TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(endpoint.stats(later).state, is(ServiceClient.CircuitState.CLOSED));
+        assertThat(endpoint.stats(later).failures, is(3L));
+    }
+
+    @Test
+    public void openCircuitIsNotUsedUntilItsTimeIsUp() {
+        ServiceClient.Endpoint broken = endpoint("broken", 1, 60000);
+        ServiceClient.Endpoint working = endpoint("working", 1, 60000);
+        long now = System.nanoTime();
+        broken.tryAcquire(now);
+        broken.failed();
+        assertThat(broken.isUsable(System.nanoTime()), is(false));
+
+        List<ServiceClient.Endpoint> endpoints = Arrays.asList(broken, working);
+        for (int i = 0; i < 10; i++) {
+            assertThat(ServiceClient.choose(endpoints, Collections.emptySet(), false, now), sameInstance(working));
+        }
+        assertThat(ServiceClient.choose(Collections.singletonList(broken), Collections.emptySet(), false, now), is(nullValue()));
+    }
+
+    @Test
+    public void choiceAvoidsTriedEndpointsUnlessStrict() {
+        ServiceClient.Endpoint a = endpoint("a", 5, 0);
+        ServiceClient.Endpoint b = endpoint("b", 5, 0);
+        long now = System.nanoTime();
+        List<ServiceClient.Endpoint> endpoints = Arrays.asList(a, b);
+        for (int i = 0; i < 10; i++) {
+            assertThat(ServiceClient.choose(endpoints, Collections.singleton(a), false, now), sameInstance(b));
+        }
+        HashSet<ServiceClient.Endpoint> both = new HashSet<>(endpoints);
+        assertThat(ServiceClient.choose(endpoints, both, true, now), is(nullValue()));
+        assertThat(ServiceClient.choose(endpoints, both, false, now) != null, is(true));
+    }
+
+    @Test
+    public void hedgingWaitsForEnoughLatencySamples() {
+        ServiceClient.Endpoint endpoint = endpoint("a", 5, 0);
+        long now = System.nanoTime();
+        for (int i = 1; i <= 100; i++) {
+            endpoint.tryAcquire(now);
+            endpoint.succeeded(TimeUnit.MILLISECONDS.toNanos(i));
+            if (i < 20) assertThat(endpoint.hedgeDelayNanos(), is(-1L));
+        }
+        assertThat(endpoint.percentile(0.5), is(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertThat(endpoint.percentile(0.99), is(TimeUnit.MILLISECONDS.toNanos(99)));
+        // The hedging delay was last re-computed at the 96th sample
+        assertThat(endpoint.hedgeDelayNanos(), is(TimeUnit.MILLISECONDS.toNanos(92)));
+        assertThat(endpoint.stats(now).p95LatencyMillis, is(95.0));
+    }
+}
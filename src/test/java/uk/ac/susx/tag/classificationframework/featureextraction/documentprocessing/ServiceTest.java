@@ -0,0 +1,61 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing;
+
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.AnnotatedToken;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the splitting of batches into sub-batches by Service.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ServiceTest {
+
+    private static List<Document> documents(int n) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Document document = new Document(new Instance("", "document " + i, Integer.toString(i)));
+            document.add(new AnnotatedToken("document"));
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private static List<Document> deserialise(List<String> subBatches) {
+        List<Document> documents = new ArrayList<>();
+        for (String subBatch : subBatches) documents.addAll(Document.fromJsonList(subBatch));
+        return documents;
+    }
+
+    @Test
+    public void batchesAreSplitByNumberOfDocuments() {
+        List<String> subBatches = Service.subBatches(documents(10), 4, Integer.MAX_VALUE);
+
+        assertThat(subBatches.size(), is(3));
+        List<Document> documents = deserialise(subBatches);
+        assertThat(documents.size(), is(10));
+        for (int i = 0; i < 10; i++) assertThat(documents.get(i).source.id, is(Integer.toString(i)));
+    }
+
+    @Test
+    public void batchesAreSplitBySize() {
+        List<Document> batch = documents(10);
+        int documentLength = batch.get(0).toJson().length();
+        List<String> subBatches = Service.subBatches(batch, 100, 3 * documentLength + 10);
+
+        assertThat(subBatches.size(), is(4));
+        for (String subBatch : subBatches) assertThat(subBatch.length() <= 3 * documentLength + 10, is(true));
+        assertThat(deserialise(subBatches).size(), is(10));
+
+        // A document longer than the limit is sent on its own
+        assertThat(Service.subBatches(batch, 100, 1).size(), is(10));
+    }
+}
@@ -0,0 +1,141 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.AllocationProfiler.ComponentAllocation;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineMetrics.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the attribution of allocation in batch extraction to pipeline components.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class AllocationProfilerTest {
+
+    private static final int BYTES_PER_DOCUMENT = 1 << 16;
+
+    /**
+     * Allocates BYTES_PER_DOCUMENT per document, on whichever thread processes it.
+     */
+    private static class AllocatingProcessor extends DocProcessor {
+        private static final long serialVersionUID = 0L;
+        volatile byte[] garbage;
+
+        public Document process(Document document) {
+            garbage = new byte[BYTES_PER_DOCUMENT];
+            return document;
+        }
+        public String configuration() { return "allocating"; }
+        public boolean isThreadSafe() { return true; }
+    }
+
+    /**
+     * Processes its batches in chunks on the pipeline's thread pool, noting how many chunks the pool was split into.
+     */
+    private static class ChunkingProcessor extends AllocatingProcessor {
+        private static final long serialVersionUID = 0L;
+        volatile int parallelism;
+
+        public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+            parallelism = parallelism(threadPool);
+            return processInChunks(documents, threadPool, () -> null, (document, state) -> process(document));
+        }
+    }
+
+    private static List<Instance> instances(int n) {
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < n; i++) instances.add(new Instance("positive", "document number " + i + " is here", Integer.toString(i)));
+        return instances;
+    }
+
+    private static ComponentAllocation allocation(List<ComponentAllocation> allocations, Stage stage, String component) {
+        for (ComponentAllocation a : allocations)
+            if (a.getStage() == stage && a.getComponent().equals(component)) return a;
+        throw new AssertionError("No allocation for " + stage + " " + component);
+    }
+
+    @Before
+    public void requireSupport() {
+        Assume.assumeTrue(AllocationProfiler.isSupported());
+    }
+
+    @Test
+    public void allocationOnPoolThreadsIsAttributedToTheComponent() throws Exception {
+        AllocationProfiler profiler = new AllocationProfiler();
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true))) {
+            pipeline.add(new AllocatingProcessor(), "allocating");
+            pipeline.setAllocationProfiler(profiler);
+            pipeline.extractFeaturesInBatches(instances(100), 25);
+
+            ComponentAllocation allocating = allocation(profiler.componentAllocations(), Stage.DOC_PROCESSING, "allocating");
+            assertThat(allocating.getInvocations(), is(4L));
+            assertThat(allocating.getDocuments(), is(100L));
+            assertThat(allocating.getBytesPerDocument() >= BYTES_PER_DOCUMENT, is(true));
+            assertThat(allocating.getBytesPerDocument() < 2 * BYTES_PER_DOCUMENT, is(true));
+
+            assertThat(allocation(profiler.stageAllocations(), Stage.INDEX, PipelineMetrics.WHOLE_STAGE).getDocuments(), is(100L));
+            assertThat(profiler.documents(), is(100L));
+            assertThat(profiler.peakDocumentTokens(), is(5L));
+            assertThat(profiler.peakBatchTokens(), is(125L));
+            assertThat(profiler.peakDocumentFeatures(), is(5L));
+            assertThat(profiler.report().contains("allocating"), is(true));
+        }
+    }
+
+    @Test
+    public void chunksOnTheMeasuredPoolAreAttributedToTheComponent() throws Exception {
+        AllocationProfiler profiler = new AllocationProfiler();
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        ChunkingProcessor chunking = new ChunkingProcessor();
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true))) {
+            pipeline.add(chunking, "chunking");
+            pipeline.setThreadPool(threadPool);
+            pipeline.setAllocationProfiler(profiler);
+            pipeline.extractFeaturesInBatches(instances(90), 30);
+
+            assertThat(chunking.parallelism, is(3));
+            ComponentAllocation allocation = allocation(profiler.componentAllocations(), Stage.DOC_PROCESSING, "chunking");
+            assertThat(allocation.getDocuments(), is(90L));
+            assertThat(allocation.getBytesPerDocument() >= BYTES_PER_DOCUMENT, is(true));
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void streamingExtractionIsProfiled() throws Exception {
+        AllocationProfiler profiler = new AllocationProfiler();
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true))) {
+            pipeline.setAllocationProfiler(profiler);
+            List<?> features = pipeline.extractUnindexedFeaturesInBatchesToStream(instances(30), 10).collect(Collectors.toList());
+            assertThat(features.size(), is(30));
+            assertThat(allocation(profiler.componentAllocations(), Stage.INFER, "unigrams").getInvocations(), is(3L));
+            assertThat(allocation(profiler.stageAllocations(), Stage.TOKENISE, PipelineMetrics.WHOLE_STAGE).getBytes() > 0, is(true));
+
+            profiler.reset();
+            assertThat(profiler.componentAllocations().isEmpty(), is(true));
+            assertThat(profiler.peakDocumentTokens(), is(0L));
+        }
+    }
+}
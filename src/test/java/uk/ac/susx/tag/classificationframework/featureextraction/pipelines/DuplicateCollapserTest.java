@@ -0,0 +1,102 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the grouping of duplicates by DuplicateCollapser, and collapsed batch extraction.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class DuplicateCollapserTest {
+
+    private static List<Instance> batch() {
+        List<Instance> batch = new ArrayList<>();
+        batch.add(new Instance("positive", "loving the new album by the band tonight", "1"));
+        batch.add(new Instance("negative", "worst customer service ever", "2"));
+        batch.add(new Instance("", "loving the new album by the band tonight", "3"));
+        batch.add(new Instance("", "RT @fan: loving the new album by the band tonight", "4"));
+        batch.add(new Instance("negative", "worst customer service ever", "5"));
+        return batch;
+    }
+
+    @Test
+    public void exactDuplicatesAreGrouped() {
+        DuplicateCollapser collapser = new DuplicateCollapser();
+        DuplicateCollapser.Grouping grouping = collapser.group(batch());
+
+        assertThat(grouping.numGroups(), is(3));
+        assertThat(grouping.groupOf(2), is(grouping.groupOf(0)));
+        assertThat(grouping.groupOf(4), is(grouping.groupOf(1)));
+        assertThat(grouping.groupOf(3), is(not(grouping.groupOf(0))));
+        assertThat(grouping.representative(grouping.groupOf(4)), is(1));
+        assertThat(collapser.exactDuplicates(), is(2L));
+        assertThat(collapser.duplicationFactor(), is(5.0 / 3));
+    }
+
+    @Test
+    public void nearDuplicatesAreGroupedBySimHash() {
+        DuplicateCollapser collapser = new DuplicateCollapser(12);
+        DuplicateCollapser.Grouping grouping = collapser.group(batch());
+
+        assertThat(grouping.numGroups(), is(2));
+        assertThat(grouping.groupOf(3), is(grouping.groupOf(0)));
+        assertThat(collapser.nearDuplicates(), is(1L));
+    }
+
+    @Test
+    public void everyBandIndexesSomeBitsAtLargeDistances() {
+        Random random = new Random(0);
+        for (int distance : new int[]{15, 16, 20, 40, 63}) {
+            DuplicateCollapser.SimHashIndex index = new DuplicateCollapser.SimHashIndex(distance);
+            assertThat(index.numBands(), is(distance + 1));
+            for (int band = 0; band < index.numBands(); band++) {
+                assertThat(index.band(-1L, band) != 0, is(true));
+                assertThat(index.band(1L << 63, band) != 0, is(band == index.numBands() - 1));
+            }
+
+            long simHash = random.nextLong();
+            index.add(simHash, 0);
+            long near = simHash;
+            for (int bit = 0; bit < distance; bit++) near ^= 1L << (bit * 64 / distance);
+            assertThat(index.find(near), is(0));
+            assertThat(index.find(~simHash), is((Integer)null));
+        }
+    }
+
+    @Test
+    public void eachDuplicateGetsTheFeaturesOfItsGroupWithItsOwnLabelAndSource() throws Exception {
+        List<Instance> batch = batch();
+        try (FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true))) {
+            List<ProcessedInstance> expected = pipeline.extractFeaturesFromBatch(batch);
+
+            DuplicateCollapser collapser = new DuplicateCollapser();
+            pipeline.setDuplicateCollapser(collapser);
+            List<ProcessedInstance> collapsed = pipeline.extractFeaturesFromBatch(batch);
+
+            assertThat(collapsed.size(), is(batch.size()));
+            for (int i = 0; i < batch.size(); i++) {
+                assertThat(collapsed.get(i).source, sameInstance(batch.get(i)));
+                assertThat(collapsed.get(i).getLabel(), is(expected.get(i).getLabel()));
+                assertThat(Arrays.equals(collapsed.get(i).features, expected.get(i).features), is(true));
+            }
+            assertThat(collapsed.get(2).features, is(not(sameInstance(collapsed.get(0).features))));
+            assertThat(collapser.groups(), is(3L));
+        }
+    }
+}
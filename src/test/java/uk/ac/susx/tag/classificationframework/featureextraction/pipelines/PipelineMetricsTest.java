@@ -0,0 +1,224 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.inference.FeatureInferrer;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineMetrics.Stage;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.RecordingPipelineMetrics.ComponentStatistics;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.openmbean.CompositeData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the recording of per-stage and per-component metrics of feature extraction.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class PipelineMetricsTest {
+
+    private static final List<Instance> instances = Arrays.asList(
+            new Instance("positive", "this is great http://t.co/abc", "1"),
+            new Instance("negative", "this is bad", "2"),
+            new Instance("negative", "so very bad", "3"));
+
+    private static FeatureExtractionPipeline pipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("filter_links", true)
+                .add("unigrams", true));
+    }
+
+    /**
+     * Returns feature lists which count the calls to their size(), so that the next inferrer can tell whether the
+     * pipeline counted the features between the two.
+     */
+    private static class SizeCountingInferrer extends FeatureInferrer {
+        private static final long serialVersionUID = 0L;
+        final AtomicInteger sizeCalls = new AtomicInteger();
+
+        public List<Feature> addInferredFeatures(Document document, List<Feature> featuresSoFar) {
+            List<Feature> features = new ArrayList<Feature>(featuresSoFar) {
+                public int size() {
+                    sizeCalls.incrementAndGet();
+                    return super.size();
+                }
+            };
+            features.add(new Feature("counted", "counted"));
+            return features;
+        }
+        public Set<String> getFeatureTypes() { return Collections.singleton("counted"); }
+        public boolean isThreadSafe() { return false; }
+    }
+
+    private static class SizeCallsSeen extends FeatureInferrer {
+        private static final long serialVersionUID = 0L;
+        final SizeCountingInferrer counting;
+        volatile int seen = -1;
+
+        SizeCallsSeen(SizeCountingInferrer counting) { this.counting = counting; }
+
+        public List<Feature> addInferredFeatures(Document document, List<Feature> featuresSoFar) {
+            seen = counting.sizeCalls.get();
+            return featuresSoFar;
+        }
+        public Set<String> getFeatureTypes() { return Collections.emptySet(); }
+        public boolean isThreadSafe() { return false; }
+    }
+
+    private static ComponentStatistics statistics(List<ComponentStatistics> statistics, Stage stage, String component) {
+        for (ComponentStatistics s : statistics)
+            if (s.getStage() == stage && s.getComponent().equals(component)) return s;
+        throw new AssertionError("No statistics for " + stage + " " + component);
+    }
+
+    @Test
+    public void batchExtractionIsRecordedPerComponent() throws Exception {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.setPipelineMetrics(metrics);
+            List<ProcessedInstance> processed = pipeline.extractFeaturesInBatches(instances, 2);
+            int features = 0;
+            for (ProcessedInstance p : processed) features += p.features.length;
+
+            List<ComponentStatistics> components = metrics.componentStatistics();
+            ComponentStatistics tokeniser = statistics(components, Stage.TOKENISE, pipeline.getTokeniser().getClass().getSimpleName());
+            assertThat(tokeniser.getInvocations(), is(2L));
+            assertThat(tokeniser.getDocuments(), is(3L));
+            assertThat(tokeniser.getTokens(), is(10L));
+
+            ComponentStatistics filter = statistics(components, Stage.FILTER, "filter_links");
+            assertThat(filter.getDocuments(), is(3L));
+
+            ComponentStatistics unigrams = statistics(components, Stage.INFER, "unigrams");
+            assertThat(unigrams.getInvocations(), is(2L));
+            assertThat(unigrams.getFeatures(), is((long)features));
+
+            ComponentStatistics indexing = statistics(components, Stage.INDEX, PipelineMetrics.WHOLE_STAGE);
+            assertThat(indexing.getInvocations(), is(3L));
+            assertThat(indexing.getFeatures(), is((long)features));
+
+            assertThat(metrics.documents(), is(3L));
+            assertThat(statistics(metrics.stageStatistics(), Stage.INFER, PipelineMetrics.WHOLE_STAGE).getDocuments(), is(3L));
+        }
+    }
+
+    @Test
+    public void singleDocumentExtractionRecordsInterleavedStagesAsAWhole() throws Exception {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.setPipelineMetrics(metrics);
+            for (Instance instance : instances) pipeline.extractFeatures(instance);
+            List<ComponentStatistics> components = metrics.componentStatistics();
+            assertThat(statistics(components, Stage.FILTER, PipelineMetrics.WHOLE_STAGE).getTokens(), is(10L));
+            assertThat(statistics(components, Stage.INFER, "unigrams").getInvocations(), is(3L));
+
+            metrics.reset();
+            assertThat(metrics.componentStatistics().isEmpty(), is(true));
+            pipeline.setPipelineMetrics(null);
+            pipeline.extractFeatures(instances.get(0));
+            assertThat(metrics.componentStatistics().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void featuresAreOnlyCountedWhenRecording() throws Exception {
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            SizeCountingInferrer counting = new SizeCountingInferrer();
+            SizeCallsSeen seen = new SizeCallsSeen(counting);
+            pipeline.add(counting, "counting");
+            pipeline.add(seen, "seen");
+            pipeline.extractFeaturesFromBatch(instances);
+            assertThat(seen.seen, is(0));
+
+            RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+            pipeline.setPipelineMetrics(metrics);
+            pipeline.extractFeaturesFromBatch(instances);
+            assertThat(seen.seen > 0, is(true));
+            assertThat(statistics(metrics.componentStatistics(), Stage.INFER, "counting").getFeatures(), is(3L));
+        }
+    }
+
+    @Test
+    public void failuresAreCountedAndRethrown() throws Exception {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.add(new DocProcessor() {
+                public Document process(Document document) { throw new IllegalStateException("broken"); }
+                public String configuration() { return "broken"; }
+                public boolean isThreadSafe() { return true; }
+            }, "broken");
+            pipeline.setPipelineMetrics(metrics);
+            try {
+                pipeline.extractFeaturesFromBatch(instances);
+                throw new AssertionError("Expected failure");
+            } catch (RuntimeException e) {
+                assertThat(statistics(metrics.componentStatistics(), Stage.DOC_PROCESSING, "broken").getFailures(), is(1L));
+            }
+        }
+    }
+
+    @Test
+    public void componentsAreRecordedUnderTheirCurrentNames() throws Exception {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.setPipelineMetrics(metrics);
+            PipelineComponent unigrams = pipeline.getPipelineComponent("unigrams");
+            pipeline.removeComponent("unigrams");
+            pipeline.add((FeatureInferrer)unigrams, "words");
+            pipeline.extractFeaturesFromBatch(instances);
+            List<ComponentStatistics> components = metrics.componentStatistics();
+            assertThat(statistics(components, Stage.INFER, "words").getInvocations(), is(1L));
+            assertThat(components.stream().anyMatch(s -> s.getComponent().equals("unigrams")), is(false));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTheHistogramsResolution() {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        for (int latency = 1; latency <= 1000; latency++)
+            metrics.recordInvocation(Stage.INFER, "inferrer", latency * 1000L, 1, 0, 1);
+        ComponentStatistics s = statistics(metrics.componentStatistics(), Stage.INFER, "inferrer");
+        assertThat(Math.abs(s.getP50Nanos() - 500000) <= 500000 / 16, is(true));
+        assertThat(Math.abs(s.getP99Nanos() - 990000) <= 990000 / 16, is(true));
+        assertThat(s.getMaxNanos(), is(1000000L));
+        assertThat(s.getMeanNanos(), is(500500L));
+
+        for (long value : new long[]{0, 7, 8, 9, 1000, 123456789, Long.MAX_VALUE}) {
+            long midpoint = RecordingPipelineMetrics.LatencyHistogram.midpoint(RecordingPipelineMetrics.LatencyHistogram.bucket(value));
+            assertThat(Math.abs(midpoint - value) <= value / 16, is(true));
+        }
+    }
+
+    @Test
+    public void statisticsAreExposedOverJmx() throws Exception {
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        metrics.recordInvocation(Stage.TOKENISE, "tokeniser", 1000, 5, 50, 0);
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        try (JmxPipelineMetrics jmx = new JmxPipelineMetrics(metrics, "test", server)) {
+            CompositeData[] components = (CompositeData[])server.getAttribute(jmx.getObjectName(), "ComponentStatistics");
+            assertThat(components.length, is(1));
+            assertThat(components[0].get("component"), is((Object)"tokeniser"));
+            assertThat(components[0].get("tokens"), is((Object)50L));
+            assertThat(server.getAttribute(jmx.getObjectName(), "Documents"), is((Object)5L));
+
+            server.invoke(jmx.getObjectName(), "reset", new Object[0], new String[0]);
+            assertThat(metrics.documents(), is(0L));
+        }
+        assertThat(server.queryNames(null, null).size(), is(1)); // Just the MBeanServerDelegate
+    }
+}
@@ -0,0 +1,45 @@
+package uk.ac.susx.tag.classificationframework.featureextraction.pipelines;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the reference counting and lazy loading of SharedModels.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class SharedModelsTest {
+
+    @Test
+    public void modelsAreLoadedOnceOnFirstUseAndDroppedWhenReleased() {
+        AtomicInteger loads = new AtomicInteger();
+        SharedModels.Loader<Object> loader = () -> { loads.incrementAndGet(); return new Object(); };
+        String key = "test-model:" + System.nanoTime();
+
+        SharedModels.Handle<Object> first = SharedModels.acquire(key, loader);
+        SharedModels.Handle<Object> second = SharedModels.acquire(key, loader);
+        assertThat(loads.get(), is(0));
+        assertThat(SharedModels.isLoaded(key), is(false));
+
+        assertThat(first.get(), sameInstance(second.get()));
+        assertThat(loads.get(), is(1));
+        assertThat(SharedModels.references(key), is(2));
+
+        first.close();
+        first.close(); // Closing twice only releases once
+        assertThat(SharedModels.references(key), is(1));
+        second.close();
+        assertThat(SharedModels.references(key), is(0));
+
+        try (SharedModels.Handle<Object> third = SharedModels.acquire(key, loader)) {
+            third.get();
+            assertThat(loads.get(), is(2));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package uk.ac.susx.tag.classificationframework.jsonhandling;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for parsing JSON instances in the background while extracting features from them in batches.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class JsonIteratorProcessedInstanceBatchedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeatureExtractionPipeline pipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    private static String json(int numInstances) {
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < numInstances; i++)
+            instances.add(new Instance("label", "document number " + i, Integer.toString(i)));
+        return Util.getGson().toJson(instances);
+    }
+
+    /**
+     * Records whether it's been closed.
+     */
+    private static class ClosingReader extends StringReader {
+        volatile boolean closed = false;
+        ClosingReader(String s) { super(s); }
+        @Override
+        public void close() { closed = true; super.close(); }
+    }
+
+    private static boolean parserRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("json-instance-parser") && thread.isAlive()) return true;
+        return false;
+    }
+
+    @Test
+    public void instancesAreReturnedInFileOrder() throws Exception {
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            ClosingReader reader = new ClosingReader(json(1003));
+            JsonIteratorProcessedInstanceBatched it = new JsonIteratorProcessedInstanceBatched(new JsonReader(reader), pipeline, Util.getGson(), 10, 2);
+            int expected = 0;
+            while (it.hasNext()) {
+                ProcessedInstance instance = it.next();
+                assertThat(instance.source.id, is(Integer.toString(expected++)));
+                assertThat(instance.features.length > 0, is(true));
+            }
+            assertThat(expected, is(1003));
+            assertThat(reader.closed, is(true));
+        }
+    }
+
+    @Test
+    public void closeStopsTheParser() throws Exception {
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            ClosingReader reader = new ClosingReader(json(10000));
+            JsonIteratorProcessedInstanceBatched it = new JsonIteratorProcessedInstanceBatched(new JsonReader(reader), pipeline, Util.getGson(), 1, 1);
+            assertThat(it.next().source.id, is("0"));
+            assertThat(parserRunning(), is(true)); // Blocked on the full read-ahead buffer
+
+            it.close();
+            assertThat(parserRunning(), is(false));
+            assertThat(reader.closed, is(true));
+            assertThat(it.hasNext(), is(false));
+        }
+    }
+
+    @Test
+    public void parseErrorsAreRethrownAfterTheInstancesBeforeThem() throws Exception {
+        String json = json(4);
+        String truncated = json.substring(0, json.length() - 1) + ", {\"label\": \"label\", \"text\": ";
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            ClosingReader reader = new ClosingReader(truncated);
+            JsonIteratorProcessedInstanceBatched it = new JsonIteratorProcessedInstanceBatched(new JsonReader(reader), pipeline, Util.getGson(), 2, 1);
+            for (int i = 0; i < 4; i++)
+                assertThat(it.next().source.id, is(Integer.toString(i)));
+            try {
+                it.hasNext();
+                throw new AssertionError("Expected the parse error");
+            } catch (RuntimeException e) {
+                assertThat(e.getCause() instanceof IOException || e.getCause() instanceof JsonParseException, is(true));
+            }
+            assertThat(reader.closed, is(true));
+            assertThat(parserRunning(), is(false));
+        }
+    }
+
+    @Test
+    public void closingTheStreamReaderStopsAbandonedIterators() throws Exception {
+        File file = folder.newFile("instances.json");
+        Files.write(file.toPath(), json(10000).getBytes(StandardCharsets.UTF_8));
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            JsonIteratorProcessedInstanceBatched it;
+            try (JsonListStreamReader sr = new JsonListStreamReader(file, Util.getGson())) {
+                Iterator<ProcessedInstance> iterator = sr.iterableOverProcessedInstances(pipeline, 1, 1).iterator();
+                it = (JsonIteratorProcessedInstanceBatched)iterator;
+                int seen = 0;
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    if (++seen == 5) break; // Abandon iteration part-way
+                }
+                assertThat(it.isParsing(), is(true)); // Blocked on the full read-ahead buffer
+            }
+            assertThat(it.isParsing(), is(false));
+            assertThat(parserRunning(), is(false));
+        }
+    }
+}
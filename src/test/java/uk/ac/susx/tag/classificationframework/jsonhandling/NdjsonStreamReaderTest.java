@@ -0,0 +1,252 @@
+package uk.ac.susx.tag.classificationframework.jsonhandling;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.ac.susx.tag.classificationframework.Util;
+import uk.ac.susx.tag.classificationframework.datastructures.Document;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ProcessedInstance;
+import uk.ac.susx.tag.classificationframework.featureextraction.documentprocessing.DocProcessor;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineMetrics;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.RecordingPipelineMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for reading newline-delimited JSON instances, in order and in parallel.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class NdjsonStreamReaderTest {
+
+    // Enough instances for the file to be split into several ranges
+    private static final int NUM_INSTANCES = 30000;
+
+    private static File file;
+
+    @BeforeClass
+    public static void writeFile() throws IOException {
+        file = File.createTempFile("instances", ".ndjson");
+        try (NdjsonInstanceStreamWriter writer = new NdjsonInstanceStreamWriter(file)) {
+            for (int i = 0; i < NUM_INSTANCES; i++)
+                writer.write(new Instance(i % 2 == 0? "even" : "odd", "this is the text of document number " + i + " which is long enough to make a big file", Integer.toString(i)));
+        }
+    }
+
+    @AfterClass
+    public static void deleteFile() {
+        file.delete();
+    }
+
+    private static FeatureExtractionPipeline pipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    /**
+     * A DocProcessor which fails if it's ever used by two threads at once.
+     */
+    private static class UnsafeDocProcessor extends DocProcessor {
+        private final AtomicInteger active = new AtomicInteger();
+        public Document process(Document document) {
+            if (active.incrementAndGet() > 1) throw new IllegalStateException("Used concurrently");
+            Thread.yield();
+            active.decrementAndGet();
+            return document;
+        }
+        public String configuration() { return "unsafe"; }
+        public boolean isThreadSafe() { return false; }
+    }
+
+    /**
+     * A thread-safe DocProcessor which waits (for a while) for a second batch to be processed alongside each batch.
+     */
+    private static class OverlappingDocProcessor extends DocProcessor {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final CountDownLatch overlapping = new CountDownLatch(2);
+        public List<Document> processBatch(List<Document> documents, ExecutorService threadPool) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            overlapping.countDown();
+            try {
+                overlapping.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            active.decrementAndGet();
+            return documents;
+        }
+        public Document process(Document document) { return document; }
+        public String configuration() { return "overlapping"; }
+        public boolean isThreadSafe() { return true; }
+    }
+
+    @Test
+    public void featuresAreDeliveredInFileOrder() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        assertThat(reader.split(0, 2).size() > 1, is(true));
+        List<Long> resumeOffsets = new ArrayList<>();
+        AtomicInteger expected = new AtomicInteger();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.add(new UnsafeDocProcessor(), "unsafe");
+            long end = reader.extractFeaturesInParallel(pipeline, 0, 4, 1000, (processed, resumeOffset) -> {
+                for (ProcessedInstance instance : processed) {
+                    int id = expected.getAndIncrement();
+                    assertThat(instance.source.id, is(Integer.toString(id)));
+                    assertThat(pipeline.labelString(instance.getLabel()), is(id % 2 == 0 ? "even" : "odd"));
+                }
+                resumeOffsets.add(resumeOffset);
+            });
+            assertThat(expected.get(), is(NUM_INSTANCES));
+            assertThat(end, is(file.length()));
+            assertThat(resumeOffsets.get(resumeOffsets.size() - 1), is(file.length()));
+        }
+
+        // Resuming from an offset passed to the consumer reads the instances after it
+        long resumeOffset = resumeOffsets.get(0);
+        int first = -1;
+        int count = 0;
+        for (Instance instance : reader.iterableOverInstances(resumeOffset)) {
+            if (first < 0) first = Integer.parseInt(instance.id);
+            count++;
+        }
+        assertThat(first + count, is(NUM_INSTANCES));
+        assertThat(first > 0, is(true));
+
+        AtomicInteger resumed = new AtomicInteger();
+        reader.processInParallel(resumeOffset, 2, (range, instances) -> {
+            int n = 0;
+            for (; instances.hasNext(); instances.next()) n++;
+            return n;
+        }, (n, offset) -> resumed.addAndGet(n));
+        assertThat(resumed.get(), is(count));
+    }
+
+    @Test
+    public void featuresAreExtractedInBatchesWithinEachRange() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        int numRanges = reader.split(0, 2).size();
+        RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+        AtomicInteger delivered = new AtomicInteger();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.setPipelineMetrics(metrics);
+            reader.extractFeaturesInParallel(pipeline, 0, 2, 1000, (processed, resumeOffset) -> {
+                assertThat(processed.size() > 1000, is(true));
+                delivered.addAndGet(processed.size());
+            });
+        }
+        assertThat(delivered.get(), is(NUM_INSTANCES));
+        // Each range's last batch may be partial
+        long batches = metrics.stageStatistics().stream().filter(s -> s.getStage() == PipelineMetrics.Stage.TOKENISE).findFirst().get().getInvocations();
+        assertThat(batches >= NUM_INSTANCES / 1000 && batches <= NUM_INSTANCES / 1000 + numRanges, is(true));
+    }
+
+    @Test(timeout = 60000)
+    public void rangesAreExtractedConcurrently() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        assertThat(reader.split(0, 2).size() > 1, is(true));
+        OverlappingDocProcessor processor = new OverlappingDocProcessor();
+        AtomicInteger delivered = new AtomicInteger();
+        try (FeatureExtractionPipeline pipeline = pipeline()) {
+            pipeline.add(processor, "overlapping");
+            reader.extractFeaturesInParallel(pipeline, 0, 2, 1000, (processed, resumeOffset) -> delivered.addAndGet(processed.size()));
+        }
+        assertThat(processor.maxActive.get(), is(2));
+        assertThat(delivered.get(), is(NUM_INSTANCES));
+    }
+
+    @Test(timeout = 60000)
+    public void slowConsumerDoesNotHoldUpWorkers() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        List<NdjsonStreamReader.Range> ranges = reader.split(0, 2);
+        assertThat(ranges.size() > 2, is(true));
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch thirdRangeStarted = new CountDownLatch(1);
+        AtomicInteger delivered = new AtomicInteger();
+        List<Boolean> startedWhileConsuming = new ArrayList<>();
+        reader.processInParallel(0, 2, (range, instances) -> {
+            // The second range completes while the first is with the consumer
+            if (range.start == ranges.get(1).start) consuming.await(10, TimeUnit.SECONDS);
+            if (range.start == ranges.get(2).start) thirdRangeStarted.countDown();
+            return range;
+        }, (range, resumeOffset) -> {
+            if (delivered.getAndIncrement() == 0) {
+                consuming.countDown();
+                // Only possible if the worker which completed the second range is free to start the third
+                startedWhileConsuming.add(thirdRangeStarted.await(10, TimeUnit.SECONDS));
+            }
+        });
+        assertThat(startedWhileConsuming.get(0), is(true));
+        assertThat(delivered.get(), is(ranges.size()));
+    }
+
+    @Test(timeout = 60000)
+    public void pendingRangesAreLimitedByTheirBytes() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        assertThat(reader.split(0, 4).size() > 1, is(true));
+        AtomicInteger pending = new AtomicInteger();
+        AtomicInteger maxPending = new AtomicInteger();
+        AtomicInteger delivered = new AtomicInteger();
+        // Smaller than any range, so only one is processed or awaiting the consumer at a time
+        reader.processInParallel(0, 4, 1, (range, instances) -> {
+            maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+            int n = 0;
+            for (; instances.hasNext(); instances.next()) n++;
+            return n;
+        }, (n, resumeOffset) -> {
+            pending.decrementAndGet();
+            delivered.addAndGet(n);
+        });
+        assertThat(maxPending.get(), is(1));
+        assertThat(delivered.get(), is(NUM_INSTANCES));
+    }
+
+    @Test(timeout = 60000)
+    public void consumerFailureStopsProcessingWithTheResumeOffset() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        List<NdjsonStreamReader.Range> ranges = reader.split(0, 1);
+        assertThat(ranges.size() > 2, is(true));
+        AtomicInteger delivered = new AtomicInteger();
+        try {
+            reader.processInParallel(0, 1, (range, instances) -> range, (range, resumeOffset) -> {
+                if (delivered.incrementAndGet() == 2) throw new IllegalStateException("Consumer failed");
+            });
+            throw new AssertionError("Expected the consumer's failure");
+        } catch (IOException e) {
+            assertThat(e.getCause().getMessage(), is("Consumer failed"));
+            assertThat(e.getMessage().endsWith("resume from offset " + ranges.get(0).end), is(true));
+            assertThat(e.getMessage().startsWith("Failed processing range " + ranges.get(1)), is(true));
+        }
+        assertThat(delivered.get(), is(2));
+    }
+
+    @Test(timeout = 60000)
+    public void functionFailureStopsProcessingWithTheResumeOffset() throws Exception {
+        NdjsonStreamReader reader = new NdjsonStreamReader(file, Util.getGson());
+        List<NdjsonStreamReader.Range> ranges = reader.split(0, 2);
+        try {
+            reader.processInParallel(0, 2, (range, instances) -> {
+                if (range.start > 0) throw new IllegalStateException("Function failed");
+                return range;
+            }, (range, resumeOffset) -> { });
+            throw new AssertionError("Expected the function's failure");
+        } catch (IOException e) {
+            assertThat(e.getCause().getMessage(), is("Function failed"));
+            assertThat(e.getMessage().endsWith("resume from offset " + ranges.get(0).end) || e.getMessage().endsWith("resume from offset 0"), is(true));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelRegistry;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelState;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for classifying documents over HTTP with a ClassificationServer.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class ClassificationServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Gson gson = new Gson();
+
+    private static FeatureExtractionPipeline pipeline() {
+        return new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+    }
+
+    private File saveModel() throws Exception {
+        FeatureExtractionPipeline pipeline = pipeline();
+        List<Instance> training = new ArrayList<>();
+        training.add(new Instance("positive", "this is great", "1"));
+        training.add(new Instance("negative", "this is bad", "2"));
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(pipeline.extractFeaturesInBatches(training, 10));
+        File directory = folder.newFolder("model");
+        new ModelState(classifier, training, pipeline).save(directory);
+        return directory;
+    }
+
+    private static Response post(WebTarget target, String json) {
+        return target.request(MediaType.APPLICATION_JSON_TYPE).post(Entity.entity(json, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private static Map<String, Object> classification(Response response) {
+        assertThat(response.getStatus(), is(200));
+        return gson.fromJson(response.readEntity(String.class), new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
+    @Test(timeout = 30000)
+    public void documentsAreClassifiedOverHttp() throws Exception {
+        ClassificationService.Options options = new ClassificationService.Options();
+        options.maxDelayMillis = 50;
+        Client client = ClientBuilder.newClient();
+        try (ModelRegistry registry = new ModelRegistry(1L << 30);
+             ClassificationServer server = new ClassificationServer(URI.create("http://localhost:0/"), registry, options)) {
+            registry.register("sentiment", saveModel());
+            WebTarget models = client.target("http://localhost:" + server.getPort() + "/models");
+
+            Map<String, Object> great = classification(post(models.path("sentiment/classify"), "{\"id\": \"a\", \"text\": \"great\"}"));
+            assertThat(great.get("id"), is((Object)"a"));
+            assertThat(great.get("label"), is((Object)"positive"));
+
+            Response batch = post(models.path("sentiment/classify-batch"), "[{\"id\": \"b\", \"text\": \"so bad\"}, {\"id\": \"c\", \"text\": \"so great\"}]");
+            assertThat(batch.getStatus(), is(200));
+            List<Map<String, Object>> classifications = gson.fromJson(batch.readEntity(String.class), new TypeToken<List<Map<String, Object>>>(){}.getType());
+            assertThat(classifications.get(0).get("label"), is((Object)"negative"));
+            assertThat(classifications.get(1).get("id"), is((Object)"c"));
+
+            // Concurrent requests, each waiting on its micro-batch, are answered together
+            List<Future<Response>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                responses.add(models.path("sentiment/classify").request(MediaType.APPLICATION_JSON_TYPE).async()
+                        .post(Entity.entity("{\"id\": \"" + i + "\", \"text\": \"great\"}", MediaType.APPLICATION_JSON_TYPE)));
+            }
+            for (int i = 0; i < 8; i++) {
+                assertThat(classification(responses.get(i).get(10, TimeUnit.SECONDS)).get("id"), is((Object)Integer.toString(i)));
+            }
+            Map<String, Object> stats = gson.fromJson(models.path("sentiment/stats").request().get(String.class), new TypeToken<Map<String, Object>>(){}.getType());
+            assertThat(((Number)stats.get("documents")).intValue(), is(11));
+            assertThat(((Number)stats.get("batches")).intValue() < 10, is(true));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void unknownModelsAndMalformedDocumentsAreRejected() throws Exception {
+        Client client = ClientBuilder.newClient();
+        try (ModelRegistry registry = new ModelRegistry(1L << 30);
+             ClassificationServer server = new ClassificationServer(URI.create("http://localhost:0/"), registry)) {
+            registry.register("sentiment", saveModel());
+            WebTarget models = client.target("http://localhost:" + server.getPort() + "/models");
+
+            assertThat(post(models.path("unknown/classify"), "{\"id\": \"a\", \"text\": \"great\"}").getStatus(), is(404));
+            assertThat(models.path("unknown/stats").request().get().getStatus(), is(404));
+            assertThat(post(models.path("sentiment/classify"), "{\"id\": ").getStatus(), is(400));
+            assertThat(post(models.path("sentiment/classify-batch"), "").getStatus(), is(400));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void batchersAreRemovedWhenModelsAreUnregistered() throws Exception {
+        try (ModelRegistry registry = new ModelRegistry(1L << 30);
+             ClassificationService service = new ClassificationService(registry)) {
+            File directory = saveModel();
+            registry.register("sentiment", directory);
+            assertThat(service.classify("sentiment", new Instance("", "great", "a")).get(10, TimeUnit.SECONDS).label, is("positive"));
+            assertThat(((Number)service.stats("sentiment").get("batches")).intValue(), is(1));
+
+            registry.unregister("sentiment");
+            assertThat(((Number)service.stats("sentiment").get("batches")).intValue(), is(0));
+
+            // Registering the model again starts a new batcher
+            registry.register("sentiment", directory);
+            assertThat(service.classify("sentiment", new Instance("", "so bad", "b")).get(10, TimeUnit.SECONDS).label, is("negative"));
+            assertThat(((Number)service.stats("sentiment").get("batches")).intValue(), is(1));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package uk.ac.susx.tag.classificationframework.serving;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.susx.tag.classificationframework.classifiers.NaiveBayesClassifier;
+import uk.ac.susx.tag.classificationframework.datastructures.Instance;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelRegistry;
+import uk.ac.susx.tag.classificationframework.datastructures.ModelState;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.FeatureExtractionPipeline;
+import uk.ac.susx.tag.classificationframework.featureextraction.pipelines.PipelineBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the coalescing of items into batches by MicroBatcher, and micro-batched classification.
+ *
+ * User: Andrew D. Robertson
+ * Date: 18/10/2026
+ */
+public class MicroBatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void fullBatchesAreDispatchedWithoutWaiting() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>(batch -> {
+            batchSizes.add(batch.size());
+            List<Integer> doubled = new ArrayList<>();
+            for (int item : batch) doubled.add(item * 2);
+            return doubled;
+        }, 3, 60000, scheduler, worker);
+
+        List<CompletableFuture<Integer>> results = batcher.submitAll(Arrays.asList(1, 2, 3, 4, 5, 6));
+        assertThat(results.get(5).get(5, TimeUnit.SECONDS), is(12));
+        assertThat(results.get(0).get(), is(2));
+        assertThat(batchSizes, is(Arrays.asList(3, 3)));
+        assertThat(batcher.meanBatchSize(), is(3.0));
+    }
+
+    @Test
+    public void partialBatchIsDispatchedWhenItsLatencyBudgetIsUsed() throws Exception {
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>(batch -> batch, 100, 20, scheduler, worker);
+        long start = System.nanoTime();
+        CompletableFuture<Integer> a = batcher.submit(1);
+        CompletableFuture<Integer> b = batcher.submit(2);
+        assertThat(b.get(5, TimeUnit.SECONDS), is(2));
+        assertThat(a.get(), is(1));
+        assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20), is(true));
+        assertThat(batcher.batches(), is(1L));
+    }
+
+    @Test
+    public void itemsArrivingDuringProcessingFormTheNextBatch() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>(batch -> {
+            release.await();
+            batchSizes.add(batch.size());
+            return batch;
+        }, 10, 0, scheduler, worker);
+
+        batcher.submit(0);
+        CompletableFuture<Integer> last = null;
+        for (int i = 1; i <= 4; i++) last = batcher.submit(i);
+        release.countDown();
+        assertThat(last.get(5, TimeUnit.SECONDS), is(4));
+        assertThat(batchSizes, is(Arrays.asList(1, 4)));
+    }
+
+    @Test
+    public void failureFailsTheWholeBatch() throws Exception {
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>(batch -> {
+            throw new IllegalStateException("broken");
+        }, 2, 0, scheduler, worker);
+        List<CompletableFuture<Integer>> results = batcher.submitAll(Arrays.asList(1, 2));
+        for (CompletableFuture<Integer> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("Expected failure");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage(), is("broken"));
+            }
+        }
+        assertThat(batcher.failedBatches(), is(1L));
+    }
+
+    @Test
+    public void singleDocumentRequestsAreClassifiedInBatches() throws Exception {
+        FeatureExtractionPipeline pipeline = new PipelineBuilder().build(new PipelineBuilder.OptionList()
+                .add("tokeniser", ImmutableMap.of("type", "basic"))
+                .add("unigrams", true));
+        List<Instance> training = new ArrayList<>();
+        training.add(new Instance("positive", "this is great", "1"));
+        training.add(new Instance("negative", "this is bad", "2"));
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(pipeline.extractFeaturesInBatches(training, 10));
+        File directory = folder.newFolder("model");
+        new ModelState(classifier, training, pipeline).save(directory);
+
+        ClassificationService.Options options = new ClassificationService.Options();
+        options.maxDelayMillis = 50;
+        try (ModelRegistry registry = new ModelRegistry(1L << 30);
+             ClassificationService service = new ClassificationService(registry, options)) {
+            registry.register("sentiment", directory);
+            CompletableFuture<ClassificationService.Classification> great = service.classify("sentiment", new Instance(null, "great", "a"));
+            CompletableFuture<ClassificationService.Classification> bad = service.classify("sentiment", new Instance(null, "bad", "b"));
+            List<ClassificationService.Classification> batch = service.classifyBatch("sentiment", Arrays.asList(
+                    new Instance(null, "so bad", "c"), new Instance(null, "so great", "d"))).get(5, TimeUnit.SECONDS);
+
+            assertThat(great.get().label, is("positive"));
+            assertThat(great.get().id, is("a"));
+            assertThat(bad.get().label, is("negative"));
+            assertThat(batch.get(0).label, is("negative"));
+            assertThat(batch.get(1).id, is("d"));
+            assertThat(service.stats("sentiment").get("batches"), is((Object)1L));
+        }
+    }
+}